@@ -0,0 +1,90 @@
+package com.android.darkelixir;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Calendar;
+
+/**
+ * {@link DeviceConditions} backed by the default network's capabilities, the charger state
+ * and the local clock. Wake-ups are posted to the main looper, so they only fire while the
+ * process is alive; a restarted process re-evaluates everything in {@link DownloadScheduler#restore}.
+ */
+final class AndroidDeviceConditions implements DeviceConditions {
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable wake = this::notifyListener;
+    private volatile Runnable listener;
+    private volatile boolean unmetered;
+    private volatile boolean charging;
+
+    AndroidDeviceConditions(Context context) {
+        Context app = context.getApplicationContext();
+        ConnectivityManager cm = (ConnectivityManager) app.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm != null) {
+            NetworkCapabilities capabilities = cm.getNetworkCapabilities(cm.getActiveNetwork());
+            unmetered = capabilities != null
+                    && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+            cm.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onCapabilitiesChanged(Network network, NetworkCapabilities caps) {
+                    boolean now = caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+                    if (now != unmetered) {
+                        unmetered = now;
+                        notifyListener();
+                    }
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    if (unmetered) {
+                        unmetered = false;
+                        notifyListener();
+                    }
+                }
+            });
+        }
+        BatteryManager battery = (BatteryManager) app.getSystemService(Context.BATTERY_SERVICE);
+        charging = battery != null && battery.isCharging();
+        IntentFilter filter = new IntentFilter(Intent.ACTION_POWER_CONNECTED);
+        filter.addAction(Intent.ACTION_POWER_DISCONNECTED);
+        app.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context c, Intent intent) {
+                charging = Intent.ACTION_POWER_CONNECTED.equals(intent.getAction());
+                notifyListener();
+            }
+        }, filter);
+    }
+
+    @Override
+    public DeviceState current() {
+        Calendar now = Calendar.getInstance();
+        return new DeviceState(unmetered, charging,
+                now.get(Calendar.HOUR_OF_DAY) * 60 + now.get(Calendar.MINUTE));
+    }
+
+    @Override
+    public void setListener(Runnable listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void wakeAfter(long delayMs) {
+        handler.removeCallbacks(wake);
+        handler.postDelayed(wake, delayMs);
+    }
+
+    private void notifyListener() {
+        Runnable l = listener;
+        if (l != null) l.run();
+    }
+}
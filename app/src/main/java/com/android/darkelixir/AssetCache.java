@@ -0,0 +1,488 @@
+package com.android.darkelixir;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Size-bounded LRU disk cache for the shell page's static assets, served stale-while-revalidate:
+ * a cached copy is returned immediately, and if it is older than its {@code max-age} a
+ * conditional request refreshes it in the background for the next launch. Responses marked
+ * {@code no-store}, non-200 responses and bodies larger than {@code maxEntryBytes} are passed
+ * through uncached.
+ *
+ * <p>Safe for concurrent callers; the WebView asks for subresources from several threads.
+ */
+public final class AssetCache {
+
+    /** A body to hand to the WebView, from the cache or straight from the network. */
+    public static final class Response {
+        public final String mimeType;
+        public final String encoding;
+        public final int statusCode;
+        public final String reasonPhrase;
+        public final InputStream body;
+        public final boolean fromCache;
+
+        Response(String mimeType, String encoding, int statusCode, String reasonPhrase, InputStream body,
+                 boolean fromCache) {
+            this.mimeType = mimeType;
+            this.encoding = encoding;
+            this.statusCode = statusCode;
+            this.reasonPhrase = reasonPhrase;
+            this.body = body;
+            this.fromCache = fromCache;
+        }
+
+        Response(String mimeType, String encoding, InputStream body, boolean fromCache) {
+            this(mimeType, encoding, HttpURLConnection.HTTP_OK, "OK", body, fromCache);
+        }
+    }
+
+    static final class Entry {
+        final String url;
+        final String key;
+        final long size;
+        final String contentType;
+        final String etag;
+        final String lastModified;
+        final long storedAt;
+        final long maxAgeMs;
+
+        Entry(String url, String key, long size, String contentType, String etag, String lastModified,
+              long storedAt, long maxAgeMs) {
+            this.url = url;
+            this.key = key;
+            this.size = size;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.storedAt = storedAt;
+            this.maxAgeMs = maxAgeMs;
+        }
+
+        Entry refreshedAt(long now, long newMaxAgeMs) {
+            return new Entry(url, key, size, contentType, etag, lastModified, now, newMaxAgeMs);
+        }
+    }
+
+    private static final int VERSION = 1;
+    private static final long MAX_BYTES = 32L * 1024 * 1024;
+    private static final long MAX_ENTRY_BYTES = 4L * 1024 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 10_000;
+    private static final int READ_TIMEOUT_MS = 20_000;
+
+    private final File dir;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final Executor revalidateExecutor;
+    private final LongSupplier clock;
+
+    // Access-ordered; guarded by this.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+    private boolean loaded;
+
+    private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+    final AtomicInteger hits = new AtomicInteger();
+    final AtomicInteger misses = new AtomicInteger();
+    final AtomicInteger revalidations = new AtomicInteger();
+
+    private static volatile AssetCache instance;
+
+    public static AssetCache get(Context context) {
+        if (instance == null) {
+            synchronized (AssetCache.class) {
+                if (instance == null) {
+                    instance = new AssetCache(
+                            new File(context.getApplicationContext().getCacheDir(), "assets"),
+                            MAX_BYTES, MAX_ENTRY_BYTES,
+                            Executors.newSingleThreadExecutor(r -> {
+                                Thread t = new Thread(r, "asset-revalidate");
+                                t.setDaemon(true);
+                                t.setPriority(Thread.MIN_PRIORITY);
+                                return t;
+                            }),
+                            System::currentTimeMillis);
+                }
+            }
+        }
+        return instance;
+    }
+
+    AssetCache(File dir, long maxBytes, long maxEntryBytes, Executor revalidateExecutor, LongSupplier clock) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        this.revalidateExecutor = revalidateExecutor;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the asset, from the cache when possible. Blocks on the network only for a miss, so
+     * call it from a background thread.
+     */
+    public Response fetch(String url, String userAgent) throws IOException {
+        Entry entry;
+        InputStream cached = null;
+        synchronized (this) {
+            ensureLoaded();
+            entry = entries.get(url);
+            if (entry != null) {
+                try {
+                    // Opened under the lock so eviction cannot delete the file first.
+                    cached = new FileInputStream(fileFor(entry.key));
+                } catch (FileNotFoundException e) {
+                    remove(entry);
+                    entry = null;
+                }
+            }
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+            if (clock.getAsLong() - entry.storedAt >= entry.maxAgeMs) {
+                scheduleRevalidation(entry, userAgent);
+            }
+            return new Response(mimeOf(entry.contentType), charsetOf(entry.contentType), cached, true);
+        }
+        misses.incrementAndGet();
+        return download(url, userAgent);
+    }
+
+    private Response download(String url, String userAgent) throws IOException {
+        HttpURLConnection connection = open(url, userAgent);
+        boolean handedOff = false;
+        try {
+            int code = connection.getResponseCode();
+            String contentType = connection.getContentType();
+            String cacheControl = connection.getHeaderField("Cache-Control");
+            long length = connection.getContentLengthLong();
+            if (code != HttpURLConnection.HTTP_OK || isNoStore(cacheControl)
+                    || length > maxEntryBytes) {
+                InputStream body = code < 400 ? connection.getInputStream() : connection.getErrorStream();
+                handedOff = true;
+                String reason = connection.getResponseMessage();
+                return new Response(mimeOf(contentType), charsetOf(contentType), code,
+                        reason != null && !reason.isEmpty() ? reason : "HTTP " + code,
+                        new DisconnectingStream(body, connection), false);
+            }
+            String key = keyFor(url);
+            if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Could not create " + dir);
+            File tmp = copyToTemp(key, connection);
+            long size = tmp.length();
+            boolean tooLarge = size > maxEntryBytes;
+            Entry entry = new Entry(url, key, size, contentType, connection.getHeaderField("ETag"),
+                    connection.getHeaderField("Last-Modified"), clock.getAsLong(), maxAgeOf(cacheControl));
+            if (tooLarge) {
+                // Served once from the temporary file, which is deleted once the WebView is done.
+                return new Response(mimeOf(contentType), charsetOf(contentType), new DeletingStream(tmp), false);
+            }
+            InputStream body;
+            synchronized (this) {
+                store(entry, tmp);
+                body = new FileInputStream(fileFor(key));
+            }
+            return new Response(mimeOf(contentType), charsetOf(contentType), body, false);
+        } finally {
+            if (!handedOff) connection.disconnect();
+        }
+    }
+
+    private void scheduleRevalidation(Entry entry, String userAgent) {
+        if (!revalidating.add(entry.url)) return;
+        revalidateExecutor.execute(() -> {
+            try {
+                revalidate(entry, userAgent);
+            } catch (IOException e) {
+                // Keep serving the stale copy; the next launch tries again.
+            } finally {
+                revalidating.remove(entry.url);
+            }
+        });
+    }
+
+    /** Runs a conditional request and either refreshes the entry's age or replaces its body. */
+    void revalidate(Entry entry, String userAgent) throws IOException {
+        revalidations.incrementAndGet();
+        HttpURLConnection connection = open(entry.url, userAgent);
+        try {
+            if (entry.etag != null) connection.setRequestProperty("If-None-Match", entry.etag);
+            if (entry.lastModified != null) connection.setRequestProperty("If-Modified-Since", entry.lastModified);
+            int code = connection.getResponseCode();
+            String cacheControl = connection.getHeaderField("Cache-Control");
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                synchronized (this) {
+                    if (entries.get(entry.url) == entry) {
+                        long maxAge = cacheControl != null ? maxAgeOf(cacheControl) : entry.maxAgeMs;
+                        entries.put(entry.url, entry.refreshedAt(clock.getAsLong(), maxAge));
+                        saveIndex();
+                    }
+                }
+                return;
+            }
+            if (code != HttpURLConnection.HTTP_OK || isNoStore(cacheControl)) {
+                synchronized (this) {
+                    if (entries.get(entry.url) == entry) {
+                        remove(entry);
+                        saveIndex();
+                    }
+                }
+                return;
+            }
+            File tmp = copyToTemp(entry.key, connection);
+            long size = tmp.length();
+            String contentType = connection.getContentType();
+            Entry fresh = new Entry(entry.url, entry.key, size, contentType, connection.getHeaderField("ETag"),
+                    connection.getHeaderField("Last-Modified"), clock.getAsLong(), maxAgeOf(cacheControl));
+            synchronized (this) {
+                if (size > maxEntryBytes) {
+                    tmp.delete();
+                    if (entries.get(entry.url) == entry) remove(entry);
+                    saveIndex();
+                } else {
+                    store(fresh, tmp);
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Writes the response body to a temporary file of its own; a page load and a revalidation
+     * may fetch the same URL at once.
+     */
+    private File copyToTemp(String key, HttpURLConnection connection) throws IOException {
+        File tmp = File.createTempFile(key, ".tmp", dir);
+        try (InputStream in = connection.getInputStream(); OutputStream out = new FileOutputStream(tmp)) {
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        return tmp;
+    }
+
+    // Both of the following run under the lock.
+
+    private void store(Entry entry, File tmp) throws IOException {
+        Entry previous = entries.remove(entry.url);
+        if (previous != null) totalBytes -= previous.size;
+        if (!tmp.renameTo(fileFor(entry.key))) {
+            tmp.delete();
+            saveIndex();
+            throw new IOException("Could not store " + entry.url);
+        }
+        entries.put(entry.url, entry);
+        totalBytes += entry.size;
+        trim();
+        saveIndex();
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.url);
+        totalBytes -= entry.size;
+        fileFor(entry.key).delete();
+    }
+
+    private void trim() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.size;
+            fileFor(eldest.key).delete();
+        }
+    }
+
+    synchronized long size() {
+        ensureLoaded();
+        return totalBytes;
+    }
+
+    synchronized boolean contains(String url) {
+        ensureLoaded();
+        return entries.containsKey(url);
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        // Bodies that were still being written when the process died.
+        File[] leftovers = dir.listFiles((parent, name) -> name.endsWith(".tmp"));
+        if (leftovers != null) {
+            for (File leftover : leftovers) leftover.delete();
+        }
+        File index = new File(dir, "index.bin");
+        List<Entry> read = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)))) {
+            if (in.readInt() != VERSION) return;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                read.add(new Entry(in.readUTF(), in.readUTF(), in.readLong(), readNullable(in),
+                        readNullable(in), readNullable(in), in.readLong(), in.readLong()));
+            }
+        } catch (IOException e) {
+            read.clear();
+        }
+        // The index is written least recently used first, so reinserting restores the order.
+        for (Entry entry : read) {
+            if (fileFor(entry.key).length() == entry.size) {
+                entries.put(entry.url, entry);
+                totalBytes += entry.size;
+            }
+        }
+    }
+
+    private void saveIndex() {
+        File index = new File(dir, "index.bin");
+        File tmp = new File(dir, "index.bin.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                out.writeUTF(entry.url);
+                out.writeUTF(entry.key);
+                out.writeLong(entry.size);
+                writeNullable(out, entry.contentType);
+                writeNullable(out, entry.etag);
+                writeNullable(out, entry.lastModified);
+                out.writeLong(entry.storedAt);
+                out.writeLong(entry.maxAgeMs);
+            }
+        } catch (IOException e) {
+            // The cache still works from memory; bodies without an index entry are overwritten later.
+            return;
+        }
+        tmp.renameTo(index);
+    }
+
+    private File fileFor(String key) {
+        return new File(dir, key);
+    }
+
+    private static HttpURLConnection open(String url, String userAgent) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        // Cached bodies are served as-is, so they must not be content-encoded.
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        if (userAgent != null) connection.setRequestProperty("User-Agent", userAgent);
+        return connection;
+    }
+
+    static String keyFor(String url) {
+        return ChecksumFrontier.toHex(ChecksumFrontier.newSha256().digest(url.getBytes(StandardCharsets.UTF_8)))
+                .substring(0, 32);
+    }
+
+    static boolean isNoStore(String cacheControl) {
+        return cacheControl != null && cacheControl.toLowerCase(Locale.US).contains("no-store");
+    }
+
+    /** Freshness lifetime from {@code max-age}; without one every use triggers a revalidation. */
+    static long maxAgeOf(String cacheControl) {
+        if (cacheControl == null) return 0;
+        for (String directive : cacheControl.split(",")) {
+            String d = directive.trim().toLowerCase(Locale.US);
+            if (d.startsWith("max-age=")) {
+                try {
+                    return Math.max(0, Long.parseLong(d.substring(8).replace("\"", ""))) * 1000;
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    static String mimeOf(String contentType) {
+        if (contentType == null) return "application/octet-stream";
+        int semicolon = contentType.indexOf(';');
+        return (semicolon < 0 ? contentType : contentType.substring(0, semicolon)).trim();
+    }
+
+    static String charsetOf(String contentType) {
+        if (contentType == null) return null;
+        for (String part : contentType.split(";")) {
+            String p = part.trim();
+            if (p.toLowerCase(Locale.US).startsWith("charset=")) return p.substring(8).replace("\"", "");
+        }
+        return null;
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    /** Keeps the connection alive until the WebView has read the pass-through body. */
+    private static final class DisconnectingStream extends java.io.FilterInputStream {
+        private final HttpURLConnection connection;
+
+        DisconnectingStream(InputStream in, HttpURLConnection connection) {
+            super(in != null ? in : new java.io.ByteArrayInputStream(new byte[0]));
+            this.connection = connection;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static final class DeletingStream extends FileInputStream {
+        private final File file;
+
+        DeletingStream(File file) throws FileNotFoundException {
+            super(file);
+            this.file = file;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.android.darkelixir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands chunks from one producer thread to one consumer thread through a queue of fixed
+ * capacity, so a slow consumer throttles the producer instead of letting memory grow. Either side
+ * can fail the pipe; the other side then sees the failure on its next call.
+ */
+final class BoundedPipe {
+
+    private static final byte[] END = new byte[0];
+    private static final long POLL_MS = 200;
+
+    private final BlockingQueue<byte[]> chunks;
+    private volatile IOException producerFailure;
+    private volatile boolean consumerClosed;
+
+    BoundedPipe(int capacityChunks) {
+        this.chunks = new ArrayBlockingQueue<>(capacityChunks);
+    }
+
+    /** Copies {@code len} bytes into the pipe, blocking while it is full. */
+    void write(byte[] bytes, int off, int len) throws IOException {
+        if (len == 0) return;
+        byte[] chunk = new byte[len];
+        System.arraycopy(bytes, off, chunk, 0, len);
+        put(chunk);
+    }
+
+    /** Signals a clean end of data. */
+    void close() throws IOException {
+        put(END);
+    }
+
+    /** Ends the stream with an error that the consumer will rethrow. */
+    void fail(IOException failure) {
+        producerFailure = failure;
+        chunks.clear();
+        chunks.offer(END);
+    }
+
+    private void put(byte[] chunk) throws IOException {
+        try {
+            while (!chunks.offer(chunk, POLL_MS, TimeUnit.MILLISECONDS)) {
+                if (consumerClosed) throw new IOException("Reader stopped");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Pipe write interrupted");
+        }
+        if (consumerClosed) throw new IOException("Reader stopped");
+    }
+
+    /** The consumer's end. Closing it unblocks and fails the producer. */
+    InputStream source() {
+        return new InputStream() {
+            private byte[] current;
+            private int position;
+            private boolean ended;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                while (current == null || position == current.length) {
+                    if (ended) return -1;
+                    try {
+                        current = chunks.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Pipe read interrupted");
+                    }
+                    position = 0;
+                    if (current == END) {
+                        ended = true;
+                        if (producerFailure != null) throw producerFailure;
+                        return -1;
+                    }
+                }
+                int count = Math.min(len, current.length - position);
+                System.arraycopy(current, position, b, off, count);
+                position += count;
+                return count;
+            }
+
+            @Override
+            public void close() {
+                consumerClosed = true;
+                chunks.clear();
+            }
+        };
+    }
+}
@@ -0,0 +1,206 @@
+package com.android.darkelixir;
+
+import android.content.Context;
+import android.os.Environment;
+
+import androidx.core.content.ContextCompat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Deletes and moves many files at once on a background thread. A delete first moves the files
+ * into a trash folder next to the download folder, on the same volume so each file is a rename,
+ * and only empties it when the batch is committed; until then {@link Batch#undo} puts everything
+ * back. Moves are undone by moving the files back.
+ */
+public final class BulkFileOperations {
+
+    public interface Listener {
+        /** Called on the callback executor, at most once per percent of the batch. */
+        void onProgress(int done, int total);
+
+        void onFinished(Batch batch);
+    }
+
+    static final String TRASH_FOLDER = ".DarkElixir-trash";
+
+    private static volatile BulkFileOperations instance;
+
+    /** The files one call moved, and where to; confined to the operations thread until finished. */
+    public final class Batch {
+        private final List<File> sources = new ArrayList<>();
+        private final List<File> targets = new ArrayList<>();
+        private final List<File> failed = new ArrayList<>();
+        private final File trashDir;
+        // Operations thread.
+        private boolean settled;
+
+        Batch(File trashDir) {
+            this.trashDir = trashDir;
+        }
+
+        /** Original locations of the files that were moved. */
+        public List<File> getSources() {
+            return Collections.unmodifiableList(sources);
+        }
+
+        /** Where each of {@link #getSources()} ended up. */
+        public List<File> getTargets() {
+            return Collections.unmodifiableList(targets);
+        }
+
+        public List<File> getFailed() {
+            return Collections.unmodifiableList(failed);
+        }
+
+        /** Moves every file back; the listener gets the batch of restored files. */
+        public void undo(Listener listener) {
+            executor.execute(() -> {
+                if (settled) return;
+                settled = true;
+                Batch restored = new Batch(null);
+                for (int i = 0; i < targets.size(); i++) {
+                    File original = sources.get(i);
+                    if (original.exists()) {
+                        // Something new took the name meanwhile; leave the file where it is.
+                        restored.failed.add(targets.get(i));
+                    } else {
+                        transfer(restored, targets.get(i), original);
+                    }
+                    report(listener, i + 1, targets.size());
+                }
+                if (trashDir != null) deleteTree(trashDir);
+                callbackExecutor.execute(() -> listener.onFinished(restored));
+            });
+        }
+
+        /** Makes a delete final by emptying its trash; a move needs nothing. */
+        public void commit() {
+            executor.execute(() -> {
+                if (settled) return;
+                settled = true;
+                if (trashDir != null) deleteTree(trashDir);
+            });
+        }
+    }
+
+    private final File trashRoot;
+    private final Executor executor;
+    private final Executor callbackExecutor;
+    private int batches;
+
+    public static BulkFileOperations get(Context context) {
+        if (instance == null) {
+            synchronized (BulkFileOperations.class) {
+                if (instance == null) {
+                    Context app = context.getApplicationContext();
+                    instance = new BulkFileOperations(
+                            new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS),
+                                    TRASH_FOLDER),
+                            Executors.newSingleThreadExecutor(r -> {
+                                Thread t = new Thread(r, "bulk-files");
+                                t.setDaemon(true);
+                                return t;
+                            }),
+                            ContextCompat.getMainExecutor(app));
+                    instance.purgeTrash();
+                }
+            }
+        }
+        return instance;
+    }
+
+    BulkFileOperations(File trashRoot, Executor executor, Executor callbackExecutor) {
+        this.trashRoot = trashRoot;
+        this.executor = executor;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /** Moves {@code files} to the trash; nothing is gone for good until the batch is committed. */
+    public void delete(List<File> files, Listener listener) {
+        List<File> snapshot = new ArrayList<>(files);
+        executor.execute(() -> {
+            File trashDir = new File(trashRoot, System.currentTimeMillis() + "-" + batches++);
+            Batch batch = new Batch(trashDir);
+            if (!trashDir.isDirectory() && !trashDir.mkdirs()) {
+                batch.failed.addAll(snapshot);
+            } else {
+                run(batch, snapshot, trashDir, listener);
+            }
+            callbackExecutor.execute(() -> listener.onFinished(batch));
+        });
+    }
+
+    /** Moves {@code files} into {@code targetDir}, renaming any that would overwrite a file there. */
+    public void move(List<File> files, File targetDir, Listener listener) {
+        List<File> snapshot = new ArrayList<>(files);
+        executor.execute(() -> {
+            Batch batch = new Batch(null);
+            if (!targetDir.isDirectory() && !targetDir.mkdirs()) {
+                batch.failed.addAll(snapshot);
+            } else {
+                run(batch, snapshot, targetDir, listener);
+            }
+            callbackExecutor.execute(() -> listener.onFinished(batch));
+        });
+    }
+
+    /** Empties trash left by a process that died before committing or undoing. */
+    void purgeTrash() {
+        executor.execute(() -> deleteTree(trashRoot));
+    }
+
+    // Operations thread from here on.
+
+    private void run(Batch batch, List<File> files, File targetDir, Listener listener) {
+        for (int i = 0; i < files.size(); i++) {
+            File source = files.get(i);
+            transfer(batch, source, uniqueTarget(targetDir, source.getName()));
+            report(listener, i + 1, files.size());
+        }
+    }
+
+    private void report(Listener listener, int done, int total) {
+        // Only whole-percent steps reach the UI, so a thousand files post a hundred updates.
+        if (done == total || done * 100L / total != (done - 1) * 100L / total) {
+            callbackExecutor.execute(() -> listener.onProgress(done, total));
+        }
+    }
+
+    private static void transfer(Batch batch, File source, File target) {
+        try {
+            // A rename on the same volume; otherwise a copy followed by a delete.
+            Files.move(source.toPath(), target.toPath());
+            batch.sources.add(source);
+            batch.targets.add(target);
+        } catch (IOException | SecurityException e) {
+            batch.failed.add(source);
+        }
+    }
+
+    static File uniqueTarget(File dir, String name) {
+        File target = new File(dir, name);
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        for (int i = 1; target.exists(); i++) {
+            target = new File(dir, base + " (" + i + ")" + extension);
+        }
+        return target;
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) deleteTree(child);
+        }
+        file.delete();
+    }
+}
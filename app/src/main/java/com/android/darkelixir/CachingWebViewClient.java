@@ -0,0 +1,99 @@
+package com.android.darkelixir;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Serves the home origin's static assets from an {@link AssetCache} and reports how long the
+ * first page load took. Documents, other origins and anything the cache cannot fetch go to the
+ * WebView's own network stack.
+ */
+class CachingWebViewClient extends WebViewClient {
+
+    interface StartupListener {
+        void onFirstPageFinished(long elapsedMs);
+    }
+
+    private static final Set<String> STATIC_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "js", "mjs", "css", "woff", "woff2", "ttf", "otf",
+            "png", "jpg", "jpeg", "gif", "svg", "webp", "ico"));
+
+    private final Uri home;
+    private final AssetCache cache;
+    private final String userAgent;
+    private final StartupListener startupListener;
+    private final long startedAt = SystemClock.elapsedRealtime();
+    private boolean reported;
+    private long pageStartedAt;
+
+    /** {@code cache} may be null to measure launches with the cache turned off. */
+    CachingWebViewClient(String homeUrl, AssetCache cache, String userAgent, StartupListener startupListener) {
+        this.home = Uri.parse(homeUrl);
+        this.cache = cache;
+        this.userAgent = userAgent;
+        this.startupListener = startupListener;
+    }
+
+    @Override
+    public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+        if (cache == null || request.isForMainFrame() || !"GET".equalsIgnoreCase(request.getMethod())
+                || !isCacheable(request.getUrl())) {
+            return null;
+        }
+        try {
+            AssetCache.Response response = cache.fetch(request.getUrl().toString(), userAgent);
+            if (response.statusCode >= 300 && response.statusCode < 400) {
+                // Not representable in a WebResourceResponse; let the WebView make the request itself.
+                response.body.close();
+                return null;
+            }
+            WebResourceResponse result = new WebResourceResponse(response.mimeType, response.encoding, response.body);
+            if (response.statusCode != 200) result.setStatusCodeAndReasonPhrase(response.statusCode, response.reasonPhrase);
+            return result;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void onPageStarted(WebView view, String url, Bitmap favicon) {
+        super.onPageStarted(view, url, favicon);
+        pageStartedAt = SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public void onPageFinished(WebView view, String url) {
+        super.onPageFinished(view, url);
+        if (pageStartedAt != 0) {
+            PerfMetrics.global().record(PerfMetrics.PAGE_LOAD, SystemClock.elapsedRealtime() - pageStartedAt);
+            pageStartedAt = 0;
+        }
+        if (reported) return;
+        reported = true;
+        startupListener.onFirstPageFinished(SystemClock.elapsedRealtime() - startedAt);
+    }
+
+    private boolean isCacheable(Uri url) {
+        if (!Objects.equals(url.getScheme(), home.getScheme())
+                || !Objects.equals(url.getAuthority(), home.getAuthority())) {
+            return false;
+        }
+        String path = url.getPath();
+        if (path == null) return false;
+        int dot = path.lastIndexOf('.');
+        if (dot < 0 || dot < path.lastIndexOf('/')) return false;
+        return STATIC_EXTENSIONS.contains(path.substring(dot + 1).toLowerCase(Locale.US));
+    }
+}
@@ -0,0 +1,120 @@
+package com.android.darkelixir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * SHA-256 of a file that is being written out of order by parallel segments. The digest follows
+ * the contiguous prefix that the {@link DownloadJournal} reports as written. Writers call
+ * {@link #advance} after each buffer. The writer at the frontier hashes its buffer straight from
+ * memory. Bytes that other segments wrote ahead of the frontier are read back through the page
+ * cache once the frontier reaches them, by whichever writer holds the lock. With one segment
+ * nothing is read back; with several, roughly the share of the file written ahead of the
+ * frontier is, at page cache speed and still without a separate pass over the finished file.
+ */
+final class ChecksumFrontier {
+
+    private final FileChannel channel;
+    private final DownloadJournal journal;
+    private final MessageDigest digest = newSha256();
+    private final ByteBuffer buffer = ByteBuffer.allocate(SegmentedDownloader.BUFFER_SIZE);
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Written under lock; read without it to tell whether a writer is at the frontier. */
+    private volatile long hashed;
+    // Guarded by lock.
+    private int segment;
+    private long readBack;
+
+    ChecksumFrontier(FileChannel channel, DownloadJournal journal) {
+        this.channel = channel;
+        this.journal = journal;
+    }
+
+    /**
+     * Hashes whatever became contiguous since the last call, taking the {@code length} bytes just
+     * written at {@code position} from {@code bytes}. A writer at the frontier waits for the lock
+     * so its buffer is not read back later; the others leave the work to whoever holds it.
+     */
+    void advance(byte[] bytes, int length, long position) throws IOException {
+        if (position == hashed) {
+            lock.lock();
+        } else if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            catchUp(bytes, length, position);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Hashes the remainder and returns the hex digest; call once every segment is complete. */
+    String finish() throws IOException {
+        lock.lock();
+        try {
+            catchUp(null, 0, -1);
+            if (hashed != journal.totalBytes) {
+                throw new IOException("Checksum stopped at " + hashed + " of " + journal.totalBytes);
+            }
+            return toHex(digest.digest());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Bytes that had to be read back from the file rather than hashed from a writer's buffer. */
+    long readBackBytes() {
+        lock.lock();
+        try {
+            return readBack;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void catchUp(byte[] bytes, int length, long position) throws IOException {
+        while (segment < journal.segments()) {
+            long contiguous = journal.starts[segment] + journal.done.get(segment);
+            while (hashed < contiguous) {
+                if (bytes != null && hashed >= position && hashed < position + length) {
+                    int offset = (int) (hashed - position);
+                    int count = (int) Math.min(length - offset, contiguous - hashed);
+                    digest.update(bytes, offset, count);
+                    hashed += count;
+                    continue;
+                }
+                long end = bytes != null && position > hashed ? Math.min(contiguous, position) : contiguous;
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - hashed));
+                int read = channel.read(buffer, hashed);
+                if (read <= 0) throw new IOException("Short read at " + hashed);
+                digest.update(buffer.array(), 0, read);
+                hashed += read;
+                readBack += read;
+            }
+            if (contiguous <= journal.ends[segment]) return;
+            segment++;
+        }
+    }
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+            hex[i * 2 + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,187 @@
+package com.android.darkelixir;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Persisted record of where each download came from: URL, the server's validators and length
+ * at the time, and the content hash once {@link VerificationStore} has computed it. Lets
+ * {@link DuplicateChecker} recognise a repeat download before any body bytes are fetched.
+ */
+public final class ContentIndex implements VerificationStore.Listener {
+
+    public static final class Entry {
+        final String path;
+        final String url;
+        final String finalUrl;
+        final String etag;
+        final String lastModified;
+        final long contentLength;
+        final String sha256;
+
+        Entry(String path, String url, String finalUrl, String etag, String lastModified, long contentLength,
+              String sha256) {
+            this.path = path;
+            this.url = url;
+            this.finalUrl = finalUrl;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.contentLength = contentLength;
+            this.sha256 = sha256;
+        }
+
+        Entry withSha256(String newSha256) {
+            return new Entry(path, url, finalUrl, etag, lastModified, contentLength, newSha256);
+        }
+
+        boolean hasUrl(String candidate) {
+            return candidate != null && (candidate.equals(url) || candidate.equals(finalUrl));
+        }
+
+        /** True while the download is still on disk at the length the server announced. */
+        boolean isPresent() {
+            File file = new File(path);
+            if (!file.exists()) return false;
+            return file.isDirectory() || contentLength < 0 || file.length() == contentLength;
+        }
+    }
+
+    private static final int VERSION = 1;
+
+    private static volatile ContentIndex instance;
+
+    private final File storeFile;
+    private final Executor executor;
+    private final VerificationStore verifications;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public static ContentIndex get(Context context) {
+        if (instance == null) {
+            synchronized (ContentIndex.class) {
+                if (instance == null) {
+                    Context app = context.getApplicationContext();
+                    VerificationStore verifications = VerificationStore.get(app);
+                    instance = new ContentIndex(new File(app.getFilesDir(), "content_index.bin"),
+                            Executors.newSingleThreadExecutor(r -> {
+                                Thread t = new Thread(r, "content-index");
+                                t.setDaemon(true);
+                                return t;
+                            }),
+                            verifications);
+                    instance.load();
+                    verifications.addListener(instance);
+                }
+            }
+        }
+        return instance;
+    }
+
+    ContentIndex(File storeFile, Executor executor, VerificationStore verifications) {
+        this.storeFile = storeFile;
+        this.executor = executor;
+        this.verifications = verifications;
+    }
+
+    /** Remembers where the file at {@code entry.path} came from, replacing any older record. */
+    void record(Entry entry) {
+        FileVerification verification = verifications.get(entry.path);
+        if (entry.sha256 == null && verification != null && verification.getSha256() != null
+                && verification.getState() != FileVerification.STATE_CORRUPT) {
+            entry = entry.withSha256(verification.getSha256());
+        }
+        entries.put(entry.path, entry);
+        executor.execute(this::save);
+    }
+
+    Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /** Records whose download is still on disk. */
+    List<Entry> presentEntries() {
+        List<Entry> present = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.isPresent()) present.add(entry);
+        }
+        return present;
+    }
+
+    @Override
+    public void onVerificationChanged(String path) {
+        Entry entry = entries.get(path);
+        FileVerification verification = verifications.get(path);
+        if (entry == null || verification == null || verification.getSha256() == null) return;
+        String sha256 = verification.getState() == FileVerification.STATE_CORRUPT ? null : verification.getSha256();
+        if (sha256 == null ? entry.sha256 == null : sha256.equals(entry.sha256)) return;
+        entries.put(path, entry.withSha256(sha256));
+        executor.execute(this::save);
+    }
+
+    /** Loads persisted records on the index thread, dropping those whose download is gone. */
+    void load() {
+        executor.execute(() -> {
+            List<Entry> loaded = new ArrayList<>();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(storeFile)))) {
+                if (in.readInt() != VERSION) return;
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    loaded.add(new Entry(in.readUTF(), in.readUTF(), readNullable(in), readNullable(in),
+                            readNullable(in), in.readLong(), readNullable(in)));
+                }
+            } catch (FileNotFoundException e) {
+                return;
+            } catch (IOException e) {
+                loaded.clear();
+            }
+            for (Entry entry : loaded) {
+                if (entry.isPresent()) entries.putIfAbsent(entry.path, entry);
+            }
+        });
+    }
+
+    private void save() {
+        File tmp = new File(storeFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            List<Entry> snapshot = new ArrayList<>(entries.values());
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            for (Entry entry : snapshot) {
+                out.writeUTF(entry.path);
+                out.writeUTF(entry.url);
+                writeNullable(out, entry.finalUrl);
+                writeNullable(out, entry.etag);
+                writeNullable(out, entry.lastModified);
+                out.writeLong(entry.contentLength);
+                writeNullable(out, entry.sha256);
+            }
+        } catch (IOException e) {
+            // Records stay in memory; the next change retries the write.
+            return;
+        }
+        tmp.renameTo(storeFile);
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+}
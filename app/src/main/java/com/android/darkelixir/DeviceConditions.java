@@ -0,0 +1,15 @@
+package com.android.darkelixir;
+
+/**
+ * Source of {@link DeviceState} for the scheduler. Implementations call the listener when the
+ * network or power state changes, and once more after each requested wake-up delay.
+ */
+public interface DeviceConditions {
+
+    DeviceState current();
+
+    void setListener(Runnable listener);
+
+    /** Asks for one listener call after {@code delayMs}, replacing any earlier request. */
+    void wakeAfter(long delayMs);
+}
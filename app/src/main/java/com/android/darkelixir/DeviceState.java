@@ -0,0 +1,35 @@
+package com.android.darkelixir;
+
+/**
+ * The device conditions that {@link DownloadConstraints} are checked against.
+ */
+public final class DeviceState {
+
+    private final boolean unmetered;
+    private final boolean charging;
+    private final int minuteOfDay;
+
+    public DeviceState(boolean unmetered, boolean charging, int minuteOfDay) {
+        this.unmetered = unmetered;
+        this.charging = charging;
+        this.minuteOfDay = minuteOfDay;
+    }
+
+    public boolean isUnmetered() {
+        return unmetered;
+    }
+
+    public boolean isCharging() {
+        return charging;
+    }
+
+    /** Local wall-clock time as minutes since midnight, 0 to 1439. */
+    public int getMinuteOfDay() {
+        return minuteOfDay;
+    }
+
+    /** True if the network or power state differs; the time of day is not compared. */
+    boolean differsFrom(DeviceState other) {
+        return other == null || unmetered != other.unmetered || charging != other.charging;
+    }
+}
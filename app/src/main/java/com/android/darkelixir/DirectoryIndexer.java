@@ -0,0 +1,210 @@
+package com.android.darkelixir;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Environment;
+import android.os.FileObserver;
+import android.webkit.MimeTypeMap;
+
+import androidx.annotation.RequiresApi;
+import androidx.core.content.ContextCompat;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a {@link DirectoryIndex} of the download folder current for the lifetime of the process.
+ * The folder is listed once, streamed to listeners in chunks as it is read; after that a
+ * {@link FileObserver} reports individual changes, which are coalesced for
+ * {@link #EVENT_COALESCE_MS} and delivered to listeners as small deltas on the main thread.
+ */
+public final class DirectoryIndexer {
+
+    public interface Listener {
+        void onIndexChanged(DirectoryIndex.Delta delta);
+
+        /** Called once the listener has been sent the complete listing, with its size. */
+        default void onInitialListingComplete(int entries) {
+        }
+    }
+
+    static final String DOWNLOAD_SUBFOLDER = "DarkElixir";
+    private static final long EVENT_COALESCE_MS = 250;
+    private static final int EVENTS = FileObserver.CREATE | FileObserver.CLOSE_WRITE | FileObserver.MODIFY
+            | FileObserver.DELETE | FileObserver.MOVED_FROM | FileObserver.MOVED_TO
+            | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    private static volatile DirectoryIndexer instance;
+
+    private final DirectoryIndex index;
+    private final ScheduledExecutorService executor;
+    private final Executor callbackExecutor;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Confined to the index thread.
+    private final Set<String> dirtyNames = new LinkedHashSet<>();
+    private boolean flushScheduled;
+    private boolean scanned;
+    private FileObserver observer;
+
+    public static DirectoryIndexer get(Context context) {
+        if (instance == null) {
+            synchronized (DirectoryIndexer.class) {
+                if (instance == null) {
+                    File dir = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS),
+                            DOWNLOAD_SUBFOLDER);
+                    EntryFormatter formatter = new EntryFormatter(
+                            extension -> MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension));
+                    instance = new DirectoryIndexer(new DirectoryIndex(dir, formatter),
+                            Executors.newSingleThreadScheduledExecutor(r -> {
+                                Thread t = new Thread(r, "download-index");
+                                t.setDaemon(true);
+                                return t;
+                            }),
+                            ContextCompat.getMainExecutor(context.getApplicationContext()));
+                }
+            }
+        }
+        return instance;
+    }
+
+    DirectoryIndexer(DirectoryIndex index, ScheduledExecutorService executor, Executor callbackExecutor) {
+        this.index = index;
+        this.executor = executor;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    public File getDirectory() {
+        return index.getDirectory();
+    }
+
+    /**
+     * Registers a listener. Its first callbacks carry the whole current index as additions; if
+     * the folder has not been listed yet they arrive chunk by chunk while it is being read.
+     */
+    public void addListener(Listener listener) {
+        executor.execute(() -> {
+            if (index.size() > 0) {
+                DirectoryIndex.Delta initial = new DirectoryIndex.Delta(
+                        index.entries(), new ArrayList<>(), new ArrayList<>());
+                callbackExecutor.execute(() -> listener.onIndexChanged(initial));
+            }
+            listeners.add(listener);
+            ensureScanned();
+            int entries = index.size();
+            callbackExecutor.execute(() -> listener.onInitialListingComplete(entries));
+        });
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Relists the folder and publishes only what changed. Catches changes the observer cannot see,
+     * for example files copied in over MTP, and re-arms the observer if the folder was recreated.
+     */
+    public void rescan() {
+        executor.execute(() -> {
+            startObserving();
+            timedScan();
+            scanned = true;
+        });
+    }
+
+    private void ensureScanned() {
+        // Without an observer (folder missing on the last scan) the index may be stale.
+        if (scanned && observer != null) return;
+        scanned = true;
+        startObserving();
+        timedScan();
+    }
+
+    /** Scans the folder, publishing each chunk as soon as it has been read. */
+    private void timedScan() {
+        long started = System.nanoTime();
+        index.scan(this::publish);
+        PerfMetrics.global().record(PerfMetrics.DIRECTORY_SCAN, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private void startObserving() {
+        File dir = index.getDirectory();
+        if (!dir.isDirectory()) return;
+        if (observer != null) observer.stopWatching();
+        observer = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                ? new FolderObserver(dir) : new FolderObserver(dir.getAbsolutePath());
+        observer.startWatching();
+    }
+
+    /** Hands the folder's events to {@link #onFileEvent}. */
+    private final class FolderObserver extends FileObserver {
+
+        @RequiresApi(Build.VERSION_CODES.Q)
+        FolderObserver(File dir) {
+            super(dir, EVENTS);
+        }
+
+        // The File constructor only exists from API 29 and minSdk is 28, so Pie still needs this one.
+        @SuppressWarnings("deprecation")
+        FolderObserver(String path) {
+            super(path, EVENTS);
+        }
+
+        @Override
+        public void onEvent(int event, String path) {
+            onFileEvent(event & FileObserver.ALL_EVENTS, path);
+        }
+    }
+
+    // Called on the observer's own thread.
+    private void onFileEvent(int event, String name) {
+        if ((event & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF)) != 0) {
+            executor.execute(() -> {
+                timedScan();
+                if (observer != null) {
+                    observer.stopWatching();
+                    observer = null;
+                }
+            });
+            return;
+        }
+        if (name == null) return;
+        executor.execute(() -> {
+            dirtyNames.add(name);
+            if (!flushScheduled) {
+                flushScheduled = true;
+                executor.schedule(this::flush, EVENT_COALESCE_MS, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    private void flush() {
+        flushScheduled = false;
+        List<DownloadEntry> added = new ArrayList<>();
+        List<DownloadEntry> updated = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (String name : dirtyNames) {
+            DirectoryIndex.Delta delta = index.refresh(name);
+            added.addAll(delta.added);
+            updated.addAll(delta.updated);
+            removed.addAll(delta.removed);
+        }
+        dirtyNames.clear();
+        publish(new DirectoryIndex.Delta(added, updated, removed));
+    }
+
+    private void publish(DirectoryIndex.Delta delta) {
+        if (delta.isEmpty()) return;
+        for (Listener listener : listeners) {
+            callbackExecutor.execute(() -> listener.onIndexChanged(delta));
+        }
+    }
+}
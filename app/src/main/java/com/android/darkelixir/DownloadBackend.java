@@ -0,0 +1,40 @@
+package com.android.darkelixir;
+
+import java.util.List;
+
+/**
+ * Source of transfer state. The system implementation wraps {@link android.app.DownloadManager};
+ * tests supply their own.
+ */
+public interface DownloadBackend {
+
+    /** Starts a transfer and returns the backend's id for it. */
+    long enqueue(DownloadRequest request);
+
+    /** Stops a transfer and discards any partial data. */
+    void remove(long id);
+
+    /** Stops a transfer, keeping partial data if the backend can continue from it later. */
+    default void pause(long id) {
+        remove(id);
+    }
+
+    /** Deletes partial data that a paused or failed transfer of {@code request} left behind. */
+    default void discard(DownloadRequest request) {
+    }
+
+    /**
+     * True if enqueueing {@code request} again continues an interrupted transfer of {@code id}
+     * instead of starting over, even after the backend has forgotten the id itself. False for
+     * failures that retrying cannot fix.
+     */
+    default boolean canResume(long id, DownloadRequest request) {
+        return false;
+    }
+
+    /** Returns the status of every id that the backend still knows about, using a single query. */
+    List<DownloadStatus> query(long[] ids);
+
+    /** Returns the ids of transfers that are pending, running or paused. */
+    long[] queryActiveIds();
+}
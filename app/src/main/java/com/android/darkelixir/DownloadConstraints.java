@@ -0,0 +1,110 @@
+package com.android.darkelixir;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Conditions a queued download waits for before the {@link DownloadScheduler} starts it. A
+ * running download whose conditions stop holding is paused and queued again if its backend can
+ * continue it later.
+ */
+public final class DownloadConstraints {
+
+    public static final DownloadConstraints NONE = new DownloadConstraints(false, false, -1, -1);
+
+    static final int MINUTES_PER_DAY = 24 * 60;
+
+    private final boolean requiresUnmetered;
+    private final boolean requiresCharging;
+    private final int windowStart;
+    private final int windowEnd;
+
+    /**
+     * @param windowStart minute of day the download may start from, or -1 for any time
+     * @param windowEnd   minute of day the window closes; a window may wrap past midnight
+     */
+    public DownloadConstraints(boolean requiresUnmetered, boolean requiresCharging, int windowStart, int windowEnd) {
+        boolean window = windowStart >= 0 && windowEnd >= 0 && windowStart != windowEnd;
+        this.requiresUnmetered = requiresUnmetered;
+        this.requiresCharging = requiresCharging;
+        this.windowStart = window ? windowStart % MINUTES_PER_DAY : -1;
+        this.windowEnd = window ? windowEnd % MINUTES_PER_DAY : -1;
+    }
+
+    public boolean requiresUnmetered() {
+        return requiresUnmetered;
+    }
+
+    public boolean requiresCharging() {
+        return requiresCharging;
+    }
+
+    public int getWindowStart() {
+        return windowStart;
+    }
+
+    public int getWindowEnd() {
+        return windowEnd;
+    }
+
+    public boolean hasWindow() {
+        return windowStart >= 0;
+    }
+
+    public boolean isNone() {
+        return !requiresUnmetered && !requiresCharging && !hasWindow();
+    }
+
+    public boolean isSatisfiedBy(DeviceState state) {
+        return (!requiresUnmetered || state.isUnmetered())
+                && (!requiresCharging || state.isCharging())
+                && inWindow(state.getMinuteOfDay());
+    }
+
+    boolean inWindow(int minute) {
+        if (!hasWindow()) return true;
+        return windowStart < windowEnd
+                ? minute >= windowStart && minute < windowEnd
+                : minute >= windowStart || minute < windowEnd;
+    }
+
+    /** Minutes from {@code minute} until the window next opens or closes, or -1 without a window. */
+    int minutesUntilWindowEdge(int minute) {
+        if (!hasWindow()) return -1;
+        int edge = inWindow(minute) ? windowEnd : windowStart;
+        return Math.floorMod(edge - minute, MINUTES_PER_DAY);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof DownloadConstraints)) return false;
+        DownloadConstraints other = (DownloadConstraints) o;
+        return requiresUnmetered == other.requiresUnmetered && requiresCharging == other.requiresCharging
+                && windowStart == other.windowStart && windowEnd == other.windowEnd;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Boolean.hashCode(requiresUnmetered);
+        result = 31 * result + Boolean.hashCode(requiresCharging);
+        result = 31 * result + windowStart;
+        result = 31 * result + windowEnd;
+        return result;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        if (isNone()) return "any time";
+        StringBuilder out = new StringBuilder();
+        if (requiresUnmetered) out.append("Wi-Fi");
+        if (requiresCharging) out.append(out.length() > 0 ? ", " : "").append("charging");
+        if (hasWindow()) {
+            out.append(out.length() > 0 ? ", " : "").append(String.format(Locale.US, "%02d:%02d-%02d:%02d",
+                    windowStart / 60, windowStart % 60, windowEnd / 60, windowEnd % 60));
+        }
+        return out.toString();
+    }
+}
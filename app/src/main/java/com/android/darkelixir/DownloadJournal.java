@@ -0,0 +1,168 @@
+package com.android.darkelixir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Resume state of one segmented download: the validators the server sent, and for every
+ * segment how many bytes from its start are known to be on disk. Segments are filled strictly
+ * in order from their start, so one counter per segment describes all completed ranges.
+ *
+ * <p>The journal is rewritten atomically (temp file + rename). Callers snapshot the counters,
+ * force file data to disk and only then save the snapshot, so the journal never claims bytes that
+ * a crash could lose. A journal without a file only tracks progress in memory.
+ */
+final class DownloadJournal {
+
+    private static final int MAGIC = 0x444a4e31; // "DJN1"
+
+    final String url;
+    final String targetPath;
+    final long totalBytes;
+    final String etag;
+    final String lastModified;
+    final long[] starts;
+    final long[] ends;
+    final AtomicLongArray done;
+
+    private final File file;
+
+    DownloadJournal(File file, String url, String targetPath, long totalBytes, String etag, String lastModified,
+                    long[] starts, long[] ends, long[] done) {
+        this.file = file;
+        this.url = url;
+        this.targetPath = targetPath;
+        this.totalBytes = totalBytes;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.starts = starts;
+        this.ends = ends;
+        this.done = new AtomicLongArray(done);
+    }
+
+    /** Journal location for a target; names are derived from the path so they survive restarts. */
+    static File fileFor(File journalDir, String targetPath) {
+        String name = new File(targetPath).getName().replaceAll("[^A-Za-z0-9._-]", "_");
+        return new File(journalDir, Integer.toHexString(targetPath.hashCode()) + "-" + name + ".journal");
+    }
+
+    static DownloadJournal create(File file, String url, String targetPath, long totalBytes,
+                                  String etag, String lastModified, int segments) {
+        long[] starts = new long[segments];
+        long[] ends = new long[segments];
+        long segmentSize = totalBytes / segments;
+        for (int i = 0; i < segments; i++) {
+            starts[i] = i * segmentSize;
+            ends[i] = i == segments - 1 ? totalBytes - 1 : starts[i] + segmentSize - 1;
+        }
+        return new DownloadJournal(file, url, targetPath, totalBytes, etag, lastModified,
+                starts, ends, new long[segments]);
+    }
+
+    /** Returns the journal stored in {@code file}, or null if it is missing or unreadable. */
+    static DownloadJournal load(File file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) return null;
+            String url = in.readUTF();
+            String targetPath = in.readUTF();
+            long totalBytes = in.readLong();
+            String etag = in.readBoolean() ? in.readUTF() : null;
+            String lastModified = in.readBoolean() ? in.readUTF() : null;
+            int segments = in.readInt();
+            long[] starts = new long[segments];
+            long[] ends = new long[segments];
+            long[] done = new long[segments];
+            for (int i = 0; i < segments; i++) {
+                starts[i] = in.readLong();
+                ends[i] = in.readLong();
+                done[i] = in.readLong();
+            }
+            return new DownloadJournal(file, url, targetPath, totalBytes, etag, lastModified, starts, ends, done);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    long[] snapshotDone() {
+        long[] copy = new long[starts.length];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = done.get(i);
+        }
+        return copy;
+    }
+
+    /** Persists the given per-segment progress, normally a {@link #snapshotDone()} taken before a force. */
+    synchronized void save(long[] doneSnapshot) throws IOException {
+        if (file == null) return;
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(url);
+            out.writeUTF(targetPath);
+            out.writeLong(totalBytes);
+            out.writeBoolean(etag != null);
+            if (etag != null) out.writeUTF(etag);
+            out.writeBoolean(lastModified != null);
+            if (lastModified != null) out.writeUTF(lastModified);
+            out.writeInt(starts.length);
+            for (int i = 0; i < starts.length; i++) {
+                out.writeLong(starts[i]);
+                out.writeLong(ends[i]);
+                out.writeLong(doneSnapshot[i]);
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    void delete() {
+        if (file != null) file.delete();
+    }
+
+    int segments() {
+        return starts.length;
+    }
+
+    long completedBytes() {
+        long sum = 0;
+        for (int i = 0; i < starts.length; i++) {
+            sum += done.get(i);
+        }
+        return sum;
+    }
+
+    boolean isComplete() {
+        return completedBytes() == totalBytes;
+    }
+
+    /**
+     * True if the server still describes the same entity. With no validator on either side the
+     * length is the only evidence, which is what HTTP resumers commonly fall back to.
+     */
+    boolean matches(long total, String newEtag, String newLastModified) {
+        if (total != totalBytes) return false;
+        if (etag != null || newEtag != null) return etag != null && etag.equals(newEtag);
+        if (lastModified != null || newLastModified != null) {
+            return lastModified != null && lastModified.equals(newLastModified);
+        }
+        return true;
+    }
+
+    /** Value for {@code If-Range}, preferring the strong validator. */
+    String ifRangeValidator() {
+        if (etag != null && !etag.startsWith("W/")) return etag;
+        return lastModified;
+    }
+}
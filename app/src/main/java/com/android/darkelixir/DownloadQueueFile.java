@@ -0,0 +1,100 @@
+package com.android.darkelixir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary persistence for the scheduler queue. Writes go to a temporary file that is renamed
+ * over the old one, so a crash mid-write leaves the previous queue intact.
+ */
+class DownloadQueueFile {
+
+    private static final int VERSION = 3;
+
+    private final File file;
+
+    DownloadQueueFile(File file) {
+        this.file = file;
+    }
+
+    List<DownloadTask> load() {
+        List<DownloadTask> tasks = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int version = in.readInt();
+            if (version < 1 || version > VERSION) return tasks;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long id = in.readLong();
+                String url = in.readUTF();
+                String userAgent = readNullable(in);
+                String mimeType = readNullable(in);
+                String title = in.readUTF();
+                String destinationPath = in.readUTF();
+                // Version 1 predates extract-while-downloading.
+                boolean extract = version >= 2 && in.readBoolean();
+                DownloadRequest request = new DownloadRequest(url, userAgent, mimeType, title, destinationPath, extract);
+                int priority = in.readInt();
+                int state = in.readInt();
+                long backendId = in.readLong();
+                long enqueuedAt = in.readLong();
+                DownloadConstraints constraints = version >= 3
+                        ? new DownloadConstraints(in.readBoolean(), in.readBoolean(), in.readInt(), in.readInt())
+                        : DownloadConstraints.NONE;
+                tasks.add(new DownloadTask(id, request, priority, state, backendId, enqueuedAt, constraints));
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing persisted yet.
+        } catch (IOException e) {
+            tasks.clear();
+        }
+        return tasks;
+    }
+
+    void save(List<DownloadTask> tasks) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(VERSION);
+            out.writeInt(tasks.size());
+            for (DownloadTask task : tasks) {
+                DownloadRequest request = task.getRequest();
+                out.writeLong(task.getId());
+                out.writeUTF(request.getUrl());
+                writeNullable(out, request.getUserAgent());
+                writeNullable(out, request.getMimeType());
+                out.writeUTF(request.getTitle());
+                out.writeUTF(request.getDestinationPath());
+                out.writeBoolean(request.isExtractArchive());
+                out.writeInt(task.getPriority());
+                out.writeInt(task.getState());
+                out.writeLong(task.getBackendId());
+                out.writeLong(task.getEnqueuedAt());
+                DownloadConstraints constraints = task.getConstraints();
+                out.writeBoolean(constraints.requiresUnmetered());
+                out.writeBoolean(constraints.requiresCharging());
+                out.writeInt(constraints.getWindowStart());
+                out.writeInt(constraints.getWindowEnd());
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+}
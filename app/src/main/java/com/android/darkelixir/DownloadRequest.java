@@ -0,0 +1,57 @@
+package com.android.darkelixir;
+
+/**
+ * Everything a backend needs to start a transfer. Kept free of Android types so the scheduler
+ * can persist and test it on the JVM.
+ */
+public final class DownloadRequest {
+
+    private final String url;
+    private final String userAgent;
+    private final String mimeType;
+    private final String title;
+    private final String destinationPath;
+    private final boolean extractArchive;
+
+    public DownloadRequest(String url, String userAgent, String mimeType, String title, String destinationPath) {
+        this(url, userAgent, mimeType, title, destinationPath, false);
+    }
+
+    /**
+     * @param extractArchive if true the response is a zip that is unpacked as it arrives, and
+     *                       {@code destinationPath} names the folder to unpack into
+     */
+    public DownloadRequest(String url, String userAgent, String mimeType, String title, String destinationPath,
+                           boolean extractArchive) {
+        this.url = url;
+        this.userAgent = userAgent;
+        this.mimeType = mimeType;
+        this.title = title;
+        this.destinationPath = destinationPath;
+        this.extractArchive = extractArchive;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getUserAgent() {
+        return userAgent;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getDestinationPath() {
+        return destinationPath;
+    }
+
+    public boolean isExtractArchive() {
+        return extractArchive;
+    }
+}
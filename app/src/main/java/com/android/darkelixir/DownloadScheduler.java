@@ -0,0 +1,433 @@
+package com.android.darkelixir;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.Network;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.LongSupplier;
+
+/**
+ * Persisted download queue in front of a {@link DownloadBackend}.
+ *
+ * <p>At most {@code maxConcurrent} tasks run at once so a burst of links cannot saturate the
+ * link the WebView also needs. Waiting tasks are picked by priority, and every
+ * {@link #AGING_INTERVAL_MS} spent in the queue counts as one extra priority level, up to normal,
+ * so low priority work is delayed but never starved by normal work. High priority, as set by
+ * "Move to front", always goes first. Ties go to the task that was queued first.
+ *
+ * <p>Tasks may carry {@link DownloadConstraints}. A constrained task waits until the
+ * {@link DeviceConditions} satisfy it, and is paused and requeued if they stop doing so while it
+ * runs and the backend can continue it later; a transfer that would have to start over finishes
+ * instead. Deferred tasks are released in batches: after the network or power state changes they
+ * wait {@link #DEFERRED_SETTLE_MS} for it to settle, then everything eligible goes out in one pass
+ * instead of trickling out on every flap of the connection.
+ *
+ * <p>All state changes run serially on one background executor; readers get immutable copies.
+ */
+public final class DownloadScheduler implements DownloadStatusStore.Listener {
+
+    /** Called on the scheduler thread after every queue change. */
+    public interface Listener {
+        void onQueueChanged(List<DownloadTask> tasks);
+    }
+
+    static final String PREF_MAX_CONCURRENT = "max_concurrent_downloads";
+    static final int DEFAULT_MAX_CONCURRENT = 3;
+    static final long AGING_INTERVAL_MS = 60_000;
+    static final long DEFERRED_SETTLE_MS = 30_000;
+
+    private static volatile DownloadScheduler instance;
+
+    private final DownloadBackend backend;
+    private final DownloadStatusStore statusStore;
+    private final DownloadQueueFile queueFile;
+    private final Executor executor;
+    private final LongSupplier clock;
+    private final DeviceConditions conditions;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private final List<DownloadTask> tasks = new ArrayList<>();
+    private volatile List<DownloadTask> published = Collections.emptyList();
+    private int maxConcurrent;
+    private long nextTaskId = 1;
+    private DeviceState lastState;
+    private long conditionsChangedAt = Long.MIN_VALUE / 2;
+
+    public static DownloadScheduler get(Context context) {
+        if (instance == null) {
+            synchronized (DownloadScheduler.class) {
+                if (instance == null) {
+                    Context app = context.getApplicationContext();
+                    SharedPreferences prefs = app.getSharedPreferences("settings", Context.MODE_PRIVATE);
+                    instance = new DownloadScheduler(
+                            RoutingDownloadBackend.get(app),
+                            DownloadStatusStore.get(app),
+                            new DownloadQueueFile(new File(app.getFilesDir(), "download_queue.bin")),
+                            Executors.newSingleThreadExecutor(r -> {
+                                Thread t = new Thread(r, "download-scheduler");
+                                t.setDaemon(true);
+                                return t;
+                            }),
+                            System::currentTimeMillis,
+                            new AndroidDeviceConditions(app),
+                            prefs.getInt(PREF_MAX_CONCURRENT, DEFAULT_MAX_CONCURRENT));
+                    instance.restore();
+                    instance.watchConnectivity(app);
+                }
+            }
+        }
+        return instance;
+    }
+
+    DownloadScheduler(DownloadBackend backend, DownloadStatusStore statusStore, DownloadQueueFile queueFile,
+                      Executor executor, LongSupplier clock, DeviceConditions conditions, int maxConcurrent) {
+        this.backend = backend;
+        this.statusStore = statusStore;
+        this.queueFile = queueFile;
+        this.executor = executor;
+        this.clock = clock;
+        this.conditions = conditions;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+    }
+
+    /** Reloads the persisted queue and reconciles tasks that were running when the process died. */
+    void restore() {
+        executor.execute(() -> {
+            tasks.clear();
+            tasks.addAll(queueFile.load());
+            for (DownloadTask task : tasks) {
+                nextTaskId = Math.max(nextTaskId, task.getId() + 1);
+            }
+            List<Long> running = new ArrayList<>();
+            for (DownloadTask task : tasks) {
+                if (task.getState() == DownloadTask.STATE_RUNNING) running.add(task.getBackendId());
+            }
+            if (!running.isEmpty()) {
+                long[] ids = new long[running.size()];
+                for (int i = 0; i < ids.length; i++) ids[i] = running.get(i);
+                reconcile(new DownloadSnapshot(backend.query(ids)));
+            }
+            pump();
+            commit();
+        });
+        statusStore.addListener(this);
+        conditions.setListener(this::onConditionsChanged);
+    }
+
+    private void watchConnectivity(Context context) {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) return;
+        cm.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                retryInterrupted();
+            }
+        });
+    }
+
+    public void enqueue(DownloadRequest request, int priority) {
+        enqueue(request, priority, DownloadConstraints.NONE);
+    }
+
+    /**
+     * Queues {@code request}. A task for the same destination path that is already waiting or
+     * running is left alone; a paused or failed one is queued again.
+     */
+    public void enqueue(DownloadRequest request, int priority, DownloadConstraints constraints) {
+        long enqueuedAt = clock.getAsLong();
+        executor.execute(() -> {
+            int existing = indexOfPath(request.getDestinationPath());
+            if (existing >= 0) {
+                DownloadTask task = tasks.get(existing);
+                // Two taps on one link both pass the caller's check before either reaches this thread.
+                if (task.isActive()) return;
+                tasks.set(existing, task.withState(DownloadTask.STATE_QUEUED, -1));
+            } else {
+                tasks.add(new DownloadTask(nextTaskId++, request, priority, DownloadTask.STATE_QUEUED, -1,
+                        enqueuedAt, constraints));
+            }
+            pump();
+            commit();
+        });
+    }
+
+    public void pause(long taskId) {
+        executor.execute(() -> {
+            int index = indexOf(taskId);
+            if (index < 0) return;
+            DownloadTask task = tasks.get(index);
+            if (task.getState() == DownloadTask.STATE_RUNNING) {
+                backend.pause(task.getBackendId());
+            }
+            if (task.getState() == DownloadTask.STATE_RUNNING || task.getState() == DownloadTask.STATE_QUEUED) {
+                tasks.set(index, task.withState(DownloadTask.STATE_PAUSED, -1));
+                pump();
+                commit();
+            }
+        });
+    }
+
+    public void resume(long taskId) {
+        executor.execute(() -> {
+            int index = indexOf(taskId);
+            if (index < 0) return;
+            DownloadTask task = tasks.get(index);
+            if (task.getState() == DownloadTask.STATE_PAUSED || task.getState() == DownloadTask.STATE_FAILED) {
+                tasks.set(index, task.withState(DownloadTask.STATE_QUEUED, -1));
+                pump();
+                commit();
+            }
+        });
+    }
+
+    /**
+     * Requeues failed tasks whose backend can continue from partial data, typically after the
+     * network comes back.
+     */
+    public void retryInterrupted() {
+        executor.execute(() -> {
+            boolean changed = false;
+            for (int i = 0; i < tasks.size(); i++) {
+                DownloadTask task = tasks.get(i);
+                if (task.getState() == DownloadTask.STATE_FAILED && task.getBackendId() >= 0
+                        && backend.canResume(task.getBackendId(), task.getRequest())) {
+                    tasks.set(i, task.withState(DownloadTask.STATE_QUEUED, -1));
+                    changed = true;
+                }
+            }
+            if (changed) {
+                pump();
+                commit();
+            }
+        });
+    }
+
+    public void cancel(long taskId) {
+        executor.execute(() -> {
+            int index = indexOf(taskId);
+            if (index < 0) return;
+            DownloadTask task = tasks.remove(index);
+            if (task.getState() == DownloadTask.STATE_RUNNING) {
+                backend.remove(task.getBackendId());
+            } else if (task.getState() == DownloadTask.STATE_PAUSED || task.getState() == DownloadTask.STATE_FAILED) {
+                backend.discard(task.getRequest());
+            }
+            pump();
+            commit();
+        });
+    }
+
+    public void setPriority(long taskId, int priority) {
+        executor.execute(() -> {
+            int index = indexOf(taskId);
+            if (index < 0) return;
+            tasks.set(index, tasks.get(index).withPriority(priority));
+            pump();
+            commit();
+        });
+    }
+
+    public void setMaxConcurrent(int max) {
+        executor.execute(() -> {
+            maxConcurrent = Math.max(1, max);
+            pump();
+            commit();
+        });
+    }
+
+    public List<DownloadTask> getTasks() {
+        return published;
+    }
+
+    public DownloadTask findByPath(String path) {
+        for (DownloadTask task : published) {
+            if (task.getRequest().getDestinationPath().equals(path)) return task;
+        }
+        return null;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /** Re-evaluates constrained tasks; called by {@link DeviceConditions} on changes and wake-ups. */
+    void onConditionsChanged() {
+        executor.execute(() -> {
+            if (pump()) commit();
+        });
+    }
+
+    @Override
+    public void onSnapshot(DownloadSnapshot snapshot) {
+        executor.execute(() -> {
+            if (reconcile(snapshot)) {
+                pump();
+                commit();
+            }
+        });
+    }
+
+    /** Applies backend state to running tasks. Returns true if anything changed. */
+    private boolean reconcile(DownloadSnapshot snapshot) {
+        boolean changed = false;
+        for (int i = tasks.size() - 1; i >= 0; i--) {
+            DownloadTask task = tasks.get(i);
+            if (task.getState() != DownloadTask.STATE_RUNNING) continue;
+
+            DownloadStatus status = snapshot.getById(task.getBackendId());
+            if (status == null) {
+                // Absent from a snapshot: either not polled yet or gone from the backend.
+                List<DownloadStatus> direct = backend.query(new long[]{task.getBackendId()});
+                status = direct.isEmpty() ? null : direct.get(0);
+                if (status == null) {
+                    // A resumable transfer lost with its process continues once requeued.
+                    int state = backend.canResume(task.getBackendId(), task.getRequest())
+                            ? DownloadTask.STATE_QUEUED : DownloadTask.STATE_FAILED;
+                    tasks.set(i, task.withState(state, -1));
+                    changed = true;
+                    continue;
+                }
+            }
+            if (status.getState() == DownloadStatus.STATE_SUCCESSFUL) {
+                tasks.remove(i);
+                changed = true;
+            } else if (status.getState() == DownloadStatus.STATE_FAILED) {
+                // The backend id is kept so retryInterrupted() can tell whether partial data survives.
+                tasks.set(i, task.withState(DownloadTask.STATE_FAILED, task.getBackendId()));
+                changed = true;
+            } else {
+                statusStore.track(task.getBackendId());
+            }
+        }
+        return changed;
+    }
+
+    /** Starts and suspends tasks as slots and conditions allow. Returns true if anything changed. */
+    private boolean pump() {
+        long now = clock.getAsLong();
+        DeviceState state = conditions.current();
+        if (state.differsFrom(lastState)) {
+            if (lastState != null) conditionsChangedAt = now;
+            lastState = state;
+        }
+        boolean changed = false;
+        int running = 0;
+        for (int i = 0; i < tasks.size(); i++) {
+            DownloadTask task = tasks.get(i);
+            if (task.getState() != DownloadTask.STATE_RUNNING) continue;
+            if (task.getConstraints().isSatisfiedBy(state)
+                    // Pausing a system download deletes it, so it is cheaper to let it finish.
+                    || !backend.canResume(task.getBackendId(), task.getRequest())) {
+                running++;
+            } else {
+                // Engine downloads keep their partial data and continue when requeued.
+                backend.pause(task.getBackendId());
+                tasks.set(i, task.withState(DownloadTask.STATE_QUEUED, -1));
+                changed = true;
+            }
+        }
+        while (running < maxConcurrent) {
+            int next = pickNext(now, state);
+            if (next < 0) break;
+            DownloadTask task = tasks.get(next);
+            long backendId = backend.enqueue(task.getRequest());
+            tasks.set(next, task.withState(DownloadTask.STATE_RUNNING, backendId));
+            statusStore.track(backendId);
+            running++;
+            changed = true;
+        }
+        scheduleWakeup(now, state);
+        return changed;
+    }
+
+    private boolean isEligible(DownloadTask task, long now, DeviceState state) {
+        DownloadConstraints constraints = task.getConstraints();
+        if (constraints.isNone()) return true;
+        return constraints.isSatisfiedBy(state) && now - conditionsChangedAt >= DEFERRED_SETTLE_MS;
+    }
+
+    /** Asks to be woken when the settle delay ends or a task's time window opens or closes. */
+    private void scheduleWakeup(long now, DeviceState state) {
+        long delay = Long.MAX_VALUE;
+        for (DownloadTask task : tasks) {
+            DownloadConstraints constraints = task.getConstraints();
+            int taskState = task.getState();
+            if (constraints.isNone()
+                    || (taskState != DownloadTask.STATE_QUEUED && taskState != DownloadTask.STATE_RUNNING)) {
+                continue;
+            }
+            if (taskState == DownloadTask.STATE_QUEUED && constraints.isSatisfiedBy(state)) {
+                long settled = conditionsChangedAt + DEFERRED_SETTLE_MS - now;
+                if (settled > 0) delay = Math.min(delay, settled);
+            }
+            int minutes = constraints.minutesUntilWindowEdge(state.getMinuteOfDay());
+            if (minutes >= 0) {
+                // A second late, so the edge minute has certainly begun.
+                delay = Math.min(delay, minutes * 60_000L + 1_000);
+            }
+        }
+        if (delay != Long.MAX_VALUE) conditions.wakeAfter(delay);
+    }
+
+    private int pickNext(long now, DeviceState state) {
+        int best = -1;
+        long bestScore = Long.MIN_VALUE;
+        for (int i = 0; i < tasks.size(); i++) {
+            DownloadTask task = tasks.get(i);
+            if (task.getState() != DownloadTask.STATE_QUEUED || !isEligible(task, now, state)) continue;
+            long score = effectivePriority(task, now);
+            if (best < 0 || score > bestScore
+                    || (score == bestScore && task.getId() < tasks.get(best).getId())) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    static long effectivePriority(DownloadTask task, long now) {
+        long waited = Math.max(0, now - task.getEnqueuedAt());
+        long aged = Math.min(DownloadTask.PRIORITY_HIGH - 1, task.getPriority() + waited / AGING_INTERVAL_MS);
+        return Math.max(task.getPriority(), aged);
+    }
+
+    private void commit() {
+        List<DownloadTask> copy = Collections.unmodifiableList(new ArrayList<>(tasks));
+        published = copy;
+        try {
+            queueFile.save(copy);
+        } catch (IOException e) {
+            // The in-memory queue stays authoritative; the next change retries the write.
+        }
+        for (Listener listener : listeners) {
+            listener.onQueueChanged(copy);
+        }
+    }
+
+    private int indexOfPath(String path) {
+        for (int i = 0; i < tasks.size(); i++) {
+            if (tasks.get(i).getRequest().getDestinationPath().equals(path)) return i;
+        }
+        return -1;
+    }
+
+    private int indexOf(long taskId) {
+        for (int i = 0; i < tasks.size(); i++) {
+            if (tasks.get(i).getId() == taskId) return i;
+        }
+        return -1;
+    }
+}
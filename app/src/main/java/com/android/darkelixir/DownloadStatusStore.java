@@ -0,0 +1,175 @@
+package com.android.darkelixir;
+
+import android.content.Context;
+
+import androidx.core.content.ContextCompat;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide download state. While anyone is listening and at least one transfer is active,
+ * a background thread queries all active ids in a single cursor per tick and publishes an
+ * immutable {@link DownloadSnapshot} to the listeners on the callback executor.
+ */
+public final class DownloadStatusStore {
+
+    public interface Listener {
+        void onSnapshot(DownloadSnapshot snapshot);
+    }
+
+    static final long POLL_INTERVAL_MS = 500;
+    /** While nothing is on screen only the scheduler listens, and it can wait for news. */
+    static final long BACKGROUND_POLL_INTERVAL_MS = 5_000;
+
+    private static volatile DownloadStatusStore instance;
+
+    private final DownloadBackend backend;
+    private final ScheduledExecutorService pollExecutor;
+    private final Executor callbackExecutor;
+    // Guarded by this.
+    private long pollIntervalMs;
+
+    private final Set<Long> activeIds = ConcurrentHashMap.newKeySet();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile DownloadSnapshot snapshot = DownloadSnapshot.EMPTY;
+    private volatile boolean seeded;
+    private ScheduledFuture<?> pollTask;
+
+    public static DownloadStatusStore get(Context context) {
+        if (instance == null) {
+            synchronized (DownloadStatusStore.class) {
+                if (instance == null) {
+                    Context app = context.getApplicationContext();
+                    instance = new DownloadStatusStore(
+                            RoutingDownloadBackend.get(app),
+                            Executors.newSingleThreadScheduledExecutor(r -> {
+                                Thread t = new Thread(r, "download-status");
+                                t.setDaemon(true);
+                                return t;
+                            }),
+                            ContextCompat.getMainExecutor(app),
+                            POLL_INTERVAL_MS);
+                }
+            }
+        }
+        return instance;
+    }
+
+    DownloadStatusStore(DownloadBackend backend, ScheduledExecutorService pollExecutor,
+                        Executor callbackExecutor, long pollIntervalMs) {
+        this.backend = backend;
+        this.pollExecutor = pollExecutor;
+        this.callbackExecutor = callbackExecutor;
+        this.pollIntervalMs = pollIntervalMs;
+    }
+
+    public void track(long downloadId) {
+        if (downloadId < 0) return;
+        activeIds.add(downloadId);
+        updatePolling();
+    }
+
+    public DownloadSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+        DownloadSnapshot current = snapshot;
+        callbackExecutor.execute(() -> listener.onSnapshot(current));
+        updatePolling();
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+        updatePolling();
+    }
+
+    /** Changes how often active transfers are polled, rescheduling a poll already running. */
+    public synchronized void setPollInterval(long intervalMs) {
+        if (intervalMs == pollIntervalMs) return;
+        boolean faster = intervalMs < pollIntervalMs;
+        pollIntervalMs = intervalMs;
+        if (pollTask != null) {
+            pollTask.cancel(false);
+            // Speeding up means someone is looking again, so fetch fresh progress at once.
+            pollTask = pollExecutor.scheduleWithFixedDelay(this::safeTick,
+                    faster ? 0 : pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Runs one query and publishes the result if it differs from the previous snapshot. */
+    void tick() {
+        if (!seeded) {
+            seeded = true;
+            for (long id : backend.queryActiveIds()) {
+                activeIds.add(id);
+            }
+        }
+
+        long[] ids = toArray(activeIds);
+        List<DownloadStatus> statuses = ids.length == 0 ? new ArrayList<>() : backend.query(ids);
+
+        Set<Long> seen = new HashSet<>();
+        for (DownloadStatus status : statuses) {
+            seen.add(status.getId());
+            if (status.isTerminal()) {
+                activeIds.remove(status.getId());
+            }
+        }
+        for (long id : ids) {
+            // Removed from the backend entirely, e.g. cancelled from the notification shade.
+            if (!seen.contains(id)) activeIds.remove(id);
+        }
+
+        DownloadSnapshot next = new DownloadSnapshot(statuses);
+        if (!next.equals(snapshot)) {
+            snapshot = next;
+            for (Listener listener : listeners) {
+                callbackExecutor.execute(() -> listener.onSnapshot(next));
+            }
+        }
+
+        if (ids.length == 0) {
+            updatePolling();
+        }
+    }
+
+    private synchronized void updatePolling() {
+        boolean wanted = !listeners.isEmpty() && (!activeIds.isEmpty() || !seeded || !snapshot.isEmpty());
+        if (wanted && pollTask == null) {
+            pollTask = pollExecutor.scheduleWithFixedDelay(this::safeTick,
+                    seeded ? pollIntervalMs : 0, pollIntervalMs, TimeUnit.MILLISECONDS);
+        } else if (!wanted && pollTask != null) {
+            pollTask.cancel(false);
+            pollTask = null;
+        }
+    }
+
+    private void safeTick() {
+        try {
+            tick();
+        } catch (RuntimeException e) {
+            // A transient provider failure must not kill the scheduled task.
+        }
+    }
+
+    private static long[] toArray(Set<Long> ids) {
+        Long[] boxed = ids.toArray(new Long[0]);
+        long[] result = new long[boxed.length];
+        for (int i = 0; i < boxed.length; i++) {
+            result[i] = boxed[i];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,90 @@
+package com.android.darkelixir;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Immutable entry in the {@link DownloadScheduler} queue.
+ */
+public final class DownloadTask {
+
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_HIGH = 2;
+
+    public static final int STATE_QUEUED = 1;
+    public static final int STATE_RUNNING = 2;
+    public static final int STATE_PAUSED = 3;
+    public static final int STATE_FAILED = 4;
+
+    private final long id;
+    private final DownloadRequest request;
+    private final int priority;
+    private final int state;
+    private final long backendId;
+    private final long enqueuedAt;
+    private final DownloadConstraints constraints;
+
+    public DownloadTask(long id, DownloadRequest request, int priority, int state, long backendId, long enqueuedAt) {
+        this(id, request, priority, state, backendId, enqueuedAt, DownloadConstraints.NONE);
+    }
+
+    public DownloadTask(long id, DownloadRequest request, int priority, int state, long backendId, long enqueuedAt,
+                        DownloadConstraints constraints) {
+        this.id = id;
+        this.request = request;
+        this.priority = priority;
+        this.state = state;
+        this.backendId = backendId;
+        this.enqueuedAt = enqueuedAt;
+        this.constraints = constraints;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public DownloadRequest getRequest() {
+        return request;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    /** Id assigned by the backend while running, or -1. */
+    public long getBackendId() {
+        return backendId;
+    }
+
+    public long getEnqueuedAt() {
+        return enqueuedAt;
+    }
+
+    public DownloadConstraints getConstraints() {
+        return constraints;
+    }
+
+    /** True while waiting or running; paused and failed tasks stay queued until resumed or cancelled. */
+    public boolean isActive() {
+        return state == STATE_QUEUED || state == STATE_RUNNING;
+    }
+
+    DownloadTask withState(int newState, long newBackendId) {
+        return new DownloadTask(id, request, priority, newState, newBackendId, enqueuedAt, constraints);
+    }
+
+    DownloadTask withPriority(int newPriority) {
+        return new DownloadTask(id, request, newPriority, state, backendId, enqueuedAt, constraints);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "DownloadTask{id=" + id + ", state=" + state + ", priority=" + priority
+                + ", backendId=" + backendId + ", constraints=" + constraints + ", title=" + request.getTitle() + "}";
+    }
+}
@@ -1,166 +1,319 @@
 package com.android.darkelixir;
 
-import android.app.DownloadManager;
 import android.content.Context;
-import android.database.Cursor;
-import android.net.Uri;
-import android.os.Handler;
-import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.webkit.MimeTypeMap;
+import android.widget.ImageView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.io.File;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
-public class DownloadedFilesAdapter extends RecyclerView.Adapter<DownloadedFilesAdapter.ViewHolder> {
+/**
+ * Shows the download folder through a {@link PagedListing} that lives on a background thread.
+ * The adapter holds only the listing's size and one window of rows around the viewport; rows
+ * outside it bind as placeholders until the window catches up.
+ */
+public class DownloadedFilesAdapter extends RecyclerView.Adapter<DownloadedFilesAdapter.ViewHolder>
+        implements DownloadStatusStore.Listener, DirectoryIndexer.Listener, VerificationStore.Listener {
+
+    public interface OnEntryClickListener {
+        void onEntryClick(DownloadEntry entry);
+    }
+
+    public interface OnSelectionChangedListener {
+        /** Called on the main thread; a count of zero means selection mode has ended. */
+        void onSelectionChanged(int count);
+    }
+
+    public interface OnListingChangedListener {
+        /** Called on the main thread with the row count and MIME type facet counts. */
+        void onListingChanged(int size, Map<String, Integer> facets);
+    }
+
+    /** Payload for rows whose download status changed; only the progress bar and status text rebind. */
+    static final Object PAYLOAD_STATUS = new Object();
+    /** Payload for rows that came into the window; rows that already show their entry skip the rebind. */
+    static final Object PAYLOAD_WINDOW = new Object();
+    /** Payload for rows selected or deselected; only the thumbnail rebinds. */
+    static final Object PAYLOAD_SELECTION = new Object();
+
+    static final int WINDOW_SIZE = 200;
+    // Rows this close to either window edge ask for the window to follow the scroll.
+    private static final int PREFETCH_MARGIN = WINDOW_SIZE / 5;
+
+    private static final Executor LISTING_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "download-listing");
+        t.setDaemon(true);
+        return t;
+    });
 
     private final Context context;
-    private final List<File> files;
-    private final DownloadManager downloadManager;
-    private long currentDownloadId;
-    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final DownloadStatusStore statusStore;
+    private final VerificationStore verificationStore;
+    private final ThumbnailLoader thumbnails;
+    private final Executor listingExecutor;
+    private final Executor mainExecutor;
+    private final PagedListing listing;
+    private final PerfMetrics.Histogram bindLatency = PerfMetrics.global().histogram(PerfMetrics.ADAPTER_BIND);
+    private final PerfMetrics.Histogram queryLatency = PerfMetrics.global().histogram(PerfMetrics.LISTING_QUERY);
+    private final AtomicReference<ListingQuery> pendingQuery = new AtomicReference<>();
+    private final Map<String, Integer> positions = new HashMap<>();
+    // Selected rows by path, in the order they were picked; main thread only.
+    private final Map<String, DownloadEntry> selected = new LinkedHashMap<>();
+    private PagedListing.Update current = PagedListing.Update.EMPTY;
+    private boolean windowRequested;
+    private boolean attached;
+    private boolean visible = true;
+    private boolean listening;
+    private DownloadSnapshot snapshot = DownloadSnapshot.EMPTY;
+    private OnEntryClickListener clickListener;
+    private OnSelectionChangedListener selectionListener;
+    private OnListingChangedListener listingListener;
+
+    public DownloadedFilesAdapter(Context context, ListingQuery query) {
+        this(context, query, DownloadStatusStore.get(context), VerificationStore.get(context),
+                ThumbnailLoader.get(context), LISTING_EXECUTOR, ContextCompat.getMainExecutor(context));
+    }
 
-    public DownloadedFilesAdapter(Context context, List<File> files, long currentDownloadId) {
+    /** A null {@code thumbnails} leaves the thumbnail view alone. */
+    DownloadedFilesAdapter(Context context, ListingQuery query, DownloadStatusStore statusStore,
+                           VerificationStore verificationStore, ThumbnailLoader thumbnails,
+                           Executor listingExecutor, Executor mainExecutor) {
         this.context = context;
-        this.files = files;
-        this.currentDownloadId = currentDownloadId;
-        this.downloadManager = (DownloadManager) context.getSystemService(Context.DOWNLOAD_SERVICE);
-        startProgressUpdates();
+        this.statusStore = statusStore;
+        this.verificationStore = verificationStore;
+        this.thumbnails = thumbnails;
+        this.listingExecutor = listingExecutor;
+        this.mainExecutor = mainExecutor;
+        this.listing = new PagedListing(query, WINDOW_SIZE);
+        setHasStableIds(true);
+    }
+
+    public void setOnEntryClickListener(OnEntryClickListener listener) {
+        this.clickListener = listener;
+    }
+
+    public void setOnSelectionChangedListener(OnSelectionChangedListener listener) {
+        this.selectionListener = listener;
+    }
+
+    public void setOnListingChangedListener(OnListingChangedListener listener) {
+        this.listingListener = listener;
     }
 
-    @NonNull
     @Override
-    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
-        View view = LayoutInflater.from(context).inflate(R.layout.item_download_clean, parent, false);
-        return new ViewHolder(view);
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        attached = true;
+        updateListening();
     }
 
     @Override
-    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        File file = files.get(position);
-        holder.fileNameTextView.setText(file.getName());
-        holder.fileSizeTextView.setText(formatFileSize(file.length()));
-        holder.fileDateTextView.setText(getFormattedDate(file.lastModified()));
-        holder.fileTypeTextView.setText(getMimeType(file));
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        attached = false;
+        updateListening();
+        super.onDetachedFromRecyclerView(recyclerView);
+    }
 
-        if (isCurrentDownloadingFile(file)) {
-            int progress = getDownloadProgress();
+    /**
+     * While hidden the rows stop following download and verification progress, so the status
+     * store can stop polling for them. Showing them again catches up in one pass.
+     */
+    public void setVisible(boolean visible) {
+        this.visible = visible;
+        updateListening();
+    }
 
-            holder.progressBar.setVisibility(View.VISIBLE);
-            holder.progressBar.setProgress(progress);
-            holder.statusTextView.setText("Downloading...");
-            holder.statusTextView.setTextColor(0xFF2196F3); // Blue
+    private void updateListening() {
+        boolean listen = attached && visible;
+        if (listen == listening) return;
+        listening = listen;
+        if (listen) {
+            // The store replays its latest snapshot; verifications finished meanwhile are not replayed.
+            statusStore.addListener(this);
+            verificationStore.addListener(this);
+            notifyItemRangeChanged(0, getItemCount(), PAYLOAD_STATUS);
         } else {
-            holder.progressBar.setVisibility(View.GONE);
-            holder.statusTextView.setText("Done");
-            holder.statusTextView.setTextColor(0xFF4CAF50); // Green
+            statusStore.removeListener(this);
+            verificationStore.removeListener(this);
         }
-
-        holder.statusTextView.setVisibility(View.VISIBLE);
     }
 
     @Override
-    public int getItemCount() {
-        return files.size();
+    public void onSnapshot(DownloadSnapshot snapshot) {
+        DownloadSnapshot previous = this.snapshot;
+        this.snapshot = snapshot;
+        for (String path : snapshot.changedPaths(previous)) {
+            int position = positionOf(path);
+            if (position >= 0) {
+                notifyItemChanged(position, PAYLOAD_STATUS);
+            }
+        }
     }
 
-    private boolean isCurrentDownloadingFile(File file) {
-        if (currentDownloadId == -1) return false;
-
-        DownloadManager.Query query = new DownloadManager.Query().setFilterById(currentDownloadId);
-        try (Cursor cursor = downloadManager.query(query)) {
-            if (cursor != null && cursor.moveToFirst()) {
-                String localUri = cursor.getString(cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_LOCAL_URI));
-                if (localUri != null) {
-                    Uri fileUri = Uri.parse(localUri);
-                    return file.getAbsolutePath().equals(fileUri.getPath());
-                }
-            }
+    @Override
+    public void onVerificationChanged(String path) {
+        int position = positionOf(path);
+        if (position >= 0) {
+            notifyItemChanged(position, PAYLOAD_STATUS);
         }
-        return false;
     }
 
-    private int getDownloadProgress() {
-        if (currentDownloadId == -1) return 0;
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(context).inflate(R.layout.item_download_clean, parent, false);
+        ViewHolder holder = new ViewHolder(view);
+        view.setOnClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            DownloadEntry entry = position != RecyclerView.NO_POSITION ? current.get(position) : null;
+            if (entry == null) return;
+            if (!selected.isEmpty()) {
+                toggleSelection(entry, position);
+            } else if (clickListener != null) {
+                clickListener.onEntryClick(entry);
+            }
+        });
+        // A long press starts selection mode; further taps add or drop rows.
+        view.setOnLongClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            DownloadEntry entry = position != RecyclerView.NO_POSITION ? current.get(position) : null;
+            if (entry == null) return false;
+            toggleSelection(entry, position);
+            return true;
+        });
+        return holder;
+    }
 
-        DownloadManager.Query query = new DownloadManager.Query().setFilterById(currentDownloadId);
-        try (Cursor cursor = downloadManager.query(query)) {
-            if (cursor != null && cursor.moveToFirst()) {
-                int bytesDownloaded = cursor.getInt(cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_BYTES_DOWNLOADED_SO_FAR));
-                int bytesTotal = cursor.getInt(cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_TOTAL_SIZE_BYTES));
-                if (bytesTotal > 0) {
-                    return (int) ((bytesDownloaded * 100L) / bytesTotal);
-                }
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        long started = System.nanoTime();
+        DownloadEntry entry = current.get(position);
+        if (entry == null) {
+            bindPlaceholder(holder);
+            requestWindow(position);
+        } else {
+            if (nearWindowEdge(position)) requestWindow(position);
+            boolean sameRow = entry.getPath().equals(holder.boundPath);
+            if (sameRow && (payloads.contains(PAYLOAD_STATUS) || payloads.contains(PAYLOAD_SELECTION))) {
+                bindStatus(holder, entry);
+            } else if (!sameRow || !payloads.contains(PAYLOAD_WINDOW)) {
+                bind(holder, entry);
             }
         }
-        return 0;
+        bindLatency.record((System.nanoTime() - started) / 1000);
     }
 
-    private void startProgressUpdates() {
-        handler.post(progressRunnable);
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        onBindViewHolder(holder, position, Collections.emptyList());
     }
 
-    private final Runnable progressRunnable = new Runnable() {
-        @Override
-        public void run() {
-            if (currentDownloadId == -1) {
-                handler.removeCallbacks(this);
-                return;
-            }
-            notifyDataSetChanged();
+    @Override
+    public void onViewRecycled(@NonNull ViewHolder holder) {
+        if (thumbnails != null) thumbnails.cancel(holder.thumbnailView);
+        super.onViewRecycled(holder);
+    }
 
-            if (isDownloadComplete(currentDownloadId)) {
-                currentDownloadId = -1;
-                handler.removeCallbacks(this);
-                notifyDataSetChanged();
-                return;
-            }
-            handler.postDelayed(this, 500);
+    private void bind(ViewHolder holder, DownloadEntry entry) {
+        holder.boundPath = entry.getPath();
+        holder.fileNameTextView.setText(entry.getName());
+        holder.fileSizeTextView.setText(entry.getDisplaySize());
+        holder.fileDateTextView.setText(entry.getDisplayDate());
+        holder.fileTypeTextView.setText(entry.getMimeType());
+        bindStatus(holder, entry);
+        holder.statusTextView.setVisibility(View.VISIBLE);
+    }
+
+    private void bindThumbnail(ViewHolder holder, DownloadEntry entry, boolean downloading) {
+        boolean isSelected = selected.containsKey(entry.getPath());
+        holder.itemView.setActivated(isSelected);
+        if (thumbnails == null) return;
+        if (isSelected) {
+            thumbnails.cancel(holder.thumbnailView);
+            holder.thumbnailView.setImageResource(android.R.drawable.checkbox_on_background);
+            return;
         }
-    };
-
-    private boolean isDownloadComplete(long downloadId) {
-        DownloadManager.Query query = new DownloadManager.Query().setFilterById(downloadId);
-        try (Cursor cursor = downloadManager.query(query)) {
-            if (cursor != null && cursor.moveToFirst()) {
-                int status = cursor.getInt(cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_STATUS));
-                return status == DownloadManager.STATUS_SUCCESSFUL || status == DownloadManager.STATUS_FAILED;
-            }
+        // A file still being written would be decoded again on every progress tick.
+        if (downloading) {
+            thumbnails.showIcon(entry, holder.thumbnailView);
+        } else {
+            thumbnails.load(entry, holder.thumbnailView);
         }
-        return false;
     }
 
-    private String formatFileSize(long size) {
-        if (size <= 0) return "0 B";
-        final String[] units = {"B", "KB", "MB", "GB", "TB"};
-        int digitGroups = (int) (Math.log10(size) / Math.log10(1024));
-        return String.format("%.1f %s", size / Math.pow(1024, digitGroups), units[digitGroups]);
+    private void bindPlaceholder(ViewHolder holder) {
+        holder.boundPath = null;
+        holder.itemView.setActivated(false);
+        if (thumbnails != null) thumbnails.cancel(holder.thumbnailView);
+        holder.thumbnailView.setImageDrawable(null);
+        holder.fileNameTextView.setText("");
+        holder.fileSizeTextView.setText("");
+        holder.fileDateTextView.setText("");
+        holder.fileTypeTextView.setText("");
+        holder.progressBar.setVisibility(View.GONE);
+        holder.statusTextView.setVisibility(View.INVISIBLE);
     }
 
-    private String getFormattedDate(long timestamp) {
-        SimpleDateFormat sdf = new SimpleDateFormat("dd MMM yyyy", Locale.getDefault());
-        return sdf.format(new Date(timestamp));
+    private void bindStatus(ViewHolder holder, DownloadEntry entry) {
+        DownloadStatus status = snapshot.get(entry.getPath());
+        boolean downloading = status != null && status.isActive();
+        bindThumbnail(holder, entry, downloading);
+        if (downloading) {
+            holder.progressBar.setVisibility(View.VISIBLE);
+            holder.progressBar.setProgress(status.getProgress());
+            holder.statusTextView.setText(status.getDetail() != null ? status.getDetail() : "Downloading...");
+            holder.statusTextView.setTextColor(0xFF2196F3); // Blue
+            return;
+        }
+        holder.progressBar.setVisibility(View.GONE);
+        FileVerification verification = verificationStore.lookup(entry);
+        int state = verification != null ? verification.getState() : FileVerification.STATE_CHECKSUMMED;
+        if (state == FileVerification.STATE_PENDING) {
+            holder.statusTextView.setText("Verifying...");
+            holder.statusTextView.setTextColor(0xFFFF9800); // Orange
+        } else if (state == FileVerification.STATE_CORRUPT) {
+            holder.statusTextView.setText("Corrupt");
+            holder.statusTextView.setTextColor(0xFFF44336); // Red
+        } else if (state == FileVerification.STATE_VERIFIED) {
+            holder.statusTextView.setText("Verified");
+            holder.statusTextView.setTextColor(0xFF4CAF50); // Green
+        } else {
+            holder.statusTextView.setText("Done");
+            holder.statusTextView.setTextColor(0xFF4CAF50); // Green
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return current.size;
     }
 
-    private String getMimeType(File file) {
-        String extension = android.webkit.MimeTypeMap.getFileExtensionFromUrl(file.getName());
-        return MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension) != null ?
-                MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension) : "Unknown";
+    @Override
+    public long getItemId(int position) {
+        return current.ids[position];
     }
 
     public static class ViewHolder extends RecyclerView.ViewHolder {
         final TextView fileNameTextView, fileSizeTextView, fileDateTextView, fileTypeTextView, statusTextView;
         final ProgressBar progressBar;
+        final ImageView thumbnailView;
+        String boundPath;
 
         public ViewHolder(@NonNull View itemView) {
             super(itemView);
@@ -170,23 +323,133 @@ public class DownloadedFilesAdapter extends RecyclerView.Adapter<DownloadedFiles
             fileTypeTextView = itemView.findViewById(R.id.fileTypeTextView);
             statusTextView = itemView.findViewById(R.id.statusTextView);
             progressBar = itemView.findViewById(R.id.fileDownloadProgressBar);
+            thumbnailView = itemView.findViewById(R.id.fileThumbnailView);
+        }
+    }
+
+    @Override
+    public void onIndexChanged(DirectoryIndex.Delta delta) {
+        listingExecutor.execute(() -> publish(listing.apply(delta)));
+    }
+
+    /**
+     * Re-sorts, re-filters and searches off the main thread; the list scrolls back to the top.
+     * Queries set faster than they run, as while typing, collapse into the latest one.
+     */
+    public void setQuery(ListingQuery query) {
+        if (pendingQuery.getAndSet(query) != null) return;
+        listingExecutor.execute(() -> {
+            ListingQuery latest = pendingQuery.getAndSet(null);
+            long started = System.nanoTime();
+            PagedListing.Update update = listing.setQuery(latest);
+            queryLatency.record((System.nanoTime() - started) / 1000);
+            publish(update);
+        });
+    }
+
+    // Listing thread.
+    private void publish(PagedListing.Update update) {
+        if (!update.isEmpty()) mainExecutor.execute(() -> onListingUpdate(update));
+    }
+
+    private void onListingUpdate(PagedListing.Update update) {
+        current = update;
+        positions.clear();
+        if (update.reset || update.windowMoved) windowRequested = false;
+        if (update.reset) {
+            notifyDataSetChanged();
+        } else if (update.windowMoved) {
+            notifyItemRangeChanged(update.windowStart, update.window.size(), PAYLOAD_WINDOW);
+        } else {
+            for (int i = 0; i < update.ops.length; i += 2) {
+                int position = update.ops[i + 1];
+                if (update.ops[i] == PagedListing.Update.INSERT) {
+                    notifyItemInserted(position);
+                } else if (update.ops[i] == PagedListing.Update.REMOVE) {
+                    notifyItemRemoved(position);
+                } else {
+                    notifyItemChanged(position);
+                }
+            }
         }
+        if (listingListener != null) listingListener.onListingChanged(update.size, update.facets);
     }
 
-    public void updateFiles(List<File> newFiles) {
-        this.files.clear();
-        this.files.addAll(newFiles);
-        notifyDataSetChanged();
+    private boolean nearWindowEdge(int position) {
+        int offset = position - current.windowStart;
+        int end = current.windowStart + current.window.size();
+        return (offset < PREFETCH_MARGIN && current.windowStart > 0)
+                || (current.window.size() - offset <= PREFETCH_MARGIN && end < current.size);
     }
 
-    public File getFileAt(int position) {
-        return files.get(position);
+    private void requestWindow(int position) {
+        if (windowRequested) return;
+        windowRequested = true;
+        listingExecutor.execute(() -> publish(listing.moveWindow(position)));
     }
 
-    public void removeFileAt(int position) {
-        if (position >= 0 && position < files.size()) {
-            files.remove(position);
-            notifyItemRemoved(position);
+    private int positionOf(String path) {
+        if (positions.isEmpty()) {
+            List<DownloadEntry> window = current.window;
+            for (int i = 0; i < window.size(); i++) {
+                positions.put(window.get(i).getPath(), current.windowStart + i);
+            }
         }
+        Integer position = positions.get(path);
+        return position != null ? position : -1;
+    }
+
+    /** Returns the entry shown at {@code position}, or null if that row is not loaded. */
+    public DownloadEntry getEntryAt(int position) {
+        return current.get(position);
+    }
+
+    /** Drops rows in one change set, ahead of the files themselves going. */
+    public void removeEntries(Collection<String> paths) {
+        List<String> removed = new ArrayList<>(paths);
+        listingExecutor.execute(() -> publish(listing.apply(
+                new DirectoryIndex.Delta(new ArrayList<>(), new ArrayList<>(), removed))));
+    }
+
+    /** Shows rows again, in one change set, after a removal was undone or failed. */
+    public void restoreEntries(Collection<DownloadEntry> entries) {
+        List<DownloadEntry> added = new ArrayList<>(entries);
+        listingExecutor.execute(() -> publish(listing.apply(
+                new DirectoryIndex.Delta(added, new ArrayList<>(), new ArrayList<>()))));
+    }
+
+    /** Selected entries in the order they were picked. */
+    public List<DownloadEntry> getSelection() {
+        return new ArrayList<>(selected.values());
+    }
+
+    public int getSelectionCount() {
+        return selected.size();
+    }
+
+    private void toggleSelection(DownloadEntry entry, int position) {
+        if (selected.remove(entry.getPath()) == null) selected.put(entry.getPath(), entry);
+        notifyItemChanged(position, PAYLOAD_SELECTION);
+        if (selectionListener != null) selectionListener.onSelectionChanged(selected.size());
+    }
+
+    /** Selects every row the current query shows, including ones outside the window. */
+    public void selectAll() {
+        listingExecutor.execute(() -> {
+            List<DownloadEntry> rows = new ArrayList<>(listing.size());
+            for (int i = 0; i < listing.size(); i++) rows.add(listing.get(i));
+            mainExecutor.execute(() -> {
+                for (DownloadEntry entry : rows) selected.put(entry.getPath(), entry);
+                notifyItemRangeChanged(0, getItemCount(), PAYLOAD_SELECTION);
+                if (selectionListener != null) selectionListener.onSelectionChanged(selected.size());
+            });
+        });
+    }
+
+    public void clearSelection() {
+        if (selected.isEmpty()) return;
+        selected.clear();
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_SELECTION);
+        if (selectionListener != null) selectionListener.onSelectionChanged(0);
     }
-}
\ No newline at end of file
+}
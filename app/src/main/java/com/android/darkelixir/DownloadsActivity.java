@@ -1,36 +1,134 @@
 package com.android.darkelixir;
 
+import android.content.Intent;
 import android.content.SharedPreferences;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.text.format.Formatter;
+import android.view.ActionMode;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.animation.RotateAnimation;
+import android.widget.EditText;
+import android.widget.ProgressBar;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.app.AppCompatDelegate;
+import androidx.core.content.FileProvider;
 import androidx.core.view.WindowCompat;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
+import com.google.android.material.snackbar.Snackbar;
 
 import androidx.recyclerview.widget.ItemTouchHelper;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class DownloadsActivity extends AppCompatActivity {
 
+    static final String PREF_LISTING_SORT = "listing_sort";
+    static final String PREF_LISTING_DESCENDING = "listing_descending";
+    static final String PREF_LISTING_FILTER = "listing_filter";
+    /** Batches larger than this show a progress dialog while the files move. */
+    private static final int PROGRESS_DIALOG_THRESHOLD = 20;
+    private static final int MENU_DELETE = 1;
+    private static final int MENU_SHARE = 2;
+    private static final int MENU_MOVE = 3;
+    private static final int MENU_SELECT_ALL = 4;
+    private static final int MENU_PIN = 5;
+
     private RecyclerView downloadedFilesRecyclerView;
     private DownloadedFilesAdapter adapter;
     private FloatingActionButton refreshFab;
     private FloatingActionButton fabToggleTheme;
+    private FloatingActionButton sortFab;
+    private TextView facetsView;
     private SharedPreferences prefs;
+    private ListingQuery query;
+    private Map<String, Integer> facets = new TreeMap<>();
+    private DirectoryIndexer indexer;
+    private ActionMode selectionMode;
+    private final DirectoryIndexer.Listener indexListener = new DirectoryIndexer.Listener() {
+        @Override
+        public void onIndexChanged(DirectoryIndex.Delta delta) {
+            adapter.onIndexChanged(delta);
+        }
+
+        @Override
+        public void onInitialListingComplete(int entries) {
+            if (entries == 0) {
+                Toast.makeText(DownloadsActivity.this, "No downloads found", Toast.LENGTH_SHORT).show();
+            }
+        }
+    };
+
+    private final ActionMode.Callback selectionCallback = new ActionMode.Callback() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            menu.add(Menu.NONE, MENU_DELETE, Menu.NONE, "Delete")
+                    .setIcon(android.R.drawable.ic_menu_delete)
+                    .setShowAsAction(MenuItem.SHOW_AS_ACTION_IF_ROOM);
+            menu.add(Menu.NONE, MENU_SHARE, Menu.NONE, "Share")
+                    .setIcon(android.R.drawable.ic_menu_share)
+                    .setShowAsAction(MenuItem.SHOW_AS_ACTION_IF_ROOM);
+            menu.add(Menu.NONE, MENU_MOVE, Menu.NONE, "Move to...");
+            menu.add(Menu.NONE, MENU_SELECT_ALL, Menu.NONE, "Select all");
+            menu.add(Menu.NONE, MENU_PIN, Menu.NONE, "Keep during automatic cleanup");
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
 
-    private static final String DOWNLOAD_SUBFOLDER = "DarkElixir";
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            List<DownloadEntry> selection = adapter.getSelection();
+            switch (item.getItemId()) {
+                case MENU_DELETE:
+                    deleteEntries(selection);
+                    break;
+                case MENU_SHARE:
+                    shareEntries(selection);
+                    break;
+                case MENU_MOVE:
+                    showMoveTargets(selection);
+                    break;
+                case MENU_SELECT_ALL:
+                    adapter.selectAll();
+                    return true;
+                case MENU_PIN:
+                    togglePins(selection);
+                    break;
+                default:
+                    return false;
+            }
+            mode.finish();
+            return true;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            selectionMode = null;
+            adapter.clearSelection();
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -44,38 +142,13 @@ public class DownloadsActivity extends AppCompatActivity {
 
         setContentView(R.layout.activity_downloads);
 
-        ItemTouchHelper.SimpleCallback simpleItemTouchCallback = new ItemTouchHelper.SimpleCallback(0, ItemTouchHelper.LEFT | ItemTouchHelper.RIGHT) {
-            @Override
-            public boolean onMove(RecyclerView recyclerView, RecyclerView.ViewHolder viewHolder, RecyclerView.ViewHolder target) {
-                return false;
-            }
-
-            @Override
-            public void onSwiped(RecyclerView.ViewHolder viewHolder, int direction) {
-                int position = viewHolder.getAdapterPosition();
-                File fileToDelete = adapter.getFileAt(position);
-
-                if (fileToDelete.exists()) {
-                    boolean deleted = fileToDelete.delete();
-                    if (deleted) {
-                        Toast.makeText(DownloadsActivity.this, "Deleted: " + fileToDelete.getName(), Toast.LENGTH_SHORT).show();
-                    } else {
-                        Toast.makeText(DownloadsActivity.this, "Failed to delete: " + fileToDelete.getName(), Toast.LENGTH_SHORT).show();
-                    }
-                }
-                adapter.removeFileAt(position);
-            }
-        };
-
-        ItemTouchHelper itemTouchHelper = new ItemTouchHelper(simpleItemTouchCallback);
-        itemTouchHelper.attachToRecyclerView(downloadedFilesRecyclerView);
-
         WindowCompat.setDecorFitsSystemWindows(getWindow(), true);
 
         adjustStatusBarIconsForTheme(isDarkMode);
 
         refreshFab = findViewById(R.id.refresh_fab);
         fabToggleTheme = findViewById(R.id.fabToggleTheme);
+        sortFab = findViewById(R.id.sort_fab);
 
         fabToggleTheme.setOnClickListener(v -> {
             boolean darkModeEnabled = prefs.getBoolean("dark_mode", false);
@@ -96,6 +169,11 @@ public class DownloadsActivity extends AppCompatActivity {
             editor.apply();
         });
 
+        fabToggleTheme.setOnLongClickListener(v -> {
+            startActivity(new Intent(this, MetricsActivity.class));
+            return true;
+        });
+
         refreshFab.setOnClickListener(v -> {
             RotateAnimation rotate = new RotateAnimation(
                     0, 360,
@@ -105,32 +183,479 @@ public class DownloadsActivity extends AppCompatActivity {
             v.startAnimation(rotate);
 
             Toast.makeText(this, "Refreshing...", Toast.LENGTH_SHORT).show();
-            refreshDownloadList();
+            indexer.rescan();
+        });
+
+        refreshFab.setOnLongClickListener(v -> {
+            showDownloadQueue();
+            return true;
         });
 
+        sortFab.setOnClickListener(v -> showSortOptions());
+
         downloadedFilesRecyclerView = findViewById(R.id.downloadedFilesRecyclerView);
         downloadedFilesRecyclerView.setLayoutManager(new LinearLayoutManager(this));
 
-        adapter = new DownloadedFilesAdapter(this, new ArrayList<>(), -1);
+        query = loadQuery();
+        adapter = new DownloadedFilesAdapter(this, query);
+        adapter.setOnListingChangedListener(this::onListingChanged);
+        adapter.setOnEntryClickListener(entry -> {
+            if (isZip(entry)) {
+                StorageManager.get(this).recordAccess(entry.getPath());
+                startActivity(ZipBrowserActivity.intentFor(this, entry.getFile()));
+            }
+        });
+        adapter.setOnSelectionChangedListener(this::onSelectionChanged);
         downloadedFilesRecyclerView.setAdapter(adapter);
+        ResourceGovernor.get(this).register(this, new ResourceGovernor.Client() {
+            @Override
+            public void onVisibilityChanged(boolean visible) {
+                adapter.setVisible(visible);
+            }
+        });
+
+        ItemTouchHelper.SimpleCallback simpleItemTouchCallback = new ItemTouchHelper.SimpleCallback(0, ItemTouchHelper.LEFT | ItemTouchHelper.RIGHT) {
+            @Override
+            public boolean onMove(RecyclerView recyclerView, RecyclerView.ViewHolder viewHolder, RecyclerView.ViewHolder target) {
+                return false;
+            }
+
+            @Override
+            public int getSwipeDirs(RecyclerView recyclerView, RecyclerView.ViewHolder viewHolder) {
+                // Swiping would fight with tapping rows in and out of a selection.
+                return adapter.getSelectionCount() > 0 ? 0 : super.getSwipeDirs(recyclerView, viewHolder);
+            }
+
+            @Override
+            public void onSwiped(RecyclerView.ViewHolder viewHolder, int direction) {
+                int position = viewHolder.getBindingAdapterPosition();
+                DownloadEntry entry = adapter.getEntryAt(position);
+                if (entry == null) {
+                    // Swiped a row that had not loaded yet; put it back.
+                    adapter.notifyItemChanged(position);
+                    return;
+                }
+                deleteEntries(Collections.singletonList(entry));
+            }
+        };
+
+        ItemTouchHelper itemTouchHelper = new ItemTouchHelper(simpleItemTouchCallback);
+        itemTouchHelper.attachToRecyclerView(downloadedFilesRecyclerView);
+
+        facetsView = findViewById(R.id.search_facets);
+        facetsView.setOnClickListener(v -> showTypeFacets());
+        EditText searchBox = findViewById(R.id.search_box);
+        searchBox.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                // Typing narrows the list in place; only a new sort or filter jumps back to the top.
+                query = query.withSearch(s.toString());
+                adapter.setQuery(query);
+            }
+        });
 
         updateFabIcon(isDarkMode);
 
-        // Initial list
-        refreshDownloadList();
+        // Initial list; the first callbacks carry the whole index, later ones only deltas.
+        indexer = DirectoryIndexer.get(this);
+        indexer.addListener(indexListener);
     }
 
-    private void refreshDownloadList() {
-        File dir = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS), DOWNLOAD_SUBFOLDER);
-        List<File> files;
-        if (dir.exists() && dir.listFiles() != null) {
-            files = Arrays.asList(dir.listFiles());
+    @Override
+    protected void onDestroy() {
+        indexer.removeListener(indexListener);
+        super.onDestroy();
+    }
+
+    private ListingQuery loadQuery() {
+        return new ListingQuery(
+                prefs.getInt(PREF_LISTING_SORT, ListingQuery.NEWEST_FIRST.getSort()),
+                prefs.getBoolean(PREF_LISTING_DESCENDING, ListingQuery.NEWEST_FIRST.isDescending()),
+                prefs.getInt(PREF_LISTING_FILTER, ListingQuery.NEWEST_FIRST.getFilter()));
+    }
+
+    private void applyQuery(ListingQuery newQuery) {
+        query = newQuery;
+        prefs.edit()
+                .putInt(PREF_LISTING_SORT, query.getSort())
+                .putBoolean(PREF_LISTING_DESCENDING, query.isDescending())
+                .putInt(PREF_LISTING_FILTER, query.getFilter())
+                .apply();
+        adapter.setQuery(query);
+        downloadedFilesRecyclerView.scrollToPosition(0);
+    }
+
+    private void onListingChanged(int size, Map<String, Integer> newFacets) {
+        facets = newFacets;
+        if (!query.hasSearch() && query.getMimeType() == null) {
+            facetsView.setVisibility(View.GONE);
+            return;
+        }
+        String type = query.getMimeType() != null ? query.getMimeType() : "all types";
+        facetsView.setText(size + (size == 1 ? " match" : " matches") + " in " + type);
+        facetsView.setVisibility(View.VISIBLE);
+    }
+
+    private void showTypeFacets() {
+        List<String> types = new ArrayList<>(facets.keySet());
+        int total = 0;
+        for (int count : facets.values()) total += count;
+        String[] labels = new String[types.size() + 1];
+        labels[0] = "All types (" + total + ")";
+        int selected = 0;
+        for (int i = 0; i < types.size(); i++) {
+            labels[i + 1] = types.get(i) + " (" + facets.get(types.get(i)) + ")";
+            if (types.get(i).equals(query.getMimeType())) selected = i + 1;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("File type")
+                .setSingleChoiceItems(labels, selected, (dialog, which) -> {
+                    query = query.withMimeType(which == 0 ? null : types.get(which - 1));
+                    adapter.setQuery(query);
+                    dialog.dismiss();
+                })
+                .show();
+    }
+
+    private void showSortOptions() {
+        int[] sorts = {ListingQuery.SORT_DATE, ListingQuery.SORT_DATE, ListingQuery.SORT_NAME,
+                ListingQuery.SORT_NAME, ListingQuery.SORT_SIZE, ListingQuery.SORT_SIZE};
+        boolean[] descending = {true, false, false, true, true, false};
+        String[] labels = {"Newest first", "Oldest first", "Name A-Z", "Name Z-A", "Largest first", "Smallest first"};
+        int selected = 0;
+        for (int i = 0; i < sorts.length; i++) {
+            if (sorts[i] == query.getSort() && descending[i] == query.isDescending()) selected = i;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("Sort by")
+                .setSingleChoiceItems(labels, selected, (dialog, which) -> {
+                    applyQuery(new ListingQuery(sorts[which], descending[which], query.getFilter(),
+                            query.getSearch(), query.getMimeType()));
+                    dialog.dismiss();
+                })
+                .setNeutralButton("Filter", (dialog, which) -> showFilterOptions())
+                .show();
+    }
+
+    private void showFilterOptions() {
+        String[] labels = {"All files", "Archives", "Documents", "Media", "Apps"};
+        new AlertDialog.Builder(this)
+                .setTitle("Show")
+                .setSingleChoiceItems(labels, query.getFilter(), (dialog, which) -> {
+                    applyQuery(new ListingQuery(query.getSort(), query.isDescending(), which,
+                            query.getSearch(), query.getMimeType()));
+                    dialog.dismiss();
+                })
+                .show();
+    }
+
+    private void showDownloadQueue() {
+        DownloadScheduler scheduler = DownloadScheduler.get(this);
+        List<DownloadTask> tasks = scheduler.getTasks();
+
+        String[] labels = new String[tasks.size()];
+        for (int i = 0; i < tasks.size(); i++) {
+            DownloadTask task = tasks.get(i);
+            String state = describeState(task.getState());
+            if (task.getState() == DownloadTask.STATE_QUEUED && !task.getConstraints().isNone()) {
+                state = "waiting for " + task.getConstraints();
+            }
+            labels[i] = task.getRequest().getTitle() + " (" + state + ")";
+        }
+        AlertDialog.Builder builder = new AlertDialog.Builder(this)
+                .setTitle("Download queue")
+                .setPositiveButton("Settings", (dialog, which) -> showDownloadSettings());
+        if (tasks.isEmpty()) {
+            builder.setMessage("Download queue is empty");
         } else {
-            files = new ArrayList<>();
-            Toast.makeText(this, "No downloads found", Toast.LENGTH_SHORT).show();
+            builder.setItems(labels, (dialog, which) -> showTaskActions(scheduler, tasks.get(which)));
+        }
+        builder.show();
+    }
+
+    private void showDownloadSettings() {
+        String[] keys = {
+                RoutingDownloadBackend.PREF_USE_ENGINE,
+                MainActivity.PREF_EXTRACT_WHILE_DOWNLOADING,
+                MainActivity.PREF_LARGE_UNMETERED_ONLY,
+                MainActivity.PREF_LARGE_WHILE_CHARGING,
+                MainActivity.PREF_LARGE_AT_NIGHT};
+        String[] labels = {
+                "Use parallel connections",
+                "Unpack zips while downloading",
+                "Large files on Wi-Fi only",
+                "Large files only while charging",
+                "Large files only 01:00-06:00"};
+        boolean[] checked = new boolean[keys.length];
+        for (int i = 0; i < keys.length; i++) checked[i] = prefs.getBoolean(keys[i], false);
+        new AlertDialog.Builder(this)
+                .setTitle("Download settings")
+                .setMultiChoiceItems(labels, checked, (dialog, which, isChecked) ->
+                        prefs.edit().putBoolean(keys[which], isChecked).apply())
+                .setNeutralButton("Bandwidth limit", (dialog, which) -> showBandwidthLimit())
+                .setNegativeButton("Storage", (dialog, which) -> showStorageBudget())
+                .setPositiveButton("Done", null)
+                .show();
+    }
+
+    private void showBandwidthLimit() {
+        RoutingDownloadBackend backend = RoutingDownloadBackend.get(this);
+        long[] limits = {0, 256 * 1024, 1024 * 1024, 4 * 1024 * 1024};
+        String[] labels = {"Unlimited", "256 KB/s", "1 MB/s", "4 MB/s"};
+        int selected = 0;
+        for (int i = 0; i < limits.length; i++) {
+            if (limits[i] == backend.getBandwidthLimit()) selected = i;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("Bandwidth for parallel downloads")
+                .setSingleChoiceItems(labels, selected, (dialog, which) -> {
+                    backend.setBandwidthLimit(limits[which]);
+                    dialog.dismiss();
+                })
+                .show();
+    }
+
+    private void showStorageBudget() {
+        StorageManager storage = StorageManager.get(this);
+        long gb = 1024L * 1024 * 1024;
+        long[] budgets = {0, gb, 5 * gb, 10 * gb, 25 * gb};
+        String[] labels = {"No limit", "1 GB", "5 GB", "10 GB", "25 GB"};
+        int selected = 0;
+        for (int i = 0; i < budgets.length; i++) {
+            if (budgets[i] == storage.getBudget()) selected = i;
         }
+        new AlertDialog.Builder(this)
+                .setTitle("Storage budget (using " + Formatter.formatShortFileSize(this, storage.getTotalBytes()) + ")")
+                .setSingleChoiceItems(labels, selected, (dialog, which) -> {
+                    storage.setBudget(budgets[which]);
+                    dialog.dismiss();
+                })
+                .setNeutralButton("Preview cleanup", (dialog, which) -> showEvictionPreview(storage))
+                .show();
+    }
+
+    private void showEvictionPreview(StorageManager storage) {
+        storage.preview((evictions, totalBytes) -> {
+            if (isFinishing()) return;
+            AlertDialog.Builder builder = new AlertDialog.Builder(this).setTitle("Cleanup preview");
+            if (evictions.isEmpty()) {
+                builder.setMessage("The downloads folder is within its budget; nothing would be removed.")
+                        .setPositiveButton("OK", null);
+            } else {
+                long freed = 0;
+                StringBuilder message = new StringBuilder("Least recently used first:\n");
+                for (DownloadEntry entry : evictions) {
+                    freed += entry.getSize();
+                    message.append("\n").append(entry.getName()).append(" (").append(entry.getDisplaySize()).append(")");
+                }
+                builder.setTitle("Would remove " + evictions.size() + " files, "
+                                + Formatter.formatShortFileSize(this, freed))
+                        .setMessage(message)
+                        .setPositiveButton("Clean up now", (dialog, which) -> storage.evictNow())
+                        .setNegativeButton("Cancel", null);
+            }
+            builder.show();
+        });
+    }
 
-        adapter.updateFiles(files);
+    private void onSelectionChanged(int count) {
+        if (count == 0) {
+            if (selectionMode != null) selectionMode.finish();
+            return;
+        }
+        if (selectionMode == null) selectionMode = startActionMode(selectionCallback);
+        if (selectionMode != null) selectionMode.setTitle(count + " selected");
+    }
+
+    /**
+     * Files a queued or running download is about to write stay put; the rest, including those of
+     * paused and failed downloads, are handed to the bulk operation.
+     */
+    private List<DownloadEntry> withoutActiveDownloads(List<DownloadEntry> entries) {
+        DownloadScheduler scheduler = DownloadScheduler.get(this);
+        List<DownloadEntry> idle = new ArrayList<>();
+        for (DownloadEntry entry : entries) {
+            DownloadTask task = scheduler.findByPath(entry.getPath());
+            if (task == null || !task.isActive()) idle.add(entry);
+        }
+        if (idle.size() < entries.size()) {
+            int busy = entries.size() - idle.size();
+            Toast.makeText(this, "Skipped " + busy + (busy == 1 ? " file" : " files") + " still downloading",
+                    Toast.LENGTH_SHORT).show();
+        }
+        return idle;
+    }
+
+    private void deleteEntries(List<DownloadEntry> selection) {
+        List<DownloadEntry> entries = withoutActiveDownloads(selection);
+        if (entries.isEmpty()) return;
+        runBulk(entries, "delete", "Deleting", "Deleted",
+                (files, listener) -> BulkFileOperations.get(this).delete(files, listener));
+    }
+
+    private void showMoveTargets(List<DownloadEntry> selection) {
+        String[] folders = {Environment.DIRECTORY_DOWNLOADS, Environment.DIRECTORY_DOCUMENTS,
+                Environment.DIRECTORY_PICTURES, Environment.DIRECTORY_MOVIES, Environment.DIRECTORY_MUSIC};
+        new AlertDialog.Builder(this)
+                .setTitle("Move " + selection.size() + (selection.size() == 1 ? " file to" : " files to"))
+                .setItems(folders, (dialog, which) -> {
+                    List<DownloadEntry> entries = withoutActiveDownloads(selection);
+                    if (entries.isEmpty()) return;
+                    File target = Environment.getExternalStoragePublicDirectory(folders[which]);
+                    runBulk(entries, "move", "Moving", "Moved to " + folders[which],
+                            (files, listener) -> BulkFileOperations.get(this).move(files, target, listener));
+                })
+                .show();
+    }
+
+    private interface BulkAction {
+        void run(List<File> files, BulkFileOperations.Listener listener);
+    }
+
+    /**
+     * Hides the rows at once in a single adapter update, runs the file operation in the
+     * background behind a progress dialog for large batches, then offers to undo it. Rows whose
+     * files could not be processed come back; {@code verb} names the operation in that message.
+     */
+    private void runBulk(List<DownloadEntry> entries, String verb, String progressVerb, String doneVerb,
+                         BulkAction action) {
+        Map<String, DownloadEntry> byPath = new HashMap<>();
+        List<File> files = new ArrayList<>();
+        for (DownloadEntry entry : entries) {
+            byPath.put(entry.getPath(), entry);
+            files.add(entry.getFile());
+        }
+        adapter.removeEntries(byPath.keySet());
+
+        ProgressBar bar = new ProgressBar(this, null, android.R.attr.progressBarStyleHorizontal);
+        bar.setMax(files.size());
+        AlertDialog progress = files.size() > PROGRESS_DIALOG_THRESHOLD
+                ? new AlertDialog.Builder(this).setTitle(progressVerb + "...").setView(bar).setCancelable(false).show()
+                : null;
+
+        action.run(files, new BulkFileOperations.Listener() {
+            @Override
+            public void onProgress(int done, int total) {
+                if (progress == null) return;
+                bar.setProgress(done);
+                progress.setTitle(progressVerb + " " + done + " of " + total);
+            }
+
+            @Override
+            public void onFinished(BulkFileOperations.Batch batch) {
+                if (progress != null) progress.dismiss();
+                adapter.restoreEntries(entriesFor(batch.getFailed(), byPath));
+                if (!batch.getFailed().isEmpty()) {
+                    Toast.makeText(DownloadsActivity.this, "Could not " + verb + " " + batch.getFailed().size()
+                            + (batch.getFailed().size() == 1 ? " file" : " files"), Toast.LENGTH_SHORT).show();
+                }
+                int done = batch.getSources().size();
+                if (done > 0) offerUndo(batch, byPath, doneVerb + " " + done + (done == 1 ? " file" : " files"));
+            }
+        });
+    }
+
+    private void offerUndo(BulkFileOperations.Batch batch, Map<String, DownloadEntry> byPath, String message) {
+        Snackbar.make(downloadedFilesRecyclerView, message, Snackbar.LENGTH_LONG)
+                .setAction("Undo", v -> batch.undo(new BulkFileOperations.Listener() {
+                    @Override
+                    public void onProgress(int done, int total) {
+                    }
+
+                    @Override
+                    public void onFinished(BulkFileOperations.Batch restored) {
+                        adapter.restoreEntries(entriesFor(restored.getTargets(), byPath));
+                    }
+                }))
+                .addCallback(new Snackbar.Callback() {
+                    @Override
+                    public void onDismissed(Snackbar snackbar, int event) {
+                        if (event != Snackbar.Callback.DISMISS_EVENT_ACTION) batch.commit();
+                    }
+                })
+                .show();
+    }
+
+    private static List<DownloadEntry> entriesFor(List<File> files, Map<String, DownloadEntry> byPath) {
+        List<DownloadEntry> entries = new ArrayList<>();
+        for (File file : files) {
+            DownloadEntry entry = byPath.get(file.getPath());
+            if (entry != null) entries.add(entry);
+        }
+        return entries;
+    }
+
+    private void shareEntries(List<DownloadEntry> entries) {
+        ArrayList<Uri> uris = new ArrayList<>();
+        for (DownloadEntry entry : entries) {
+            try {
+                uris.add(FileProvider.getUriForFile(this, getPackageName() + ".fileprovider", entry.getFile()));
+            } catch (IllegalArgumentException e) {
+                // Outside the shared folders; leave it out.
+            }
+        }
+        if (uris.isEmpty()) return;
+        Intent send = uris.size() == 1
+                ? new Intent(Intent.ACTION_SEND).putExtra(Intent.EXTRA_STREAM, uris.get(0))
+                : new Intent(Intent.ACTION_SEND_MULTIPLE).putParcelableArrayListExtra(Intent.EXTRA_STREAM, uris);
+        send.setType(entries.size() == 1 ? entries.get(0).getMimeType() : "*/*")
+                .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(send, "Share " + uris.size() + (uris.size() == 1 ? " file" : " files")));
+    }
+
+    private void togglePins(List<DownloadEntry> entries) {
+        StorageManager storage = StorageManager.get(this);
+        boolean allPinned = true;
+        for (DownloadEntry entry : entries) allPinned &= storage.isPinned(entry.getPath());
+        for (DownloadEntry entry : entries) storage.setPinned(entry.getPath(), !allPinned);
+        Toast.makeText(this, (allPinned ? "Unpinned " : "Pinned ") + entries.size()
+                + (entries.size() == 1 ? " file" : " files"), Toast.LENGTH_SHORT).show();
+    }
+
+    private void showTaskActions(DownloadScheduler scheduler, DownloadTask task) {
+        boolean stopped = task.getState() == DownloadTask.STATE_PAUSED || task.getState() == DownloadTask.STATE_FAILED;
+        String[] actions = {stopped ? "Resume" : "Pause", "Move to front", "Cancel"};
+        new AlertDialog.Builder(this)
+                .setTitle(task.getRequest().getTitle())
+                .setItems(actions, (dialog, which) -> {
+                    if (which == 0) {
+                        if (stopped) {
+                            scheduler.resume(task.getId());
+                        } else {
+                            scheduler.pause(task.getId());
+                        }
+                    } else if (which == 1) {
+                        scheduler.setPriority(task.getId(), DownloadTask.PRIORITY_HIGH);
+                    } else {
+                        scheduler.cancel(task.getId());
+                    }
+                })
+                .show();
+    }
+
+    private static boolean isZip(DownloadEntry entry) {
+        return entry.getName().toLowerCase().endsWith(".zip") || "application/zip".equals(entry.getMimeType());
+    }
+
+    private static String describeState(int state) {
+        switch (state) {
+            case DownloadTask.STATE_RUNNING:
+                return "downloading";
+            case DownloadTask.STATE_PAUSED:
+                return "paused";
+            case DownloadTask.STATE_FAILED:
+                return "failed";
+            default:
+                return "queued";
+        }
     }
 
     private void updateFabIcon(boolean isDarkMode) {
@@ -0,0 +1,130 @@
+package com.android.darkelixir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Base64;
+import java.util.Locale;
+
+/**
+ * Decides, from one HEAD request and the {@link ContentIndex}, whether a link the page just
+ * offered is already on disk. Matches are tried from strongest to weakest: a content digest
+ * announced by the server, the same URL with the same ETag, the same URL with the same length and
+ * Last-Modified date, and finally a file already at the target name with the announced length.
+ */
+final class DuplicateChecker {
+
+    static final class Head {
+        final String url;
+        final String finalUrl;
+        final String etag;
+        final String lastModified;
+        final long contentLength;
+        final String sha256;
+
+        Head(String url, String finalUrl, String etag, String lastModified, long contentLength, String sha256) {
+            this.url = url;
+            this.finalUrl = finalUrl;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.contentLength = contentLength;
+            this.sha256 = sha256;
+        }
+    }
+
+    static final class Match {
+        final File existing;
+        final String reason;
+
+        Match(File existing, String reason) {
+            this.existing = existing;
+            this.reason = reason;
+        }
+    }
+
+    private final ContentIndex index;
+    private final int timeoutMs;
+
+    DuplicateChecker(ContentIndex index, int timeoutMs) {
+        this.index = index;
+        this.timeoutMs = timeoutMs;
+    }
+
+    Head head(String url, String userAgent) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setRequestMethod("HEAD");
+            connection.setConnectTimeout(timeoutMs);
+            connection.setReadTimeout(timeoutMs);
+            connection.setRequestProperty("Accept-Encoding", "identity");
+            connection.setRequestProperty("Want-Digest", "sha-256");
+            if (userAgent != null) connection.setRequestProperty("User-Agent", userAgent);
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) throw new IOException("HEAD answered with HTTP " + code);
+            return new Head(url, connection.getURL().toString(), connection.getHeaderField("ETag"),
+                    connection.getHeaderField("Last-Modified"), connection.getContentLengthLong(),
+                    digestSha256(connection.getHeaderField("Repr-Digest"), connection.getHeaderField("Digest")));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /** Returns the existing copy of what {@code head} describes, or null. */
+    Match find(Head head, String targetPath) {
+        for (ContentIndex.Entry entry : index.presentEntries()) {
+            if (head.sha256 != null && head.sha256.equals(entry.sha256)) {
+                return new Match(new File(entry.path), "same content");
+            }
+        }
+        for (ContentIndex.Entry entry : index.presentEntries()) {
+            if (!entry.hasUrl(head.url) && !entry.hasUrl(head.finalUrl)) continue;
+            if (head.etag != null && head.etag.equals(entry.etag)) {
+                return new Match(new File(entry.path), "same link and version");
+            }
+            if (head.etag == null && entry.etag == null && head.lastModified != null
+                    && head.lastModified.equals(entry.lastModified) && head.contentLength == entry.contentLength) {
+                return new Match(new File(entry.path), "same link, size and date");
+            }
+        }
+        File target = new File(targetPath);
+        if (head.contentLength > 0 && target.isFile() && target.length() == head.contentLength) {
+            return new Match(target, "same name and size");
+        }
+        return null;
+    }
+
+    /** Records a download that is about to start; {@code head} may be null if the check failed. */
+    void remember(String url, Head head, String targetPath) {
+        index.record(head != null
+                ? new ContentIndex.Entry(targetPath, url, head.finalUrl, head.etag, head.lastModified,
+                        head.contentLength, head.sha256)
+                : new ContentIndex.Entry(targetPath, url, null, null, null, -1, null));
+    }
+
+    /**
+     * Reads a SHA-256 from {@code Repr-Digest: sha-256=:base64:} (RFC 9530) or the older
+     * {@code Digest: SHA-256=base64} (RFC 3230), as lower-case hex.
+     */
+    static String digestSha256(String reprDigest, String digest) {
+        for (String header : new String[]{reprDigest, digest}) {
+            if (header == null) continue;
+            for (String part : header.split(",")) {
+                String p = part.trim();
+                int eq = p.indexOf('=');
+                if (eq < 0 || !p.substring(0, eq).trim().toLowerCase(Locale.US).equals("sha-256")) continue;
+                String value = p.substring(eq + 1).trim();
+                if (value.startsWith(":") && value.endsWith(":") && value.length() > 1) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                try {
+                    byte[] bytes = Base64.getDecoder().decode(value);
+                    if (bytes.length == 32) return ChecksumFrontier.toHex(bytes);
+                } catch (IllegalArgumentException e) {
+                    // Not base64; try the next candidate.
+                }
+            }
+        }
+        return null;
+    }
+}
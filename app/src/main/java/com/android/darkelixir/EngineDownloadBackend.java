@@ -0,0 +1,274 @@
+package com.android.darkelixir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * {@link DownloadBackend} that runs transfers in-process with {@link SegmentedDownloader}.
+ * Status queries read in-memory counters, so polling costs no I/O. Resume state lives in the
+ * downloader's journal, keyed by target path, so a paused or interrupted transfer continues when
+ * the same request is enqueued again, also after a process restart.
+ */
+public class EngineDownloadBackend implements DownloadBackend {
+
+    /** Engine ids start here so they never collide with DownloadManager row ids. */
+    public static final long ID_BASE = 1L << 40;
+    private static final int MAX_FINISHED_JOBS = 64;
+
+    private static final class Job {
+        final long id;
+        final DownloadRequest request;
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        /** Set by {@link #remove}; partial data is deleted once the worker has stopped writing. */
+        volatile boolean discard;
+        /** Set once the target has been opened for writing; before that the file is not ours. */
+        volatile boolean startedWriting;
+        final AtomicLong bytes = new AtomicLong();
+        volatile long total = -1;
+        volatile int state = DownloadStatus.STATE_PENDING;
+        volatile String detail;
+        Future<?> future;
+        /** Guarded by the jobs lock; true from the worker's start until it has stopped. */
+        boolean working;
+        /** Released when the worker has stopped touching the target and its journal. */
+        final CountDownLatch stopped = new CountDownLatch(1);
+
+        Job(long id, DownloadRequest request) {
+            this.id = id;
+            this.request = request;
+        }
+
+        DownloadStatus toStatus() {
+            return new DownloadStatus(id, request.getDestinationPath(), state, bytes.get(), total, detail);
+        }
+    }
+
+    private final SegmentedDownloader downloader;
+    private final PipelinedExtractor extractor;
+    private final ExecutorService jobExecutor;
+    /** Receives each finished file and its SHA-256 before the transfer is reported as successful. */
+    private final BiConsumer<File, String> onComplete;
+    private final AtomicLong nextId = new AtomicLong(ID_BASE);
+    private final Map<Long, Job> jobs = new LinkedHashMap<>();
+    /**
+     * The newest job with a running worker, by target path. A job started while an older worker
+     * for the same path is still winding down, such as a resume right after a pause, waits for it
+     * so the two never write the file or the journal at once.
+     */
+    private final Map<String, Job> workers = new HashMap<>();
+
+    public EngineDownloadBackend(SegmentedDownloader downloader, PipelinedExtractor extractor,
+                                 ExecutorService jobExecutor, BiConsumer<File, String> onComplete) {
+        this.downloader = downloader;
+        this.extractor = extractor;
+        this.jobExecutor = jobExecutor;
+        this.onComplete = onComplete;
+    }
+
+    public static boolean isEngineId(long id) {
+        return id >= ID_BASE;
+    }
+
+    @Override
+    public long enqueue(DownloadRequest request) {
+        Job job = new Job(nextId.getAndIncrement(), request);
+        synchronized (jobs) {
+            jobs.put(job.id, job);
+            job.future = jobExecutor.submit(() -> run(job));
+        }
+        return job.id;
+    }
+
+    private void run(Job job) {
+        String path = job.request.getDestinationPath();
+        Job previous;
+        synchronized (jobs) {
+            // Stopped before it started; remove() or discard() clean up themselves.
+            if (job.cancelled.get()) return;
+            job.working = true;
+            previous = workers.put(path, job);
+        }
+        try {
+            if (previous != null) previous.stopped.await();
+            job.state = DownloadStatus.STATE_RUNNING;
+            if (job.request.isExtractArchive()) {
+                runExtraction(job);
+            } else {
+                runDownload(job);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.state = DownloadStatus.STATE_FAILED;
+        } finally {
+            boolean discard;
+            synchronized (jobs) {
+                workers.remove(path, job);
+                job.working = false;
+                discard = job.discard;
+            }
+            // Only now can nothing rewrite the file or the journal behind our back.
+            if (discard && job.state != DownloadStatus.STATE_SUCCESSFUL) discardPartial(job);
+            job.stopped.countDown();
+            trimFinished();
+        }
+    }
+
+    private void runDownload(Job job) {
+        try {
+            SegmentedDownloader.Result result = downloader.download(job.request, (bytes, total) -> {
+                job.startedWriting = true;
+                job.bytes.set(bytes);
+                job.total = total;
+            }, job.cancelled);
+            job.bytes.set(result.totalBytes);
+            job.total = result.totalBytes;
+            onComplete.accept(new File(job.request.getDestinationPath()), result.sha256);
+            job.state = DownloadStatus.STATE_SUCCESSFUL;
+        } catch (IOException | RuntimeException e) {
+            job.state = DownloadStatus.STATE_FAILED;
+        }
+    }
+
+    private void runExtraction(Job job) {
+        File targetDir = new File(job.request.getDestinationPath());
+        try {
+            PipelinedExtractor.Result result = extractor.extract(job.request, targetDir, new PipelinedExtractor.Listener() {
+                @Override
+                public void onNetworkProgress(long bytesDownloaded, long totalBytes) {
+                    job.bytes.set(bytesDownloaded);
+                    job.total = totalBytes;
+                }
+
+                @Override
+                public void onEntryProgress(int entryIndex, String name, long entryBytes, long entrySize) {
+                    if (entryBytes == 0) job.detail = "Extracting #" + (entryIndex + 1) + ": " + name;
+                }
+            }, job.cancelled);
+            job.bytes.set(result.downloadedBytes);
+            job.total = result.downloadedBytes;
+            job.detail = "Extracted " + result.entries + " files";
+            onComplete.accept(targetDir, null);
+            job.state = DownloadStatus.STATE_SUCCESSFUL;
+        } catch (IOException | RuntimeException e) {
+            job.detail = e.getMessage();
+            job.state = DownloadStatus.STATE_FAILED;
+        }
+    }
+
+    @Override
+    public void remove(long id) {
+        Job job = stop(id);
+        if (job == null) return;
+        boolean running;
+        synchronized (jobs) {
+            job.discard = true;
+            running = job.working;
+        }
+        // A running worker discards when it stops; see run().
+        if (!running && job.state != DownloadStatus.STATE_SUCCESSFUL) discardPartial(job);
+    }
+
+    @Override
+    public void pause(long id) {
+        stop(id);
+    }
+
+    @Override
+    public void discard(DownloadRequest request) {
+        synchronized (jobs) {
+            Job worker = workers.get(request.getDestinationPath());
+            if (worker != null) {
+                // Paused but still writing its last checkpoint.
+                worker.discard = true;
+                return;
+            }
+        }
+        // Only a journal proves the file at the target is ours and incomplete.
+        if (downloader.discardResumeState(request)) {
+            new File(request.getDestinationPath()).delete();
+        }
+    }
+
+    /**
+     * Only a journal holds partial data worth continuing; single-stream and extraction jobs
+     * restart from zero, and the downloader drops the journal on failures a retry cannot fix.
+     */
+    @Override
+    public boolean canResume(long id, DownloadRequest request) {
+        return isEngineId(id) && !request.isExtractArchive() && downloader.hasResumeState(request);
+    }
+
+    private Job stop(long id) {
+        Job job;
+        synchronized (jobs) {
+            job = jobs.remove(id);
+        }
+        if (job == null) return null;
+        job.cancelled.set(true);
+        // No interrupt: an interrupted FileChannel closes itself before the final checkpoint.
+        if (job.future != null) job.future.cancel(false);
+        return job;
+    }
+
+    /**
+     * Deletes the target only if this job or an interrupted one before it wrote it; a job
+     * cancelled before it opened the file must not take a finished download at the same path.
+     */
+    private void discardPartial(Job job) {
+        if (downloader.discardResumeState(job.request) || job.startedWriting) {
+            new File(job.request.getDestinationPath()).delete();
+        }
+    }
+
+    @Override
+    public List<DownloadStatus> query(long[] ids) {
+        List<DownloadStatus> result = new ArrayList<>(ids.length);
+        synchronized (jobs) {
+            for (long id : ids) {
+                Job job = jobs.get(id);
+                if (job != null) result.add(job.toStatus());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long[] queryActiveIds() {
+        synchronized (jobs) {
+            return jobs.values().stream()
+                    .filter(job -> job.state == DownloadStatus.STATE_PENDING || job.state == DownloadStatus.STATE_RUNNING)
+                    .mapToLong(job -> job.id)
+                    .toArray();
+        }
+    }
+
+    /** Keeps the most recent finished jobs queryable so pollers still see their final state. */
+    private void trimFinished() {
+        synchronized (jobs) {
+            int finished = 0;
+            for (Job job : jobs.values()) {
+                if (job.state == DownloadStatus.STATE_SUCCESSFUL || job.state == DownloadStatus.STATE_FAILED) finished++;
+            }
+            Iterator<Job> it = jobs.values().iterator();
+            while (finished > MAX_FINISHED_JOBS && it.hasNext()) {
+                Job job = it.next();
+                if (job.state == DownloadStatus.STATE_SUCCESSFUL || job.state == DownloadStatus.STATE_FAILED) {
+                    it.remove();
+                    finished--;
+                }
+            }
+        }
+    }
+}
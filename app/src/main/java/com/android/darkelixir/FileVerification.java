@@ -0,0 +1,61 @@
+package com.android.darkelixir;
+
+/**
+ * Integrity result for one downloaded file. It describes the file only while its size and
+ * modification time are unchanged.
+ */
+public final class FileVerification {
+
+    public static final int STATE_PENDING = 1;
+    /** A zip archive whose central directory checked out. */
+    public static final int STATE_VERIFIED = 2;
+    public static final int STATE_CORRUPT = 3;
+    /** Not a zip; only the checksum was recorded. */
+    public static final int STATE_CHECKSUMMED = 4;
+
+    private final String path;
+    private final long size;
+    private final long lastModified;
+    private final int state;
+    private final String sha256;
+    private final String detail;
+
+    public FileVerification(String path, long size, long lastModified, int state, String sha256, String detail) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.state = state;
+        this.sha256 = sha256;
+        this.detail = detail;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    /** Lowercase hex, or null while pending or if hashing failed. */
+    public String getSha256() {
+        return sha256;
+    }
+
+    /** Why the file is corrupt, or null. */
+    public String getDetail() {
+        return detail;
+    }
+
+    public boolean describes(DownloadEntry entry) {
+        return path.equals(entry.getPath()) && size == entry.getSize() && lastModified == entry.getLastModified();
+    }
+}
@@ -1,29 +1,25 @@
 package com.android.darkelixir;
 
 import android.Manifest;
-import android.app.DownloadManager;
 import android.content.pm.PackageManager;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.res.Configuration;
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
-import android.os.Handler;
-import android.os.Looper;
 import android.view.View;
 import android.view.Window;
 import android.view.WindowManager;
 import android.webkit.DownloadListener;
-import android.webkit.URLUtil;
+import android.webkit.MimeTypeMap;
 import android.webkit.WebChromeClient;
 import android.webkit.WebSettings;
 import android.webkit.WebView;
-import android.webkit.WebViewClient;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
@@ -31,16 +27,45 @@ import androidx.core.content.ContextCompat;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-public class MainActivity extends AppCompatActivity {
+public class MainActivity extends AppCompatActivity implements DownloadStatusStore.Listener {
 
     private static final int PERMISSION_REQUEST_CODE = 1001;
     private static final String HOME_URL = "https://dark-elixir-project.vercel.app/";
     private static final String DOWNLOAD_SUBFOLDER = "DarkElixir";
+    static final String PREF_EXTRACT_WHILE_DOWNLOADING = "extract_while_downloading";
+    static final String PREF_ASSET_CACHE = "asset_cache";
+    static final String PREF_LARGE_UNMETERED_ONLY = "large_downloads_unmetered_only";
+    static final String PREF_LARGE_WHILE_CHARGING = "large_downloads_while_charging";
+    static final String PREF_LARGE_AT_NIGHT = "large_downloads_at_night";
+    /** Downloads at least this big follow the large-download rules above. */
+    static final long LARGE_DOWNLOAD_BYTES = 50L * 1024 * 1024;
+    private static final int NIGHT_START_MINUTE = 60;
+    private static final int NIGHT_END_MINUTE = 6 * 60;
+    private static final int HEAD_TIMEOUT_MS = 5_000;
 
+    private final FileNames fileNames = new FileNames(new FileNames.MimeMap() {
+        @Override
+        public String extensionFor(String mimeType) {
+            return MimeTypeMap.getSingleton().getExtensionFromMimeType(mimeType);
+        }
+
+        @Override
+        public String mimeTypeFor(String extension) {
+            return MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+        }
+    });
+
+    private final ExecutorService headExecutor = Executors.newSingleThreadExecutor();
+    /** Destination paths whose HEAD check is still running; main thread only. */
+    private final Set<String> checking = new HashSet<>();
     private WebView webView;
-    private long downloadID = -1;
-    private Handler handler = new Handler(Looper.getMainLooper());
+    private final Set<Long> announcedDownloads = new HashSet<>();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -78,16 +103,43 @@ public class MainActivity extends AppCompatActivity {
             }
         }
 
+        // Restores the persisted queue and restarts anything interrupted by process death.
+        DownloadScheduler.get(this);
+        // Verifies downloads as they finish, whether or not the downloads screen is open.
+        VerificationStore.get(this);
+        // Keeps the download folder under its storage budget.
+        StorageManager.get(this);
+        // Slows polling and trims caches while the app is out of sight.
+        ResourceGovernor.get(this);
+
         FloatingActionButton fab = findViewById(R.id.openDownloadsButton);
         fab.setOnClickListener(v -> {
             Intent intent = new Intent(MainActivity.this, DownloadsActivity.class);
             startActivity(intent);
         });
+        fab.setOnLongClickListener(v -> {
+            showStartupMetrics();
+            return true;
+        });
+    }
+
+    private void showStartupMetrics() {
+        SharedPreferences prefs = getSharedPreferences("settings", MODE_PRIVATE);
+        boolean cacheOn = prefs.getBoolean(PREF_ASSET_CACHE, true);
+        StartupMetrics metrics = new StartupMetrics(this);
+        new AlertDialog.Builder(this)
+                .setTitle("Startup time")
+                .setMessage(metrics.summary() + "\n\nAsset cache is " + (cacheOn ? "on" : "off")
+                        + ". Changes apply from the next launch.")
+                .setPositiveButton(cacheOn ? "Turn cache off" : "Turn cache on",
+                        (dialog, which) -> prefs.edit().putBoolean(PREF_ASSET_CACHE, !cacheOn).apply())
+                .setNeutralButton("Reset", (dialog, which) -> metrics.clear())
+                .setNegativeButton("Close", null)
+                .show();
     }
 
     private void setupWebView() {
         webView = findViewById(R.id.myWeb);
-        webView.setWebViewClient(new WebViewClient());
         webView.setWebChromeClient(new WebChromeClient());
 
         WebSettings settings = webView.getSettings();
@@ -97,19 +149,38 @@ public class MainActivity extends AppCompatActivity {
         settings.setUseWideViewPort(true);
         settings.setLoadWithOverviewMode(true);
 
+        boolean cacheOn = getSharedPreferences("settings", MODE_PRIVATE).getBoolean(PREF_ASSET_CACHE, true);
+        StartupMetrics metrics = new StartupMetrics(this);
+        webView.setWebViewClient(new CachingWebViewClient(HOME_URL, cacheOn ? AssetCache.get(this) : null,
+                settings.getUserAgentString(), elapsedMs -> metrics.record(
+                        cacheOn ? StartupMetrics.MODE_CACHED : StartupMetrics.MODE_UNCACHED, elapsedMs)));
+
         webView.loadUrl(HOME_URL);
+        ResourceGovernor.get(this).register(this, new ResourceGovernor.Client() {
+            @Override
+            public void onVisibilityChanged(boolean visible) {
+                // Behind the downloads screen the page's timers and rendering only burn battery.
+                if (visible) {
+                    webView.onResume();
+                    webView.resumeTimers();
+                } else {
+                    webView.onPause();
+                    webView.pauseTimers();
+                }
+            }
+
+            @Override
+            public long onTrim(int level) {
+                // Only the in-memory resource cache; the disk cache is what makes the next launch fast.
+                if (level == ResourceGovernor.TRIM_ALL) webView.clearCache(false);
+                return 0;
+            }
+        });
 
         webView.setDownloadListener(new DownloadListener() {
             @Override
             public void onDownloadStart(String url, String userAgent, String contentDisposition, String mimetype, long contentLength) {
-                String guessedName = URLUtil.guessFileName(url, contentDisposition, mimetype);
-
-                if (url.contains(".zip") || "application/zip".equalsIgnoreCase(mimetype)) {
-                    guessedName = guessedName.replaceAll("\\.bin$", ".zip");
-                    if (!guessedName.endsWith(".zip")) {
-                        guessedName += ".zip";
-                    }
-                }
+                String guessedName = fileNames.forDownload(url, contentDisposition, mimetype);
 
                 File downloadFolder = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS), DOWNLOAD_SUBFOLDER);
                 if (!downloadFolder.exists()) {
@@ -121,54 +192,130 @@ public class MainActivity extends AppCompatActivity {
                 }
 
                 File file = new File(downloadFolder, guessedName);
+                boolean extract = guessedName.endsWith(".zip") && getSharedPreferences("settings", MODE_PRIVATE)
+                        .getBoolean(PREF_EXTRACT_WHILE_DOWNLOADING, false);
+                if (extract) {
+                    // Unpacked into a folder named after the archive; the zip itself is never stored.
+                    file = new File(downloadFolder, guessedName.substring(0, guessedName.length() - 4));
+                }
 
-                DownloadManager.Request request = new DownloadManager.Request(Uri.parse(url));
-                request.setMimeType(mimetype);
-                request.addRequestHeader("User-Agent", userAgent);
-                request.setDescription("Downloading file...");
-                request.setTitle(guessedName);
-                request.allowScanningByMediaScanner();
-                request.setNotificationVisibility(DownloadManager.Request.VISIBILITY_VISIBLE_NOTIFY_COMPLETED);
-                request.setDestinationUri(Uri.fromFile(file));
-
-                DownloadManager dm = (DownloadManager) getSystemService(DOWNLOAD_SERVICE);
-                downloadID = dm.enqueue(request);
-
-                handler.post(progressRunnable);
-
-                Toast.makeText(MainActivity.this, "Downloading: " + guessedName, Toast.LENGTH_SHORT).show();
+                DownloadRequest request = new DownloadRequest(url, userAgent, mimetype, guessedName,
+                        file.getAbsolutePath(), extract);
+                checkThenEnqueue(request, constraintsFor(contentLength));
             }
         });
     }
 
-    private Runnable progressRunnable = new Runnable() {
-        @Override
-        public void run() {
-            if (downloadID == -1) {
-                handler.removeCallbacks(this);
-                return;
+    /**
+     * Skips links that are already queued or still being checked, retries paused and failed
+     * ones, and asks before downloading something a HEAD request shows is already on disk. The
+     * check never blocks a download: if it fails, the download goes ahead.
+     */
+    private void checkThenEnqueue(DownloadRequest request, DownloadConstraints constraints) {
+        String path = request.getDestinationPath();
+        DownloadTask existing = DownloadScheduler.get(this).findByPath(path);
+        if (checking.contains(path) || (existing != null && existing.isActive())) {
+            Toast.makeText(this, "Already in the queue: " + request.getTitle(), Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (existing != null) {
+            DownloadScheduler.get(this).resume(existing.getId());
+            Toast.makeText(this, "Retrying: " + request.getTitle(), Toast.LENGTH_SHORT).show();
+            return;
+        }
+        checking.add(path);
+        DuplicateChecker checker = new DuplicateChecker(ContentIndex.get(this), HEAD_TIMEOUT_MS);
+        headExecutor.execute(() -> {
+            DuplicateChecker.Head head;
+            try {
+                head = checker.head(request.getUrl(), request.getUserAgent());
+            } catch (IOException e) {
+                head = null;
             }
-
-            DownloadManager.Query query = new DownloadManager.Query();
-            query.setFilterById(downloadID);
-
-            DownloadManager dm = (DownloadManager) getSystemService(DOWNLOAD_SERVICE);
-            try (Cursor cursor = dm.query(query)) {
-                if (cursor != null && cursor.moveToFirst()) {
-                    int status = cursor.getInt(cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_STATUS));
-                    if (status == DownloadManager.STATUS_SUCCESSFUL || status == DownloadManager.STATUS_FAILED) {
-                        handler.removeCallbacks(this);
-                        downloadID = -1;
-                    } else {
-                        handler.postDelayed(this, 500);
-                    }
+            DuplicateChecker.Head checked = head;
+            DuplicateChecker.Match match = head != null ? checker.find(head, path) : null;
+            runOnUiThread(() -> {
+                checking.remove(path);
+                if (isFinishing()) return;
+                if (match == null) {
+                    enqueue(checker, checked, request, constraints);
+                } else if (isQueued(match.existing.getPath())) {
+                    Toast.makeText(this, "Already in the queue: " + match.existing.getName(), Toast.LENGTH_SHORT).show();
                 } else {
-                    handler.removeCallbacks(this);
-                    downloadID = -1;
+                    new AlertDialog.Builder(this)
+                            .setTitle("Already downloaded")
+                            .setMessage(match.existing.getName() + " is already in your downloads ("
+                                    + match.reason + ").")
+                            .setPositiveButton("Keep existing", null)
+                            .setNegativeButton("Download again",
+                                    (dialog, which) -> enqueue(checker, checked, request, constraints))
+                            .show();
                 }
+            });
+        });
+    }
+
+    /** True if a task for {@code path} is waiting or running. */
+    private boolean isQueued(String path) {
+        DownloadTask task = DownloadScheduler.get(this).findByPath(path);
+        return task != null && task.isActive();
+    }
+
+    /** Queues {@code request}, re-checking the queue since it may have changed during the HEAD request. */
+    private void enqueue(DuplicateChecker checker, DuplicateChecker.Head head, DownloadRequest request,
+                         DownloadConstraints constraints) {
+        if (isQueued(request.getDestinationPath())) {
+            Toast.makeText(this, "Already in the queue: " + request.getTitle(), Toast.LENGTH_SHORT).show();
+            return;
+        }
+        checker.remember(request.getUrl(), head, request.getDestinationPath());
+        DownloadScheduler.get(this).enqueue(request, DownloadTask.PRIORITY_NORMAL, constraints);
+        Toast.makeText(this, constraints.isNone()
+                ? "Queued: " + request.getTitle()
+                : "Queued for " + constraints + ": " + request.getTitle(), Toast.LENGTH_SHORT).show();
+    }
+
+    private DownloadConstraints constraintsFor(long contentLength) {
+        if (contentLength < LARGE_DOWNLOAD_BYTES) return DownloadConstraints.NONE;
+        SharedPreferences prefs = getSharedPreferences("settings", MODE_PRIVATE);
+        boolean night = prefs.getBoolean(PREF_LARGE_AT_NIGHT, false);
+        return new DownloadConstraints(
+                prefs.getBoolean(PREF_LARGE_UNMETERED_ONLY, false),
+                prefs.getBoolean(PREF_LARGE_WHILE_CHARGING, false),
+                night ? NIGHT_START_MINUTE : -1,
+                night ? NIGHT_END_MINUTE : -1);
+    }
+
+    @Override
+    protected void onDestroy() {
+        headExecutor.shutdown();
+        super.onDestroy();
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        DownloadStatusStore.get(this).addListener(this);
+    }
+
+    @Override
+    protected void onStop() {
+        DownloadStatusStore.get(this).removeListener(this);
+        super.onStop();
+    }
+
+    @Override
+    public void onSnapshot(DownloadSnapshot snapshot) {
+        for (DownloadStatus status : snapshot.all()) {
+            if (!status.isTerminal() || !announcedDownloads.add(status.getId())) continue;
+            String name = status.getLocalPath() != null ? new File(status.getLocalPath()).getName() : "file";
+            if (status.getState() == DownloadStatus.STATE_SUCCESSFUL) {
+                Toast.makeText(this, "Downloaded: " + name, Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(this, "Download failed: " + name, Toast.LENGTH_SHORT).show();
             }
         }
-    };
+    }
 
     @Override
     public void onRequestPermissionsResult(int requestCode,
@@ -0,0 +1,92 @@
+package com.android.darkelixir;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Debug screen for {@link PerfMetrics}: refreshes once a second while visible and exports the
+ * current numbers as JSON, both to a file in the app's external files folder and to the share
+ * sheet.
+ */
+public class MetricsActivity extends AppCompatActivity {
+
+    private static final long REFRESH_MS = 1000;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable refresh = this::refresh;
+    private final Map<String, Long> lastCounts = new HashMap<>();
+    private TextView metricsTextView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+        setTitle("Performance metrics");
+        metricsTextView = findViewById(R.id.metricsTextView);
+        findViewById(R.id.exportMetricsButton).setOnClickListener(v -> export());
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        refresh();
+    }
+
+    @Override
+    protected void onPause() {
+        handler.removeCallbacks(refresh);
+        super.onPause();
+    }
+
+    private void refresh() {
+        PerfMetrics metrics = PerfMetrics.global();
+        StringBuilder text = new StringBuilder(metrics.describe());
+        text.append("\n\nIn the last second:");
+        boolean any = false;
+        for (Map.Entry<String, PerfMetrics.Summary> e : metrics.summaries().entrySet()) {
+            Long previous = lastCounts.put(e.getKey(), e.getValue().count);
+            long delta = previous != null ? e.getValue().count - previous : 0;
+            if (delta > 0) {
+                text.append(String.format(Locale.US, "\n  %s: %d", e.getKey(), delta));
+                any = true;
+            }
+        }
+        if (!any) text.append("\n  nothing recorded");
+        metricsTextView.setText(text);
+        handler.postDelayed(refresh, REFRESH_MS);
+    }
+
+    private void export() {
+        String json = PerfMetrics.global().toJson();
+        File dir = getExternalFilesDir(null);
+        if (dir != null) {
+            File file = new File(dir, "metrics-" + System.currentTimeMillis() + ".json");
+            try (OutputStream out = new FileOutputStream(file)) {
+                out.write(json.getBytes(StandardCharsets.UTF_8));
+                Toast.makeText(this, "Saved: " + file.getAbsolutePath(), Toast.LENGTH_SHORT).show();
+            } catch (IOException e) {
+                Toast.makeText(this, "Could not save metrics", Toast.LENGTH_SHORT).show();
+            }
+        }
+        Intent send = new Intent(Intent.ACTION_SEND)
+                .setType("application/json")
+                .putExtra(Intent.EXTRA_SUBJECT, "Dark Elixir metrics")
+                .putExtra(Intent.EXTRA_TEXT, json);
+        startActivity(Intent.createChooser(send, "Export metrics"));
+    }
+}
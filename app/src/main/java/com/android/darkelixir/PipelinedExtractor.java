@@ -0,0 +1,167 @@
+package com.android.darkelixir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Unpacks a zip archive while it downloads. The calling thread reads the network into a
+ * {@link BoundedPipe}; a second thread reads local headers and entry data from the other end and
+ * writes each entry below the target folder, so network and disk work overlap and at most
+ * {@code bufferChunks} buffers sit between them. The archive itself is never written to disk.
+ *
+ * <p>Streaming relies on local headers only. Entries are checked against their CRC, but the
+ * central directory arrives last and is not consulted, and stored entries that defer their sizes
+ * to a data descriptor cannot be streamed at all and fail the extraction.
+ */
+final class PipelinedExtractor {
+
+    interface Listener {
+        /** Called from worker threads; {@code totalBytes} is -1 when unknown. */
+        void onNetworkProgress(long bytesDownloaded, long totalBytes);
+
+        /** Called on the disk thread as each entry grows; {@code entrySize} is -1 when not declared up front. */
+        void onEntryProgress(int entryIndex, String name, long entryBytes, long entrySize);
+    }
+
+    static final class Result {
+        final long downloadedBytes;
+        final int entries;
+        final long extractedBytes;
+
+        Result(long downloadedBytes, int entries, long extractedBytes) {
+            this.downloadedBytes = downloadedBytes;
+            this.entries = entries;
+            this.extractedBytes = extractedBytes;
+        }
+    }
+
+    private final ExecutorService diskExecutor;
+    private final int bufferChunks;
+    private TokenBucket rateLimiter;
+
+    PipelinedExtractor(ExecutorService diskExecutor, int bufferChunks) {
+        this.diskExecutor = diskExecutor;
+        this.bufferChunks = Math.max(1, bufferChunks);
+    }
+
+    void setRateLimiter(TokenBucket rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    Result extract(DownloadRequest request, File targetDir, Listener listener, AtomicBoolean cancelled)
+            throws IOException {
+        if (!targetDir.isDirectory() && !targetDir.mkdirs()) {
+            throw new IOException("Could not create " + targetDir);
+        }
+        BoundedPipe pipe = new BoundedPipe(bufferChunks);
+        Future<Result> disk = diskExecutor.submit(() -> unpack(pipe.source(), targetDir, listener, cancelled));
+
+        long downloaded = 0;
+        HttpURLConnection connection = SegmentedDownloader.open(request, null, null);
+        try {
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + code + " for " + request.getUrl());
+            }
+            long total = connection.getContentLengthLong();
+            try (InputStream in = connection.getInputStream()) {
+                byte[] buffer = new byte[SegmentedDownloader.BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (cancelled.get()) throw new InterruptedIOException("Download cancelled");
+                    SegmentedDownloader.throttle(rateLimiter, read);
+                    pipe.write(buffer, 0, read);
+                    downloaded += read;
+                    listener.onNetworkProgress(downloaded, total);
+                }
+            }
+            if (total >= 0 && downloaded != total) {
+                throw new IOException("Expected " + total + " bytes but got " + downloaded);
+            }
+            pipe.close();
+        } catch (IOException e) {
+            pipe.fail(e);
+            // A disk-side failure, e.g. a corrupt entry, stops the reader and is the more useful error.
+            await(disk);
+            throw e;
+        } finally {
+            connection.disconnect();
+        }
+        Result unpacked = await(disk);
+        return new Result(downloaded, unpacked.entries, unpacked.extractedBytes);
+    }
+
+    private static Result unpack(InputStream source, File targetDir, Listener listener, AtomicBoolean cancelled)
+            throws IOException {
+        int entries = 0;
+        long extracted = 0;
+        boolean sawEntry = false;
+        try (ZipInputStream zip = new ZipInputStream(source)) {
+            byte[] buffer = new byte[SegmentedDownloader.BUFFER_SIZE];
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                sawEntry = true;
+                File target = ZipDirectory.safeTarget(targetDir, entry.getName());
+                if (target == null) throw new ZipException("Unsafe entry path " + entry.getName());
+                if (entry.isDirectory()) {
+                    if (!target.isDirectory() && !target.mkdirs()) throw new IOException("Could not create " + target);
+                    continue;
+                }
+                File parent = target.getParentFile();
+                if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                    throw new IOException("Could not create " + parent);
+                }
+                long written = 0;
+                listener.onEntryProgress(entries, entry.getName(), 0, entry.getSize());
+                try (OutputStream out = new FileOutputStream(target)) {
+                    int read;
+                    // ZipInputStream verifies the entry's CRC when it reaches the entry's end.
+                    while ((read = zip.read(buffer)) != -1) {
+                        if (cancelled.get()) throw new InterruptedIOException("Download cancelled");
+                        out.write(buffer, 0, read);
+                        written += read;
+                        listener.onEntryProgress(entries, entry.getName(), written, entry.getSize());
+                    }
+                } catch (IOException e) {
+                    target.delete();
+                    throw e;
+                }
+                entries++;
+                extracted += written;
+            }
+            // ZipInputStream treats a body that is not a zip as an empty archive.
+            if (!sawEntry) throw new ZipException("No zip entries in response");
+            // Read through the central directory so the network side can finish and check its length.
+            while (source.read(buffer) != -1) {
+                if (cancelled.get()) throw new InterruptedIOException("Download cancelled");
+            }
+        }
+        return new Result(0, entries, extracted);
+    }
+
+    private static Result await(Future<Result> disk) throws IOException {
+        try {
+            return disk.get();
+        } catch (InterruptedException e) {
+            disk.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Extraction interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.android.darkelixir;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tells the parts of the app that cost CPU or memory when they are not needed. Clients owned by
+ * an activity hear when that activity is shown or hidden; app-wide clients hear when the app as
+ * a whole goes to the background. Memory pressure is passed on as a rising ladder of
+ * {@code TRIM_} levels, each delivered once until the app is back in the foreground. Main thread
+ * only.
+ */
+public final class ResourceGovernor implements Application.ActivityLifecycleCallbacks, ComponentCallbacks2 {
+
+    public interface Client {
+        /** Called when the owning activity, or for app-wide clients the app, is shown or hidden. */
+        default void onVisibilityChanged(boolean visible) {
+        }
+
+        /** Releases what {@code level} calls for and returns roughly how many bytes that freed. */
+        default long onTrim(int level) {
+            return 0;
+        }
+    }
+
+    /** Memory is getting tight while the app runs: shrink caches. */
+    static final int TRIM_SOFT = 1;
+    /** Nothing is on screen: drop whatever only drawing needs. */
+    static final int TRIM_UI = 2;
+    /** The process is at risk: drop everything that can be rebuilt. */
+    static final int TRIM_ALL = 3;
+
+    private static volatile ResourceGovernor instance;
+
+    private static final class Registration {
+        final Object owner;
+        final Client client;
+        boolean visible = true;
+
+        Registration(Object owner, Client client) {
+            this.owner = owner;
+            this.client = client;
+        }
+    }
+
+    private final List<Registration> registrations = new ArrayList<>();
+    private final List<Object> started = new ArrayList<>();
+    private final PerfMetrics.Counter released = PerfMetrics.global().counter(PerfMetrics.MEMORY_RELEASED_BYTES);
+    private int trimLevel;
+
+    public static ResourceGovernor get(Context context) {
+        if (instance == null) {
+            synchronized (ResourceGovernor.class) {
+                if (instance == null) {
+                    Application app = (Application) context.getApplicationContext();
+                    instance = new ResourceGovernor();
+                    app.registerActivityLifecycleCallbacks(instance);
+                    app.registerComponentCallbacks(instance);
+                    // Progress only needs to be fresh while someone can see it; the scheduler
+                    // still hears about finished downloads in the background, just later.
+                    DownloadStatusStore store = DownloadStatusStore.get(app);
+                    instance.add(null, new Client() {
+                        @Override
+                        public void onVisibilityChanged(boolean visible) {
+                            store.setPollInterval(visible ? DownloadStatusStore.POLL_INTERVAL_MS
+                                    : DownloadStatusStore.BACKGROUND_POLL_INTERVAL_MS);
+                        }
+                    });
+                }
+            }
+        }
+        return instance;
+    }
+
+    ResourceGovernor() {
+    }
+
+    /** Registers a client that follows {@code owner}; it is dropped when the activity is destroyed. */
+    public void register(Activity owner, Client client) {
+        add(owner, client);
+    }
+
+    /** Registers a client that follows the app as a whole. */
+    public void registerGlobal(Client client) {
+        add(null, client);
+    }
+
+    public void unregister(Client client) {
+        for (int i = registrations.size() - 1; i >= 0; i--) {
+            if (registrations.get(i).client == client) registrations.remove(i);
+        }
+    }
+
+    void add(Object owner, Client client) {
+        registrations.add(new Registration(owner, client));
+    }
+
+    void activityStarted(Object activity) {
+        started.add(activity);
+        // Back in view; the next pressure signal starts from the bottom of the ladder again.
+        trimLevel = 0;
+        updateVisibility();
+    }
+
+    void activityStopped(Object activity) {
+        started.remove(activity);
+        updateVisibility();
+    }
+
+    void activityDestroyed(Object activity) {
+        started.remove(activity);
+        for (int i = registrations.size() - 1; i >= 0; i--) {
+            if (registrations.get(i).owner == activity) registrations.remove(i);
+        }
+    }
+
+    /** Passes {@code level} on to every client unless it has already been handled. */
+    void trim(int level) {
+        if (level <= trimLevel) return;
+        trimLevel = level;
+        long bytes = 0;
+        for (Registration registration : new ArrayList<>(registrations)) {
+            bytes += registration.client.onTrim(level);
+        }
+        released.add(bytes);
+    }
+
+    /** Maps the platform's trim levels onto the governor's ladder. */
+    static int levelFor(int systemLevel) {
+        if (systemLevel >= TRIM_MEMORY_BACKGROUND || systemLevel == TRIM_MEMORY_RUNNING_CRITICAL) return TRIM_ALL;
+        if (systemLevel >= TRIM_MEMORY_UI_HIDDEN) return TRIM_UI;
+        if (systemLevel >= TRIM_MEMORY_RUNNING_MODERATE) return TRIM_SOFT;
+        return 0;
+    }
+
+    private void updateVisibility() {
+        for (Registration registration : new ArrayList<>(registrations)) {
+            boolean visible = registration.owner == null ? !started.isEmpty() : started.contains(registration.owner);
+            if (visible != registration.visible) {
+                registration.visible = visible;
+                registration.client.onVisibilityChanged(visible);
+            }
+        }
+    }
+
+    @Override
+    public void onActivityCreated(@NonNull Activity activity, Bundle savedInstanceState) {
+    }
+
+    @Override
+    public void onActivityStarted(@NonNull Activity activity) {
+        activityStarted(activity);
+    }
+
+    @Override
+    public void onActivityResumed(@NonNull Activity activity) {
+    }
+
+    @Override
+    public void onActivityPaused(@NonNull Activity activity) {
+    }
+
+    @Override
+    public void onActivityStopped(@NonNull Activity activity) {
+        // A rotation stops and restarts the activity; the app never really left the screen.
+        if (activity.isChangingConfigurations()) return;
+        activityStopped(activity);
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(@NonNull Activity activity, @NonNull Bundle outState) {
+    }
+
+    @Override
+    public void onActivityDestroyed(@NonNull Activity activity) {
+        activityDestroyed(activity);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        trim(levelFor(level));
+    }
+
+    @Override
+    public void onLowMemory() {
+        trim(TRIM_ALL);
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    }
+}
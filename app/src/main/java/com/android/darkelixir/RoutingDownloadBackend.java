@@ -0,0 +1,168 @@
+package com.android.darkelixir;
+
+import android.app.DownloadManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.MediaScannerConnection;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide backend shared by the status store and the scheduler. New transfers go to the
+ * system DownloadManager or to the in-app segmented engine depending on {@link #PREF_USE_ENGINE},
+ * except extract-while-downloading requests, which only the engine can serve;
+ * queries and removals are routed by id, so transfers from either backend stay visible when the
+ * setting changes.
+ *
+ * <p>Engine transfers share one {@link TokenBucket}, capped by {@link #PREF_BANDWIDTH_LIMIT}, so
+ * downloads leave room for the WebView. DownloadManager transfers cannot be throttled.
+ */
+public class RoutingDownloadBackend implements DownloadBackend {
+
+    static final String PREF_USE_ENGINE = "use_segmented_engine";
+    /** Bytes per second for all engine transfers together; 0 means unlimited. */
+    static final String PREF_BANDWIDTH_LIMIT = "bandwidth_limit_bytes_per_second";
+    private static final int MAX_SEGMENTS = 4;
+    private static final long MIN_SEGMENT_SIZE = 2L * 1024 * 1024;
+    /** 16 network buffers, about 1 MB, may wait for the disk during extract-while-downloading. */
+    private static final int EXTRACT_BUFFER_CHUNKS = 16;
+
+    private static volatile RoutingDownloadBackend instance;
+
+    private final DownloadBackend system;
+    private final EngineDownloadBackend engine;
+    private final SharedPreferences prefs;
+    private final TokenBucket rateLimiter;
+
+    public static RoutingDownloadBackend get(Context context) {
+        if (instance == null) {
+            synchronized (RoutingDownloadBackend.class) {
+                if (instance == null) {
+                    Context app = context.getApplicationContext();
+                    DownloadManager dm = (DownloadManager) app.getSystemService(Context.DOWNLOAD_SERVICE);
+                    SharedPreferences prefs = app.getSharedPreferences("settings", Context.MODE_PRIVATE);
+                    TokenBucket rateLimiter = TokenBucket.systemClock(prefs.getLong(PREF_BANDWIDTH_LIMIT, 0));
+                    ExecutorService segmentPool = Executors.newCachedThreadPool(threads("download-segment"));
+                    SegmentedDownloader downloader = new SegmentedDownloader(segmentPool, MAX_SEGMENTS,
+                            MIN_SEGMENT_SIZE, new File(app.getFilesDir(), "journals"));
+                    downloader.setRateLimiter(rateLimiter);
+                    PipelinedExtractor extractor = new PipelinedExtractor(segmentPool, EXTRACT_BUFFER_CHUNKS);
+                    extractor.setRateLimiter(rateLimiter);
+                    EngineDownloadBackend engine = new EngineDownloadBackend(downloader, extractor,
+                            Executors.newCachedThreadPool(threads("download-engine")),
+                            (file, sha256) -> {
+                                // Extracted folders have no single checksum.
+                                if (sha256 != null) VerificationStore.get(app).recordChecksum(file, sha256);
+                                MediaScannerConnection.scanFile(app, new String[]{file.getAbsolutePath()}, null, null);
+                            });
+                    instance = new RoutingDownloadBackend(new SystemDownloadBackend(dm), engine, prefs, rateLimiter);
+                }
+            }
+        }
+        return instance;
+    }
+
+    RoutingDownloadBackend(DownloadBackend system, EngineDownloadBackend engine, SharedPreferences prefs,
+                           TokenBucket rateLimiter) {
+        this.system = system;
+        this.engine = engine;
+        this.prefs = prefs;
+        this.rateLimiter = rateLimiter;
+    }
+
+    /** Applies to running transfers immediately; 0 removes the limit. */
+    public void setBandwidthLimit(long bytesPerSecond) {
+        prefs.edit().putLong(PREF_BANDWIDTH_LIMIT, bytesPerSecond).apply();
+        rateLimiter.setRate(bytesPerSecond);
+    }
+
+    public long getBandwidthLimit() {
+        return rateLimiter.getRate();
+    }
+
+    private static ThreadFactory threads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    @Override
+    public long enqueue(DownloadRequest request) {
+        // DownloadManager only writes files, so streamed extraction always runs in the engine.
+        boolean useEngine = request.isExtractArchive() || prefs.getBoolean(PREF_USE_ENGINE, false);
+        return useEngine ? engine.enqueue(request) : system.enqueue(request);
+    }
+
+    @Override
+    public void remove(long id) {
+        if (EngineDownloadBackend.isEngineId(id)) {
+            engine.remove(id);
+        } else {
+            system.remove(id);
+        }
+    }
+
+    @Override
+    public void pause(long id) {
+        if (EngineDownloadBackend.isEngineId(id)) {
+            engine.pause(id);
+        } else {
+            system.pause(id);
+        }
+    }
+
+    @Override
+    public void discard(DownloadRequest request) {
+        // DownloadManager cleans up after itself; only the engine leaves resumable data behind.
+        engine.discard(request);
+    }
+
+    @Override
+    public boolean canResume(long id, DownloadRequest request) {
+        return EngineDownloadBackend.isEngineId(id) ? engine.canResume(id, request) : system.canResume(id, request);
+    }
+
+    @Override
+    public List<DownloadStatus> query(long[] ids) {
+        int engineCount = 0;
+        for (long id : ids) {
+            if (EngineDownloadBackend.isEngineId(id)) engineCount++;
+        }
+        if (engineCount == 0) return system.query(ids);
+        if (engineCount == ids.length) return engine.query(ids);
+
+        long[] engineIds = new long[engineCount];
+        long[] systemIds = new long[ids.length - engineCount];
+        int e = 0;
+        int s = 0;
+        for (long id : ids) {
+            if (EngineDownloadBackend.isEngineId(id)) {
+                engineIds[e++] = id;
+            } else {
+                systemIds[s++] = id;
+            }
+        }
+        List<DownloadStatus> result = new ArrayList<>(system.query(systemIds));
+        result.addAll(engine.query(engineIds));
+        return result;
+    }
+
+    @Override
+    public long[] queryActiveIds() {
+        long[] systemIds = system.queryActiveIds();
+        long[] engineIds = engine.queryActiveIds();
+        long[] all = new long[systemIds.length + engineIds.length];
+        System.arraycopy(systemIds, 0, all, 0, systemIds.length);
+        System.arraycopy(engineIds, 0, all, systemIds.length, engineIds.length);
+        return all;
+    }
+}
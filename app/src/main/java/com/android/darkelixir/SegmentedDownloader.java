@@ -0,0 +1,447 @@
+package com.android.darkelixir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-connection HTTP downloader. A one-byte range probe tells whether the server honours
+ * {@code Range}; if it does, the file is split into up to {@code maxSegments} byte ranges that are
+ * fetched in parallel and written at their offsets with positional {@link FileChannel} writes.
+ * Otherwise the probe response itself is consumed as a single stream, or, if the server honours
+ * ranges but gives no total length, a plain GET is.
+ *
+ * <p>Segmented downloads keep a {@link DownloadJournal}: every few megabytes the written data is
+ * forced to disk and the per-segment progress is recorded, so a
+ * later call for the same target continues where the last one stopped, whether it ended through
+ * a crash, a reboot or a dropped connection. The journal is discarded, and the file restarted
+ * from zero, when the server's ETag or Last-Modified no longer matches; it is also dropped when
+ * the server answers with an error that no retry would change, such as a 404.
+ *
+ * <p>Every download also yields the file's SHA-256, computed from the buffers as they are
+ * written rather than in a second pass; see {@link ChecksumFrontier} for what parallel segments
+ * still read back.
+ */
+public final class SegmentedDownloader {
+
+    public interface ProgressListener {
+        /**
+         * Called from worker threads, and only once the target has been opened for writing;
+         * {@code totalBytes} is -1 when unknown.
+         */
+        void onProgress(long bytesDownloaded, long totalBytes);
+    }
+
+    public static final class Result {
+        public final long totalBytes;
+        public final int segments;
+        /** Bytes that were already on disk from an earlier, interrupted attempt. */
+        public final long resumedBytes;
+        /** Lowercase hex SHA-256 of the complete file. */
+        public final String sha256;
+
+        Result(long totalBytes, int segments, long resumedBytes, String sha256) {
+            this.totalBytes = totalBytes;
+            this.segments = segments;
+            this.resumedBytes = resumedBytes;
+            this.sha256 = sha256;
+        }
+    }
+
+    /** The server's copy changed while we were resuming; partial data on disk is useless. */
+    private static final class EntityChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        EntityChangedException(String message) {
+            super(message);
+        }
+    }
+
+    /** The server answered with a status the download cannot use. */
+    private static final class HttpStatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int code;
+
+        HttpStatusException(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final long CHECKPOINT_BYTES = 4L * 1024 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 15_000;
+    private static final int READ_TIMEOUT_MS = 30_000;
+
+    private final ExecutorService segmentExecutor;
+    private final int maxSegments;
+    private final long minSegmentSize;
+    private final File journalDir;
+    private int maxRetries = 3;
+    private long retryDelayMs = 1000;
+    private TokenBucket rateLimiter;
+
+    /**
+     * @param journalDir where resume journals live, or null to keep progress only in memory
+     */
+    public SegmentedDownloader(ExecutorService segmentExecutor, int maxSegments, long minSegmentSize,
+                               File journalDir) {
+        this.segmentExecutor = segmentExecutor;
+        this.maxSegments = Math.max(1, maxSegments);
+        this.minSegmentSize = Math.max(1, minSegmentSize);
+        this.journalDir = journalDir;
+    }
+
+    /** Each segment is retried this many times, with exponential backoff, before the file fails. */
+    void setRetryPolicy(int maxRetries, long retryDelayMs) {
+        this.maxRetries = maxRetries;
+        this.retryDelayMs = retryDelayMs;
+    }
+
+    /** Shares a process-wide bandwidth limit with every read this downloader makes. */
+    void setRateLimiter(TokenBucket rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /** True if an interrupted download of the request's target can continue where it stopped. */
+    public boolean hasResumeState(DownloadRequest request) {
+        return journalDir != null && DownloadJournal.fileFor(journalDir, request.getDestinationPath()).isFile();
+    }
+
+    /** Forgets any resume state for the request's target; returns true if there was some. */
+    public boolean discardResumeState(DownloadRequest request) {
+        return journalDir != null && DownloadJournal.fileFor(journalDir, request.getDestinationPath()).delete();
+    }
+
+    public Result download(DownloadRequest request, ProgressListener listener, AtomicBoolean cancelled)
+            throws IOException {
+        long started = System.nanoTime();
+        Result result;
+        try {
+            try {
+                result = attempt(request, listener, cancelled);
+            } catch (EntityChangedException e) {
+                discardResumeState(request);
+                result = attempt(request, listener, cancelled);
+            }
+        } catch (IOException e) {
+            // Without a journal nobody will resume a transfer that can only fail again.
+            if (isPermanent(e)) discardResumeState(request);
+            throw e;
+        }
+        long elapsedMs = (System.nanoTime() - started) / 1_000_000;
+        if (elapsedMs > 0) {
+            PerfMetrics.global().record(PerfMetrics.DOWNLOAD_THROUGHPUT,
+                    (result.totalBytes - result.resumedBytes) * 1000 / 1024 / elapsedMs);
+        }
+        return result;
+    }
+
+    private Result attempt(DownloadRequest request, ProgressListener listener, AtomicBoolean cancelled)
+            throws IOException {
+        File target = new File(request.getDestinationPath());
+        File journalFile = journalDir != null ? DownloadJournal.fileFor(journalDir, target.getPath()) : null;
+        DownloadJournal journal = journalFile != null ? DownloadJournal.load(journalFile) : null;
+        if (journal != null && (!journal.url.equals(request.getUrl())
+                || !journal.targetPath.equals(target.getPath())
+                || !target.exists() || target.length() != journal.totalBytes)) {
+            journal.delete();
+            journal = null;
+        }
+
+        long requested = System.nanoTime();
+        HttpURLConnection probe = open(request, "bytes=0-0", null);
+        try {
+            int code = probe.getResponseCode();
+            PerfMetrics.global().record(PerfMetrics.DOWNLOAD_TTFB, (System.nanoTime() - requested) / 1_000_000);
+            long total = code == HttpURLConnection.HTTP_PARTIAL
+                    ? parseContentRangeTotal(probe.getHeaderField("Content-Range")) : -1;
+
+            if (code == HttpURLConnection.HTTP_PARTIAL && total > 0) {
+                String etag = probe.getHeaderField("ETag");
+                String lastModified = probe.getHeaderField("Last-Modified");
+                probe.getInputStream().close();
+                probe.disconnect();
+
+                if (journal != null && !journal.matches(total, etag, lastModified)) {
+                    journal.delete();
+                    journal = null;
+                }
+                boolean fresh = journal == null;
+                if (fresh) {
+                    int segments = (int) Math.min(maxSegments, Math.max(1, total / minSegmentSize));
+                    journal = DownloadJournal.create(journalFile, request.getUrl(), target.getPath(), total,
+                            etag, lastModified, segments);
+                }
+                long resumed = journal.completedBytes();
+                String sha256 = downloadSegments(request, target, journal, fresh, listener, cancelled);
+                journal.delete();
+                return new Result(total, journal.segments(), resumed, sha256);
+            }
+            if (journal != null) journal.delete();
+            if (code == HttpURLConnection.HTTP_PARTIAL || code == HTTP_RANGE_NOT_SATISFIABLE) {
+                // Ranges work but the length is unknown, or the file is empty: fetch it in one stream.
+                probe.disconnect();
+                probe = open(request, null, null);
+                code = probe.getResponseCode();
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new HttpStatusException(code, "HTTP " + code + " for " + request.getUrl());
+            }
+            long length = probe.getContentLengthLong();
+            MessageDigest digest = ChecksumFrontier.newSha256();
+            long written = downloadSingle(probe, target, length, digest, listener, cancelled);
+            return new Result(written, 1, 0, ChecksumFrontier.toHex(digest.digest()));
+        } finally {
+            probe.disconnect();
+        }
+    }
+
+    /** Fetches the missing ranges and returns the file's SHA-256. */
+    private String downloadSegments(DownloadRequest request, File target, DownloadJournal journal, boolean fresh,
+                                    ProgressListener listener, AtomicBoolean cancelled) throws IOException {
+        AtomicLong downloaded = new AtomicLong(journal.completedBytes());
+        AtomicLong sinceCheckpoint = new AtomicLong();
+        AtomicBoolean stop = new AtomicBoolean();
+
+        FileChannel channel = fresh
+                ? FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+                : FileChannel.open(target.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        listener.onProgress(downloaded.get(), journal.totalBytes);
+        ChecksumFrontier checksum = new ChecksumFrontier(channel, journal);
+        try {
+            if (fresh) {
+                // Reserve the full length up front so a resumed file can be recognised by its size.
+                channel.write(ByteBuffer.wrap(new byte[1]), journal.totalBytes - 1);
+                checkpoint(channel, journal);
+            }
+            List<Future<Void>> futures = new ArrayList<>(journal.segments());
+            for (int i = 0; i < journal.segments(); i++) {
+                int segment = i;
+                if (journal.starts[i] + journal.done.get(i) > journal.ends[i]) continue;
+                futures.add(segmentExecutor.submit(() -> {
+                    fetchSegment(request, channel, journal, checksum, segment, downloaded, sinceCheckpoint,
+                            listener, cancelled, stop);
+                    return null;
+                }));
+            }
+            awaitAll(futures, stop);
+            return checksum.finish();
+        } catch (IOException e) {
+            if (!isPermanent(e)) {
+                try {
+                    checkpoint(channel, journal);
+                } catch (IOException ignored) {
+                    // The last successful checkpoint on disk still describes durable data.
+                }
+            }
+            throw e;
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void fetchSegment(DownloadRequest request, FileChannel channel, DownloadJournal journal,
+                              ChecksumFrontier checksum, int segment, AtomicLong downloaded, AtomicLong sinceCheckpoint, ProgressListener listener,
+                              AtomicBoolean cancelled, AtomicBoolean stop) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                fetchRange(request, channel, journal, checksum, segment, downloaded, sinceCheckpoint, listener,
+                        cancelled, stop);
+                return;
+            } catch (IOException e) {
+                if (isPermanent(e) || cancelled.get() || stop.get() || attempt >= maxRetries) throw e;
+                try {
+                    Thread.sleep(retryDelayMs << attempt);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Download interrupted");
+                }
+            }
+        }
+    }
+
+    private void fetchRange(DownloadRequest request, FileChannel channel, DownloadJournal journal,
+                            ChecksumFrontier checksum, int segment, AtomicLong downloaded, AtomicLong sinceCheckpoint, ProgressListener listener,
+                            AtomicBoolean cancelled, AtomicBoolean stop) throws IOException {
+        checkCancelled(cancelled, stop);
+        long end = journal.ends[segment];
+        long position = journal.starts[segment] + journal.done.get(segment);
+        String validator = journal.ifRangeValidator();
+        HttpURLConnection connection = open(request, "bytes=" + position + "-" + end, validator);
+        try {
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_OK && validator != null) {
+                throw new EntityChangedException("Validator no longer matches for " + request.getUrl());
+            }
+            if (code != HttpURLConnection.HTTP_PARTIAL) {
+                throw new HttpStatusException(code, "Range " + position + "-" + end + " answered with HTTP " + code);
+            }
+            try (InputStream in = connection.getInputStream()) {
+                byte[] bytes = new byte[BUFFER_SIZE];
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                int read;
+                while (position <= end
+                        && (read = in.read(bytes, 0, (int) Math.min(bytes.length, end - position + 1))) != -1) {
+                    checkCancelled(cancelled, stop);
+                    throttle(rateLimiter, read);
+                    long written = position;
+                    buffer.clear().limit(read);
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    journal.done.addAndGet(segment, read);
+                    checksum.advance(bytes, read, written);
+                    listener.onProgress(downloaded.addAndGet(read), journal.totalBytes);
+                    if (sinceCheckpoint.addAndGet(read) >= CHECKPOINT_BYTES) {
+                        sinceCheckpoint.set(0);
+                        checkpoint(channel, journal);
+                    }
+                }
+            }
+            if (position != end + 1) {
+                throw new IOException("Range ended early at " + position + ", expected " + (end + 1));
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * A changed entity, or a client error other than a timeout or rate limit, fails the same way
+     * however often it is retried.
+     */
+    static boolean isPermanent(IOException e) {
+        if (e instanceof EntityChangedException) return true;
+        if (!(e instanceof HttpStatusException)) return false;
+        int code = ((HttpStatusException) e).code;
+        return code >= 400 && code < 500 && code != HttpURLConnection.HTTP_CLIENT_TIMEOUT && code != 429;
+    }
+
+    /** Counters are read before the force, so everything they claim is durable once saved. */
+    private static void checkpoint(FileChannel channel, DownloadJournal journal) throws IOException {
+        long[] done = journal.snapshotDone();
+        channel.force(false);
+        journal.save(done);
+    }
+
+    static void throttle(TokenBucket rateLimiter, int bytes) throws InterruptedIOException {
+        if (rateLimiter == null) return;
+        try {
+            rateLimiter.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download interrupted");
+        }
+    }
+
+    private long downloadSingle(HttpURLConnection connection, File target, long length, MessageDigest digest,
+                                ProgressListener listener, AtomicBoolean cancelled) throws IOException {
+        long position = 0;
+        try (InputStream in = connection.getInputStream();
+             FileChannel channel = FileChannel.open(target.toPath(),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            listener.onProgress(0, length);
+            byte[] bytes = new byte[BUFFER_SIZE];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            int read;
+            while ((read = in.read(bytes)) != -1) {
+                checkCancelled(cancelled);
+                throttle(rateLimiter, read);
+                digest.update(bytes, 0, read);
+                buffer.clear().limit(read);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                listener.onProgress(position, length);
+            }
+        }
+        if (length >= 0 && position != length) {
+            throw new IOException("Expected " + length + " bytes but got " + position);
+        }
+        return position;
+    }
+
+    /**
+     * Waits for every range. The first failure stops the others, which are still awaited so the
+     * channel is quiet before the final checkpoint and close.
+     */
+    private static void awaitAll(List<Future<Void>> futures, AtomicBoolean stop) throws IOException {
+        IOException failure = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                stop.set(true);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download interrupted");
+            } catch (ExecutionException e) {
+                stop.set(true);
+                Throwable cause = e.getCause();
+                IOException io = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                // Ranges that merely noticed the stop report InterruptedIOException; keep the real cause.
+                if (failure == null || (failure instanceof InterruptedIOException && !(io instanceof InterruptedIOException))) {
+                    failure = io;
+                }
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    private static void checkCancelled(AtomicBoolean cancelled) throws InterruptedIOException {
+        if (cancelled.get()) throw new InterruptedIOException("Download cancelled");
+    }
+
+    private static void checkCancelled(AtomicBoolean cancelled, AtomicBoolean stop) throws InterruptedIOException {
+        checkCancelled(cancelled);
+        if (stop.get()) throw new InterruptedIOException("Stopped after another range failed");
+    }
+
+    static HttpURLConnection open(DownloadRequest request, String range, String ifRange)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(request.getUrl()).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        // Identity encoding keeps byte offsets meaningful across ranges.
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        if (request.getUserAgent() != null) {
+            connection.setRequestProperty("User-Agent", request.getUserAgent());
+        }
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+        if (ifRange != null) {
+            connection.setRequestProperty("If-Range", ifRange);
+        }
+        return connection;
+    }
+
+    /** Parses the total length from {@code bytes 0-0/12345}; returns -1 when absent or unknown. */
+    static long parseContentRangeTotal(String contentRange) {
+        if (contentRange == null) return -1;
+        int slash = contentRange.lastIndexOf('/');
+        if (slash < 0 || slash == contentRange.length() - 1) return -1;
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.android.darkelixir;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Locale;
+
+/**
+ * Time from launching the shell page until it finishes loading, kept separately for launches
+ * with and without the asset cache so the two can be compared on a real device.
+ */
+final class StartupMetrics {
+
+    static final String MODE_CACHED = "cached";
+    static final String MODE_UNCACHED = "uncached";
+
+    private final SharedPreferences prefs;
+
+    StartupMetrics(Context context) {
+        this.prefs = context.getSharedPreferences("startup_metrics", Context.MODE_PRIVATE);
+    }
+
+    void record(String mode, long millis) {
+        prefs.edit()
+                .putInt(mode + "_count", prefs.getInt(mode + "_count", 0) + 1)
+                .putLong(mode + "_total_ms", prefs.getLong(mode + "_total_ms", 0) + millis)
+                .putLong(mode + "_last_ms", millis)
+                .apply();
+    }
+
+    String summary() {
+        return line("With cache", MODE_CACHED) + "\n" + line("Without cache", MODE_UNCACHED);
+    }
+
+    void clear() {
+        prefs.edit().clear().apply();
+    }
+
+    private String line(String label, String mode) {
+        int count = prefs.getInt(mode + "_count", 0);
+        if (count == 0) return label + ": no launches yet";
+        long average = prefs.getLong(mode + "_total_ms", 0) / count;
+        return String.format(Locale.US, "%s: %d ms average, %d ms last (%d launches)",
+                label, average, prefs.getLong(mode + "_last_ms", 0), count);
+    }
+}
@@ -0,0 +1,235 @@
+package com.android.darkelixir;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.core.content.ContextCompat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Keeps the download folder under the user's storage budget. Usage is tracked from the
+ * {@link DirectoryIndexer}'s deltas; shortly after the folder grows past the budget the least
+ * recently opened files are deleted, skipping pinned files and anything the download queue still
+ * owns. Access times and pins are persisted.
+ */
+public final class StorageManager implements DirectoryIndexer.Listener {
+
+    public interface PreviewCallback {
+        void onPreview(List<DownloadEntry> evictions, long totalBytes);
+    }
+
+    static final String PREF_STORAGE_BUDGET = "storage_budget_bytes";
+    /** Lets a burst of changes, such as a finishing download, settle before evicting. */
+    static final long EVICTION_DELAY_MS = 5_000;
+    private static final int VERSION = 1;
+
+    private static volatile StorageManager instance;
+
+    private final File stateFile;
+    private final StorageBudget budget;
+    private final ScheduledExecutorService executor;
+    private final Executor callbackExecutor;
+    private final SharedPreferences prefs;
+    private final Predicate<String> busy;
+    private final LongSupplier clock;
+    private final Set<String> pinned = ConcurrentHashMap.newKeySet();
+    private volatile long totalBytes;
+
+    // Confined to the storage thread.
+    private ScheduledFuture<?> pendingEviction;
+
+    public static StorageManager get(Context context) {
+        if (instance == null) {
+            synchronized (StorageManager.class) {
+                if (instance == null) {
+                    Context app = context.getApplicationContext();
+                    DownloadScheduler scheduler = DownloadScheduler.get(app);
+                    instance = new StorageManager(
+                            new File(app.getFilesDir(), "storage_budget.bin"),
+                            new StorageBudget(),
+                            Executors.newSingleThreadScheduledExecutor(r -> {
+                                Thread t = new Thread(r, "storage-budget");
+                                t.setDaemon(true);
+                                t.setPriority(Thread.MIN_PRIORITY);
+                                return t;
+                            }),
+                            ContextCompat.getMainExecutor(app),
+                            app.getSharedPreferences("settings", Context.MODE_PRIVATE),
+                            path -> scheduler.findByPath(path) != null,
+                            System::currentTimeMillis);
+                    instance.load();
+                    DirectoryIndexer.get(app).addListener(instance);
+                }
+            }
+        }
+        return instance;
+    }
+
+    StorageManager(File stateFile, StorageBudget budget, ScheduledExecutorService executor, Executor callbackExecutor,
+                   SharedPreferences prefs, Predicate<String> busy, LongSupplier clock) {
+        this.stateFile = stateFile;
+        this.budget = budget;
+        this.executor = executor;
+        this.callbackExecutor = callbackExecutor;
+        this.prefs = prefs;
+        this.busy = busy;
+        this.clock = clock;
+    }
+
+    /** Bytes used by the download folder as of the last index change. */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getBudget() {
+        return prefs.getLong(PREF_STORAGE_BUDGET, 0);
+    }
+
+    /** Sets the budget in bytes, zero for none, and evicts at once if the folder is over it. */
+    public void setBudget(long bytes) {
+        prefs.edit().putLong(PREF_STORAGE_BUDGET, bytes).apply();
+        executor.execute(this::evict);
+    }
+
+    public boolean isPinned(String path) {
+        return pinned.contains(path);
+    }
+
+    /** Pinned files are never evicted. */
+    public void setPinned(String path, boolean pin) {
+        if (pin) {
+            pinned.add(path);
+        } else {
+            pinned.remove(path);
+        }
+        executor.execute(this::save);
+    }
+
+    /** Marks a file as used now, moving it to the back of the eviction order. */
+    public void recordAccess(String path) {
+        long now = clock.getAsLong();
+        executor.execute(() -> {
+            budget.recordAccess(path, now);
+            save();
+        });
+    }
+
+    /** Reports, on the callback executor, what eviction would delete under the current budget. */
+    public void preview(PreviewCallback callback) {
+        executor.execute(() -> {
+            List<DownloadEntry> plan = budget.plan(getBudget(), this::keep);
+            long total = budget.getTotalBytes();
+            callbackExecutor.execute(() -> callback.onPreview(plan, total));
+        });
+    }
+
+    /** Evicts now rather than after the settle delay. */
+    public void evictNow() {
+        executor.execute(this::evict);
+    }
+
+    @Override
+    public void onIndexChanged(DirectoryIndex.Delta delta) {
+        executor.execute(() -> {
+            budget.apply(delta);
+            totalBytes = budget.getTotalBytes();
+            long limit = getBudget();
+            if (limit > 0 && totalBytes > limit && pendingEviction == null) {
+                pendingEviction = executor.schedule(this::evict, EVICTION_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    private boolean keep(String path) {
+        return pinned.contains(path) || busy.test(path);
+    }
+
+    // Storage thread.
+    private void evict() {
+        if (pendingEviction != null) {
+            pendingEviction.cancel(false);
+            pendingEviction = null;
+        }
+        List<DownloadEntry> plan = budget.plan(getBudget(), this::keep);
+        if (plan.isEmpty()) return;
+        List<String> removed = new ArrayList<>();
+        long freed = 0;
+        for (DownloadEntry entry : plan) {
+            File file = entry.getFile();
+            if (file.delete() || !file.exists()) {
+                removed.add(entry.getPath());
+                freed += entry.getSize();
+            }
+        }
+        // Account for the deletions now; the index reports them again shortly, which is harmless.
+        budget.apply(new DirectoryIndex.Delta(new ArrayList<>(), new ArrayList<>(), removed));
+        totalBytes = budget.getTotalBytes();
+        PerfMetrics.global().counter(PerfMetrics.STORAGE_EVICTED_BYTES).add(freed);
+        save();
+    }
+
+    /** Loads persisted access times and pins on the storage thread, dropping files that are gone. */
+    void load() {
+        executor.execute(() -> {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)))) {
+                if (in.readInt() != VERSION) return;
+                int accessCount = in.readInt();
+                for (int i = 0; i < accessCount; i++) {
+                    String path = in.readUTF();
+                    long accessed = in.readLong();
+                    if (new File(path).exists()) budget.recordAccess(path, accessed);
+                }
+                int pinCount = in.readInt();
+                for (int i = 0; i < pinCount; i++) {
+                    String path = in.readUTF();
+                    if (new File(path).exists()) pinned.add(path);
+                }
+            } catch (FileNotFoundException e) {
+                // Nothing recorded yet.
+            } catch (IOException e) {
+                // A damaged file only loses access history; eviction falls back to modification times.
+            }
+        });
+    }
+
+    private void save() {
+        File tmp = new File(stateFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            Map<String, Long> accessTimes = budget.accessTimes();
+            List<String> pins = new ArrayList<>(pinned);
+            out.writeInt(VERSION);
+            out.writeInt(accessTimes.size());
+            for (Map.Entry<String, Long> e : accessTimes.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue());
+            }
+            out.writeInt(pins.size());
+            for (String path : pins) out.writeUTF(path);
+        } catch (IOException e) {
+            // State stays in memory; the next change retries the write.
+            return;
+        }
+        tmp.renameTo(stateFile);
+    }
+}
@@ -0,0 +1,102 @@
+package com.android.darkelixir;
+
+import android.app.DownloadManager;
+import android.database.Cursor;
+import android.net.Uri;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SystemDownloadBackend implements DownloadBackend {
+
+    private final DownloadManager downloadManager;
+
+    public SystemDownloadBackend(DownloadManager downloadManager) {
+        this.downloadManager = downloadManager;
+    }
+
+    @Override
+    public long enqueue(DownloadRequest request) {
+        DownloadManager.Request dmRequest = new DownloadManager.Request(Uri.parse(request.getUrl()));
+        dmRequest.setMimeType(request.getMimeType());
+        if (request.getUserAgent() != null) {
+            dmRequest.addRequestHeader("User-Agent", request.getUserAgent());
+        }
+        dmRequest.setDescription("Downloading file...");
+        dmRequest.setTitle(request.getTitle());
+        dmRequest.allowScanningByMediaScanner();
+        dmRequest.setNotificationVisibility(DownloadManager.Request.VISIBILITY_VISIBLE_NOTIFY_COMPLETED);
+        dmRequest.setDestinationUri(Uri.fromFile(new File(request.getDestinationPath())));
+        return downloadManager.enqueue(dmRequest);
+    }
+
+    @Override
+    public void remove(long id) {
+        downloadManager.remove(id);
+    }
+
+    @Override
+    public List<DownloadStatus> query(long[] ids) {
+        List<DownloadStatus> result = new ArrayList<>(ids.length);
+        if (ids.length == 0) return result;
+
+        long started = System.nanoTime();
+        DownloadManager.Query query = new DownloadManager.Query().setFilterById(ids);
+        try (Cursor cursor = downloadManager.query(query)) {
+            if (cursor == null) return result;
+            int idColumn = cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_ID);
+            int uriColumn = cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_LOCAL_URI);
+            int statusColumn = cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_STATUS);
+            int bytesColumn = cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_BYTES_DOWNLOADED_SO_FAR);
+            int totalColumn = cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_TOTAL_SIZE_BYTES);
+            while (cursor.moveToNext()) {
+                String localUri = cursor.getString(uriColumn);
+                String path = localUri != null ? Uri.parse(localUri).getPath() : null;
+                result.add(new DownloadStatus(
+                        cursor.getLong(idColumn),
+                        path,
+                        toState(cursor.getInt(statusColumn)),
+                        cursor.getLong(bytesColumn),
+                        cursor.getLong(totalColumn)));
+            }
+        } finally {
+            PerfMetrics.global().record(PerfMetrics.DM_QUERY, (System.nanoTime() - started) / 1000);
+        }
+        return result;
+    }
+
+    @Override
+    public long[] queryActiveIds() {
+        DownloadManager.Query query = new DownloadManager.Query().setFilterByStatus(
+                DownloadManager.STATUS_PENDING | DownloadManager.STATUS_RUNNING | DownloadManager.STATUS_PAUSED);
+        long started = System.nanoTime();
+        try (Cursor cursor = downloadManager.query(query)) {
+            if (cursor == null) return new long[0];
+            long[] ids = new long[cursor.getCount()];
+            int idColumn = cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_ID);
+            int i = 0;
+            while (cursor.moveToNext() && i < ids.length) {
+                ids[i++] = cursor.getLong(idColumn);
+            }
+            return ids;
+        } finally {
+            PerfMetrics.global().record(PerfMetrics.DM_QUERY, (System.nanoTime() - started) / 1000);
+        }
+    }
+
+    private static int toState(int status) {
+        switch (status) {
+            case DownloadManager.STATUS_RUNNING:
+                return DownloadStatus.STATE_RUNNING;
+            case DownloadManager.STATUS_PAUSED:
+                return DownloadStatus.STATE_PAUSED;
+            case DownloadManager.STATUS_SUCCESSFUL:
+                return DownloadStatus.STATE_SUCCESSFUL;
+            case DownloadManager.STATUS_FAILED:
+                return DownloadStatus.STATE_FAILED;
+            default:
+                return DownloadStatus.STATE_PENDING;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.android.darkelixir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded LRU directory of encoded thumbnails, one file per key. There is no separate index:
+ * the directory is listed once and file modification times, refreshed on every hit, carry the
+ * recency order across restarts. Thread-safe.
+ */
+final class ThumbnailDiskCache {
+
+    private final File dir;
+    private final long maxBytes;
+    // Access order, least recently used first; values are file sizes.
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+    private boolean loaded;
+
+    ThumbnailDiskCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /** Keys change with the file's size and date, so a rewritten file gets a new thumbnail. */
+    static String keyFor(DownloadEntry entry) {
+        String identity = entry.getPath() + '\n' + entry.getSize() + '\n' + entry.getLastModified();
+        return ChecksumFrontier.toHex(ChecksumFrontier.newSha256().digest(identity.getBytes(StandardCharsets.UTF_8)))
+                .substring(0, 32);
+    }
+
+    synchronized byte[] get(String key) {
+        ensureLoaded();
+        // get(), unlike containsKey(), moves the key to the most recently used end.
+        if (entries.get(key) == null) return null;
+        File file = new File(dir, key);
+        try {
+            byte[] data = Files.readAllBytes(file.toPath());
+            file.setLastModified(System.currentTimeMillis());
+            return data;
+        } catch (IOException e) {
+            totalBytes -= entries.remove(key);
+            file.delete();
+            return null;
+        }
+    }
+
+    synchronized void put(String key, byte[] data) {
+        ensureLoaded();
+        if (data.length > maxBytes) return;
+        if (!dir.isDirectory() && !dir.mkdirs()) return;
+        File tmp = new File(dir, key + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            out.write(data);
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(new File(dir, key))) {
+            tmp.delete();
+            return;
+        }
+        Long previous = entries.put(key, (long) data.length);
+        totalBytes += data.length - (previous != null ? previous : 0);
+        trim();
+    }
+
+    synchronized long size() {
+        ensureLoaded();
+        return totalBytes;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.getValue();
+            new File(dir, eldest.getKey()).delete();
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {
+                file.delete();
+                continue;
+            }
+            entries.put(file.getName(), file.length());
+            totalBytes += file.length();
+        }
+        trim();
+    }
+}
@@ -0,0 +1,321 @@
+package com.android.darkelixir;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.media.MediaMetadataRetriever;
+import android.media.ThumbnailUtils;
+import android.os.Process;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import androidx.core.content.ContextCompat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads row thumbnails: a subsampled decode for images, a frame for videos and the launcher icon
+ * for APKs. Results are kept in a memory LRU sized in bytes, backed by a {@link ThumbnailDiskCache}.
+ * Generation runs on {@link #THREADS} background threads, newest request first. Requests live on
+ * the main thread and belong to an {@link ImageView}; rebinding or recycling the view cancels its
+ * request, so rows scrolled past are never decoded, and only {@link #MAX_PENDING} requests wait.
+ * Under memory pressure the memory LRU is halved, then emptied.
+ */
+public final class ThumbnailLoader implements ResourceGovernor.Client {
+
+    static final int KIND_NONE = 0;
+    static final int KIND_IMAGE = 1;
+    static final int KIND_VIDEO = 2;
+    static final int KIND_APK = 3;
+
+    static final int THREADS = 2;
+    static final int MAX_PENDING = 48;
+    private static final int SIZE_DP = 48;
+    private static final long DISK_BYTES = 16L * 1024 * 1024;
+    private static final int MAX_MEMORY_BYTES = 16 * 1024 * 1024;
+    private static final String APK_MIME = "application/vnd.android.package-archive";
+
+    private static volatile ThumbnailLoader instance;
+
+    private static final class Request {
+        final String key;
+        final DownloadEntry entry;
+        final int kind;
+        final ImageView view;
+        volatile boolean cancelled;
+
+        Request(String key, DownloadEntry entry, int kind, ImageView view) {
+            this.key = key;
+            this.entry = entry;
+            this.kind = kind;
+            this.view = view;
+        }
+    }
+
+    private final Context context;
+    private final ThumbnailDiskCache disk;
+    private final Executor executor;
+    private final Executor mainExecutor;
+    private final int sizePx;
+    private final LruCache<String, Bitmap> memory;
+    private final PerfMetrics.Histogram decodeLatency = PerfMetrics.global().histogram(PerfMetrics.THUMBNAIL_DECODE);
+
+    // Main thread only.
+    private final Map<ImageView, Request> byView = new HashMap<>();
+    private final ArrayDeque<Request> pending = new ArrayDeque<>();
+    // Files that produced no thumbnail, so rebinding them does not retry.
+    private final LruCache<String, Boolean> failed = new LruCache<>(256);
+    private int running;
+
+    public static ThumbnailLoader get(Context context) {
+        if (instance == null) {
+            synchronized (ThumbnailLoader.class) {
+                if (instance == null) {
+                    Context app = context.getApplicationContext();
+                    int sizePx = Math.round(SIZE_DP * app.getResources().getDisplayMetrics().density);
+                    int memoryBytes = (int) Math.min(MAX_MEMORY_BYTES, Runtime.getRuntime().maxMemory() / 16);
+                    instance = new ThumbnailLoader(app,
+                            new ThumbnailDiskCache(new File(app.getCacheDir(), "thumbnails"), DISK_BYTES),
+                            Executors.newFixedThreadPool(THREADS, r -> {
+                                Thread t = new Thread(() -> {
+                                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                    r.run();
+                                }, "thumbnail");
+                                t.setDaemon(true);
+                                return t;
+                            }),
+                            ContextCompat.getMainExecutor(app), sizePx, memoryBytes);
+                    ResourceGovernor.get(app).registerGlobal(instance);
+                }
+            }
+        }
+        return instance;
+    }
+
+    ThumbnailLoader(Context context, ThumbnailDiskCache disk, Executor executor, Executor mainExecutor,
+                    int sizePx, int memoryBytes) {
+        this.context = context;
+        this.disk = disk;
+        this.executor = executor;
+        this.mainExecutor = mainExecutor;
+        this.sizePx = sizePx;
+        this.memory = new LruCache<String, Bitmap>(memoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+    }
+
+    static int kindOf(String mimeType) {
+        if (mimeType.startsWith("image/")) return KIND_IMAGE;
+        if (mimeType.startsWith("video/")) return KIND_VIDEO;
+        if (mimeType.equals(APK_MIME)) return KIND_APK;
+        return KIND_NONE;
+    }
+
+    /**
+     * Shows the entry's type icon in {@code view} and, for images, videos and APKs, replaces it
+     * with the thumbnail once one is available. Main thread only.
+     */
+    public void load(DownloadEntry entry, ImageView view) {
+        int kind = kindOf(entry.getMimeType());
+        String key = kind != KIND_NONE ? ThumbnailDiskCache.keyFor(entry) : null;
+        Request current = byView.get(view);
+        if (current != null && current.key.equals(key)) return;
+        cancel(view);
+        if (kind == KIND_NONE || failed.get(key) != null) {
+            view.setImageResource(iconFor(kind));
+            return;
+        }
+        Bitmap cached = memory.get(key);
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return;
+        }
+        view.setImageResource(iconFor(kind));
+        Request request = new Request(key, entry, kind, view);
+        byView.put(view, request);
+        pending.addFirst(request);
+        if (pending.size() > MAX_PENDING) {
+            // The oldest requests are for rows furthest behind the scroll; they retry when rebound.
+            Request dropped = pending.removeLast();
+            dropped.cancelled = true;
+            byView.remove(dropped.view);
+        }
+        pump();
+    }
+
+    /** Shows only the type icon, cancelling any thumbnail on its way to {@code view}. */
+    public void showIcon(DownloadEntry entry, ImageView view) {
+        cancel(view);
+        view.setImageResource(iconFor(kindOf(entry.getMimeType())));
+    }
+
+    /** Cancels the view's request; a decode already running finishes but is not shown. */
+    public void cancel(ImageView view) {
+        Request request = byView.remove(view);
+        if (request != null) {
+            request.cancelled = true;
+            pending.remove(request);
+        }
+    }
+
+    @Override
+    public long onTrim(int level) {
+        int before = memory.size();
+        if (level == ResourceGovernor.TRIM_SOFT) {
+            // The limit stays, so the cache fills up again once the pressure has passed.
+            memory.trimToSize(memory.maxSize() / 2);
+        } else {
+            memory.evictAll();
+            failed.evictAll();
+        }
+        return before - memory.size();
+    }
+
+    private void pump() {
+        while (running < THREADS && !pending.isEmpty()) {
+            Request request = pending.pollFirst();
+            running++;
+            executor.execute(() -> {
+                Bitmap bitmap = request.cancelled ? null : produce(request);
+                mainExecutor.execute(() -> {
+                    running--;
+                    deliver(request, bitmap);
+                    pump();
+                });
+            });
+        }
+    }
+
+    private void deliver(Request request, Bitmap bitmap) {
+        if (bitmap != null) {
+            memory.put(request.key, bitmap);
+        } else if (!request.cancelled) {
+            failed.put(request.key, Boolean.TRUE);
+        }
+        if (!request.cancelled && byView.get(request.view) == request) {
+            byView.remove(request.view);
+            if (bitmap != null) request.view.setImageBitmap(bitmap);
+        }
+    }
+
+    // Thumbnail threads from here on.
+
+    private Bitmap produce(Request request) {
+        byte[] stored = disk.get(request.key);
+        if (stored != null) {
+            Bitmap bitmap = BitmapFactory.decodeByteArray(stored, 0, stored.length);
+            if (bitmap != null) return bitmap;
+        }
+        if (request.cancelled) return null;
+        long started = System.nanoTime();
+        Bitmap bitmap;
+        try {
+            bitmap = generate(request.entry, request.kind);
+        } catch (RuntimeException | OutOfMemoryError e) {
+            // Truncated or unsupported files simply keep their type icon.
+            bitmap = null;
+        }
+        decodeLatency.record((System.nanoTime() - started) / 1_000_000);
+        if (bitmap != null) {
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            bitmap.compress(request.kind == KIND_APK ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG,
+                    85, encoded);
+            disk.put(request.key, encoded.toByteArray());
+        }
+        return bitmap;
+    }
+
+    private Bitmap generate(DownloadEntry entry, int kind) {
+        switch (kind) {
+            case KIND_IMAGE:
+                return decodeImage(entry.getPath());
+            case KIND_VIDEO:
+                return videoFrame(entry.getPath());
+            case KIND_APK:
+                return apkIcon(entry.getPath());
+            default:
+                return null;
+        }
+    }
+
+    private Bitmap decodeImage(String path) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+        options.inSampleSize = sampleSize(options.outWidth, options.outHeight, sizePx);
+        options.inJustDecodeBounds = false;
+        return crop(BitmapFactory.decodeFile(path, options));
+    }
+
+    /** Largest power of two that keeps the shorter side at least {@code target} pixels. */
+    static int sampleSize(int width, int height, int target) {
+        int sample = 1;
+        while (Math.min(width, height) / (sample * 2) >= target) sample *= 2;
+        return sample;
+    }
+
+    private Bitmap videoFrame(String path) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(path);
+            return crop(retriever.getScaledFrameAtTime(-1, MediaMetadataRetriever.OPTION_CLOSEST_SYNC, sizePx, sizePx));
+        } finally {
+            try {
+                retriever.release();
+            } catch (Exception e) {
+                // Nothing left to free.
+            }
+        }
+    }
+
+    private Bitmap apkIcon(String path) {
+        PackageManager pm = context.getPackageManager();
+        PackageInfo info = pm.getPackageArchiveInfo(path, 0);
+        if (info == null || info.applicationInfo == null) return null;
+        ApplicationInfo app = info.applicationInfo;
+        // Resources are only resolved from the archive when it is named as the source.
+        app.sourceDir = path;
+        app.publicSourceDir = path;
+        Drawable icon = app.loadIcon(pm);
+        Bitmap bitmap = Bitmap.createBitmap(sizePx, sizePx, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        icon.setBounds(0, 0, sizePx, sizePx);
+        icon.draw(canvas);
+        return bitmap;
+    }
+
+    private Bitmap crop(Bitmap source) {
+        if (source == null) return null;
+        Bitmap thumbnail = ThumbnailUtils.extractThumbnail(source, sizePx, sizePx);
+        if (thumbnail != source) source.recycle();
+        return thumbnail;
+    }
+
+    private static int iconFor(int kind) {
+        switch (kind) {
+            case KIND_IMAGE:
+                return android.R.drawable.ic_menu_gallery;
+            case KIND_VIDEO:
+                return android.R.drawable.ic_media_play;
+            case KIND_APK:
+                return android.R.drawable.sym_def_app_icon;
+            default:
+                return android.R.drawable.ic_menu_save;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.android.darkelixir;
+
+import android.content.Context;
+
+import androidx.core.content.ContextCompat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Process-wide record of which downloaded files passed their integrity check. Transfers from the
+ * in-app engine arrive with the checksum computed while they were written; anything else that
+ * finishes, such as a DownloadManager transfer, is written out of process and costs one more
+ * read of the whole file on the verify thread. Zip archives
+ * additionally get a {@link ZipIntegrity} check. Results are persisted and handed to listeners
+ * by path on the callback executor.
+ */
+public final class VerificationStore implements DownloadStatusStore.Listener {
+
+    public interface Listener {
+        void onVerificationChanged(String path);
+    }
+
+    private static final int VERSION = 1;
+
+    private static volatile VerificationStore instance;
+
+    private final File storeFile;
+    private final Executor executor;
+    private final Executor callbackExecutor;
+    private final Map<String, FileVerification> records = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public static VerificationStore get(Context context) {
+        if (instance == null) {
+            synchronized (VerificationStore.class) {
+                if (instance == null) {
+                    Context app = context.getApplicationContext();
+                    instance = new VerificationStore(
+                            new File(app.getFilesDir(), "verifications.bin"),
+                            Executors.newSingleThreadExecutor(r -> {
+                                Thread t = new Thread(r, "download-verify");
+                                t.setDaemon(true);
+                                t.setPriority(Thread.MIN_PRIORITY);
+                                return t;
+                            }),
+                            ContextCompat.getMainExecutor(app));
+                    instance.load();
+                    DownloadStatusStore.get(app).addListener(instance);
+                }
+            }
+        }
+        return instance;
+    }
+
+    VerificationStore(File storeFile, Executor executor, Executor callbackExecutor) {
+        this.storeFile = storeFile;
+        this.executor = executor;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /** Returns the result for the entry, or null if none describes its current size and date. */
+    public FileVerification lookup(DownloadEntry entry) {
+        FileVerification verification = records.get(entry.getPath());
+        return verification != null && verification.describes(entry) ? verification : null;
+    }
+
+    public FileVerification get(String path) {
+        return records.get(path);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Records a checksum computed during the download. Call before the transfer is reported as
+     * successful so the finished state never triggers a second hashing pass.
+     */
+    public void recordChecksum(File file, String sha256) {
+        put(new FileVerification(file.getPath(), file.length(), file.lastModified(),
+                FileVerification.STATE_PENDING, sha256, null));
+        executor.execute(() -> verify(file, sha256));
+    }
+
+    @Override
+    public void onSnapshot(DownloadSnapshot snapshot) {
+        for (DownloadStatus status : snapshot.all()) {
+            if (status.getState() != DownloadStatus.STATE_SUCCESSFUL || status.getLocalPath() == null) continue;
+            File file = new File(status.getLocalPath());
+            executor.execute(() -> {
+                FileVerification existing = records.get(file.getPath());
+                if (existing != null && existing.getSize() == file.length()
+                        && existing.getLastModified() == file.lastModified()) {
+                    return;
+                }
+                put(new FileVerification(file.getPath(), file.length(), file.lastModified(),
+                        FileVerification.STATE_PENDING, null, null));
+                verify(file, null);
+            });
+        }
+    }
+
+    /** Runs on the verify thread. */
+    void verify(File file, String knownSha256) {
+        long size = file.length();
+        long lastModified = file.lastModified();
+        String sha256 = knownSha256;
+        int state;
+        String detail = null;
+        try {
+            if (sha256 == null) sha256 = sha256(file);
+            if (ZipIntegrity.looksLikeZip(file)) {
+                ZipIntegrity.verify(file);
+                state = FileVerification.STATE_VERIFIED;
+            } else if (file.getName().toLowerCase(Locale.ROOT).endsWith(".zip")) {
+                // Typically an error page saved under the archive's name.
+                state = FileVerification.STATE_CORRUPT;
+                detail = "Not a zip archive";
+            } else {
+                state = FileVerification.STATE_CHECKSUMMED;
+            }
+        } catch (IOException e) {
+            state = FileVerification.STATE_CORRUPT;
+            detail = e.getMessage();
+        }
+        put(new FileVerification(file.getPath(), size, lastModified, state, sha256, detail));
+        save();
+    }
+
+    static String sha256(File file) throws IOException {
+        MessageDigest digest = ChecksumFrontier.newSha256();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[SegmentedDownloader.BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return ChecksumFrontier.toHex(digest.digest());
+    }
+
+    private void put(FileVerification verification) {
+        records.put(verification.getPath(), verification);
+        String path = verification.getPath();
+        for (Listener listener : listeners) {
+            callbackExecutor.execute(() -> listener.onVerificationChanged(path));
+        }
+    }
+
+    /** Loads persisted results on the verify thread, dropping those whose file has changed. */
+    void load() {
+        executor.execute(() -> {
+            List<FileVerification> loaded = new ArrayList<>();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(storeFile)))) {
+                if (in.readInt() != VERSION) return;
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String path = in.readUTF();
+                    long size = in.readLong();
+                    long lastModified = in.readLong();
+                    int state = in.readInt();
+                    String sha256 = in.readBoolean() ? in.readUTF() : null;
+                    String detail = in.readBoolean() ? in.readUTF() : null;
+                    loaded.add(new FileVerification(path, size, lastModified, state, sha256, detail));
+                }
+            } catch (FileNotFoundException e) {
+                return;
+            } catch (IOException e) {
+                loaded.clear();
+            }
+            for (FileVerification verification : loaded) {
+                File file = new File(verification.getPath());
+                // A pending result was interrupted by process death; the file gets checked again on demand.
+                if (verification.getState() != FileVerification.STATE_PENDING
+                        && file.length() == verification.getSize()
+                        && file.lastModified() == verification.getLastModified()
+                        && !records.containsKey(verification.getPath())) {
+                    put(verification);
+                }
+            }
+        });
+    }
+
+    private void save() {
+        File tmp = new File(storeFile.getPath() + ".tmp");
+        List<FileVerification> snapshot = new ArrayList<>();
+        for (FileVerification verification : records.values()) {
+            if (verification.getState() != FileVerification.STATE_PENDING) snapshot.add(verification);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            for (FileVerification verification : snapshot) {
+                out.writeUTF(verification.getPath());
+                out.writeLong(verification.getSize());
+                out.writeLong(verification.getLastModified());
+                out.writeInt(verification.getState());
+                writeNullable(out, verification.getSha256());
+                writeNullable(out, verification.getDetail());
+            }
+        } catch (IOException e) {
+            // Results stay in memory; the next verification retries the write.
+            return;
+        }
+        tmp.renameTo(storeFile);
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+}
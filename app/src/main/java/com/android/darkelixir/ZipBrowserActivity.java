@@ -0,0 +1,134 @@
+package com.android.darkelixir;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.webkit.MimeTypeMap;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Lists the contents of a zip download without extracting it, and extracts single entries on
+ * request into a folder named after the archive.
+ */
+public class ZipBrowserActivity extends AppCompatActivity {
+
+    static final String EXTRA_PATH = "path";
+
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+    private ZipDirectory directory;
+    private File archive;
+    private TextView summaryTextView;
+
+    public static Intent intentFor(Context context, File archive) {
+        return new Intent(context, ZipBrowserActivity.class).putExtra(EXTRA_PATH, archive.getAbsolutePath());
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_zip_browser);
+
+        String path = getIntent().getStringExtra(EXTRA_PATH);
+        if (path == null) {
+            finish();
+            return;
+        }
+        archive = new File(path);
+        setTitle(archive.getName());
+        summaryTextView = findViewById(R.id.zipSummaryTextView);
+        RecyclerView recyclerView = findViewById(R.id.zipEntriesRecyclerView);
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+
+        Executor mainExecutor = ContextCompat.getMainExecutor(this);
+        ioExecutor.execute(() -> {
+            try {
+                ZipDirectory opened = ZipDirectory.open(archive);
+                mainExecutor.execute(() -> show(recyclerView, opened));
+            } catch (IOException e) {
+                mainExecutor.execute(() -> {
+                    summaryTextView.setText("Cannot read archive: " + e.getMessage());
+                    Toast.makeText(this, "Not a readable zip: " + archive.getName(), Toast.LENGTH_SHORT).show();
+                });
+            }
+        });
+    }
+
+    private void show(RecyclerView recyclerView, ZipDirectory opened) {
+        if (isDestroyed()) {
+            closeQuietly(opened);
+            return;
+        }
+        directory = opened;
+        summaryTextView.setText(opened.size() + " entries");
+        EntryFormatter formatter = new EntryFormatter(
+                extension -> MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension));
+        ZipEntryAdapter adapter = new ZipEntryAdapter(this, opened, formatter);
+        adapter.setOnEntryClickListener(this::confirmExtract);
+        recyclerView.setAdapter(adapter);
+    }
+
+    private void confirmExtract(ZipDirectory.Entry entry) {
+        if (entry.isDirectory()) return;
+        new AlertDialog.Builder(this)
+                .setTitle(entry.name)
+                .setMessage("Extract this file next to the archive?")
+                .setPositiveButton("Extract", (dialog, which) -> extract(entry))
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    private void extract(ZipDirectory.Entry entry) {
+        String base = archive.getName().replaceAll("\\.zip$", "");
+        File root = new File(archive.getParentFile(), base);
+        File target = ZipDirectory.safeTarget(root, entry.name);
+        if (target == null) {
+            Toast.makeText(this, "Refusing unsafe path: " + entry.name, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        ZipDirectory source = directory;
+        Executor mainExecutor = ContextCompat.getMainExecutor(this);
+        ioExecutor.execute(() -> {
+            String message;
+            try {
+                source.extract(entry, target);
+                message = "Extracted: " + target.getName();
+            } catch (IOException e) {
+                message = "Extraction failed: " + e.getMessage();
+            }
+            String text = message;
+            mainExecutor.execute(() -> Toast.makeText(this, text, Toast.LENGTH_SHORT).show());
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        ZipDirectory opened = directory;
+        // Closing on the I/O thread lets a running extraction finish first.
+        ioExecutor.execute(() -> {
+            if (opened != null) closeQuietly(opened);
+        });
+        ioExecutor.shutdown();
+        super.onDestroy();
+    }
+
+    private static void closeQuietly(ZipDirectory directory) {
+        try {
+            directory.close();
+        } catch (IOException e) {
+            // Nothing left to do with it.
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package com.android.darkelixir;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Read-only view of a zip archive's table of contents. Only the end records and the central
+ * directory are memory-mapped; entries are decoded from the mapping when asked for, and the
+ * offsets of entry headers are discovered incrementally, so showing the first screen of a huge
+ * archive touches only the first few kilobytes of its directory. Entry data is read only when a
+ * single entry is opened.
+ *
+ * <p>Decoding entries is not thread-safe. Opening or extracting an {@link Entry} that was
+ * already decoded only uses positional reads and may happen on another thread.
+ */
+public final class ZipDirectory implements Closeable {
+
+    static final int LOCAL_HEADER_SIG = 0x04034b50;
+    static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    static final int EOCD_SIG = 0x06054b50;
+    static final int ZIP64_EOCD_SIG = 0x06064b50;
+    static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int EOCD_SIZE = 22;
+    private static final int MAX_COMMENT = 0xFFFF;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EOCD_SIZE = 56;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int FLAG_UTF8 = 1 << 11;
+    private static final Charset CP437_FALLBACK = StandardCharsets.ISO_8859_1;
+
+    public static final class Entry {
+        public final int index;
+        public final String name;
+        public final long size;
+        public final long compressedSize;
+        public final int method;
+        public final long crc;
+        final long localHeaderOffset;
+
+        Entry(int index, String name, long size, long compressedSize, int method, long crc, long localHeaderOffset) {
+            this.index = index;
+            this.name = name;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.method = method;
+            this.crc = crc;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer directory;
+    private final int entryCount;
+    /** Where the central directory starts; every local header must lie before it. */
+    private final long directoryOffset;
+
+    // Start of each central header within the mapping, known up to indexed - 1.
+    private int[] headerStarts;
+    private int indexed;
+
+    private ZipDirectory(FileChannel channel, MappedByteBuffer directory, int entryCount, long directoryOffset) {
+        this.channel = channel;
+        this.directory = directory;
+        this.entryCount = entryCount;
+        this.directoryOffset = directoryOffset;
+        this.headerStarts = new int[Math.min(entryCount, 1024)];
+    }
+
+    public static ZipDirectory open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long fileSize = channel.size();
+            if (fileSize < EOCD_SIZE) throw new ZipException("File too short for a zip archive");
+            int tailSize = (int) Math.min(fileSize, EOCD_SIZE + MAX_COMMENT);
+            long tailStart = fileSize - tailSize;
+            ByteBuffer tail = map(channel, tailStart, tailSize);
+
+            int eocd = -1;
+            for (int i = tailSize - EOCD_SIZE; i >= 0; i--) {
+                // The comment length must account exactly for the bytes after the record.
+                if (tail.getInt(i) == EOCD_SIG && (tail.getShort(i + 20) & 0xFFFF) == tailSize - EOCD_SIZE - i) {
+                    eocd = i;
+                    break;
+                }
+            }
+            if (eocd < 0) throw new ZipException("End of central directory not found");
+
+            long entries = tail.getShort(eocd + 10) & 0xFFFF;
+            long size = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+            long offset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+            long endRecordsAt = tailStart + eocd;
+
+            if (entries == 0xFFFF || size == 0xFFFFFFFFL || offset == 0xFFFFFFFFL) {
+                long locatorAt = endRecordsAt - ZIP64_LOCATOR_SIZE;
+                if (locatorAt < 0) throw new ZipException("Zip64 locator missing");
+                ByteBuffer locator = map(channel, locatorAt, ZIP64_LOCATOR_SIZE);
+                if (locator.getInt(0) != ZIP64_LOCATOR_SIG) throw new ZipException("Zip64 locator missing");
+                long zip64At = locator.getLong(8);
+                if (zip64At < 0 || zip64At + ZIP64_EOCD_SIZE > locatorAt) throw new ZipException("Zip64 end record missing");
+                ByteBuffer zip64 = map(channel, zip64At, ZIP64_EOCD_SIZE);
+                if (zip64.getInt(0) != ZIP64_EOCD_SIG) throw new ZipException("Zip64 end record missing");
+                entries = zip64.getLong(32);
+                size = zip64.getLong(40);
+                offset = zip64.getLong(48);
+                endRecordsAt = zip64At;
+            }
+            if (offset < 0 || size < 0 || offset + size > endRecordsAt) {
+                throw new ZipException("Central directory lies outside the archive");
+            }
+            if (size > Integer.MAX_VALUE || entries > Integer.MAX_VALUE || entries * CENTRAL_HEADER_SIZE > size) {
+                throw new ZipException("Central directory size is implausible");
+            }
+            return new ZipDirectory(channel, map(channel, offset, (int) size), (int) entries, offset);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long position, int size) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    public int size() {
+        return entryCount;
+    }
+
+    /** Decodes entry {@code index}, indexing the directory up to it first if needed. */
+    public Entry entry(int index) throws ZipException {
+        if (index < 0 || index >= entryCount) throw new IndexOutOfBoundsException("Entry " + index);
+        ensureIndexed(index);
+        int start = headerStarts[index];
+        int flags = directory.getShort(start + 8) & 0xFFFF;
+        int method = directory.getShort(start + 10) & 0xFFFF;
+        long crc = directory.getInt(start + 16) & 0xFFFFFFFFL;
+        long compressedSize = directory.getInt(start + 20) & 0xFFFFFFFFL;
+        long size = directory.getInt(start + 24) & 0xFFFFFFFFL;
+        int nameLength = directory.getShort(start + 28) & 0xFFFF;
+        int extraLength = directory.getShort(start + 30) & 0xFFFF;
+        long offset = directory.getInt(start + 42) & 0xFFFFFFFFL;
+
+        byte[] nameBytes = new byte[nameLength];
+        for (int i = 0; i < nameLength; i++) {
+            nameBytes[i] = directory.get(start + CENTRAL_HEADER_SIZE + i);
+        }
+        String name = new String(nameBytes, (flags & FLAG_UTF8) != 0 ? StandardCharsets.UTF_8 : CP437_FALLBACK);
+
+        if (size == 0xFFFFFFFFL || compressedSize == 0xFFFFFFFFL || offset == 0xFFFFFFFFL) {
+            // Saturated fields continue, in this order, in the zip64 extra field.
+            int field = findZip64Extra(start + CENTRAL_HEADER_SIZE + nameLength, extraLength);
+            int end = field < 0 ? -1 : field + (directory.getShort(field - 2) & 0xFFFF);
+            if (size == 0xFFFFFFFFL) {
+                size = readZip64(field, end);
+                field += 8;
+            }
+            if (compressedSize == 0xFFFFFFFFL) {
+                compressedSize = readZip64(field, end);
+                field += 8;
+            }
+            if (offset == 0xFFFFFFFFL) {
+                offset = readZip64(field, end);
+            }
+        }
+        return new Entry(index, name, size, compressedSize, method, crc, offset);
+    }
+
+    /** Decodes {@code count} entries starting at {@code from}, clamped to the archive. */
+    public Entry[] page(int from, int count) throws ZipException {
+        int end = Math.min(entryCount, from + count);
+        Entry[] page = new Entry[Math.max(0, end - from)];
+        for (int i = from; i < end; i++) {
+            page[i - from] = entry(i);
+        }
+        return page;
+    }
+
+    private int findZip64Extra(int extra, int extraLength) {
+        int extraEnd = extra + extraLength;
+        while (extra + 4 <= extraEnd) {
+            int id = directory.getShort(extra) & 0xFFFF;
+            int length = directory.getShort(extra + 2) & 0xFFFF;
+            if (id == 0x0001) return extra + 4;
+            extra += 4 + length;
+        }
+        return -1;
+    }
+
+    private long readZip64(int field, int end) throws ZipException {
+        if (field < 0 || field + 8 > end) throw new ZipException("Zip64 extra field missing");
+        return directory.getLong(field);
+    }
+
+    private void ensureIndexed(int index) throws ZipException {
+        if (index < indexed) return;
+        if (index >= headerStarts.length) {
+            headerStarts = Arrays.copyOf(headerStarts, Math.min(entryCount, Math.max(index + 1, headerStarts.length * 2)));
+        }
+        int position = indexed == 0 ? 0 : nextHeader(headerStarts[indexed - 1]);
+        while (indexed <= index) {
+            if (position + CENTRAL_HEADER_SIZE > directory.limit() || directory.getInt(position) != CENTRAL_HEADER_SIG) {
+                throw new ZipException("Bad central directory entry " + indexed);
+            }
+            headerStarts[indexed++] = position;
+            position = nextHeader(position);
+        }
+    }
+
+    private int nextHeader(int start) throws ZipException {
+        int next = start + CENTRAL_HEADER_SIZE
+                + (directory.getShort(start + 28) & 0xFFFF)
+                + (directory.getShort(start + 30) & 0xFFFF)
+                + (directory.getShort(start + 32) & 0xFFFF);
+        if (next > directory.limit()) throw new ZipException("Central directory entry overruns the directory");
+        return next;
+    }
+
+    /** True if the position directly after the last entry is the end of the directory. */
+    boolean isFullyConsumed() throws ZipException {
+        if (entryCount == 0) return directory.limit() == 0;
+        ensureIndexed(entryCount - 1);
+        return nextHeader(headerStarts[entryCount - 1]) == directory.limit();
+    }
+
+    /** Offset of the entry's data, after checking that its local header is where the directory says. */
+    long dataOffset(Entry entry) throws IOException {
+        if (entry.localHeaderOffset < 0 || entry.localHeaderOffset + LOCAL_HEADER_SIZE > directoryOffset) {
+            throw new ZipException("Entry " + entry.name + " points outside the archive");
+        }
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            if (channel.read(header, entry.localHeaderOffset + header.position()) < 0) break;
+        }
+        if (header.hasRemaining() || header.getInt(0) != LOCAL_HEADER_SIG) {
+            throw new ZipException("Entry " + entry.name + " has no local header");
+        }
+        int nameLength = header.getShort(26) & 0xFFFF;
+        int extraLength = header.getShort(28) & 0xFFFF;
+        return entry.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+    }
+
+    /**
+     * Streams one entry's uncompressed bytes straight from the archive. The CRC is checked when
+     * the stream reaches its end.
+     */
+    public InputStream open(Entry entry) throws IOException {
+        if (entry.method != METHOD_STORED && entry.method != METHOD_DEFLATED) {
+            throw new ZipException("Unsupported compression method " + entry.method);
+        }
+        long dataOffset = dataOffset(entry);
+        if (dataOffset + entry.compressedSize > directoryOffset) {
+            throw new ZipException("Entry " + entry.name + " runs past the archive data");
+        }
+        InputStream raw = new RangeInputStream(channel, dataOffset, entry.compressedSize);
+        InputStream data = entry.method == METHOD_STORED
+                ? raw
+                : new InflaterInputStream(raw, new Inflater(true), SegmentedDownloader.BUFFER_SIZE);
+        return new CrcCheckingInputStream(data, entry);
+    }
+
+    /** Extracts one entry to {@code target}, replacing it. Returns the bytes written. */
+    public long extract(Entry entry, File target) throws IOException {
+        File parent = target.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        long written = 0;
+        try (InputStream in = open(entry); OutputStream out = new FileOutputStream(target)) {
+            byte[] buffer = new byte[SegmentedDownloader.BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                written += read;
+            }
+        } catch (IOException e) {
+            target.delete();
+            throw e;
+        }
+        return written;
+    }
+
+    /**
+     * Resolves an entry name below {@code root}, or returns null if the name would escape it
+     * (absolute paths, {@code ..} segments, drive letters).
+     */
+    public static File safeTarget(File root, String entryName) {
+        String name = entryName.replace('\\', '/');
+        if (name.startsWith("/") || name.contains(":")) return null;
+        for (String segment : name.split("/")) {
+            if (segment.equals("..")) return null;
+        }
+        File target = new File(root, name);
+        try {
+            String rootPath = root.getCanonicalPath() + File.separator;
+            return target.getCanonicalPath().startsWith(rootPath) ? target : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** Positional reads of a byte range, independent of any other stream on the channel. */
+    private static final class RangeInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        RangeInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.end = position + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) return -1;
+            int wanted = (int) Math.min(len, end - position);
+            int read = channel.read(ByteBuffer.wrap(b, off, wanted), position);
+            if (read < 0) throw new ZipException("Archive ends inside entry data");
+            position += read;
+            return read;
+        }
+    }
+
+    private static final class CrcCheckingInputStream extends FilterInputStream {
+        private final Entry entry;
+        private final CRC32 crc = new CRC32();
+        private long count;
+
+        CrcCheckingInputStream(InputStream in, Entry entry) {
+            super(in);
+            this.entry = entry;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read == -1) {
+                if (count != entry.size || crc.getValue() != entry.crc) {
+                    throw new ZipException("Entry " + entry.name + " failed its CRC check");
+                }
+                return -1;
+            }
+            crc.update(b, off, read);
+            count += read;
+            return read;
+        }
+    }
+}
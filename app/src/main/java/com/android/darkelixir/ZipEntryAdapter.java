@@ -0,0 +1,102 @@
+package com.android.darkelixir;
+
+import android.content.Context;
+import android.util.LruCache;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.zip.ZipException;
+
+/**
+ * Rows for a {@link ZipDirectory}. Entries are decoded a page at a time when a row first needs
+ * them, so the adapter's cost follows what is on screen rather than the archive size.
+ */
+public class ZipEntryAdapter extends RecyclerView.Adapter<ZipEntryAdapter.ViewHolder> {
+
+    public interface OnEntryClickListener {
+        void onEntryClick(ZipDirectory.Entry entry);
+    }
+
+    static final int PAGE_SIZE = 64;
+
+    private final Context context;
+    private final ZipDirectory directory;
+    private final EntryFormatter formatter;
+    private final LruCache<Integer, ZipDirectory.Entry[]> pages = new LruCache<>(32);
+    private OnEntryClickListener clickListener;
+
+    public ZipEntryAdapter(Context context, ZipDirectory directory, EntryFormatter formatter) {
+        this.context = context;
+        this.directory = directory;
+        this.formatter = formatter;
+    }
+
+    public void setOnEntryClickListener(OnEntryClickListener listener) {
+        this.clickListener = listener;
+    }
+
+    /** Returns the entry at {@code position}, or null if its directory record is damaged. */
+    ZipDirectory.Entry getEntry(int position) {
+        int page = position / PAGE_SIZE;
+        ZipDirectory.Entry[] entries = pages.get(page);
+        if (entries == null) {
+            try {
+                entries = directory.page(page * PAGE_SIZE, PAGE_SIZE);
+            } catch (ZipException e) {
+                return null;
+            }
+            pages.put(page, entries);
+        }
+        return entries[position % PAGE_SIZE];
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(context).inflate(R.layout.item_zip_entry, parent, false);
+        ViewHolder holder = new ViewHolder(view);
+        view.setOnClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (position == RecyclerView.NO_POSITION || clickListener == null) return;
+            ZipDirectory.Entry entry = getEntry(position);
+            if (entry != null) clickListener.onEntryClick(entry);
+        });
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        ZipDirectory.Entry entry = getEntry(position);
+        if (entry == null) {
+            holder.nameTextView.setText("Damaged entry");
+            holder.sizeTextView.setText("");
+        } else if (entry.isDirectory()) {
+            holder.nameTextView.setText(entry.name);
+            holder.sizeTextView.setText("Folder");
+        } else {
+            holder.nameTextView.setText(entry.name);
+            holder.sizeTextView.setText(formatter.formatSize(entry.size)
+                    + " (" + formatter.formatSize(entry.compressedSize) + " packed)");
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return directory.size();
+    }
+
+    public static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView nameTextView, sizeTextView;
+
+        public ViewHolder(@NonNull View itemView) {
+            super(itemView);
+            nameTextView = itemView.findViewById(R.id.entryNameTextView);
+            sizeTextView = itemView.findViewById(R.id.entrySizeTextView);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.android.darkelixir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.ZipException;
+
+/**
+ * Structural check of a zip archive that reads only its tail and headers: the end of central
+ * directory record (zip64 aware), every central directory entry, and the local header each entry
+ * points at. Truncated or partially overwritten downloads fail it without the archive being
+ * inflated.
+ */
+final class ZipIntegrity {
+
+    private ZipIntegrity() {
+    }
+
+    /** True if the file starts like a zip archive (local header, or the end record of an empty one). */
+    static boolean looksLikeZip(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while (head.hasRemaining()) {
+                if (channel.read(head) < 0) return false;
+            }
+            int sig = head.getInt(0);
+            return sig == ZipDirectory.LOCAL_HEADER_SIG || sig == ZipDirectory.EOCD_SIG;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Throws {@link ZipException} describing the first structural problem found. */
+    static void verify(File file) throws IOException {
+        try (ZipDirectory directory = ZipDirectory.open(file)) {
+            for (int i = 0; i < directory.size(); i++) {
+                directory.dataOffset(directory.entry(i));
+            }
+            if (!directory.isFullyConsumed()) throw new ZipException("Central directory has trailing bytes");
+        }
+    }
+}
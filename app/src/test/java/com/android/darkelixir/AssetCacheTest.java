@@ -0,0 +1,178 @@
+package com.android.darkelixir;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class AssetCacheTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private TestHttpServer server;
+    private final AtomicLong now = new AtomicLong(1_000_000);
+
+    @Before
+    public void setUp() throws IOException {
+        server = new TestHttpServer();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private AssetCache newCache(long maxBytes) {
+        return new AssetCache(new File(temp.getRoot(), "assets"), maxBytes, maxBytes, Runnable::run, now::get);
+    }
+
+    private static byte[] read(AssetCache.Response response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = response.body) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void secondFetchIsServedFromDisk() throws IOException {
+        TestHttpServer.Resource js = server.serve("/app.js", "console.log(1)".getBytes(StandardCharsets.UTF_8));
+        js.contentType = "text/javascript; charset=utf-8";
+        js.cacheControl = "public, max-age=60";
+        AssetCache cache = newCache(1 << 20);
+
+        AssetCache.Response first = cache.fetch(server.url("/app.js"), null);
+        assertFalse(first.fromCache);
+        assertArrayEquals(js.body, read(first));
+        AssetCache.Response second = cache.fetch(server.url("/app.js"), null);
+
+        assertTrue(second.fromCache);
+        assertEquals("text/javascript", second.mimeType);
+        assertEquals("utf-8", second.encoding);
+        assertArrayEquals(js.body, read(second));
+        assertEquals(1, js.requests.get());
+    }
+
+    @Test
+    public void staleEntryIsServedThenRevalidated() throws IOException {
+        TestHttpServer.Resource css = server.serve("/site.css", "a{}".getBytes(StandardCharsets.UTF_8));
+        css.etag = "\"v1\"";
+        css.cacheControl = "max-age=60";
+        AssetCache cache = newCache(1 << 20);
+        read(cache.fetch(server.url("/site.css"), null));
+
+        now.addAndGet(61_000);
+        assertArrayEquals(css.body, read(cache.fetch(server.url("/site.css"), null)));
+        assertEquals(1, css.notModified.get());
+
+        // The 304 renewed the entry's age, so the next use within max-age makes no request.
+        read(cache.fetch(server.url("/site.css"), null));
+        assertEquals(2, css.requests.get());
+    }
+
+    @Test
+    public void changedAssetReplacesStaleCopyForNextUse() throws IOException {
+        TestHttpServer.Resource css = server.serve("/site.css", "a{}".getBytes(StandardCharsets.UTF_8));
+        css.etag = "\"v1\"";
+        AssetCache cache = newCache(1 << 20);
+        read(cache.fetch(server.url("/site.css"), null));
+
+        css.body = "b{}".getBytes(StandardCharsets.UTF_8);
+        css.etag = "\"v2\"";
+        // Without max-age every hit is stale: the old copy is served while the new one is fetched.
+        assertEquals("a{}", new String(read(cache.fetch(server.url("/site.css"), null)), StandardCharsets.UTF_8));
+        assertEquals("b{}", new String(read(cache.fetch(server.url("/site.css"), null)), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void noStoreResponsesPassThrough() throws IOException {
+        TestHttpServer.Resource img = server.serve("/live.png", new byte[]{1, 2, 3});
+        img.cacheControl = "no-store";
+        AssetCache cache = newCache(1 << 20);
+
+        assertArrayEquals(img.body, read(cache.fetch(server.url("/live.png"), null)));
+        assertArrayEquals(img.body, read(cache.fetch(server.url("/live.png"), null)));
+
+        assertEquals(2, img.requests.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() throws IOException {
+        for (String name : new String[]{"/a.png", "/b.png", "/c.png"}) {
+            server.serve(name, new byte[400]).cacheControl = "max-age=600";
+        }
+        AssetCache cache = newCache(1000);
+        read(cache.fetch(server.url("/a.png"), null));
+        read(cache.fetch(server.url("/b.png"), null));
+        read(cache.fetch(server.url("/a.png"), null));
+        read(cache.fetch(server.url("/c.png"), null));
+
+        assertTrue(cache.contains(server.url("/a.png")));
+        assertFalse(cache.contains(server.url("/b.png")));
+        assertTrue(cache.contains(server.url("/c.png")));
+        assertEquals(800, cache.size());
+    }
+
+    @Test
+    public void indexSurvivesRestart() throws IOException {
+        TestHttpServer.Resource font = server.serve("/font.woff2", TestHttpServer.randomBytes(5000, 7));
+        font.cacheControl = "max-age=600";
+        read(newCache(1 << 20).fetch(server.url("/font.woff2"), null));
+
+        AssetCache.Response response = newCache(1 << 20).fetch(server.url("/font.woff2"), null);
+
+        assertTrue(response.fromCache);
+        assertArrayEquals(font.body, read(response));
+        assertEquals(1, font.requests.get());
+    }
+
+    @Test
+    public void concurrentMissesForOneUrlEachGetTheWholeBody() throws Exception {
+        TestHttpServer.Resource css = server.serve("/app.css", TestHttpServer.randomBytes(300_000, 7));
+        css.cacheControl = "max-age=60";
+        AssetCache cache = newCache(1 << 22);
+        File dir = new File(temp.getRoot(), "assets");
+        int callers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<byte[]>> bodies = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                bodies.add(executor.submit(() -> {
+                    start.await();
+                    return read(cache.fetch(server.url("/app.css"), null));
+                }));
+            }
+            start.countDown();
+            for (Future<byte[]> body : bodies) {
+                assertArrayEquals(css.body, body.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertArrayEquals(css.body, read(cache.fetch(server.url("/app.css"), null)));
+        assertEquals(css.body.length, cache.size());
+        assertEquals(0, dir.list((parent, name) -> name.endsWith(".tmp")).length);
+    }
+}
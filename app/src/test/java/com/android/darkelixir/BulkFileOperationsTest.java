@@ -0,0 +1,121 @@
+package com.android.darkelixir;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BulkFileOperationsTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File downloads;
+    private File trash;
+    private BulkFileOperations operations;
+
+    /** Records what the operation reports; executors run inline, so results are ready on return. */
+    private static final class Recorder implements BulkFileOperations.Listener {
+        final List<Integer> progress = new ArrayList<>();
+        BulkFileOperations.Batch batch;
+
+        @Override
+        public void onProgress(int done, int total) {
+            progress.add(done);
+        }
+
+        @Override
+        public void onFinished(BulkFileOperations.Batch batch) {
+            this.batch = batch;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        downloads = temp.newFolder("downloads");
+        trash = new File(temp.getRoot(), "trash");
+        operations = new BulkFileOperations(trash, Runnable::run, Runnable::run);
+    }
+
+    private File file(File dir, String name) throws IOException {
+        File file = new File(dir, name);
+        Files.write(file.toPath(), name.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void deleteCanBeUndoneUntilCommitted() throws IOException {
+        File a = file(downloads, "a.zip");
+        File b = file(downloads, "b.zip");
+        Recorder deleted = new Recorder();
+
+        operations.delete(Arrays.asList(a, b), deleted);
+
+        assertFalse(a.exists());
+        assertFalse(b.exists());
+        assertEquals(Arrays.asList(a, b), deleted.batch.getSources());
+
+        Recorder restored = new Recorder();
+        deleted.batch.undo(restored);
+
+        assertTrue(a.exists());
+        assertEquals("b.zip", new String(Files.readAllBytes(b.toPath()), StandardCharsets.UTF_8));
+        assertEquals(Arrays.asList(a, b), restored.batch.getTargets());
+        // Committing after an undo must not touch the restored files.
+        deleted.batch.commit();
+        assertTrue(a.exists());
+    }
+
+    @Test
+    public void commitEmptiesTheTrash() throws IOException {
+        File a = file(downloads, "a.zip");
+        Recorder deleted = new Recorder();
+        operations.delete(Arrays.asList(a, new File(downloads, "missing.zip")), deleted);
+
+        assertEquals(1, deleted.batch.getFailed().size());
+        deleted.batch.commit();
+
+        assertFalse(a.exists());
+        String[] left = trash.list();
+        assertTrue(left == null || left.length == 0);
+    }
+
+    @Test
+    public void moveRenamesInsteadOfOverwriting() throws IOException {
+        File target = temp.newFolder("documents");
+        file(target, "report.pdf");
+        File report = file(downloads, "report.pdf");
+        Recorder moved = new Recorder();
+
+        operations.move(Arrays.asList(report), target, moved);
+
+        assertEquals(new File(target, "report (1).pdf"), moved.batch.getTargets().get(0));
+        assertTrue(new File(target, "report.pdf").exists());
+
+        moved.batch.undo(new Recorder());
+        assertTrue(report.exists());
+        assertFalse(new File(target, "report (1).pdf").exists());
+    }
+
+    @Test
+    public void progressIsReportedPerPercentNotPerFile() throws IOException {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) files.add(file(downloads, "f" + i));
+        Recorder deleted = new Recorder();
+
+        operations.delete(files, deleted);
+
+        assertEquals(100, deleted.progress.size());
+        assertEquals(Integer.valueOf(1000), deleted.progress.get(99));
+    }
+}
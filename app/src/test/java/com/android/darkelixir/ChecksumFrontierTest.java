@@ -0,0 +1,72 @@
+package com.android.darkelixir;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.*;
+
+public class ChecksumFrontierTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private static final int CHUNK = 1000;
+
+    private final byte[] body = TestHttpServer.randomBytes(10_000, 3);
+
+    private FileChannel open() throws IOException {
+        return FileChannel.open(new File(temp.getRoot(), "f.bin").toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /** Writes one chunk of {@code segment} the way a range fetch does, then advances the checksum. */
+    private void write(FileChannel channel, DownloadJournal journal, ChecksumFrontier checksum, int segment)
+            throws IOException {
+        long position = journal.starts[segment] + journal.done.get(segment);
+        byte[] bytes = new byte[CHUNK];
+        System.arraycopy(body, (int) position, bytes, 0, CHUNK);
+        channel.write(ByteBuffer.wrap(bytes), position);
+        journal.done.addAndGet(segment, CHUNK);
+        checksum.advance(bytes, CHUNK, position);
+    }
+
+    private String sha256() {
+        return ChecksumFrontier.toHex(ChecksumFrontier.newSha256().digest(body));
+    }
+
+    @Test
+    public void inOrderWritesAreHashedFromMemory() throws IOException {
+        DownloadJournal journal = DownloadJournal.create(null, "u", "f.bin", body.length, null, null, 1);
+        try (FileChannel channel = open()) {
+            ChecksumFrontier checksum = new ChecksumFrontier(channel, journal);
+            for (int i = 0; i < body.length / CHUNK; i++) write(channel, journal, checksum, 0);
+
+            assertEquals(sha256(), checksum.finish());
+            assertEquals(0, checksum.readBackBytes());
+        }
+    }
+
+    @Test
+    public void onlyBytesWrittenAheadOfTheFrontierAreReadBack() throws IOException {
+        DownloadJournal journal = DownloadJournal.create(null, "u", "f.bin", body.length, null, null, 2);
+        try (FileChannel channel = open()) {
+            ChecksumFrontier checksum = new ChecksumFrontier(channel, journal);
+            // The second half arrives while the first is still at its second chunk.
+            write(channel, journal, checksum, 0);
+            write(channel, journal, checksum, 1);
+            write(channel, journal, checksum, 1);
+            for (int i = 1; i < 5; i++) write(channel, journal, checksum, 0);
+            for (int i = 2; i < 5; i++) write(channel, journal, checksum, 1);
+
+            assertEquals(sha256(), checksum.finish());
+            assertEquals(2 * CHUNK, checksum.readBackBytes());
+        }
+    }
+}
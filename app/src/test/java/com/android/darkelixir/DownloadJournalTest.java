@@ -0,0 +1,56 @@
+package com.android.darkelixir;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class DownloadJournalTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void savedProgressSurvivesReload() throws IOException {
+        File file = DownloadJournal.fileFor(temp.getRoot(), "/d/a.zip");
+        DownloadJournal journal = DownloadJournal.create(file, "https://example.com/a.zip", "/d/a.zip",
+                1001, "\"e1\"", null, 4);
+        journal.done.set(1, 50);
+        journal.save(journal.snapshotDone());
+        journal.done.set(2, 70); // Not checkpointed, must not come back.
+
+        DownloadJournal loaded = DownloadJournal.load(file);
+
+        assertEquals(4, loaded.segments());
+        assertEquals(1000, loaded.ends[3]);
+        assertEquals(50, loaded.completedBytes());
+        assertEquals("\"e1\"", loaded.ifRangeValidator());
+    }
+
+    @Test
+    public void corruptFileLoadsAsNull() throws IOException {
+        File file = new File(temp.getRoot(), "bad.journal");
+        Files.write(file.toPath(), new byte[]{1, 2, 3});
+        assertNull(DownloadJournal.load(file));
+    }
+
+    @Test
+    public void validatorsDecideWhetherTheEntityIsUnchanged() {
+        DownloadJournal tagged = DownloadJournal.create(null, "u", "/p", 10, "\"a\"", "Mon", 1);
+        assertTrue(tagged.matches(10, "\"a\"", "Tue"));
+        assertFalse(tagged.matches(10, "\"b\"", "Mon"));
+        assertFalse(tagged.matches(11, "\"a\"", "Mon"));
+
+        DownloadJournal dated = DownloadJournal.create(null, "u", "/p", 10, null, "Mon", 1);
+        assertTrue(dated.matches(10, null, "Mon"));
+        assertFalse(dated.matches(10, null, "Tue"));
+
+        DownloadJournal weak = DownloadJournal.create(null, "u", "/p", 10, "W/\"a\"", "Mon", 1);
+        assertEquals("Mon", weak.ifRangeValidator());
+    }
+}
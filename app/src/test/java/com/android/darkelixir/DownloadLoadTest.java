@@ -0,0 +1,180 @@
+package com.android.darkelixir;
+
+import android.app.Activity;
+import android.os.Environment;
+import android.os.Looper;
+import android.view.View;
+
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ActivityController;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Heavy-use scenarios run headless: hundreds of queued downloads polled every 500 ms against
+ * thousands of listed files. Polling is driven tick by tick through a scripted
+ * {@link FakeDownloadBackend}, and {@link LoadProbe} measures what each tick costs the main
+ * thread. Query counts, rebinds and allocations are always checked. CPU time depends on the
+ * machine, so those budgets only apply with {@code -Ddarkelixir.loadBudgets=true}
+ * ({@code ./gradlew testDebugUnitTest -PloadBudgets}).
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DownloadLoadTest {
+
+    private static final int FILES = 5_000;
+    private static final int QUEUED = 300;
+    private static final int MAX_CONCURRENT = 50;
+    /** One minute of polling at the status store's 500 ms interval. */
+    private static final int TICKS = 120;
+    private static final long TICK_MS = 500;
+    /**
+     * The fake's downloads are 1000 bytes, so each takes 20 ticks and the queue drains in waves
+     * of {@link #MAX_CONCURRENT} across the whole run.
+     */
+    private static final long BYTES_PER_TICK = 50;
+
+    private static final double MAX_QUERIES_PER_SECOND = 2.5;
+    private static final double MAX_TICK_CPU_MS_P95 = 16;
+    private static final long MAX_ALLOCATED_BYTES_PER_TICK = 512 * 1024;
+    private static final double MAX_LISTING_CPU_MS = 2_000;
+    private static final boolean ENFORCE_CPU_BUDGETS = Boolean.getBoolean("darkelixir.loadBudgets");
+
+    private ScheduledExecutorService poller;
+    private ExecutorService listingExecutor;
+    private ActivityController<DownloadsActivity> downloadsActivity;
+
+    @Before
+    public void setUp() {
+        poller = Executors.newSingleThreadScheduledExecutor();
+        listingExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        if (downloadsActivity != null) downloadsActivity.pause().stop().destroy();
+        poller.shutdownNow();
+        listingExecutor.shutdownNow();
+    }
+
+    private static String path(int i) {
+        return "/downloads/file" + i + ".zip";
+    }
+
+    private static void layout(RecyclerView recyclerView) {
+        shadowOf(Looper.getMainLooper()).idle();
+        recyclerView.measure(
+                View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(1920, View.MeasureSpec.EXACTLY));
+        recyclerView.layout(0, 0, 1080, 1920);
+    }
+
+    /** Lets background listing work land on the main thread, measuring each turn of the looper. */
+    private static void awaitItemCount(RecyclerView.Adapter<?> adapter, int expected, LoadProbe probe) {
+        for (int i = 0; i < 1000 && adapter.getItemCount() != expected; i++) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            probe.measure(() -> shadowOf(Looper.getMainLooper()).idle());
+        }
+        assertEquals(expected, adapter.getItemCount());
+    }
+
+    @Test
+    public void pollingHundredsOfDownloadsStaysWithinMainThreadBudget() {
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        FakeDownloadBackend backend = new FakeDownloadBackend();
+        // The poller is never due; the test ticks the store itself, standing in for the poll thread.
+        DownloadStatusStore store = new DownloadStatusStore(backend, poller,
+                ContextCompat.getMainExecutor(activity), 3_600_000);
+        DownloadScheduler scheduler = new DownloadScheduler(backend, store,
+                new DownloadQueueFile(new File(activity.getFilesDir(), "queue.bin")), Runnable::run,
+                System::currentTimeMillis, new DownloadSchedulerTest.FakeConditions(), MAX_CONCURRENT);
+        scheduler.restore();
+
+        RecyclerView recyclerView = new RecyclerView(activity);
+        recyclerView.setLayoutManager(new LinearLayoutManager(activity));
+        activity.setContentView(recyclerView);
+        VerificationStore verifications = new VerificationStore(
+                new File(activity.getFilesDir(), "verifications.bin"), Runnable::run, Runnable::run);
+        DownloadedFilesAdapterTest.CountingAdapter adapter =
+                new DownloadedFilesAdapterTest.CountingAdapter(activity, store, verifications, listingExecutor);
+        recyclerView.setAdapter(adapter);
+
+        EntryFormatter formatter = new EntryFormatter(extension -> "application/zip");
+        List<DownloadEntry> entries = new ArrayList<>();
+        for (int i = 0; i < FILES; i++) {
+            entries.add(formatter.create(path(i), "file" + i + ".zip", 1024L * i, 1_700_000_000_000L + i));
+        }
+        adapter.onIndexChanged(new DirectoryIndex.Delta(entries, new ArrayList<>(), new ArrayList<>()));
+        awaitItemCount(adapter, FILES, new LoadProbe());
+        for (int i = 0; i < QUEUED; i++) {
+            scheduler.enqueue(new DownloadRequest("https://example.com/file" + i + ".zip", "ua",
+                    "application/zip", "file" + i + ".zip", path(i)), DownloadTask.PRIORITY_NORMAL);
+        }
+        layout(recyclerView);
+        adapter.reset();
+        int queriesBefore = backend.queryCount;
+
+        LoadProbe probe = new LoadProbe();
+        for (int tick = 0; tick < TICKS; tick++) {
+            backend.advance(BYTES_PER_TICK);
+            store.tick();
+            probe.measure(() -> layout(recyclerView));
+        }
+
+        double seconds = TICKS * TICK_MS / 1000.0;
+        double queriesPerSecond = (backend.queryCount - queriesBefore) / seconds;
+        String report = probe.report("polling " + QUEUED + " downloads over " + FILES + " files")
+                + String.format(", %.2f queries/s, %d full and %d payload binds",
+                queriesPerSecond, adapter.fullBinds, adapter.payloadBinds);
+
+        // The scenario only means something if downloads actually started, finished and were replaced.
+        assertTrue(report, scheduler.getTasks().size() < QUEUED);
+        assertTrue(report, queriesPerSecond <= MAX_QUERIES_PER_SECOND);
+        if (ENFORCE_CPU_BUDGETS) assertTrue(report, probe.cpuMillis(95) <= MAX_TICK_CPU_MS_P95);
+        assertTrue(report, probe.meanAllocatedBytes() <= MAX_ALLOCATED_BYTES_PER_TICK);
+        // Progress rebinds the visible rows' status views only.
+        assertEquals(report, 0, adapter.fullBinds);
+    }
+
+    @Test
+    public void downloadsActivityListsThousandsOfFilesOffTheMainThread() throws IOException {
+        File folder = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS),
+                DirectoryIndexer.DOWNLOAD_SUBFOLDER);
+        assertTrue(folder.isDirectory() || folder.mkdirs());
+        for (int i = 0; i < FILES; i++) {
+            assertTrue(new File(folder, "file" + i + ".zip").createNewFile());
+        }
+
+        LoadProbe probe = new LoadProbe();
+        probe.measure(() -> downloadsActivity = Robolectric.buildActivity(DownloadsActivity.class).setup());
+        RecyclerView recyclerView = downloadsActivity.get().findViewById(R.id.downloadedFilesRecyclerView);
+        awaitItemCount(recyclerView.getAdapter(), FILES, probe);
+        probe.measure(() -> layout(recyclerView));
+
+        String report = probe.report("listing " + FILES + " files in DownloadsActivity")
+                + String.format(", %.1f ms main thread in total", probe.totalCpuMillis());
+
+        if (ENFORCE_CPU_BUDGETS) assertTrue(report, probe.totalCpuMillis() <= MAX_LISTING_CPU_MS);
+    }
+}
@@ -0,0 +1,450 @@
+package com.android.darkelixir;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+public class DownloadSchedulerTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private FakeDownloadBackend backend;
+    private ScheduledExecutorService poller;
+    private DownloadStatusStore store;
+    private File queueFile;
+    private long now = 1_000_000;
+    private final FakeConditions conditions = new FakeConditions();
+
+    /** Simulated network, power and clock state; the test triggers the listener itself. */
+    static final class FakeConditions implements DeviceConditions {
+        boolean unmetered = true;
+        boolean charging = true;
+        int minuteOfDay = 12 * 60;
+        long wakeDelay = -1;
+        Runnable listener;
+
+        @Override
+        public DeviceState current() {
+            return new DeviceState(unmetered, charging, minuteOfDay);
+        }
+
+        @Override
+        public void setListener(Runnable listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void wakeAfter(long delayMs) {
+            wakeDelay = delayMs;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        backend = new FakeDownloadBackend();
+        poller = Executors.newSingleThreadScheduledExecutor();
+        store = new DownloadStatusStore(backend, poller, Runnable::run, 3_600_000);
+        queueFile = new File(temp.getRoot(), "queue.bin");
+    }
+
+    @After
+    public void tearDown() {
+        poller.shutdownNow();
+    }
+
+    private DownloadScheduler newScheduler(int maxConcurrent) {
+        DownloadScheduler scheduler = new DownloadScheduler(backend, store, new DownloadQueueFile(queueFile),
+                Runnable::run, () -> now, conditions, maxConcurrent);
+        scheduler.restore();
+        return scheduler;
+    }
+
+    private static DownloadRequest request(String name) {
+        return new DownloadRequest("https://example.com/" + name, "ua", "application/zip", name, "/d/" + name);
+    }
+
+    private void finish(DownloadTask task) {
+        backend.setProgress(task.getBackendId(), DownloadStatus.STATE_SUCCESSFUL, 1000);
+        store.tick();
+    }
+
+    private static int countState(List<DownloadTask> tasks, int state) {
+        int count = 0;
+        for (DownloadTask task : tasks) {
+            if (task.getState() == state) count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void runsAtMostMaxConcurrent() {
+        DownloadScheduler scheduler = newScheduler(2);
+        for (int i = 0; i < 5; i++) {
+            scheduler.enqueue(request("f" + i + ".zip"), DownloadTask.PRIORITY_NORMAL);
+        }
+
+        assertEquals(2, backend.enqueued.size());
+        assertEquals(2, countState(scheduler.getTasks(), DownloadTask.STATE_RUNNING));
+
+        finish(scheduler.getTasks().get(0));
+
+        assertEquals(3, backend.enqueued.size());
+        assertEquals(4, scheduler.getTasks().size());
+        assertEquals(2, countState(scheduler.getTasks(), DownloadTask.STATE_RUNNING));
+    }
+
+    @Test
+    public void concurrentChecksOnOneLinkQueueItOnce() {
+        DownloadScheduler scheduler = newScheduler(1);
+
+        // Both taps passed their check before either request reached the scheduler.
+        scheduler.enqueue(request("a.zip"), DownloadTask.PRIORITY_NORMAL);
+        scheduler.enqueue(request("a.zip"), DownloadTask.PRIORITY_NORMAL);
+
+        assertEquals(1, scheduler.getTasks().size());
+        assertEquals(1, backend.enqueued.size());
+    }
+
+    @Test
+    public void enqueueingAFailedPathAgainRetriesIt() {
+        DownloadScheduler scheduler = newScheduler(1);
+        scheduler.enqueue(request("a.zip"), DownloadTask.PRIORITY_NORMAL);
+        DownloadTask a = scheduler.findByPath("/d/a.zip");
+        backend.setProgress(a.getBackendId(), DownloadStatus.STATE_FAILED, 10);
+        store.tick();
+        assertEquals(DownloadTask.STATE_FAILED, scheduler.findByPath("/d/a.zip").getState());
+
+        scheduler.enqueue(request("a.zip"), DownloadTask.PRIORITY_NORMAL);
+
+        assertEquals(1, scheduler.getTasks().size());
+        assertEquals(DownloadTask.STATE_RUNNING, scheduler.findByPath("/d/a.zip").getState());
+        assertEquals(2, backend.enqueued.size());
+    }
+
+    @Test
+    public void higherPriorityRunsFirstAndFifoBreaksTies() {
+        DownloadScheduler scheduler = newScheduler(1);
+        scheduler.enqueue(request("first.zip"), DownloadTask.PRIORITY_NORMAL);
+        scheduler.enqueue(request("low.zip"), DownloadTask.PRIORITY_LOW);
+        scheduler.enqueue(request("normal.zip"), DownloadTask.PRIORITY_NORMAL);
+        scheduler.enqueue(request("high.zip"), DownloadTask.PRIORITY_HIGH);
+
+        finish(scheduler.findByPath("/d/first.zip"));
+        assertEquals("high.zip", backend.enqueued.get(1).getTitle());
+
+        finish(scheduler.findByPath("/d/high.zip"));
+        assertEquals("normal.zip", backend.enqueued.get(2).getTitle());
+    }
+
+    @Test
+    public void agingKeepsLowPriorityFromStarving() {
+        DownloadScheduler scheduler = newScheduler(1);
+        scheduler.enqueue(request("blocker.zip"), DownloadTask.PRIORITY_NORMAL);
+        scheduler.enqueue(request("old-low.zip"), DownloadTask.PRIORITY_LOW);
+
+        now += 3 * DownloadScheduler.AGING_INTERVAL_MS;
+        scheduler.enqueue(request("new-normal.zip"), DownloadTask.PRIORITY_NORMAL);
+
+        finish(scheduler.findByPath("/d/blocker.zip"));
+        assertEquals("old-low.zip", backend.enqueued.get(1).getTitle());
+    }
+
+    @Test
+    public void movedToFrontOutranksTasksThatAgedLonger() {
+        DownloadScheduler scheduler = newScheduler(1);
+        scheduler.enqueue(request("blocker.zip"), DownloadTask.PRIORITY_NORMAL);
+        scheduler.enqueue(request("old.zip"), DownloadTask.PRIORITY_NORMAL);
+        now += 10 * DownloadScheduler.AGING_INTERVAL_MS;
+        scheduler.enqueue(request("late.zip"), DownloadTask.PRIORITY_NORMAL);
+
+        scheduler.setPriority(scheduler.findByPath("/d/late.zip").getId(), DownloadTask.PRIORITY_HIGH);
+        finish(scheduler.findByPath("/d/blocker.zip"));
+
+        assertEquals("late.zip", backend.enqueued.get(1).getTitle());
+    }
+
+    @Test
+    public void pauseFreesSlotAndResumeRequeues() {
+        DownloadScheduler scheduler = newScheduler(1);
+        scheduler.enqueue(request("a.zip"), DownloadTask.PRIORITY_NORMAL);
+        scheduler.enqueue(request("b.zip"), DownloadTask.PRIORITY_NORMAL);
+        DownloadTask a = scheduler.findByPath("/d/a.zip");
+
+        scheduler.pause(a.getId());
+
+        assertEquals(Long.valueOf(a.getBackendId()), backend.paused.get(0));
+        assertEquals(DownloadTask.STATE_PAUSED, scheduler.findByPath("/d/a.zip").getState());
+        assertEquals(DownloadTask.STATE_RUNNING, scheduler.findByPath("/d/b.zip").getState());
+
+        scheduler.resume(a.getId());
+        assertEquals(DownloadTask.STATE_QUEUED, scheduler.findByPath("/d/a.zip").getState());
+
+        finish(scheduler.findByPath("/d/b.zip"));
+        assertEquals(DownloadTask.STATE_RUNNING, scheduler.findByPath("/d/a.zip").getState());
+    }
+
+    @Test
+    public void cancelRemovesTaskAndBackendTransfer() {
+        DownloadScheduler scheduler = newScheduler(1);
+        scheduler.enqueue(request("a.zip"), DownloadTask.PRIORITY_NORMAL);
+        DownloadTask a = scheduler.findByPath("/d/a.zip");
+
+        scheduler.cancel(a.getId());
+
+        assertTrue(scheduler.getTasks().isEmpty());
+        assertEquals(Long.valueOf(a.getBackendId()), backend.removed.get(0));
+    }
+
+    @Test
+    public void failedTransferIsKeptForRetry() {
+        DownloadScheduler scheduler = newScheduler(1);
+        scheduler.enqueue(request("a.zip"), DownloadTask.PRIORITY_NORMAL);
+        DownloadTask a = scheduler.findByPath("/d/a.zip");
+
+        backend.setProgress(a.getBackendId(), DownloadStatus.STATE_FAILED, 10);
+        store.tick();
+
+        assertEquals(DownloadTask.STATE_FAILED, scheduler.findByPath("/d/a.zip").getState());
+    }
+
+    @Test
+    public void queueSurvivesRestart() {
+        DownloadScheduler scheduler = newScheduler(1);
+        scheduler.enqueue(request("running.zip"), DownloadTask.PRIORITY_NORMAL);
+        scheduler.enqueue(request("waiting.zip"), DownloadTask.PRIORITY_HIGH);
+        long runningBackendId = scheduler.findByPath("/d/running.zip").getBackendId();
+
+        DownloadScheduler restarted = newScheduler(1);
+
+        assertEquals(2, restarted.getTasks().size());
+        assertEquals(runningBackendId, restarted.findByPath("/d/running.zip").getBackendId());
+        assertEquals(DownloadTask.STATE_QUEUED, restarted.findByPath("/d/waiting.zip").getState());
+        assertEquals(1, backend.enqueued.size());
+    }
+
+    @Test
+    public void runningTaskLostWhileDeadIsMarkedFailed() {
+        DownloadScheduler scheduler = newScheduler(1);
+        scheduler.enqueue(request("gone.zip"), DownloadTask.PRIORITY_NORMAL);
+        backend.downloads.clear();
+
+        DownloadScheduler restarted = newScheduler(1);
+
+        assertEquals(DownloadTask.STATE_FAILED, restarted.findByPath("/d/gone.zip").getState());
+    }
+
+    @Test
+    public void resumableTaskLostWhileDeadIsRequeued() {
+        backend.resumable = true;
+        DownloadScheduler scheduler = newScheduler(1);
+        scheduler.enqueue(request("partial.zip"), DownloadTask.PRIORITY_NORMAL);
+        store.removeListener(scheduler); // The old process is gone.
+        backend.downloads.clear();
+
+        DownloadScheduler restarted = newScheduler(1);
+
+        assertEquals(DownloadTask.STATE_RUNNING, restarted.findByPath("/d/partial.zip").getState());
+        assertEquals(2, backend.enqueued.size());
+    }
+
+    @Test
+    public void retryInterruptedRequeuesOnlyResumableFailures() {
+        DownloadScheduler scheduler = newScheduler(1);
+        scheduler.enqueue(request("a.zip"), DownloadTask.PRIORITY_NORMAL);
+        DownloadTask a = scheduler.findByPath("/d/a.zip");
+        backend.setProgress(a.getBackendId(), DownloadStatus.STATE_FAILED, 10);
+        store.tick();
+
+        scheduler.retryInterrupted();
+        assertEquals(DownloadTask.STATE_FAILED, scheduler.findByPath("/d/a.zip").getState());
+
+        backend.resumable = true;
+        scheduler.retryInterrupted();
+        assertEquals(DownloadTask.STATE_RUNNING, scheduler.findByPath("/d/a.zip").getState());
+    }
+
+    /** Waits until the engine reports every id as finished, then lets the scheduler see it. */
+    private static void awaitEngine(EngineDownloadBackend engine, DownloadStatusStore engineStore, long... ids)
+            throws InterruptedException {
+        for (int i = 0; i < 1000; i++) {
+            boolean done = true;
+            for (DownloadStatus status : engine.query(ids)) {
+                if (!status.isTerminal()) done = false;
+            }
+            if (done) break;
+            Thread.sleep(10);
+        }
+        engineStore.tick();
+    }
+
+    @Test
+    public void retryInterruptedSkipsEngineFailuresThatCannotResume() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try (TestHttpServer server = new TestHttpServer()) {
+            SegmentedDownloader downloader = new SegmentedDownloader(executor, 4, 64 * 1024,
+                    new File(temp.getRoot(), "journals"));
+            downloader.setRetryPolicy(0, 0);
+            EngineDownloadBackend engine = new EngineDownloadBackend(downloader, null, executor, (file, sha256) -> { });
+            DownloadStatusStore engineStore = new DownloadStatusStore(engine, poller, Runnable::run, 3_600_000);
+            DownloadScheduler scheduler = new DownloadScheduler(engine, engineStore, new DownloadQueueFile(queueFile),
+                    Runnable::run, () -> now, conditions, 2);
+            scheduler.restore();
+            // The connection drops after 100 KB per range, leaving a journal behind.
+            server.serve("/partial.zip", TestHttpServer.randomBytes(1_000_000, 1)).truncateAfter = 100_000;
+            File partial = new File(temp.getRoot(), "partial.zip");
+            File missing = new File(temp.getRoot(), "missing.zip");
+            scheduler.enqueue(new DownloadRequest(server.url("/partial.zip"), "ua", "application/zip",
+                    partial.getName(), partial.getPath()), DownloadTask.PRIORITY_NORMAL);
+            scheduler.enqueue(new DownloadRequest(server.url("/missing.zip"), "ua", "application/zip",
+                    missing.getName(), missing.getPath()), DownloadTask.PRIORITY_NORMAL);
+            awaitEngine(engine, engineStore, scheduler.findByPath(partial.getPath()).getBackendId(),
+                    scheduler.findByPath(missing.getPath()).getBackendId());
+            assertEquals(DownloadTask.STATE_FAILED, scheduler.findByPath(partial.getPath()).getState());
+            assertEquals(DownloadTask.STATE_FAILED, scheduler.findByPath(missing.getPath()).getState());
+
+            scheduler.retryInterrupted();
+
+            assertEquals(DownloadTask.STATE_RUNNING, scheduler.findByPath(partial.getPath()).getState());
+            // A 404 fails the same way every time, however often the network comes back.
+            assertEquals(DownloadTask.STATE_FAILED, scheduler.findByPath(missing.getPath()).getState());
+            awaitEngine(engine, engineStore, scheduler.findByPath(partial.getPath()).getBackendId());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void cancellingPausedTaskDiscardsPartialData() {
+        DownloadScheduler scheduler = newScheduler(1);
+        scheduler.enqueue(request("a.zip"), DownloadTask.PRIORITY_NORMAL);
+        DownloadTask a = scheduler.findByPath("/d/a.zip");
+        scheduler.pause(a.getId());
+
+        scheduler.cancel(a.getId());
+
+        assertEquals("/d/a.zip", backend.discarded.get(0).getDestinationPath());
+    }
+
+    @Test
+    public void deferredTaskWaitsForUnmeteredNetworkToSettle() {
+        conditions.unmetered = false;
+        DownloadScheduler scheduler = newScheduler(2);
+        DownloadConstraints wifiOnly = new DownloadConstraints(true, false, -1, -1);
+        scheduler.enqueue(request("big.zip"), DownloadTask.PRIORITY_NORMAL, wifiOnly);
+        scheduler.enqueue(request("small.zip"), DownloadTask.PRIORITY_NORMAL);
+
+        assertEquals(DownloadTask.STATE_QUEUED, scheduler.findByPath("/d/big.zip").getState());
+        assertEquals(DownloadTask.STATE_RUNNING, scheduler.findByPath("/d/small.zip").getState());
+
+        conditions.unmetered = true;
+        conditions.listener.run();
+        assertEquals(DownloadTask.STATE_QUEUED, scheduler.findByPath("/d/big.zip").getState());
+        assertEquals(DownloadScheduler.DEFERRED_SETTLE_MS, conditions.wakeDelay);
+
+        now += DownloadScheduler.DEFERRED_SETTLE_MS;
+        conditions.listener.run();
+        assertEquals(DownloadTask.STATE_RUNNING, scheduler.findByPath("/d/big.zip").getState());
+    }
+
+    @Test
+    public void deferredTasksAreReleasedTogether() {
+        conditions.charging = false;
+        DownloadScheduler scheduler = newScheduler(3);
+        DownloadConstraints charging = new DownloadConstraints(false, true, -1, -1);
+        for (int i = 0; i < 3; i++) {
+            scheduler.enqueue(request("night" + i + ".zip"), DownloadTask.PRIORITY_LOW, charging);
+        }
+
+        conditions.charging = true;
+        conditions.listener.run();
+        now += DownloadScheduler.DEFERRED_SETTLE_MS;
+        conditions.listener.run();
+
+        assertEquals(3, countState(scheduler.getTasks(), DownloadTask.STATE_RUNNING));
+    }
+
+    @Test
+    public void losingUnmeteredNetworkPausesAndRequeues() {
+        backend.resumable = true;
+        DownloadScheduler scheduler = newScheduler(1);
+        scheduler.enqueue(request("big.zip"), DownloadTask.PRIORITY_NORMAL,
+                new DownloadConstraints(true, false, -1, -1));
+        DownloadTask running = scheduler.findByPath("/d/big.zip");
+        assertEquals(DownloadTask.STATE_RUNNING, running.getState());
+
+        conditions.unmetered = false;
+        conditions.listener.run();
+
+        assertEquals(Long.valueOf(running.getBackendId()), backend.paused.get(0));
+        assertEquals(DownloadTask.STATE_QUEUED, scheduler.findByPath("/d/big.zip").getState());
+    }
+
+    @Test
+    public void downloadsThatCannotResumeFinishWhenConditionsChange() {
+        DownloadScheduler scheduler = newScheduler(1);
+        scheduler.enqueue(request("big.zip"), DownloadTask.PRIORITY_NORMAL,
+                new DownloadConstraints(true, false, -1, -1));
+
+        conditions.unmetered = false;
+        conditions.listener.run();
+
+        assertTrue(backend.paused.isEmpty());
+        assertEquals(DownloadTask.STATE_RUNNING, scheduler.findByPath("/d/big.zip").getState());
+    }
+
+    @Test
+    public void timeWindowWakesSchedulerAtItsEdges() {
+        backend.resumable = true;
+        conditions.minuteOfDay = 23 * 60;
+        DownloadScheduler scheduler = newScheduler(1);
+        scheduler.enqueue(request("night.zip"), DownloadTask.PRIORITY_NORMAL,
+                new DownloadConstraints(false, false, 60, 6 * 60));
+
+        assertEquals(DownloadTask.STATE_QUEUED, scheduler.findByPath("/d/night.zip").getState());
+        assertEquals(120 * 60_000L + 1_000, conditions.wakeDelay);
+
+        conditions.minuteOfDay = 60;
+        conditions.listener.run();
+        assertEquals(DownloadTask.STATE_RUNNING, scheduler.findByPath("/d/night.zip").getState());
+        assertEquals(300 * 60_000L + 1_000, conditions.wakeDelay);
+
+        conditions.minuteOfDay = 6 * 60;
+        conditions.listener.run();
+        assertEquals(DownloadTask.STATE_QUEUED, scheduler.findByPath("/d/night.zip").getState());
+    }
+
+    @Test
+    public void constraintsSurviveRestart() {
+        conditions.unmetered = false;
+        DownloadScheduler scheduler = newScheduler(1);
+        DownloadConstraints constraints = new DownloadConstraints(true, true, 60, 360);
+        scheduler.enqueue(request("big.zip"), DownloadTask.PRIORITY_NORMAL, constraints);
+        store.removeListener(scheduler);
+
+        DownloadScheduler restarted = newScheduler(1);
+
+        assertEquals(constraints, restarted.findByPath("/d/big.zip").getConstraints());
+    }
+
+    @Test
+    public void windowsMayWrapPastMidnight() {
+        DownloadConstraints night = new DownloadConstraints(false, false, 22 * 60, 2 * 60);
+
+        assertTrue(night.inWindow(23 * 60));
+        assertTrue(night.inWindow(60));
+        assertFalse(night.inWindow(12 * 60));
+        assertEquals(3 * 60, night.minutesUntilWindowEdge(23 * 60));
+        assertEquals(10 * 60, night.minutesUntilWindowEdge(12 * 60));
+    }
+}
@@ -0,0 +1,81 @@
+package com.android.darkelixir;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+public class DownloadStatusStoreTest {
+
+    private FakeDownloadBackend backend;
+    private ScheduledExecutorService poller;
+    private DownloadStatusStore store;
+    private final List<DownloadSnapshot> published = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        backend = new FakeDownloadBackend();
+        poller = Executors.newSingleThreadScheduledExecutor();
+        // Interval long enough that only explicit tick() calls query the backend.
+        store = new DownloadStatusStore(backend, poller, Runnable::run, 3_600_000);
+    }
+
+    @After
+    public void tearDown() {
+        poller.shutdownNow();
+    }
+
+    @Test
+    public void tick_queriesAllActiveIdsInOneRoundTrip() {
+        backend.put(new DownloadStatus(1, "/d/a.zip", DownloadStatus.STATE_RUNNING, 10, 100));
+        backend.put(new DownloadStatus(2, "/d/b.zip", DownloadStatus.STATE_PENDING, 0, 100));
+        backend.put(new DownloadStatus(3, "/d/c.zip", DownloadStatus.STATE_RUNNING, 50, 100));
+        store.tick();
+        int before = backend.queryCount;
+
+        store.tick();
+
+        assertEquals(1, backend.queryCount - before);
+        DownloadSnapshot snapshot = store.getSnapshot();
+        assertEquals(10, snapshot.get("/d/a.zip").getProgress());
+        assertEquals(50, snapshot.get("/d/c.zip").getProgress());
+        assertNotNull(snapshot.getById(2));
+    }
+
+    @Test
+    public void tick_publishesOnlyWhenSomethingChanged() {
+        backend.put(new DownloadStatus(1, "/d/a.zip", DownloadStatus.STATE_RUNNING, 10, 100));
+        store.tick();
+        store.addListener(published::add);
+        published.clear();
+
+        store.tick();
+        assertTrue(published.isEmpty());
+
+        backend.setProgress(1, DownloadStatus.STATE_RUNNING, 20);
+        store.tick();
+        assertEquals(1, published.size());
+        assertEquals(20, published.get(0).get("/d/a.zip").getProgress());
+    }
+
+    @Test
+    public void terminalDownloadsArePublishedOnceThenDropped() {
+        store.tick();
+        backend.put(new DownloadStatus(7, "/d/x.apk", DownloadStatus.STATE_RUNNING, 1, 2));
+        store.track(7);
+        store.tick();
+
+        backend.setProgress(7, DownloadStatus.STATE_SUCCESSFUL, 2);
+        store.tick();
+        assertTrue(store.getSnapshot().getById(7).isTerminal());
+
+        store.tick();
+        assertTrue(store.getSnapshot().isEmpty());
+    }
+}
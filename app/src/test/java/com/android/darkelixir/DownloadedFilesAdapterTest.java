@@ -0,0 +1,179 @@
+package com.android.darkelixir;
+
+import android.app.Activity;
+import android.os.Looper;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class DownloadedFilesAdapterTest {
+
+    private static final int ROWS = 30;
+
+    /** Counts full binds separately from payload-only binds. */
+    static class CountingAdapter extends DownloadedFilesAdapter {
+        int fullBinds;
+        int payloadBinds;
+
+        CountingAdapter(Activity activity, DownloadStatusStore store, VerificationStore verifications,
+                        Executor listingExecutor) {
+            super(activity, ListingQuery.NEWEST_FIRST, store, verifications, null, listingExecutor,
+                    ContextCompat.getMainExecutor(activity));
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+            if (payloads.isEmpty()) {
+                fullBinds++;
+            } else {
+                payloadBinds++;
+            }
+            super.onBindViewHolder(holder, position, payloads);
+        }
+
+        void reset() {
+            fullBinds = 0;
+            payloadBinds = 0;
+        }
+    }
+
+    private ScheduledExecutorService poller;
+    private ExecutorService listingExecutor;
+    private RecyclerView recyclerView;
+    private CountingAdapter adapter;
+
+    @Before
+    public void setUp() {
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        poller = Executors.newSingleThreadScheduledExecutor();
+        listingExecutor = Executors.newSingleThreadExecutor();
+        DownloadStatusStore store = new DownloadStatusStore(new FakeDownloadBackend(), poller, Runnable::run, 3_600_000);
+
+        recyclerView = new RecyclerView(activity);
+        recyclerView.setLayoutManager(new LinearLayoutManager(activity));
+        activity.setContentView(recyclerView);
+        VerificationStore verifications = new VerificationStore(
+                new File(activity.getFilesDir(), "verifications.bin"), Runnable::run, Runnable::run);
+        adapter = new CountingAdapter(activity, store, verifications, listingExecutor);
+        recyclerView.setAdapter(adapter);
+
+        EntryFormatter formatter = new EntryFormatter(extension -> "application/zip");
+        List<DownloadEntry> entries = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            entries.add(formatter.create(path(i), "file" + i + ".zip", 1024L * i, 1_700_000_000_000L));
+        }
+        adapter.onIndexChanged(new DirectoryIndex.Delta(entries, new ArrayList<>(), new ArrayList<>()));
+        awaitItemCount(ROWS);
+        layout();
+        adapter.reset();
+    }
+
+    @After
+    public void tearDown() {
+        poller.shutdownNow();
+        listingExecutor.shutdownNow();
+    }
+
+    private static String path(int i) {
+        return "/downloads/file" + i + ".zip";
+    }
+
+    /** Lets a background listing update land on the main thread. */
+    private void awaitItemCount(int expected) {
+        for (int i = 0; i < 100 && adapter.getItemCount() != expected; i++) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+    }
+
+    private void layout() {
+        shadowOf(Looper.getMainLooper()).idle();
+        recyclerView.measure(
+                View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(1920, View.MeasureSpec.EXACTLY));
+        recyclerView.layout(0, 0, 1080, 1920);
+    }
+
+    private static DownloadStatus running(int row, long bytes) {
+        return new DownloadStatus(row, path(row), DownloadStatus.STATE_RUNNING, bytes, 1000);
+    }
+
+    @Test
+    public void progressTick_rebindsOnlyTheChangedRowWithPayload() {
+        adapter.onSnapshot(new DownloadSnapshot(Arrays.asList(running(0, 100), running(1, 100))));
+        layout();
+        adapter.reset();
+
+        adapter.onSnapshot(new DownloadSnapshot(Arrays.asList(running(0, 200), running(1, 100))));
+        layout();
+
+        assertEquals(0, adapter.fullBinds);
+        assertEquals(1, adapter.payloadBinds);
+    }
+
+    @Test
+    public void unchangedTick_bindsNothing() {
+        DownloadSnapshot snapshot = new DownloadSnapshot(Arrays.asList(running(0, 100)));
+        adapter.onSnapshot(snapshot);
+        layout();
+        adapter.reset();
+
+        adapter.onSnapshot(new DownloadSnapshot(Arrays.asList(running(0, 100))));
+        layout();
+
+        assertEquals(0, adapter.fullBinds);
+        assertEquals(0, adapter.payloadBinds);
+    }
+
+    @Test
+    public void completionTick_rebindsStatusOnly() {
+        adapter.onSnapshot(new DownloadSnapshot(Arrays.asList(running(2, 900))));
+        layout();
+        adapter.reset();
+
+        adapter.onSnapshot(DownloadSnapshot.EMPTY);
+        layout();
+
+        assertEquals(0, adapter.fullBinds);
+        assertEquals(1, adapter.payloadBinds);
+    }
+
+    @Test
+    public void stableIdsFollowThePathNotThePosition() {
+        long id = adapter.getItemId(5);
+        List<String> removed = new ArrayList<>();
+        removed.add(path(0));
+        adapter.onIndexChanged(new DirectoryIndex.Delta(new ArrayList<>(), new ArrayList<>(), removed));
+        awaitItemCount(ROWS - 1);
+
+        assertEquals(ROWS - 1, adapter.getItemCount());
+        assertEquals(id, adapter.getItemId(4));
+    }
+}
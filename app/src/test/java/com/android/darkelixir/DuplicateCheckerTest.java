@@ -0,0 +1,128 @@
+package com.android.darkelixir;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Base64;
+
+import static org.junit.Assert.*;
+
+public class DuplicateCheckerTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private TestHttpServer server;
+    private VerificationStore verifications;
+    private ContentIndex index;
+    private DuplicateChecker checker;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new TestHttpServer();
+        verifications = new VerificationStore(new File(temp.getRoot(), "verifications.bin"), Runnable::run, Runnable::run);
+        index = newIndex();
+        checker = new DuplicateChecker(index, 5_000);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private ContentIndex newIndex() {
+        ContentIndex created = new ContentIndex(new File(temp.getRoot(), "content_index.bin"), Runnable::run, verifications);
+        created.load();
+        verifications.addListener(created);
+        return created;
+    }
+
+    /** Runs the HEAD check, then "downloads" the body the way a finished transfer would leave it. */
+    private File download(String path, byte[] body, String name) throws IOException {
+        File target = new File(temp.getRoot(), name);
+        String url = server.url(path);
+        checker.remember(url, checker.head(url, null), target.getPath());
+        Files.write(target.toPath(), body);
+        return target;
+    }
+
+    @Test
+    public void sameLinkAndEtagIsDuplicate() throws IOException {
+        byte[] body = TestHttpServer.randomBytes(10_000, 1);
+        server.serve("/a.zip", body).etag = "\"v1\"";
+        File existing = download("/a.zip", body, "a.zip");
+
+        DuplicateChecker.Match match = checker.find(checker.head(server.url("/a.zip"), null),
+                new File(temp.getRoot(), "a-1.zip").getPath());
+
+        assertNotNull(match);
+        assertEquals(existing, match.existing);
+        assertEquals("same link and version", match.reason);
+    }
+
+    @Test
+    public void newVersionIsNotDuplicate() throws IOException {
+        byte[] body = TestHttpServer.randomBytes(10_000, 2);
+        TestHttpServer.Resource resource = server.serve("/a.zip", body);
+        resource.etag = "\"v1\"";
+        download("/a.zip", body, "a.zip");
+
+        resource.etag = "\"v2\"";
+        resource.body = TestHttpServer.randomBytes(12_000, 3);
+
+        assertNull(checker.find(checker.head(server.url("/a.zip"), null), new File(temp.getRoot(), "b.zip").getPath()));
+    }
+
+    @Test
+    public void announcedDigestMatchesContentFromAnotherLink() throws IOException {
+        byte[] body = TestHttpServer.randomBytes(20_000, 4);
+        server.serve("/a.bin", body);
+        File existing = download("/a.bin", body, "a.bin");
+        // Hashing the finished download fills in the index's content hash.
+        verifications.recordChecksum(existing, VerificationStore.sha256(existing));
+
+        byte[] sha = ChecksumFrontier.newSha256().digest(body);
+        server.serve("/mirror/pack.bin", body).headers.put("Repr-Digest",
+                "sha-256=:" + Base64.getEncoder().encodeToString(sha) + ":");
+
+        DuplicateChecker.Match match = checker.find(checker.head(server.url("/mirror/pack.bin"), null),
+                new File(temp.getRoot(), "pack.bin").getPath());
+
+        assertNotNull(match);
+        assertEquals(existing, match.existing);
+        assertEquals("same content", match.reason);
+    }
+
+    @Test
+    public void fileAtTargetWithAnnouncedLengthIsDuplicate() throws IOException {
+        byte[] body = TestHttpServer.randomBytes(5_000, 5);
+        server.serve("/b.zip", body);
+        File target = temp.newFile("b.zip");
+        Files.write(target.toPath(), body);
+
+        DuplicateChecker.Match match = checker.find(checker.head(server.url("/b.zip"), null), target.getPath());
+
+        assertEquals("same name and size", match.reason);
+    }
+
+    @Test
+    public void indexSurvivesRestartAndForgetsDeletedFiles() throws IOException {
+        byte[] body = TestHttpServer.randomBytes(1_000, 6);
+        server.serve("/kept.zip", body).etag = "\"k\"";
+        server.serve("/gone.zip", body).etag = "\"g\"";
+        File kept = download("/kept.zip", body, "kept.zip");
+        File gone = download("/gone.zip", body, "gone.zip");
+        assertTrue(gone.delete());
+
+        ContentIndex reloaded = newIndex();
+
+        assertEquals(server.url("/kept.zip"), reloaded.get(kept.getPath()).url);
+        assertNull(reloaded.get(gone.getPath()));
+    }
+}
@@ -0,0 +1,147 @@
+package com.android.darkelixir;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class EngineDownloadBackendTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private TestHttpServer server;
+    private CountingExecutor segmentExecutor;
+    private ExecutorService jobExecutor;
+    private File journals;
+    private SegmentedDownloader downloader;
+    private EngineDownloadBackend engine;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new TestHttpServer();
+        segmentExecutor = new CountingExecutor();
+        jobExecutor = Executors.newSingleThreadExecutor();
+        journals = new File(temp.getRoot(), "journals");
+        downloader = new SegmentedDownloader(segmentExecutor, 4, 64 * 1024, journals);
+        downloader.setRetryPolicy(0, 0);
+        engine = new EngineDownloadBackend(downloader, null, jobExecutor, (file, sha256) -> { });
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        jobExecutor.shutdownNow();
+        segmentExecutor.shutdownNow();
+    }
+
+    /** Cached pool that remembers how many segment fetches ever ran at once. */
+    private static final class CountingExecutor extends ThreadPoolExecutor {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+
+        CountingExecutor() {
+            super(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>());
+        }
+
+        @Override
+        protected void beforeExecute(Thread t, Runnable r) {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            active.decrementAndGet();
+        }
+    }
+
+    private DownloadRequest request(String path, File target) {
+        return new DownloadRequest(server.url(path), "test", "application/zip", target.getName(), target.getPath());
+    }
+
+    private void awaitJobs() throws InterruptedException {
+        jobExecutor.shutdown();
+        assertTrue(jobExecutor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void removingAJobThatNeverStartedKeepsTheFileAtItsTarget() throws Exception {
+        server.serve("/a.zip", TestHttpServer.randomBytes(200_000, 1));
+        File existing = new File(temp.getRoot(), "a.zip");
+        Files.write(existing.toPath(), new byte[]{1, 2, 3});
+        // Keeps the job pending, like "Download again" cancelled while others are running.
+        CountDownLatch blocker = new CountDownLatch(1);
+        jobExecutor.execute(() -> {
+            try {
+                blocker.await();
+            } catch (InterruptedException ignored) {
+                // Let the queue drain.
+            }
+        });
+
+        engine.remove(engine.enqueue(request("/a.zip", existing)));
+        blocker.countDown();
+        awaitJobs();
+
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(existing.toPath()));
+    }
+
+    @Test
+    public void removingARunningJobDeletesItsDataOnceTheWorkerStops() throws Exception {
+        server.serve("/slow.zip", TestHttpServer.randomBytes(1_000_000, 2));
+        File target = new File(temp.getRoot(), "slow.zip");
+        downloader.setRateLimiter(TokenBucket.systemClock(200_000));
+        long id = engine.enqueue(request("/slow.zip", target));
+        for (int i = 0; i < 500 && engine.query(new long[]{id}).get(0).getBytesDownloaded() == 0; i++) {
+            Thread.sleep(10);
+        }
+
+        engine.remove(id);
+        awaitJobs();
+
+        assertFalse(target.exists());
+        assertFalse(downloader.hasResumeState(request("/slow.zip", target)));
+    }
+
+    @Test
+    public void resumeRightAfterPauseWaitsForTheOldWorker() throws Exception {
+        jobExecutor.shutdown();
+        jobExecutor = Executors.newCachedThreadPool();
+        engine = new EngineDownloadBackend(downloader, null, jobExecutor, (file, sha256) -> { });
+        byte[] body = TestHttpServer.randomBytes(1_000_000, 3);
+        server.serve("/slow.zip", body);
+        File target = new File(temp.getRoot(), "slow.zip");
+        // Slow enough that each segment is still inside a read when the pause lands.
+        downloader.setRateLimiter(TokenBucket.systemClock(300_000));
+        long first = engine.enqueue(request("/slow.zip", target));
+        for (int i = 0; i < 500 && engine.query(new long[]{first}).get(0).getBytesDownloaded() == 0; i++) {
+            Thread.sleep(10);
+        }
+
+        engine.pause(first);
+        long second = engine.enqueue(request("/slow.zip", target));
+        for (int i = 0; i < 1000 && !engine.query(new long[]{second}).get(0).isTerminal(); i++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(DownloadStatus.STATE_SUCCESSFUL, engine.query(new long[]{second}).get(0).getState());
+        assertArrayEquals(body, Files.readAllBytes(target.toPath()));
+        // Four segments per job: more at once means both jobs were writing the file.
+        assertEquals(4, segmentExecutor.maxActive.get());
+        assertFalse(downloader.hasResumeState(request("/slow.zip", target)));
+    }
+}
@@ -0,0 +1,95 @@
+package com.android.darkelixir;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** In-memory stand-in for the system download manager that counts provider round-trips. */
+class FakeDownloadBackend implements DownloadBackend {
+
+    final Map<Long, DownloadStatus> downloads = new LinkedHashMap<>();
+    final List<DownloadRequest> enqueued = new ArrayList<>();
+    final List<Long> removed = new ArrayList<>();
+    final List<Long> paused = new ArrayList<>();
+    final List<DownloadRequest> discarded = new ArrayList<>();
+    /** When set, every id counts as resumable, like the in-app engine. */
+    volatile boolean resumable;
+    int queryCount;
+    private long nextId = 100;
+
+    @Override
+    public synchronized long enqueue(DownloadRequest request) {
+        long id = nextId++;
+        enqueued.add(request);
+        downloads.put(id, new DownloadStatus(id, request.getDestinationPath(), DownloadStatus.STATE_PENDING, 0, 1000));
+        return id;
+    }
+
+    @Override
+    public synchronized void remove(long id) {
+        removed.add(id);
+        downloads.remove(id);
+    }
+
+    @Override
+    public synchronized void pause(long id) {
+        paused.add(id);
+        downloads.remove(id);
+    }
+
+    @Override
+    public synchronized void discard(DownloadRequest request) {
+        discarded.add(request);
+    }
+
+    @Override
+    public boolean canResume(long id, DownloadRequest request) {
+        return resumable;
+    }
+
+    synchronized void put(DownloadStatus status) {
+        downloads.put(status.getId(), status);
+    }
+
+    synchronized void setProgress(long id, int state, long bytes) {
+        DownloadStatus old = downloads.get(id);
+        downloads.put(id, new DownloadStatus(id, old.getLocalPath(), state, bytes, old.getTotalBytes()));
+    }
+
+    /**
+     * Scripted progress for load tests: pending downloads start, running ones gain {@code bytes}
+     * and finish once they reach their total. Paused and finished downloads stay as they are.
+     */
+    synchronized void advance(long bytes) {
+        for (Map.Entry<Long, DownloadStatus> e : downloads.entrySet()) {
+            DownloadStatus old = e.getValue();
+            int state = old.getState();
+            if (state != DownloadStatus.STATE_PENDING && state != DownloadStatus.STATE_RUNNING) continue;
+            long done = Math.min(old.getTotalBytes(), old.getBytesDownloaded() + bytes);
+            e.setValue(new DownloadStatus(old.getId(), old.getLocalPath(),
+                    done == old.getTotalBytes() ? DownloadStatus.STATE_SUCCESSFUL : DownloadStatus.STATE_RUNNING,
+                    done, old.getTotalBytes()));
+        }
+    }
+
+    @Override
+    public synchronized List<DownloadStatus> query(long[] ids) {
+        queryCount++;
+        List<DownloadStatus> result = new ArrayList<>();
+        for (long id : ids) {
+            DownloadStatus status = downloads.get(id);
+            if (status != null) result.add(status);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized long[] queryActiveIds() {
+        queryCount++;
+        return downloads.values().stream()
+                .filter(DownloadStatus::isActive)
+                .mapToLong(DownloadStatus::getId)
+                .toArray();
+    }
+}
@@ -0,0 +1,89 @@
+package com.android.darkelixir;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Measures work run on the calling thread, one sample per tick: wall time, CPU time and bytes
+ * allocated. Under Robolectric the test thread is the main looper, so this is main-thread cost.
+ * Allocation counts need a HotSpot-compatible JVM and read as zero elsewhere.
+ */
+final class LoadProbe {
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private long[] wallNanos = new long[64];
+    private long[] cpuNanos = new long[64];
+    private long[] allocatedBytes = new long[64];
+    private int samples;
+
+    void measure(Runnable work) {
+        long allocatedBefore = allocated();
+        long cpuBefore = threads.getCurrentThreadCpuTime();
+        long wallBefore = System.nanoTime();
+        work.run();
+        long wall = System.nanoTime() - wallBefore;
+        long cpu = threads.getCurrentThreadCpuTime() - cpuBefore;
+        long bytes = allocated() - allocatedBefore;
+        if (samples == wallNanos.length) {
+            wallNanos = Arrays.copyOf(wallNanos, samples * 2);
+            cpuNanos = Arrays.copyOf(cpuNanos, samples * 2);
+            allocatedBytes = Arrays.copyOf(allocatedBytes, samples * 2);
+        }
+        wallNanos[samples] = wall;
+        cpuNanos[samples] = cpu;
+        allocatedBytes[samples] = bytes;
+        samples++;
+    }
+
+    int samples() {
+        return samples;
+    }
+
+    /** CPU time of the tick at {@code percentile} (0-100), in milliseconds. */
+    double cpuMillis(double percentile) {
+        return percentile(cpuNanos, percentile) / 1e6;
+    }
+
+    double wallMillis(double percentile) {
+        return percentile(wallNanos, percentile) / 1e6;
+    }
+
+    double totalCpuMillis() {
+        long total = 0;
+        for (int i = 0; i < samples; i++) total += cpuNanos[i];
+        return total / 1e6;
+    }
+
+    long meanAllocatedBytes() {
+        if (samples == 0) return 0;
+        long total = 0;
+        for (int i = 0; i < samples; i++) total += allocatedBytes[i];
+        return total / samples;
+    }
+
+    String report(String name) {
+        return String.format(Locale.US,
+                "%s: %d ticks, main thread p50 %.2f ms / p95 %.2f ms / max %.2f ms CPU (p95 wall %.2f ms), %d bytes allocated per tick",
+                name, samples, cpuMillis(50), cpuMillis(95), cpuMillis(100), wallMillis(95), meanAllocatedBytes());
+    }
+
+    private long percentile(long[] values, double percentile) {
+        if (samples == 0) return 0;
+        long[] sorted = Arrays.copyOf(values, samples);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * samples) - 1;
+        return sorted[Math.max(0, Math.min(samples - 1, index))];
+    }
+
+    private long allocated() {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+            if (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled()) {
+                return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,152 @@
+package com.android.darkelixir;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class PipelinedExtractorTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private TestHttpServer server;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new TestHttpServer();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        executor.shutdownNow();
+    }
+
+    private static byte[] zip(byte[]... bodies) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+            out.putNextEntry(new ZipEntry("docs/"));
+            for (int i = 0; i < bodies.length; i++) {
+                out.putNextEntry(new ZipEntry("docs/part" + i + ".bin"));
+                out.write(bodies[i]);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private DownloadRequest request(String path, File target) {
+        return new DownloadRequest(server.url(path), "test", "application/zip", "a.zip", target.getAbsolutePath(), true);
+    }
+
+    /** Records the last progress of every entry. */
+    static class RecordingListener implements PipelinedExtractor.Listener {
+        final AtomicLong network = new AtomicLong();
+        final List<String> started = new ArrayList<>();
+        final List<Long> finalSizes = new ArrayList<>();
+
+        @Override
+        public void onNetworkProgress(long bytesDownloaded, long totalBytes) {
+            network.set(bytesDownloaded);
+        }
+
+        @Override
+        public synchronized void onEntryProgress(int entryIndex, String name, long entryBytes, long entrySize) {
+            if (entryBytes == 0) {
+                started.add(name);
+                finalSizes.add(0L);
+            } else {
+                finalSizes.set(entryIndex, entryBytes);
+            }
+        }
+    }
+
+    @Test
+    public void entriesAreWrittenAsTheArchiveStreams() throws IOException {
+        byte[] first = TestHttpServer.randomBytes(700_000, 1);
+        byte[] second = TestHttpServer.randomBytes(1_000, 2);
+        byte[] archive = zip(first, second);
+        server.serve("/a.zip", archive);
+        File target = new File(temp.getRoot(), "a");
+        RecordingListener listener = new RecordingListener();
+
+        // A two-chunk pipe forces the network side to wait for the disk side repeatedly.
+        PipelinedExtractor.Result result = new PipelinedExtractor(executor, 2)
+                .extract(request("/a.zip", target), target, listener, new AtomicBoolean());
+
+        assertEquals(2, result.entries);
+        assertEquals(archive.length, result.downloadedBytes);
+        assertEquals(archive.length, listener.network.get());
+        assertArrayEquals(first, Files.readAllBytes(new File(target, "docs/part0.bin").toPath()));
+        assertArrayEquals(second, Files.readAllBytes(new File(target, "docs/part1.bin").toPath()));
+        assertEquals(Arrays.asList("docs/part0.bin", "docs/part1.bin"), listener.started);
+        assertEquals(Arrays.asList((long) first.length, (long) second.length), listener.finalSizes);
+    }
+
+    @Test
+    public void truncatedArchiveFails() throws IOException {
+        byte[] archive = zip(TestHttpServer.randomBytes(500_000, 3));
+        TestHttpServer.Resource resource = server.serve("/cut.zip", archive);
+        resource.truncateAfter = archive.length / 2;
+        File target = new File(temp.getRoot(), "cut");
+
+        try {
+            new PipelinedExtractor(executor, 4).extract(request("/cut.zip", target), target,
+                    new RecordingListener(), new AtomicBoolean());
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            // The half-written entry is removed.
+            assertFalse(new File(target, "docs/part0.bin").exists());
+        }
+    }
+
+    @Test
+    public void nonZipResponseFails() throws IOException {
+        server.serve("/page.html", "<html></html>".getBytes());
+        File target = new File(temp.getRoot(), "page");
+        try {
+            new PipelinedExtractor(executor, 4).extract(request("/page.html", target), target,
+                    new RecordingListener(), new AtomicBoolean());
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("No zip entries"));
+        }
+    }
+
+    @Test
+    public void unsafeEntryIsRejected() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+            out.putNextEntry(new ZipEntry("../evil.txt"));
+            out.write(1);
+        }
+        server.serve("/evil.zip", bytes.toByteArray());
+        File target = new File(temp.getRoot(), "evil");
+        try {
+            new PipelinedExtractor(executor, 4).extract(request("/evil.zip", target), target,
+                    new RecordingListener(), new AtomicBoolean());
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            assertFalse(new File(temp.getRoot(), "evil.txt").exists());
+        }
+    }
+}
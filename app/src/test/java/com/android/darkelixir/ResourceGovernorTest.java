@@ -0,0 +1,94 @@
+package com.android.darkelixir;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ResourceGovernorTest {
+
+    private final ResourceGovernor governor = new ResourceGovernor();
+
+    /** Records every callback as a short string. */
+    private static final class Recorder implements ResourceGovernor.Client {
+        final List<String> events = new ArrayList<>();
+        long freesBytes;
+
+        @Override
+        public void onVisibilityChanged(boolean visible) {
+            events.add(visible ? "shown" : "hidden");
+        }
+
+        @Override
+        public long onTrim(int level) {
+            events.add("trim " + level);
+            return freesBytes;
+        }
+    }
+
+    @Test
+    public void activityClientsFollowTheirOwnerAndAppClientsTheWholeApp() {
+        Object main = new Object();
+        Object downloads = new Object();
+        Recorder webView = new Recorder();
+        Recorder polling = new Recorder();
+        governor.add(main, webView);
+        governor.add(null, polling);
+        governor.activityStarted(main);
+
+        // Opening the downloads screen hides the WebView but not the app.
+        governor.activityStarted(downloads);
+        governor.activityStopped(main);
+        assertEquals(Arrays.asList("hidden"), webView.events);
+        assertTrue(polling.events.isEmpty());
+
+        // Leaving the app hides everything; coming back to the WebView shows both again.
+        governor.activityStopped(downloads);
+        governor.activityStarted(main);
+        assertEquals(Arrays.asList("hidden", "shown"), webView.events);
+        assertEquals(Arrays.asList("hidden", "shown"), polling.events);
+    }
+
+    @Test
+    public void pressureIsDeliveredOnceAtEachRisingLevel() {
+        Recorder thumbnails = new Recorder();
+        thumbnails.freesBytes = 1000;
+        governor.add(null, thumbnails);
+        long releasedBefore = PerfMetrics.global().counter(PerfMetrics.MEMORY_RELEASED_BYTES).get();
+
+        governor.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        governor.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        governor.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        governor.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        governor.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+
+        assertEquals(Arrays.asList("trim " + ResourceGovernor.TRIM_SOFT, "trim " + ResourceGovernor.TRIM_UI,
+                "trim " + ResourceGovernor.TRIM_ALL), thumbnails.events);
+        assertEquals(3000, PerfMetrics.global().counter(PerfMetrics.MEMORY_RELEASED_BYTES).get() - releasedBefore);
+
+        // Back in the foreground the ladder starts over.
+        thumbnails.events.clear();
+        governor.activityStarted(new Object());
+        governor.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(Arrays.asList("trim " + ResourceGovernor.TRIM_SOFT), thumbnails.events);
+    }
+
+    @Test
+    public void destroyedActivitiesTakeTheirClientsWithThem() {
+        Object main = new Object();
+        Recorder webView = new Recorder();
+        governor.add(main, webView);
+        governor.activityStarted(main);
+
+        governor.activityStopped(main);
+        governor.activityDestroyed(main);
+        governor.onLowMemory();
+
+        assertEquals(Arrays.asList("hidden"), webView.events);
+    }
+}
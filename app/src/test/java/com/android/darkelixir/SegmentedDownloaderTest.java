@@ -0,0 +1,213 @@
+package com.android.darkelixir;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class SegmentedDownloaderTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private TestHttpServer server;
+    private ExecutorService executor;
+    private SegmentedDownloader downloader;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new TestHttpServer();
+        executor = Executors.newCachedThreadPool();
+        downloader = new SegmentedDownloader(executor, 4, 64 * 1024, new File(temp.getRoot(), "journals"));
+        downloader.setRetryPolicy(0, 0);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        executor.shutdownNow();
+    }
+
+    private static String sha256(byte[] bytes) {
+        return ChecksumFrontier.toHex(ChecksumFrontier.newSha256().digest(bytes));
+    }
+
+    private DownloadRequest request(String path, File target) {
+        return new DownloadRequest(server.url(path), "test", "application/zip", target.getName(),
+                target.getAbsolutePath());
+    }
+
+    @Test
+    public void rangeCapableServer_isFetchedInParallelSegments() throws IOException {
+        byte[] body = TestHttpServer.randomBytes(1_000_003, 1);
+        TestHttpServer.Resource resource = server.serve("/big.zip", body);
+        File target = new File(temp.getRoot(), "big.zip");
+        AtomicLong lastProgress = new AtomicLong();
+
+        SegmentedDownloader.Result result = downloader.download(request("/big.zip", target),
+                (bytes, total) -> lastProgress.accumulateAndGet(bytes, Math::max), new AtomicBoolean());
+
+        assertEquals(4, result.segments);
+        assertEquals(body.length, result.totalBytes);
+        assertEquals(sha256(body), result.sha256);
+        assertEquals(body.length, lastProgress.get());
+        assertArrayEquals(body, Files.readAllBytes(target.toPath()));
+        // One probe plus one request per segment.
+        assertEquals(5, resource.rangeRequests.get());
+    }
+
+    @Test
+    public void serverWithoutRanges_fallsBackToSingleStream() throws IOException {
+        byte[] body = TestHttpServer.randomBytes(300_000, 2);
+        TestHttpServer.Resource resource = server.serve("/plain.zip", body);
+        resource.ranges = false;
+        File target = new File(temp.getRoot(), "plain.zip");
+
+        SegmentedDownloader.Result result = downloader.download(request("/plain.zip", target),
+                (bytes, total) -> { }, new AtomicBoolean());
+
+        assertEquals(1, result.segments);
+        assertEquals(1, resource.requests.get());
+        assertEquals(sha256(body), result.sha256);
+        assertArrayEquals(body, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void rangesWithUnknownTotal_fallBackToSingleStream() throws IOException {
+        byte[] body = TestHttpServer.randomBytes(300_000, 9);
+        TestHttpServer.Resource resource = server.serve("/live.zip", body);
+        resource.unknownTotal = true;
+        File target = new File(temp.getRoot(), "live.zip");
+
+        SegmentedDownloader.Result result = downloader.download(request("/live.zip", target),
+                (bytes, total) -> { }, new AtomicBoolean());
+
+        assertEquals(1, result.segments);
+        assertEquals(sha256(body), result.sha256);
+        assertArrayEquals(body, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void smallFile_usesOneSegment() throws IOException {
+        byte[] body = TestHttpServer.randomBytes(1000, 3);
+        server.serve("/small.bin", body);
+        File target = new File(temp.getRoot(), "small.bin");
+
+        SegmentedDownloader.Result result = downloader.download(request("/small.bin", target),
+                (bytes, total) -> { }, new AtomicBoolean());
+
+        assertEquals(1, result.segments);
+        assertArrayEquals(body, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void droppedConnection_failsTheDownload() {
+        TestHttpServer.Resource resource = server.serve("/flaky.zip", TestHttpServer.randomBytes(500_000, 4));
+        resource.truncateAfter = 10_000;
+        File target = new File(temp.getRoot(), "flaky.zip");
+
+        try {
+            downloader.download(request("/flaky.zip", target), (bytes, total) -> { }, new AtomicBoolean());
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            // Partial ranges must not be reported as success.
+        }
+    }
+
+    @Test
+    public void interruptedDownload_resumesFromJournal() throws IOException {
+        byte[] body = TestHttpServer.randomBytes(1_000_000, 5);
+        TestHttpServer.Resource resource = server.serve("/resume.zip", body);
+        resource.etag = "\"v1\"";
+        resource.truncateAfter = 100_000;
+        File target = new File(temp.getRoot(), "resume.zip");
+
+        try {
+            downloader.download(request("/resume.zip", target), (bytes, total) -> { }, new AtomicBoolean());
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            // Segments stop at 100 KB each; whatever reached disk is journalled.
+        }
+        resource.truncateAfter = -1;
+        resource.servedRanges.clear();
+
+        SegmentedDownloader.Result result = downloader.download(request("/resume.zip", target),
+                (bytes, total) -> { }, new AtomicBoolean());
+
+        assertTrue(result.resumedBytes > 0 && result.resumedBytes < body.length);
+        assertEquals(sha256(body), result.sha256);
+        assertArrayEquals(body, Files.readAllBytes(target.toPath()));
+        for (String range : resource.servedRanges) {
+            if (!range.equals("bytes=0-0")) assertFalse(range, range.startsWith("bytes=0-"));
+        }
+        assertFalse(new File(temp.getRoot(), "journals").list().length > 0);
+    }
+
+    @Test
+    public void changedEntity_restartsFromZero() throws IOException {
+        TestHttpServer.Resource resource = server.serve("/changing.zip", TestHttpServer.randomBytes(1_000_000, 6));
+        resource.etag = "\"v1\"";
+        resource.truncateAfter = 100_000;
+        File target = new File(temp.getRoot(), "changing.zip");
+        try {
+            downloader.download(request("/changing.zip", target), (bytes, total) -> { }, new AtomicBoolean());
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            // Leaves a journal for "v1".
+        }
+
+        byte[] updated = TestHttpServer.randomBytes(1_000_000, 7);
+        resource.body = updated;
+        resource.etag = "\"v2\"";
+        resource.truncateAfter = -1;
+
+        SegmentedDownloader.Result result = downloader.download(request("/changing.zip", target),
+                (bytes, total) -> { }, new AtomicBoolean());
+
+        assertEquals(0, result.resumedBytes);
+        assertArrayEquals(updated, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void failedSegment_isRetried() throws IOException {
+        byte[] body = TestHttpServer.randomBytes(400_000, 8);
+        TestHttpServer.Resource resource = server.serve("/retry.zip", body);
+        resource.truncateAfter = 50_000;
+        File target = new File(temp.getRoot(), "retry.zip");
+        downloader.setRetryPolicy(20, 0);
+
+        // Every attempt moves each segment 50 KB further, so retries alone finish the file.
+        downloader.download(request("/retry.zip", target), (bytes, total) -> { }, new AtomicBoolean());
+
+        assertArrayEquals(body, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void missingFile_reportsHttpError() {
+        File target = new File(temp.getRoot(), "missing.zip");
+        try {
+            downloader.download(request("/missing.zip", target), (bytes, total) -> { }, new AtomicBoolean());
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("404"));
+        }
+    }
+
+    @Test
+    public void parseContentRangeTotal() {
+        assertEquals(12345, SegmentedDownloader.parseContentRangeTotal("bytes 0-0/12345"));
+        assertEquals(-1, SegmentedDownloader.parseContentRangeTotal("bytes 0-0/*"));
+        assertEquals(-1, SegmentedDownloader.parseContentRangeTotal(null));
+    }
+}
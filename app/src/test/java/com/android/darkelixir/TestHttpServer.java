@@ -0,0 +1,135 @@
+package com.android.darkelixir;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Local HTTP stand-in that serves in-memory files with or without Range support. */
+class TestHttpServer implements AutoCloseable {
+
+    static final class Resource {
+        volatile byte[] body;
+        volatile boolean ranges = true;
+        volatile String etag;
+        volatile String lastModified;
+        volatile String contentType = "application/octet-stream";
+        volatile String cacheControl;
+        /** Extra response headers sent on every response. */
+        final Map<String, String> headers = new ConcurrentHashMap<>();
+        /** When set, ranges report an unknown total ({@code bytes 0-0/*}), like a live stream. */
+        volatile boolean unknownTotal;
+        /** When non-negative, every response is cut off after this many body bytes. */
+        volatile long truncateAfter = -1;
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger rangeRequests = new AtomicInteger();
+        final AtomicInteger notModified = new AtomicInteger();
+        /** Range headers of requests that were answered with 206, in arrival order. */
+        final List<String> servedRanges = new CopyOnWriteArrayList<>();
+
+        Resource(byte[] body) {
+            this.body = body;
+        }
+    }
+
+    private final HttpServer server;
+    private final Map<String, Resource> resources = new ConcurrentHashMap<>();
+
+    TestHttpServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    Resource serve(String path, byte[] body) {
+        Resource resource = new Resource(body);
+        resources.put(path, resource);
+        return resource;
+    }
+
+    String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    static byte[] randomBytes(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new java.util.Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Resource resource = resources.get(exchange.getRequestURI().getPath());
+        if (resource == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        resource.requests.incrementAndGet();
+        byte[] body = resource.body;
+
+        if (resource.etag != null) exchange.getResponseHeaders().set("ETag", resource.etag);
+        if (resource.lastModified != null) exchange.getResponseHeaders().set("Last-Modified", resource.lastModified);
+        if (resource.cacheControl != null) exchange.getResponseHeaders().set("Cache-Control", resource.cacheControl);
+        exchange.getResponseHeaders().set("Content-Type", resource.contentType);
+        for (Map.Entry<String, String> header : resource.headers.entrySet()) {
+            exchange.getResponseHeaders().set(header.getKey(), header.getValue());
+        }
+
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch != null && ifNoneMatch.equals(resource.etag)) {
+            resource.notModified.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+
+        long start = 0;
+        long end = body.length - 1;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        boolean ifRangeMatches = ifRange == null || ifRange.equals(resource.etag) || ifRange.equals(resource.lastModified);
+        if (range != null && resource.ranges && ifRangeMatches && range.startsWith("bytes=")) {
+            resource.rangeRequests.incrementAndGet();
+            resource.servedRanges.add(range);
+            String[] parts = range.substring(6).split("-", -1);
+            start = Long.parseLong(parts[0]);
+            if (!parts[1].isEmpty()) end = Math.min(end, Long.parseLong(parts[1]));
+            status = 206;
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/"
+                    + (resource.unknownTotal ? "*" : String.valueOf(body.length)));
+        }
+        if (resource.ranges) exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+        long length = end - start + 1;
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+        long limit = resource.truncateAfter >= 0 ? Math.min(length, resource.truncateAfter) : length;
+        // A truncated response is sent chunked so the client sees a clean early EOF instead of
+        // waiting for its read timeout.
+        exchange.sendResponseHeaders(status, limit < length ? 0 : length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body, (int) start, (int) limit);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,60 @@
+package com.android.darkelixir;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ThumbnailDiskCacheTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private static byte[] bytes(int length, int fill) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) fill);
+        return data;
+    }
+
+    @Test
+    public void storedThumbnailsSurviveRestart() {
+        File dir = new File(temp.getRoot(), "thumbs");
+        new ThumbnailDiskCache(dir, 1000).put("a", bytes(10, 1));
+
+        ThumbnailDiskCache reopened = new ThumbnailDiskCache(dir, 1000);
+
+        assertArrayEquals(bytes(10, 1), reopened.get("a"));
+        assertEquals(10, reopened.size());
+        assertNull(reopened.get("b"));
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvictedFirst() {
+        ThumbnailDiskCache cache = new ThumbnailDiskCache(temp.getRoot(), 300);
+        cache.put("a", bytes(100, 1));
+        cache.put("b", bytes(100, 2));
+        cache.put("c", bytes(100, 3));
+        cache.get("a");
+
+        cache.put("d", bytes(100, 4));
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertEquals(300, cache.size());
+        assertFalse(new File(temp.getRoot(), "b").exists());
+    }
+
+    @Test
+    public void keyChangesWhenTheFileIsRewritten() {
+        EntryFormatter formatter = new EntryFormatter(extension -> "image/png");
+        String before = ThumbnailDiskCache.keyFor(formatter.create("/d/a.png", "a.png", 10, 1));
+
+        assertEquals(before, ThumbnailDiskCache.keyFor(formatter.create("/d/a.png", "a.png", 10, 1)));
+        assertNotEquals(before, ThumbnailDiskCache.keyFor(formatter.create("/d/a.png", "a.png", 12, 1)));
+        assertNotEquals(before, ThumbnailDiskCache.keyFor(formatter.create("/d/a.png", "a.png", 10, 2)));
+    }
+}
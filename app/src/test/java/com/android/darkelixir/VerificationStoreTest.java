@@ -0,0 +1,99 @@
+package com.android.darkelixir;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class VerificationStoreTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private VerificationStore newStore() {
+        return new VerificationStore(new File(temp.getRoot(), "verifications.bin"), Runnable::run, Runnable::run);
+    }
+
+    private static DownloadSnapshot finished(File file) {
+        return new DownloadSnapshot(Collections.singletonList(new DownloadStatus(
+                1, file.getPath(), DownloadStatus.STATE_SUCCESSFUL, file.length(), file.length())));
+    }
+
+    @Test
+    public void finishedZipIsHashedAndVerified() throws IOException {
+        File zip = ZipIntegrityTest.writeZip(temp.newFile("a.zip"), 5, null);
+        VerificationStore store = newStore();
+        List<String> changed = new ArrayList<>();
+        store.addListener(changed::add);
+
+        store.onSnapshot(finished(zip));
+
+        FileVerification result = store.get(zip.getPath());
+        assertEquals(FileVerification.STATE_VERIFIED, result.getState());
+        assertEquals(VerificationStore.sha256(zip), result.getSha256());
+        assertEquals(Arrays.asList(zip.getPath(), zip.getPath()), changed);
+    }
+
+    @Test
+    public void truncatedZipIsCorrupt() throws IOException {
+        File zip = ZipIntegrityTest.writeZip(temp.newFile("b.zip"), 5, null);
+        byte[] bytes = Files.readAllBytes(zip.toPath());
+        Files.write(zip.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+        VerificationStore store = newStore();
+
+        store.onSnapshot(finished(zip));
+
+        assertEquals(FileVerification.STATE_CORRUPT, store.get(zip.getPath()).getState());
+        assertNotNull(store.get(zip.getPath()).getDetail());
+    }
+
+    @Test
+    public void zipNamedFileThatIsNotAZipIsCorrupt() throws IOException {
+        File page = temp.newFile("d.zip");
+        Files.write(page.toPath(), "<html>Not found</html>".getBytes("UTF-8"));
+        VerificationStore store = newStore();
+
+        store.onSnapshot(finished(page));
+
+        assertEquals(FileVerification.STATE_CORRUPT, store.get(page.getPath()).getState());
+        assertEquals("Not a zip archive", store.get(page.getPath()).getDetail());
+    }
+
+    @Test
+    public void recordedChecksumIsNotRecomputed() throws IOException {
+        File file = temp.newFile("c.bin");
+        Files.write(file.toPath(), new byte[]{1, 2, 3});
+        VerificationStore store = newStore();
+
+        store.recordChecksum(file, "cafe");
+        store.onSnapshot(finished(file));
+
+        assertEquals(FileVerification.STATE_CHECKSUMMED, store.get(file.getPath()).getState());
+        assertEquals("cafe", store.get(file.getPath()).getSha256());
+    }
+
+    @Test
+    public void resultsSurviveRestartOnlyWhileFileIsUnchanged() throws IOException {
+        File kept = ZipIntegrityTest.writeZip(temp.newFile("kept.zip"), 2, null);
+        File changed = ZipIntegrityTest.writeZip(temp.newFile("changed.zip"), 2, null);
+        VerificationStore store = newStore();
+        store.onSnapshot(finished(kept));
+        store.onSnapshot(finished(changed));
+        Files.write(changed.toPath(), new byte[]{9});
+
+        VerificationStore restarted = newStore();
+        restarted.load();
+
+        assertEquals(FileVerification.STATE_VERIFIED, restarted.get(kept.getPath()).getState());
+        assertNull(restarted.get(changed.getPath()));
+    }
+}
@@ -0,0 +1,128 @@
+package com.android.darkelixir;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ZipDirectoryTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void entriesMatchTheJdkReader() throws IOException {
+        File zip = ZipIntegrityTest.writeZip(temp.newFile("a.zip"), 50, "comment");
+        try (ZipDirectory directory = ZipDirectory.open(zip); ZipFile reference = new ZipFile(zip)) {
+            assertEquals(reference.size(), directory.size());
+            // Random access before sequential access exercises the incremental index.
+            for (int i : new int[]{37, 0, 49, 12}) {
+                ZipDirectory.Entry entry = directory.entry(i);
+                ZipEntry expected = reference.getEntry(entry.name);
+                assertEquals("dir/entry" + i + ".txt", entry.name);
+                assertEquals(expected.getSize(), entry.size);
+                assertEquals(expected.getCompressedSize(), entry.compressedSize);
+                assertEquals(expected.getCrc(), entry.crc);
+            }
+            assertEquals(5, directory.page(45, 20).length);
+        }
+    }
+
+    @Test
+    public void extractsDeflatedAndStoredEntries() throws IOException {
+        File zip = temp.newFile("mixed.zip");
+        byte[] deflated = TestHttpServer.randomBytes(200_000, 1);
+        byte[] stored = TestHttpServer.randomBytes(5_000, 2);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            out.putNextEntry(new ZipEntry("deflated.bin"));
+            out.write(deflated);
+            ZipEntry storedEntry = new ZipEntry("stored.bin");
+            storedEntry.setMethod(ZipEntry.STORED);
+            storedEntry.setSize(stored.length);
+            CRC32 crc = new CRC32();
+            crc.update(stored);
+            storedEntry.setCrc(crc.getValue());
+            out.putNextEntry(storedEntry);
+            out.write(stored);
+        }
+
+        try (ZipDirectory directory = ZipDirectory.open(zip)) {
+            File first = new File(temp.getRoot(), "out/deflated.bin");
+            File second = new File(temp.getRoot(), "out/stored.bin");
+            assertEquals(deflated.length, directory.extract(directory.entry(0), first));
+            assertEquals(stored.length, directory.extract(directory.entry(1), second));
+            assertArrayEquals(deflated, Files.readAllBytes(first.toPath()));
+            assertArrayEquals(stored, Files.readAllBytes(second.toPath()));
+        }
+    }
+
+    @Test
+    public void corruptedDataFailsTheCrcCheck() throws IOException {
+        File zip = temp.newFile("crc.zip");
+        ZipEntry entry = new ZipEntry("stored.bin");
+        byte[] body = TestHttpServer.randomBytes(1000, 3);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(body.length);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        entry.setCrc(crc.getValue());
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            out.putNextEntry(entry);
+            out.write(body);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(zip, "rw")) {
+            file.seek(ZipDirectory.LOCAL_HEADER_SIZE + "stored.bin".length() + 10);
+            file.write(~body[10]);
+        }
+
+        try (ZipDirectory directory = ZipDirectory.open(zip); InputStream in = directory.open(directory.entry(0))) {
+            byte[] buffer = new byte[4096];
+            while (in.read(buffer) != -1) {
+                // Drain.
+            }
+            fail("Expected ZipException");
+        } catch (ZipException expected) {
+            assertTrue(expected.getMessage().contains("CRC"));
+        }
+    }
+
+    @Test
+    public void zip64ArchiveWithManyEntriesListsLazily() throws IOException {
+        File zip = temp.newFile("many.zip");
+        int count = 70_000; // Beyond the 16-bit entry count, so the writer emits zip64 end records.
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            for (int i = 0; i < count; i++) {
+                out.putNextEntry(new ZipEntry("e" + i));
+            }
+        }
+        try (ZipDirectory directory = ZipDirectory.open(zip)) {
+            assertEquals(count, directory.size());
+            assertEquals("e0", directory.entry(0).name);
+            assertEquals("e69999", directory.entry(count - 1).name);
+        }
+        ZipIntegrity.verify(zip);
+    }
+
+    @Test
+    public void unsafeNamesAreRejected() {
+        File root = new File(temp.getRoot(), "root");
+        assertNull(ZipDirectory.safeTarget(root, "../escape.txt"));
+        assertNull(ZipDirectory.safeTarget(root, "a/../../escape.txt"));
+        assertNull(ZipDirectory.safeTarget(root, "/etc/passwd"));
+        assertNull(ZipDirectory.safeTarget(root, "..\\escape.txt"));
+        assertEquals(new File(root, "a/b.txt"), ZipDirectory.safeTarget(root, "a/b.txt"));
+    }
+}
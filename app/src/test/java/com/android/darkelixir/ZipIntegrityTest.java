@@ -0,0 +1,77 @@
+package com.android.darkelixir;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ZipIntegrityTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    static File writeZip(File file, int entries, String comment) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < entries; i++) {
+                out.putNextEntry(new ZipEntry("dir/entry" + i + ".txt"));
+                out.write(TestHttpServer.randomBytes(1000 + i, i));
+                out.closeEntry();
+            }
+            if (comment != null) out.setComment(comment);
+        }
+        return file;
+    }
+
+    @Test
+    public void intactArchivePasses() throws IOException {
+        File zip = writeZip(temp.newFile("ok.zip"), 20, "a comment");
+        assertTrue(ZipIntegrity.looksLikeZip(zip));
+        ZipIntegrity.verify(zip);
+    }
+
+    @Test
+    public void truncatedArchiveFails() throws IOException {
+        File zip = writeZip(temp.newFile("cut.zip"), 20, null);
+        byte[] bytes = Files.readAllBytes(zip.toPath());
+        Files.write(zip.toPath(), Arrays.copyOf(bytes, bytes.length - 100));
+        try {
+            ZipIntegrity.verify(zip);
+            fail("Expected ZipException");
+        } catch (ZipException expected) {
+            // The end record is gone.
+        }
+    }
+
+    @Test
+    public void damagedLocalHeaderFails() throws IOException {
+        File zip = writeZip(temp.newFile("bad.zip"), 3, null);
+        try (RandomAccessFile file = new RandomAccessFile(zip, "rw")) {
+            file.seek(0);
+            file.writeInt(0);
+        }
+        try {
+            ZipIntegrity.verify(zip);
+            fail("Expected ZipException");
+        } catch (ZipException expected) {
+            assertTrue(expected.getMessage().contains("local header"));
+        }
+    }
+
+    @Test
+    public void nonZipIsRecognised() throws IOException {
+        File file = temp.newFile("plain.bin");
+        Files.write(file.toPath(), new byte[]{1, 2, 3, 4, 5});
+        assertFalse(ZipIntegrity.looksLikeZip(file));
+    }
+}
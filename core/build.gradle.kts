@@ -0,0 +1,28 @@
+// Plain JVM code shared with :app. It has no Android dependencies, so it can be unit tested and
+// benchmarked on a desktop JVM: ./gradlew :core:jmh
+plugins {
+    `java-library`
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    compileOnly(libs.annotation)
+    testImplementation(libs.junit)
+}
+
+jmh {
+    jmhVersion = libs.versions.jmh
+    benchmarkMode = listOf("thrpt")
+    timeUnit = "s"
+    fork = 1
+    warmupIterations = 3
+    iterations = 5
+    // The gc profiler adds gc.alloc.rate.norm, the bytes allocated per operation.
+    profilers = listOf("gc")
+    resultFormat = "JSON"
+}
@@ -0,0 +1,65 @@
+package com.android.darkelixir;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * A full scan of the download folder into a fresh index feeding the newest-first listing the UI
+ * shows, against a real temporary directory.
+ */
+@State(Scope.Benchmark)
+public class DirectoryListingBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int files;
+
+    private File dir;
+    private DirectoryIndex warm;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("listing-bench").toFile();
+        for (int i = 0; i < files; i++) {
+            File file = new File(dir, "file-" + i + (i % 3 == 0 ? ".zip" : ".bin"));
+            Files.write(file.toPath(), new byte[i % 64]);
+            file.setLastModified(1_700_000_000_000L + (i * 7919L % files) * 1000);
+        }
+        warm = new DirectoryIndex(dir, newFormatter());
+        warm.scan();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) child.delete();
+        }
+        dir.delete();
+    }
+
+    private static EntryFormatter newFormatter() {
+        return new EntryFormatter(extension -> "zip".equals(extension) ? "application/zip" : null);
+    }
+
+    @Benchmark
+    public PagedListing coldScanAndSort() {
+        PagedListing listing = new PagedListing(ListingQuery.NEWEST_FIRST, 200);
+        new DirectoryIndex(dir, newFormatter()).scan(listing::apply);
+        return listing;
+    }
+
+    /** A rescan that finds nothing changed, as after a spurious file-system event. */
+    @Benchmark
+    public DirectoryIndex.Delta warmRescan() {
+        return warm.scan();
+    }
+}
@@ -0,0 +1,45 @@
+package com.android.darkelixir;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Size, date and MIME formatting, done once per row when the index builds entries. */
+@State(Scope.Thread)
+public class EntryFormatterBenchmark {
+
+    private static final String[] NAMES = {"a.zip", "b.PDF", "c.mp4", "d", "e.tar.gz", "f.apk"};
+
+    private EntryFormatter formatter;
+    private long size = 1;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        formatter = new EntryFormatter(extension -> "zip".equals(extension) ? "application/zip" : null);
+    }
+
+    @Benchmark
+    public String formatSize() {
+        size = size * 7 % 9_000_000_000_000L + 1;
+        return formatter.formatSize(size);
+    }
+
+    @Benchmark
+    public String formatDate() {
+        return formatter.formatDate(1_700_000_000_000L + (next++ & 1023) * 86_400_000L);
+    }
+
+    @Benchmark
+    public String mimeType() {
+        return formatter.mimeType(NAMES[next++ % NAMES.length]);
+    }
+
+    @Benchmark
+    public DownloadEntry create() {
+        int i = next++;
+        return formatter.create("/sdcard/Download/DarkElixir/" + NAMES[i % NAMES.length],
+                NAMES[i % NAMES.length], i * 1031L, 1_700_000_000_000L + i);
+    }
+}
@@ -0,0 +1,55 @@
+package com.android.darkelixir;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** Name guessing as run by {@code onDownloadStart} for every download the page starts. */
+@State(Scope.Thread)
+public class FileNamesBenchmark {
+
+    private FileNames fileNames;
+
+    @Setup
+    public void setUp() {
+        Map<String, String> byExtension = new HashMap<>();
+        byExtension.put("zip", "application/zip");
+        byExtension.put("pdf", "application/pdf");
+        byExtension.put("bin", "application/octet-stream");
+        Map<String, String> byMime = new HashMap<>();
+        for (Map.Entry<String, String> e : byExtension.entrySet()) byMime.put(e.getValue(), e.getKey());
+        fileNames = new FileNames(new FileNames.MimeMap() {
+            @Override
+            public String extensionFor(String mimeType) {
+                return byMime.get(mimeType);
+            }
+
+            @Override
+            public String mimeTypeFor(String extension) {
+                return byExtension.get(extension);
+            }
+        });
+    }
+
+    @Benchmark
+    public String plainUrl() {
+        return fileNames.forDownload("https://cdn.example.com/packs/elixir-pack-v2.zip",
+                null, "application/zip");
+    }
+
+    @Benchmark
+    public String encodedUrlWithQuery() {
+        return fileNames.forDownload("https://cdn.example.com/get/Dark%20Elixir%20%28full%29?token=abc123&x=1",
+                null, "application/octet-stream");
+    }
+
+    @Benchmark
+    public String contentDisposition() {
+        return fileNames.forDownload("https://cdn.example.com/download?id=42",
+                "attachment; filename=\"season-7.zip\"", "application/zip");
+    }
+}
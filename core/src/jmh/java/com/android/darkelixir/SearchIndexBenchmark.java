@@ -0,0 +1,53 @@
+package com.android.darkelixir;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Name searches as typed into the download list's search box, against a populated index. */
+@State(Scope.Benchmark)
+public class SearchIndexBenchmark {
+
+    @Param({"10000", "50000"})
+    public int files;
+
+    private PagedListing listing;
+    private SearchIndex index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        EntryFormatter formatter = new EntryFormatter(extension -> "zip".equals(extension) ? "application/zip" : null);
+        listing = new PagedListing(ListingQuery.NEWEST_FIRST, 200);
+        index = new SearchIndex();
+        List<DownloadEntry> entries = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            String name = "Show S" + (i % 40) + "E" + (i % 997) + "-" + i + (i % 3 == 0 ? ".zip" : ".mkv");
+            DownloadEntry entry = formatter.create("/downloads/" + name, name, i, 1_700_000_000_000L + i);
+            index.put(entry);
+            entries.add(entry);
+        }
+        listing.apply(new DirectoryIndex.Delta(entries, new ArrayList<>(), new ArrayList<>()));
+    }
+
+    @Benchmark
+    public List<DownloadEntry> shortPrefix() {
+        return index.search("s1");
+    }
+
+    @Benchmark
+    public List<DownloadEntry> substring() {
+        return index.search("e99-");
+    }
+
+    /** A keystroke end to end: search, facet counts, sort and the first window. */
+    @Benchmark
+    public PagedListing.Update keystroke() {
+        return listing.setQuery(ListingQuery.NEWEST_FIRST.withSearch("s12 e5"));
+    }
+}
@@ -0,0 +1,57 @@
+package com.android.darkelixir;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Building a status snapshot and diffing it against the previous one, which the status store
+ * does on every poll while downloads are active.
+ */
+@State(Scope.Thread)
+public class SnapshotDiffBenchmark {
+
+    @Param({"10", "200"})
+    public int downloads;
+
+    private List<DownloadStatus> previousStatuses;
+    private List<DownloadStatus> currentStatuses;
+    private DownloadSnapshot previous;
+    private DownloadSnapshot current;
+
+    @Setup
+    public void setUp() {
+        previousStatuses = new ArrayList<>();
+        currentStatuses = new ArrayList<>();
+        for (int i = 0; i < downloads; i++) {
+            String path = "/sdcard/Download/DarkElixir/file-" + i + ".zip";
+            previousStatuses.add(new DownloadStatus(i, path, DownloadStatus.STATE_RUNNING, i * 1000L, 1_000_000));
+            // One download in four made progress since the last poll.
+            long progressed = i % 4 == 0 ? i * 1000L + 4096 : i * 1000L;
+            currentStatuses.add(new DownloadStatus(i, path, DownloadStatus.STATE_RUNNING, progressed, 1_000_000));
+        }
+        previous = new DownloadSnapshot(previousStatuses);
+        current = new DownloadSnapshot(currentStatuses);
+    }
+
+    @Benchmark
+    public DownloadSnapshot build() {
+        return new DownloadSnapshot(currentStatuses);
+    }
+
+    @Benchmark
+    public Set<String> diff() {
+        return current.changedPaths(previous);
+    }
+
+    @Benchmark
+    public boolean unchangedPoll() {
+        return current.equals(new DownloadSnapshot(currentStatuses));
+    }
+}
@@ -0,0 +1,161 @@
+package com.android.darkelixir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory index of one directory. Not thread-safe: {@link DirectoryIndexer} confines it to
+ * its background thread. Every mutation returns the {@link Delta} it caused. Listeners such as
+ * {@link PagedListing} keep their own references to the entries; see there for what that costs.
+ */
+public final class DirectoryIndex {
+
+    public static final class Delta {
+
+        public static final Delta EMPTY = new Delta(
+                Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+
+        public final List<DownloadEntry> added;
+        public final List<DownloadEntry> updated;
+        public final List<String> removed;
+
+        public Delta(List<DownloadEntry> added, List<DownloadEntry> updated, List<String> removed) {
+            this.added = Collections.unmodifiableList(added);
+            this.updated = Collections.unmodifiableList(updated);
+            this.removed = Collections.unmodifiableList(removed);
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && updated.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    public interface ChunkListener {
+        void onChunk(Delta delta);
+    }
+
+    // The first chunk is small so the list can show something at once; later ones grow so a huge
+    // folder costs few sorts downstream.
+    static final int FIRST_CHUNK = 128;
+    static final int MAX_CHUNK = 8192;
+
+    private final File dir;
+    private final EntryFormatter formatter;
+    private final Map<String, DownloadEntry> entries = new LinkedHashMap<>();
+
+    public DirectoryIndex(File dir, EntryFormatter formatter) {
+        this.dir = dir;
+        this.formatter = formatter;
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    /** Lists the whole directory and reports what differs from the current index. */
+    public Delta scan() {
+        List<DownloadEntry> added = new ArrayList<>();
+        List<DownloadEntry> updated = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        scan(chunk -> {
+            added.addAll(chunk.added);
+            updated.addAll(chunk.updated);
+            removed.addAll(chunk.removed);
+        });
+        return new Delta(added, updated, removed);
+    }
+
+    /**
+     * Streams the directory without materialising its listing and reports changes in chunks of
+     * growing size. Removals are only known once the listing is complete, so they arrive with the
+     * last chunk. A listing that fails part-way reports no removals.
+     */
+    public void scan(ChunkListener listener) {
+        List<DownloadEntry> added = new ArrayList<>();
+        List<DownloadEntry> updated = new ArrayList<>();
+        Set<String> present = new HashSet<>();
+        int chunkSize = FIRST_CHUNK;
+        boolean complete = true;
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath())) {
+            for (Path child : stream) {
+                String name = child.getFileName().toString();
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(child, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    continue; // Deleted while listing.
+                }
+                present.add(name);
+                apply(formatter.create(child.toAbsolutePath().toString(), name, attributes.size(),
+                        attributes.lastModifiedTime().toMillis()), added, updated);
+                if (added.size() + updated.size() >= chunkSize) {
+                    listener.onChunk(new Delta(added, updated, new ArrayList<>()));
+                    added = new ArrayList<>();
+                    updated = new ArrayList<>();
+                    chunkSize = Math.min(MAX_CHUNK, chunkSize * 2);
+                }
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            // A folder that is simply missing lists as empty, as File.listFiles() would.
+            complete = !dir.exists();
+        }
+
+        List<String> removed = new ArrayList<>();
+        if (complete) {
+            for (String name : new ArrayList<>(entries.keySet())) {
+                if (!present.contains(name)) {
+                    removed.add(entries.remove(name).getPath());
+                }
+            }
+        }
+        Delta last = new Delta(added, updated, removed);
+        if (!last.isEmpty()) listener.onChunk(last);
+    }
+
+    /** Re-stats a single child after a file system event. */
+    public Delta refresh(String name) {
+        List<DownloadEntry> added = new ArrayList<>();
+        List<DownloadEntry> updated = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+
+        File file = new File(dir, name);
+        if (file.exists()) {
+            apply(formatter.fromFile(file), added, updated);
+        } else {
+            DownloadEntry old = entries.remove(name);
+            if (old != null) removed.add(old.getPath());
+        }
+        return new Delta(added, updated, removed);
+    }
+
+    /** Current contents in discovery order. */
+    public List<DownloadEntry> entries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void apply(DownloadEntry entry, List<DownloadEntry> added, List<DownloadEntry> updated) {
+        DownloadEntry old = entries.put(entry.getName(), entry);
+        if (old == null) {
+            added.add(entry);
+        } else if (!old.equals(entry)) {
+            updated.add(entry);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.android.darkelixir;
+
+import java.io.File;
+
+/**
+ * Immutable row model for a file in the download folder. Stat data and display strings are
+ * produced once, on the index thread, by {@link EntryFormatter}; binding only assigns fields.
+ */
+public final class DownloadEntry {
+
+    private final String path;
+    private final String name;
+    private final long size;
+    private final long lastModified;
+    private final String displaySize;
+    private final String displayDate;
+    private final String mimeType;
+
+    public DownloadEntry(String path, String name, long size, long lastModified,
+                         String displaySize, String displayDate, String mimeType) {
+        this.path = path;
+        this.name = name;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.displaySize = displaySize;
+        this.displayDate = displayDate;
+        this.mimeType = mimeType;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public String getDisplaySize() {
+        return displaySize;
+    }
+
+    public String getDisplayDate() {
+        return displayDate;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public File getFile() {
+        return new File(path);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof DownloadEntry)) return false;
+        DownloadEntry other = (DownloadEntry) o;
+        return size == other.size && lastModified == other.lastModified && path.equals(other.path);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = path.hashCode();
+        result = 31 * result + Long.hashCode(size);
+        result = 31 * result + Long.hashCode(lastModified);
+        return result;
+    }
+}
@@ -0,0 +1,74 @@
+package com.android.darkelixir;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable result of one status query, indexed both by local path and by download id.
+ */
+public final class DownloadSnapshot {
+
+    public static final DownloadSnapshot EMPTY = new DownloadSnapshot(Collections.emptyList());
+
+    private final Map<String, DownloadStatus> byPath;
+    private final Map<Long, DownloadStatus> byId;
+
+    public DownloadSnapshot(Collection<DownloadStatus> statuses) {
+        Map<String, DownloadStatus> paths = new HashMap<>();
+        Map<Long, DownloadStatus> ids = new HashMap<>();
+        for (DownloadStatus status : statuses) {
+            ids.put(status.getId(), status);
+            if (status.getLocalPath() != null) {
+                paths.put(status.getLocalPath(), status);
+            }
+        }
+        this.byPath = Collections.unmodifiableMap(paths);
+        this.byId = Collections.unmodifiableMap(ids);
+    }
+
+    public DownloadStatus get(String localPath) {
+        return byPath.get(localPath);
+    }
+
+    public DownloadStatus getById(long id) {
+        return byId.get(id);
+    }
+
+    public Collection<DownloadStatus> all() {
+        return byId.values();
+    }
+
+    /** Local paths whose status differs between {@code previous} and this snapshot. */
+    public Set<String> changedPaths(DownloadSnapshot previous) {
+        Set<String> changed = new HashSet<>();
+        for (Map.Entry<String, DownloadStatus> entry : byPath.entrySet()) {
+            if (!entry.getValue().equals(previous.byPath.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        for (String path : previous.byPath.keySet()) {
+            if (!byPath.containsKey(path)) changed.add(path);
+        }
+        return changed;
+    }
+
+    public boolean isEmpty() {
+        return byId.isEmpty();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof DownloadSnapshot)) return false;
+        return byId.equals(((DownloadSnapshot) o).byId);
+    }
+
+    @Override
+    public int hashCode() {
+        return byId.hashCode();
+    }
+}
@@ -0,0 +1,105 @@
+package com.android.darkelixir;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Immutable view of one transfer as reported by a {@link DownloadBackend}.
+ */
+public final class DownloadStatus {
+
+    public static final int STATE_PENDING = 1;
+    public static final int STATE_RUNNING = 2;
+    public static final int STATE_PAUSED = 3;
+    public static final int STATE_SUCCESSFUL = 4;
+    public static final int STATE_FAILED = 5;
+
+    private final long id;
+    private final String localPath;
+    private final int state;
+    private final long bytesDownloaded;
+    private final long totalBytes;
+    private final String detail;
+
+    public DownloadStatus(long id, String localPath, int state, long bytesDownloaded, long totalBytes) {
+        this(id, localPath, state, bytesDownloaded, totalBytes, null);
+    }
+
+    public DownloadStatus(long id, String localPath, int state, long bytesDownloaded, long totalBytes,
+                          String detail) {
+        this.id = id;
+        this.localPath = localPath;
+        this.state = state;
+        this.bytesDownloaded = bytesDownloaded;
+        this.totalBytes = totalBytes;
+        this.detail = detail;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getLocalPath() {
+        return localPath;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    public long getBytesDownloaded() {
+        return bytesDownloaded;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /** Short description of what the transfer is doing right now, or null. */
+    public String getDetail() {
+        return detail;
+    }
+
+    public int getProgress() {
+        if (totalBytes <= 0) return 0;
+        return (int) ((bytesDownloaded * 100L) / totalBytes);
+    }
+
+    public boolean isActive() {
+        return state == STATE_PENDING || state == STATE_RUNNING || state == STATE_PAUSED;
+    }
+
+    public boolean isTerminal() {
+        return state == STATE_SUCCESSFUL || state == STATE_FAILED;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof DownloadStatus)) return false;
+        DownloadStatus other = (DownloadStatus) o;
+        return id == other.id
+                && state == other.state
+                && bytesDownloaded == other.bytesDownloaded
+                && totalBytes == other.totalBytes
+                && (localPath == null ? other.localPath == null : localPath.equals(other.localPath))
+                && (detail == null ? other.detail == null : detail.equals(other.detail));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Long.hashCode(id);
+        result = 31 * result + state;
+        result = 31 * result + Long.hashCode(bytesDownloaded);
+        result = 31 * result + Long.hashCode(totalBytes);
+        result = 31 * result + (localPath != null ? localPath.hashCode() : 0);
+        result = 31 * result + (detail != null ? detail.hashCode() : 0);
+        return result;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "DownloadStatus{id=" + id + ", state=" + state + ", " + bytesDownloaded + "/" + totalBytes
+                + ", path=" + localPath + "}";
+    }
+}
@@ -0,0 +1,72 @@
+package com.android.darkelixir;
+
+import java.io.File;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Builds {@link DownloadEntry} rows with their display strings resolved up front. Holds reusable
+ * formatters and a per-extension MIME cache, so it is not thread-safe; the indexer confines it to
+ * its own thread.
+ */
+public final class EntryFormatter {
+
+    public interface MimeResolver {
+        /** Returns the MIME type for a lower-case extension without the dot, or null. */
+        String mimeTypeFor(String extension);
+    }
+
+    static final String UNKNOWN_MIME = "Unknown";
+    private static final String[] UNITS = {"B", "KB", "MB", "GB", "TB"};
+
+    private final MimeResolver mimeResolver;
+    private final Map<String, String> mimeCache = new HashMap<>();
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("dd MMM yyyy", Locale.getDefault());
+    private final DecimalFormat sizeFormat = new DecimalFormat("0.0");
+    private final Date date = new Date();
+
+    public EntryFormatter(MimeResolver mimeResolver) {
+        this.mimeResolver = mimeResolver;
+    }
+
+    public DownloadEntry fromFile(File file) {
+        return create(file.getAbsolutePath(), file.getName(), file.length(), file.lastModified());
+    }
+
+    public DownloadEntry create(String path, String name, long size, long lastModified) {
+        return new DownloadEntry(path, name, size, lastModified,
+                formatSize(size), formatDate(lastModified), mimeType(name));
+    }
+
+    public String formatSize(long size) {
+        if (size <= 0) return "0 B";
+        int unit = 0;
+        double value = size;
+        while (value >= 1024 && unit < UNITS.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return sizeFormat.format(value) + " " + UNITS[unit];
+    }
+
+    public String formatDate(long timestamp) {
+        date.setTime(timestamp);
+        return dateFormat.format(date);
+    }
+
+    public String mimeType(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        String extension = dot >= 0 ? fileName.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+        String mime = mimeCache.get(extension);
+        if (mime == null) {
+            mime = extension.isEmpty() ? null : mimeResolver.mimeTypeFor(extension);
+            if (mime == null) mime = UNKNOWN_MIME;
+            mimeCache.put(extension, mime);
+        }
+        return mime;
+    }
+}
@@ -0,0 +1,104 @@
+package com.android.darkelixir;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Picks the local name for a download. {@link #guess} follows the rules of Android's
+ * {@code URLUtil.guessFileName} so names stay the same as before; {@link #forDownload} adds the
+ * app's own fix-up for zip archives that servers label as generic binaries.
+ */
+public final class FileNames {
+
+    public interface MimeMap {
+        /** Returns the extension, without the dot, for a MIME type, or null. */
+        String extensionFor(String mimeType);
+
+        /** Returns the MIME type for an extension without the dot, or null. */
+        String mimeTypeFor(String extension);
+    }
+
+    private static final Pattern CONTENT_DISPOSITION = Pattern.compile(
+            "attachment;\\s*filename\\s*=\\s*(\"?)([^\"]*)\\1\\s*$", Pattern.CASE_INSENSITIVE);
+
+    private final MimeMap mimeMap;
+
+    public FileNames(MimeMap mimeMap) {
+        this.mimeMap = mimeMap;
+    }
+
+    /** {@link #guess} plus a {@code .zip} extension for anything that looks like an archive. */
+    public String forDownload(String url, String contentDisposition, String mimeType) {
+        String name = guess(url, contentDisposition, mimeType);
+        if (url.contains(".zip") || "application/zip".equalsIgnoreCase(mimeType)) {
+            if (name.endsWith(".bin")) name = name.substring(0, name.length() - 4) + ".zip";
+            if (!name.endsWith(".zip")) name += ".zip";
+        }
+        return name;
+    }
+
+    public String guess(String url, String contentDisposition, String mimeType) {
+        String name = null;
+        if (contentDisposition != null) {
+            name = parseContentDisposition(contentDisposition);
+            if (name != null) name = name.substring(name.lastIndexOf('/') + 1);
+        }
+        if (name == null) {
+            String decoded = decode(url);
+            int query = decoded.indexOf('?');
+            if (query > 0) decoded = decoded.substring(0, query);
+            if (!decoded.endsWith("/")) {
+                int slash = decoded.lastIndexOf('/') + 1;
+                if (slash > 0) name = decoded.substring(slash);
+            }
+        }
+        if (name == null) name = "downloadfile";
+
+        String extension = null;
+        int dot = name.indexOf('.');
+        if (dot < 0) {
+            if (mimeType != null) {
+                extension = withDot(mimeMap.extensionFor(mimeType));
+            }
+            if (extension == null) {
+                if (mimeType != null && mimeType.toLowerCase(Locale.ROOT).startsWith("text/")) {
+                    extension = mimeType.equalsIgnoreCase("text/html") ? ".html" : ".txt";
+                } else {
+                    extension = ".bin";
+                }
+            }
+        } else {
+            if (mimeType != null) {
+                String typeFromExtension = mimeMap.mimeTypeFor(name.substring(name.lastIndexOf('.') + 1));
+                if (typeFromExtension != null && !typeFromExtension.equalsIgnoreCase(mimeType)) {
+                    extension = withDot(mimeMap.extensionFor(mimeType));
+                }
+            }
+            if (extension == null) extension = name.substring(dot);
+            name = name.substring(0, dot);
+        }
+        return name + extension;
+    }
+
+    static String parseContentDisposition(String contentDisposition) {
+        Matcher m = CONTENT_DISPOSITION.matcher(contentDisposition);
+        return m.find() ? m.group(2) : null;
+    }
+
+    /** Percent-decodes like {@code Uri.decode}: '+' stays literal and malformed escapes are kept. */
+    static String decode(String url) {
+        if (url.indexOf('%') < 0) return url;
+        try {
+            return URLDecoder.decode(url.replace("+", "%2B"), "UTF-8");
+        } catch (IllegalArgumentException | UnsupportedEncodingException e) {
+            return url;
+        }
+    }
+
+    private static String withDot(String extension) {
+        return extension != null ? "." + extension : null;
+    }
+}
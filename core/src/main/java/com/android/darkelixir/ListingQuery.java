@@ -0,0 +1,142 @@
+package com.android.darkelixir;
+
+import java.util.Comparator;
+import java.util.Objects;
+
+/**
+ * Sort order, type filter and name search for the download list. Immutable; the comparator is
+ * total (ties are broken by path) so a row's position can be found again by binary search.
+ */
+public final class ListingQuery {
+
+    public static final int SORT_NAME = 0;
+    public static final int SORT_SIZE = 1;
+    public static final int SORT_DATE = 2;
+
+    public static final int FILTER_ALL = 0;
+    public static final int FILTER_ARCHIVES = 1;
+    public static final int FILTER_DOCUMENTS = 2;
+    public static final int FILTER_MEDIA = 3;
+    public static final int FILTER_APPS = 4;
+
+    public static final ListingQuery NEWEST_FIRST = new ListingQuery(SORT_DATE, true, FILTER_ALL);
+
+    private static final String APK_MIME = "application/vnd.android.package-archive";
+
+    private final int sort;
+    private final boolean descending;
+    private final int filter;
+    private final String search;
+    private final String mimeType;
+    private final String[] terms;
+    private final Comparator<DownloadEntry> comparator;
+
+    public ListingQuery(int sort, boolean descending, int filter) {
+        this(sort, descending, filter, "", null);
+    }
+
+    /**
+     * @param search   name search text, see {@link SearchIndex}; empty for none
+     * @param mimeType exact MIME type facet, or null for any
+     */
+    public ListingQuery(int sort, boolean descending, int filter, String search, String mimeType) {
+        this.sort = sort;
+        this.descending = descending;
+        this.filter = filter;
+        this.search = search;
+        this.mimeType = mimeType;
+        this.terms = SearchIndex.terms(search);
+        this.comparator = buildComparator(sort, descending);
+    }
+
+    public ListingQuery withSearch(String newSearch) {
+        return new ListingQuery(sort, descending, filter, newSearch, mimeType);
+    }
+
+    public ListingQuery withMimeType(String newMimeType) {
+        return new ListingQuery(sort, descending, filter, search, newMimeType);
+    }
+
+    public int getSort() {
+        return sort;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public int getFilter() {
+        return filter;
+    }
+
+    public String getSearch() {
+        return search;
+    }
+
+    public boolean hasSearch() {
+        return terms.length > 0;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public Comparator<DownloadEntry> comparator() {
+        return comparator;
+    }
+
+    public boolean matches(DownloadEntry entry) {
+        return (mimeType == null || mimeType.equals(entry.getMimeType())) && matchesIgnoringMimeType(entry);
+    }
+
+    /** Everything but the MIME type facet; the entries that facet counts are taken over. */
+    public boolean matchesIgnoringMimeType(DownloadEntry entry) {
+        return matchesFilter(entry.getMimeType()) && SearchIndex.matches(entry.getName(), terms);
+    }
+
+    private boolean matchesFilter(String mime) {
+        switch (filter) {
+            case FILTER_ARCHIVES:
+                return mime.equals("application/zip") || mime.equals("application/gzip")
+                        || mime.equals("application/x-7z-compressed") || mime.equals("application/x-rar-compressed")
+                        || mime.equals("application/x-tar");
+            case FILTER_DOCUMENTS:
+                return mime.startsWith("text/") || mime.equals("application/pdf")
+                        || mime.equals("application/msword") || mime.startsWith("application/vnd.openxmlformats")
+                        || mime.startsWith("application/vnd.oasis.opendocument");
+            case FILTER_MEDIA:
+                return mime.startsWith("image/") || mime.startsWith("video/") || mime.startsWith("audio/");
+            case FILTER_APPS:
+                return mime.equals(APK_MIME);
+            default:
+                return true;
+        }
+    }
+
+    private static Comparator<DownloadEntry> buildComparator(int sort, boolean descending) {
+        Comparator<DownloadEntry> primary;
+        if (sort == SORT_SIZE) {
+            primary = Comparator.comparingLong(DownloadEntry::getSize);
+        } else if (sort == SORT_DATE) {
+            primary = Comparator.comparingLong(DownloadEntry::getLastModified);
+        } else {
+            primary = (a, b) -> a.getName().compareToIgnoreCase(b.getName());
+        }
+        if (descending) primary = primary.reversed();
+        return primary.thenComparing(DownloadEntry::getPath);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ListingQuery)) return false;
+        ListingQuery other = (ListingQuery) o;
+        return sort == other.sort && descending == other.descending && filter == other.filter
+                && search.equals(other.search) && Objects.equals(mimeType, other.mimeType);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(sort, descending, filter, search, mimeType);
+    }
+}
@@ -0,0 +1,295 @@
+package com.android.darkelixir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Sorted, filtered view of the download folder that hands the UI one window of rows at a time.
+ * Not thread-safe: the adapter confines it to a background thread, so sorting, filtering and
+ * position lookups never run on the main thread. Name searches go through a {@link SearchIndex}
+ * kept up to date with every delta. Every mutation returns an {@link Update} with the row
+ * operations it caused, a fresh copy of the current window and the MIME type facet counts.
+ *
+ * <p>Only the hand-off to the UI is paged. Every entry stays resident: the {@link DirectoryIndex}
+ * holds the folder, and this class holds the matching rows and a search index over all entries,
+ * which doubles as its lookup by path. All of them share the same {@link DownloadEntry} objects,
+ * so what is duplicated is bookkeeping: map nodes, list slots, row ids and trigram postings,
+ * roughly 400 bytes per file on top of the entry itself, or about 4 MB for 10,000 files. Paging from a
+ * database instead would cost a query on every scroll and sort change.
+ */
+public final class PagedListing {
+
+    /** Above this many row operations an update is reported as a reset instead. */
+    static final int MAX_OPS = 64;
+
+    public static final class Update {
+        public static final int INSERT = 0;
+        public static final int REMOVE = 1;
+        public static final int CHANGE = 2;
+
+        public static final Update EMPTY = new Update(0, false, false, new int[0], new long[0], 0,
+                new ArrayList<>(), new TreeMap<>());
+
+        public final int size;
+        /** The whole list changed; {@link #ops} is empty. */
+        public final boolean reset;
+        /** Only the window moved; rows in it should be rebound, nothing else changed. */
+        public final boolean windowMoved;
+        /** Pairs of (kind, position), to be applied in order. */
+        public final int[] ops;
+        /**
+         * Row id of every position, inside the window or not, so a placeholder already has the id
+         * its row keeps once loaded. Shared between updates; do not modify.
+         */
+        public final long[] ids;
+        public final int windowStart;
+        public final List<DownloadEntry> window;
+        /** Rows per MIME type among those matching everything but the MIME type facet. */
+        public final Map<String, Integer> facets;
+
+        Update(int size, boolean reset, boolean windowMoved, int[] ops, long[] ids, int windowStart,
+               List<DownloadEntry> window, Map<String, Integer> facets) {
+            this.size = size;
+            this.reset = reset;
+            this.windowMoved = windowMoved;
+            this.ops = ops;
+            this.ids = ids;
+            this.windowStart = windowStart;
+            this.window = Collections.unmodifiableList(window);
+            this.facets = Collections.unmodifiableMap(facets);
+        }
+
+        public boolean isEmpty() {
+            return !reset && !windowMoved && ops.length == 0;
+        }
+
+        public DownloadEntry get(int position) {
+            int offset = position - windowStart;
+            return offset >= 0 && offset < window.size() ? window.get(offset) : null;
+        }
+    }
+
+    private final int windowSize;
+    /** Every known entry, matching or not, by path. */
+    private final SearchIndex searchIndex = new SearchIndex();
+    private final List<DownloadEntry> rows = new ArrayList<>();
+    /** {@link #rowId} of each row, kept in step with {@link #rows} so each path is hashed once. */
+    private long[] rowIds = new long[16];
+    /** Copy of {@link #rowIds} handed out with updates until the rows change again. */
+    private long[] publishedIds = new long[0];
+    private boolean rowsChanged;
+    private final Map<String, Integer> facets = new TreeMap<>();
+    private ListingQuery query;
+    private int windowStart;
+
+    public PagedListing(ListingQuery query, int windowSize) {
+        this.query = query;
+        this.windowSize = windowSize;
+    }
+
+    public ListingQuery getQuery() {
+        return query;
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    public DownloadEntry get(int position) {
+        return rows.get(position);
+    }
+
+    /**
+     * Row id for the entry at {@code path}: a 64-bit FNV-1a hash, so ids survive re-sorts and
+     * filter changes without any per-path state, and collisions are negligible at folder scale.
+     */
+    static long rowId(String path) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < path.length(); i++) {
+            hash ^= path.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /** Re-sorts and re-filters everything known so far. */
+    public Update setQuery(ListingQuery newQuery) {
+        query = newQuery;
+        rebuild();
+        windowStart = 0;
+        return update(true, false, new int[0]);
+    }
+
+    /** Centres the window on {@code position}. */
+    public Update moveWindow(int position) {
+        windowStart = Math.max(0, Math.min(position - windowSize / 2, rows.size() - windowSize));
+        return update(false, true, new int[0]);
+    }
+
+    public Update remove(String path) {
+        List<String> removed = new ArrayList<>();
+        removed.add(path);
+        return apply(new DirectoryIndex.Delta(new ArrayList<>(), new ArrayList<>(), removed));
+    }
+
+    /**
+     * Applies an index delta. Small deltas move single rows by binary search; large ones, such as
+     * the chunks of a first scan, are merged with one sort.
+     */
+    public Update apply(DirectoryIndex.Delta delta) {
+        int changes = delta.added.size() + delta.updated.size() + delta.removed.size();
+        if (changes > MAX_OPS) {
+            for (String path : delta.removed) forget(path);
+            for (DownloadEntry entry : delta.added) remember(entry);
+            for (DownloadEntry entry : delta.updated) remember(entry);
+            merge(delta);
+            return update(true, false, new int[0]);
+        }
+
+        Ops ops = new Ops();
+        for (String path : delta.removed) {
+            DownloadEntry old = forget(path);
+            if (old != null) removeRow(old, ops);
+        }
+        for (DownloadEntry entry : delta.updated) put(entry, ops);
+        for (DownloadEntry entry : delta.added) put(entry, ops);
+        return update(false, false, ops.toArray());
+    }
+
+    private void put(DownloadEntry entry, Ops ops) {
+        DownloadEntry old = remember(entry);
+        int oldPosition = old != null ? removeRow(old, null) : -1;
+        if (!query.matches(entry)) {
+            if (oldPosition >= 0) ops.add(Update.REMOVE, oldPosition);
+            return;
+        }
+        int position = -Collections.binarySearch(rows, entry, query.comparator()) - 1;
+        rows.add(position, entry);
+        insertId(position, rowId(entry.getPath()));
+        if (oldPosition == position) {
+            ops.add(Update.CHANGE, position);
+        } else {
+            if (oldPosition >= 0) ops.add(Update.REMOVE, oldPosition);
+            ops.add(Update.INSERT, position);
+        }
+    }
+
+    /** Records an entry in the search index and the facet counts. */
+    private DownloadEntry remember(DownloadEntry entry) {
+        DownloadEntry old = searchIndex.get(entry.getPath());
+        if (old != null) count(old, -1);
+        count(entry, 1);
+        searchIndex.put(entry);
+        return old;
+    }
+
+    private DownloadEntry forget(String path) {
+        DownloadEntry old = searchIndex.get(path);
+        if (old != null) {
+            count(old, -1);
+            searchIndex.remove(path);
+        }
+        return old;
+    }
+
+    private void count(DownloadEntry entry, int delta) {
+        if (!query.matchesIgnoringMimeType(entry)) return;
+        int count = facets.getOrDefault(entry.getMimeType(), 0) + delta;
+        if (count > 0) {
+            facets.put(entry.getMimeType(), count);
+        } else {
+            facets.remove(entry.getMimeType());
+        }
+    }
+
+    private int removeRow(DownloadEntry entry, Ops ops) {
+        int position = Collections.binarySearch(rows, entry, query.comparator());
+        if (position < 0) return -1;
+        rows.remove(position);
+        System.arraycopy(rowIds, position + 1, rowIds, position, rows.size() - position);
+        rowsChanged = true;
+        if (ops != null) ops.add(Update.REMOVE, position);
+        return position;
+    }
+
+    private void merge(DirectoryIndex.Delta delta) {
+        if (!rows.isEmpty()) {
+            Set<String> gone = new HashSet<>(delta.removed);
+            for (DownloadEntry entry : delta.updated) gone.add(entry.getPath());
+            for (DownloadEntry entry : delta.added) gone.add(entry.getPath());
+            rows.removeIf(entry -> gone.contains(entry.getPath()));
+        }
+        for (DownloadEntry entry : delta.updated) {
+            if (query.matches(entry)) rows.add(entry);
+        }
+        for (DownloadEntry entry : delta.added) {
+            if (query.matches(entry)) rows.add(entry);
+        }
+        // The rows already in place form one sorted run, so this is close to a linear merge.
+        rows.sort(query.comparator());
+        hashAll();
+    }
+
+    private void rebuild() {
+        rows.clear();
+        facets.clear();
+        List<DownloadEntry> candidates = query.hasSearch() ? searchIndex.search(query.getSearch()) : searchIndex.entries();
+        for (DownloadEntry entry : candidates) {
+            count(entry, 1);
+            if (query.matches(entry)) rows.add(entry);
+        }
+        rows.sort(query.comparator());
+        hashAll();
+    }
+
+    private void insertId(int position, long id) {
+        if (rows.size() > rowIds.length) rowIds = Arrays.copyOf(rowIds, Math.max(16, rowIds.length * 2));
+        System.arraycopy(rowIds, position, rowIds, position + 1, rows.size() - 1 - position);
+        rowIds[position] = id;
+        rowsChanged = true;
+    }
+
+    private void hashAll() {
+        if (rows.size() > rowIds.length) rowIds = new long[rows.size()];
+        for (int i = 0; i < rows.size(); i++) rowIds[i] = rowId(rows.get(i).getPath());
+        rowsChanged = true;
+    }
+
+    private Update update(boolean reset, boolean windowMoved, int[] ops) {
+        windowStart = Math.max(0, Math.min(windowStart, rows.size() - windowSize));
+        int end = Math.min(rows.size(), windowStart + windowSize);
+        if (rowsChanged) {
+            publishedIds = Arrays.copyOf(rowIds, rows.size());
+            rowsChanged = false;
+        }
+        return new Update(rows.size(), reset, windowMoved, ops, publishedIds, windowStart,
+                new ArrayList<>(rows.subList(windowStart, end)), new TreeMap<>(facets));
+    }
+
+    private static final class Ops {
+        private int[] values = new int[8];
+        private int length;
+
+        void add(int kind, int position) {
+            if (length + 2 > values.length) {
+                int[] grown = new int[values.length * 2];
+                System.arraycopy(values, 0, grown, 0, length);
+                values = grown;
+            }
+            values[length++] = kind;
+            values[length++] = position;
+        }
+
+        int[] toArray() {
+            int[] result = new int[length];
+            System.arraycopy(values, 0, result, 0, length);
+            return result;
+        }
+    }
+}
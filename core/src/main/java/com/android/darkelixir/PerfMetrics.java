@@ -0,0 +1,224 @@
+package com.android.darkelixir;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and histograms for hot paths. Recording never locks or allocates:
+ * counters are {@link LongAdder}s and each histogram keeps its latest samples in a fixed ring.
+ * Percentiles are computed only when someone reads a {@link Summary}.
+ */
+public final class PerfMetrics {
+
+    // Hot-path metric names, so the recording sites and the debug screen agree.
+    public static final String ADAPTER_BIND = "adapter.bind_us";
+    public static final String DM_QUERY = "download_manager.query_us";
+    public static final String DIRECTORY_SCAN = "directory.scan_ms";
+    public static final String DOWNLOAD_TTFB = "download.ttfb_ms";
+    public static final String DOWNLOAD_THROUGHPUT = "download.throughput_kib_per_s";
+    public static final String PAGE_LOAD = "webview.page_load_ms";
+    public static final String LISTING_QUERY = "listing.query_us";
+    public static final String THUMBNAIL_DECODE = "thumbnail.decode_ms";
+    public static final String STORAGE_EVICTED_BYTES = "storage.evicted_bytes";
+    public static final String MEMORY_RELEASED_BYTES = "memory.released_bytes";
+
+    static final int DEFAULT_CAPACITY = 512;
+
+    private static final PerfMetrics GLOBAL = new PerfMetrics(System::currentTimeMillis);
+
+    public static PerfMetrics global() {
+        return GLOBAL;
+    }
+
+    public interface Clock {
+        long millis();
+    }
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long delta) {
+            value.add(delta);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    public static final class Histogram {
+        private final AtomicLongArray ring;
+        private final int mask;
+        private final AtomicLong cursor = new AtomicLong();
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+        Histogram(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+            ring = new AtomicLongArray(size);
+            mask = size - 1;
+        }
+
+        public void record(long value) {
+            ring.set((int) (cursor.getAndIncrement() & mask), value);
+            count.increment();
+            sum.add(value);
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // Another thread raised the maximum; compare again.
+            }
+        }
+
+        /**
+         * Percentiles over the samples still in the ring; count, mean and max cover every sample.
+         * Samples written while this runs may or may not be included.
+         */
+        public Summary summary() {
+            long written = cursor.get();
+            int n = (int) Math.min(written, ring.length());
+            long[] recent = new long[n];
+            for (int i = 0; i < n; i++) recent[i] = ring.get(i);
+            Arrays.sort(recent);
+            long total = count.sum();
+            return new Summary(total, total == 0 ? 0 : sum.sum() / (double) total,
+                    percentile(recent, 0.50), percentile(recent, 0.90), percentile(recent, 0.99),
+                    total == 0 ? 0 : max.get());
+        }
+
+        private static long percentile(long[] sorted, double q) {
+            if (sorted.length == 0) return 0;
+            return sorted[(int) Math.min(sorted.length - 1, Math.round(q * (sorted.length - 1)))];
+        }
+    }
+
+    public static final class Summary {
+        public final long count;
+        public final double mean;
+        public final long p50;
+        public final long p90;
+        public final long p99;
+        public final long max;
+
+        Summary(long count, double mean, long p50, long p90, long p99, long max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.max = max;
+        }
+    }
+
+    private final Clock clock;
+    private final long startedAt;
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    PerfMetrics(Clock clock) {
+        this.clock = clock;
+        this.startedAt = clock.millis();
+    }
+
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        return counter != null ? counter : counters.computeIfAbsent(name, k -> new Counter());
+    }
+
+    public Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        return histogram != null ? histogram
+                : histograms.computeIfAbsent(name, k -> new Histogram(DEFAULT_CAPACITY));
+    }
+
+    /** Shorthand for {@code histogram(name).record(value)}. */
+    public void record(String name, long value) {
+        histogram(name).record(value);
+    }
+
+    public long uptimeMillis() {
+        return clock.millis() - startedAt;
+    }
+
+    public Map<String, Long> counterValues() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, Counter> e : counters.entrySet()) values.put(e.getKey(), e.getValue().get());
+        return values;
+    }
+
+    public Map<String, Summary> summaries() {
+        Map<String, Summary> values = new TreeMap<>();
+        for (Map.Entry<String, Histogram> e : histograms.entrySet()) values.put(e.getKey(), e.getValue().summary());
+        return values;
+    }
+
+    /** Plain-text report for the debug screen. */
+    public String describe() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.US, "Uptime: %d s%n", uptimeMillis() / 1000));
+        for (Map.Entry<String, Long> e : counterValues().entrySet()) {
+            out.append(String.format(Locale.US, "%n%s: %d", e.getKey(), e.getValue()));
+        }
+        for (Map.Entry<String, Summary> e : summaries().entrySet()) {
+            Summary s = e.getValue();
+            out.append(String.format(Locale.US, "%n%s%n  n=%d mean=%.1f p50=%d p90=%d p99=%d max=%d",
+                    e.getKey(), s.count, s.mean, s.p50, s.p90, s.p99, s.max));
+        }
+        return out.toString();
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"timestamp_ms\":").append(clock.millis())
+                .append(",\"uptime_ms\":").append(uptimeMillis())
+                .append(",\"counters\":{");
+        boolean first = true;
+        for (Map.Entry<String, Long> e : counterValues().entrySet()) {
+            if (!first) json.append(',');
+            first = false;
+            appendString(json, e.getKey());
+            json.append(':').append(e.getValue());
+        }
+        json.append("},\"histograms\":{");
+        first = true;
+        for (Map.Entry<String, Summary> e : summaries().entrySet()) {
+            if (!first) json.append(',');
+            first = false;
+            Summary s = e.getValue();
+            appendString(json, e.getKey());
+            json.append(":{\"count\":").append(s.count)
+                    .append(",\"mean\":").append(String.format(Locale.US, "%.3f", s.mean))
+                    .append(",\"p50\":").append(s.p50)
+                    .append(",\"p90\":").append(s.p90)
+                    .append(",\"p99\":").append(s.p99)
+                    .append(",\"max\":").append(s.max)
+                    .append('}');
+        }
+        return json.append("}}").toString();
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,209 @@
+package com.android.darkelixir;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Incremental in-memory index over file names. Each search term of three or more characters
+ * matches anywhere in a name and is looked up through a trigram index; shorter terms match the
+ * start of a word ("ep" finds "Season1_Episode2.zip") through a sorted token map. A name must
+ * match every term. Not thread-safe; {@link PagedListing} confines it to its thread.
+ */
+public final class SearchIndex {
+
+    private static final String[] NO_TERMS = new String[0];
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final ArrayDeque<Integer> freeIds = new ArrayDeque<>();
+    private final Map<Long, IntList> trigrams = new HashMap<>();
+    private final TreeMap<String, IntList> tokens = new TreeMap<>();
+    private DownloadEntry[] docs = new DownloadEntry[64];
+
+    public int size() {
+        return ids.size();
+    }
+
+    /** The entry indexed under {@code path}, or null. */
+    public DownloadEntry get(String path) {
+        Integer id = ids.get(path);
+        return id != null ? docs[id] : null;
+    }
+
+    /** Every indexed entry, in no particular order. */
+    public List<DownloadEntry> entries() {
+        List<DownloadEntry> result = new ArrayList<>(ids.size());
+        for (int id : ids.values()) result.add(docs[id]);
+        return result;
+    }
+
+    /** Adds an entry, or replaces the one with the same path without re-indexing its name. */
+    public void put(DownloadEntry entry) {
+        Integer existing = ids.get(entry.getPath());
+        if (existing != null) {
+            docs[existing] = entry;
+            return;
+        }
+        int id = freeIds.isEmpty() ? ids.size() : freeIds.poll();
+        if (id >= docs.length) {
+            DownloadEntry[] grown = new DownloadEntry[docs.length * 2];
+            System.arraycopy(docs, 0, grown, 0, docs.length);
+            docs = grown;
+        }
+        docs[id] = entry;
+        ids.put(entry.getPath(), id);
+        String name = entry.getName().toLowerCase(Locale.ROOT);
+        for (long key : trigramKeys(name)) {
+            IntList list = trigrams.get(key);
+            if (list == null) trigrams.put(key, list = new IntList());
+            list.add(id);
+        }
+        for (String token : tokens(name)) {
+            IntList list = tokens.get(token);
+            if (list == null) tokens.put(token, list = new IntList());
+            list.add(id);
+        }
+    }
+
+    public void remove(String path) {
+        Integer id = ids.remove(path);
+        if (id == null) return;
+        String name = docs[id].getName().toLowerCase(Locale.ROOT);
+        for (long key : trigramKeys(name)) {
+            IntList list = trigrams.get(key);
+            list.remove(id);
+            if (list.size == 0) trigrams.remove(key);
+        }
+        for (String token : tokens(name)) {
+            IntList list = tokens.get(token);
+            list.remove(id);
+            if (list.size == 0) tokens.remove(token);
+        }
+        docs[id] = null;
+        freeIds.push(id);
+    }
+
+    /** Returns every indexed entry whose name matches all terms of {@code text}, in no particular order. */
+    public List<DownloadEntry> search(String text) {
+        String[] terms = terms(text);
+        List<DownloadEntry> results = new ArrayList<>();
+        if (terms.length == 0) return results;
+
+        // Candidates come from the most selective posting list; each is then checked exactly.
+        IntList shortest = null;
+        for (String term : terms) {
+            if (term.length() < 3) continue;
+            for (long key : trigramKeys(term)) {
+                IntList list = trigrams.get(key);
+                if (list == null) return results;
+                if (shortest == null || list.size < shortest.size) shortest = list;
+            }
+        }
+        if (shortest != null) {
+            for (int i = 0; i < shortest.size; i++) {
+                DownloadEntry entry = docs[shortest.values[i]];
+                if (matches(entry.getName(), terms)) results.add(entry);
+            }
+            return results;
+        }
+
+        String prefix = terms[0];
+        BitSet seen = new BitSet();
+        for (IntList list : tokens.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+            for (int i = 0; i < list.size; i++) {
+                int id = list.values[i];
+                if (seen.get(id)) continue;
+                seen.set(id);
+                if (matches(docs[id].getName(), terms)) results.add(docs[id]);
+            }
+        }
+        return results;
+    }
+
+    /** Splits a query into lower-case terms on white space. */
+    public static String[] terms(String text) {
+        String trimmed = text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+        return trimmed.isEmpty() ? NO_TERMS : trimmed.split("\\s+");
+    }
+
+    /** Whether {@code name} matches every term, by the same rules {@link #search} uses. */
+    public static boolean matches(String name, String[] terms) {
+        if (terms.length == 0) return true;
+        String lower = name.toLowerCase(Locale.ROOT);
+        List<String> nameTokens = null;
+        for (String term : terms) {
+            if (term.length() >= 3) {
+                if (!lower.contains(term)) return false;
+                continue;
+            }
+            if (nameTokens == null) nameTokens = tokens(lower);
+            boolean found = false;
+            for (String token : nameTokens) {
+                if (token.startsWith(term)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) return false;
+        }
+        return true;
+    }
+
+    /** Words of a lower-case name: runs of letters and digits. */
+    static List<String> tokens(String lower) {
+        List<String> result = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                String token = lower.substring(start, i);
+                if (!result.contains(token)) result.add(token);
+                start = -1;
+            }
+        }
+        return result;
+    }
+
+    private static Set<Long> trigramKeys(String lower) {
+        if (lower.length() < 3) return Collections.emptySet();
+        Set<Long> keys = new HashSet<>();
+        for (int i = 0; i + 3 <= lower.length(); i++) {
+            keys.add(((long) lower.charAt(i) << 32) | ((long) lower.charAt(i + 1) << 16) | lower.charAt(i + 2));
+        }
+        return keys;
+    }
+
+    /** Unordered set of ids; removal swaps in the last element. */
+    private static final class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            values[size++] = value;
+        }
+
+        void remove(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    values[i] = values[--size];
+                    return;
+                }
+            }
+        }
+    }
+}
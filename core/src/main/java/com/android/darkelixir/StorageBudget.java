@@ -0,0 +1,85 @@
+package com.android.darkelixir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Running size total of the download folder, kept from {@link DirectoryIndex} deltas rather than
+ * by re-reading file lengths, and the least-recently-used eviction plan that brings it back under
+ * a budget. A file's last access is the later of its modification time and the last time the
+ * user opened it. Not thread-safe; {@code StorageManager} confines it to its own thread.
+ */
+public final class StorageBudget {
+
+    private final Map<String, DownloadEntry> entries = new HashMap<>();
+    private final Map<String, Long> accessTimes = new HashMap<>();
+    private long totalBytes;
+
+    public void apply(DirectoryIndex.Delta delta) {
+        for (String path : delta.removed) {
+            DownloadEntry old = entries.remove(path);
+            if (old != null) totalBytes -= old.getSize();
+            accessTimes.remove(path);
+        }
+        for (DownloadEntry entry : delta.added) put(entry);
+        for (DownloadEntry entry : delta.updated) put(entry);
+    }
+
+    private void put(DownloadEntry entry) {
+        DownloadEntry old = entries.put(entry.getPath(), entry);
+        totalBytes += entry.getSize() - (old != null ? old.getSize() : 0);
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void recordAccess(String path, long timeMillis) {
+        Long previous = accessTimes.get(path);
+        if (previous == null || previous < timeMillis) accessTimes.put(path, timeMillis);
+    }
+
+    public long lastAccess(DownloadEntry entry) {
+        Long accessed = accessTimes.get(entry.getPath());
+        return accessed != null ? Math.max(accessed, entry.getLastModified()) : entry.getLastModified();
+    }
+
+    /** Recorded access times, for persisting. */
+    public Map<String, Long> accessTimes() {
+        return new HashMap<>(accessTimes);
+    }
+
+    /**
+     * Returns the files to delete, least recently used first, so the folder fits in
+     * {@code budgetBytes}. Files for which {@code keep} is true, such as pinned files or ones a
+     * download is still writing, are never chosen. A budget of zero or less means no limit. If
+     * the kept files alone exceed the budget the plan frees what it can.
+     */
+    public List<DownloadEntry> plan(long budgetBytes, Predicate<String> keep) {
+        if (budgetBytes <= 0 || totalBytes <= budgetBytes) return Collections.emptyList();
+        List<DownloadEntry> candidates = new ArrayList<>();
+        for (DownloadEntry entry : entries.values()) {
+            if (!keep.test(entry.getPath())) candidates.add(entry);
+        }
+        candidates.sort((a, b) -> {
+            int byAccess = Long.compare(lastAccess(a), lastAccess(b));
+            return byAccess != 0 ? byAccess : a.getPath().compareTo(b.getPath());
+        });
+        List<DownloadEntry> plan = new ArrayList<>();
+        long remaining = totalBytes;
+        for (DownloadEntry entry : candidates) {
+            if (remaining <= budgetBytes) break;
+            plan.add(entry);
+            remaining -= entry.getSize();
+        }
+        return plan;
+    }
+}
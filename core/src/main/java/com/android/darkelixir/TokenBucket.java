@@ -0,0 +1,74 @@
+package com.android.darkelixir;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide bandwidth limit shared by every transfer thread. Callers take tokens for the bytes
+ * they just read; when the bucket runs dry the balance goes negative and the caller sleeps until
+ * it is repaid, so concurrent readers queue up behind each other instead of bursting together.
+ * A rate of zero or less disables limiting.
+ */
+public final class TokenBucket {
+
+    public interface Sleeper {
+        void sleepNanos(long nanos) throws InterruptedException;
+    }
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    // One 64 KB read buffer, so a single read never has to wait for more than it is owed.
+    private static final long MIN_BURST_BYTES = 64 * 1024;
+
+    private final LongSupplier nanoClock;
+    private final Sleeper sleeper;
+    private long bytesPerSecond;
+    private long burstBytes;
+    private double tokens;
+    private long refilledAt;
+
+    public TokenBucket(long bytesPerSecond, LongSupplier nanoClock, Sleeper sleeper) {
+        this.nanoClock = nanoClock;
+        this.sleeper = sleeper;
+        this.refilledAt = nanoClock.getAsLong();
+        setRate(bytesPerSecond);
+        tokens = burstBytes;
+    }
+
+    public static TokenBucket systemClock(long bytesPerSecond) {
+        return new TokenBucket(bytesPerSecond, System::nanoTime,
+                nanos -> Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000)));
+    }
+
+    /** Changes the rate; a quarter second of traffic, or one read buffer, may burst through at once. */
+    public synchronized void setRate(long newBytesPerSecond) {
+        refill();
+        bytesPerSecond = newBytesPerSecond;
+        burstBytes = Math.max(MIN_BURST_BYTES, newBytesPerSecond / 4);
+        tokens = Math.min(tokens, burstBytes);
+    }
+
+    public synchronized long getRate() {
+        return bytesPerSecond;
+    }
+
+    /** Takes {@code bytes} tokens, sleeping first if that leaves the bucket in debt. */
+    public void acquire(long bytes) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            if (bytesPerSecond <= 0) return;
+            refill();
+            tokens -= bytes;
+            if (tokens >= 0) return;
+            waitNanos = (long) (-tokens * NANOS_PER_SECOND / bytesPerSecond);
+        }
+        sleeper.sleepNanos(waitNanos);
+    }
+
+    private void refill() {
+        long now = nanoClock.getAsLong();
+        long elapsed = now - refilledAt;
+        refilledAt = now;
+        if (bytesPerSecond > 0 && elapsed > 0) {
+            tokens = Math.min(burstBytes, tokens + (double) elapsed * bytesPerSecond / NANOS_PER_SECOND);
+        }
+    }
+}
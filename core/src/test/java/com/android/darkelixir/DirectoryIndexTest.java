@@ -0,0 +1,111 @@
+package com.android.darkelixir;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DirectoryIndexTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private DirectoryIndex index;
+
+    @Before
+    public void setUp() {
+        index = new DirectoryIndex(temp.getRoot(), new EntryFormatter(extension -> null));
+    }
+
+    private File write(String name, int bytes) throws IOException {
+        File file = new File(temp.getRoot(), name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[bytes]);
+        }
+        return file;
+    }
+
+    @Test
+    public void firstScanReportsEverythingAsAdded() throws IOException {
+        write("a.zip", 10);
+        write("b.apk", 20);
+
+        DirectoryIndex.Delta delta = index.scan();
+
+        assertEquals(2, delta.added.size());
+        assertTrue(delta.updated.isEmpty());
+        assertTrue(delta.removed.isEmpty());
+    }
+
+    @Test
+    public void rescanOfUnchangedFolderIsEmpty() throws IOException {
+        write("a.zip", 10);
+        index.scan();
+
+        assertTrue(index.scan().isEmpty());
+    }
+
+    @Test
+    public void refreshReportsSingleFileChanges() throws IOException {
+        File a = write("a.zip", 10);
+        index.scan();
+
+        write("b.zip", 5);
+        DirectoryIndex.Delta created = index.refresh("b.zip");
+        assertEquals("b.zip", created.added.get(0).getName());
+
+        write("a.zip", 99);
+        DirectoryIndex.Delta modified = index.refresh("a.zip");
+        assertEquals(99, modified.updated.get(0).getSize());
+
+        assertTrue(a.delete());
+        DirectoryIndex.Delta deleted = index.refresh("a.zip");
+        assertEquals(a.getAbsolutePath(), deleted.removed.get(0));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void refreshOfUnknownMissingFileIsEmpty() {
+        assertTrue(index.refresh("never-existed.zip").isEmpty());
+    }
+
+    @Test
+    public void largeFolderStreamsInGrowingChunks() throws IOException {
+        for (int i = 0; i < 1000; i++) write("f" + i + ".bin", 1);
+        List<DirectoryIndex.Delta> chunks = new ArrayList<>();
+
+        index.scan(chunks::add);
+
+        assertEquals(DirectoryIndex.FIRST_CHUNK, chunks.get(0).added.size());
+        assertEquals(2 * DirectoryIndex.FIRST_CHUNK, chunks.get(1).added.size());
+        int total = 0;
+        for (DirectoryIndex.Delta chunk : chunks) total += chunk.added.size();
+        assertEquals(1000, total);
+        assertEquals(1000, index.size());
+    }
+
+    @Test
+    public void removalsArriveWithTheLastChunk() throws IOException {
+        for (int i = 0; i < 300; i++) write("f" + i + ".bin", 1);
+        index.scan();
+        File gone = new File(temp.getRoot(), "f7.bin");
+        assertTrue(gone.delete());
+        write("new.bin", 1);
+        List<DirectoryIndex.Delta> chunks = new ArrayList<>();
+
+        index.scan(chunks::add);
+
+        assertEquals(1, chunks.size());
+        assertEquals(Collections.singletonList(gone.getAbsolutePath()), chunks.get(0).removed);
+        assertEquals("new.bin", chunks.get(0).added.get(0).getName());
+    }
+}
@@ -0,0 +1,48 @@
+package com.android.darkelixir;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class EntryFormatterTest {
+
+    private final Map<String, Integer> lookups = new HashMap<>();
+    private final EntryFormatter formatter = new EntryFormatter(extension -> {
+        lookups.merge(extension, 1, Integer::sum);
+        return "zip".equals(extension) ? "application/zip" : null;
+    });
+
+    @Test
+    public void formatSize_matchesPreviousOutput() {
+        assertEquals("0 B", formatter.formatSize(0));
+        assertEquals("512.0 B", formatter.formatSize(512).replace(',', '.'));
+        assertEquals("1.5 KB", formatter.formatSize(1536).replace(',', '.'));
+        assertEquals("15.0 MB", formatter.formatSize(15L * 1024 * 1024).replace(',', '.'));
+        assertEquals("2.0 TB", formatter.formatSize(2L << 40).replace(',', '.'));
+    }
+
+    @Test
+    public void mimeType_isResolvedOncePerExtension() {
+        assertEquals("application/zip", formatter.mimeType("a.zip"));
+        assertEquals("application/zip", formatter.mimeType("B.ZIP"));
+        assertEquals(EntryFormatter.UNKNOWN_MIME, formatter.mimeType("notes.xyz"));
+        assertEquals(EntryFormatter.UNKNOWN_MIME, formatter.mimeType("notes.xyz"));
+        assertEquals(EntryFormatter.UNKNOWN_MIME, formatter.mimeType("README"));
+
+        assertEquals(Integer.valueOf(1), lookups.get("zip"));
+        assertEquals(Integer.valueOf(1), lookups.get("xyz"));
+        assertFalse(lookups.containsKey(""));
+    }
+
+    @Test
+    public void create_precomputesDisplayFields() {
+        DownloadEntry entry = formatter.create("/d/a.zip", "a.zip", 2048, 0);
+
+        assertEquals("2.0 KB", entry.getDisplaySize().replace(',', '.'));
+        assertEquals(formatter.formatDate(0), entry.getDisplayDate());
+        assertEquals("application/zip", entry.getMimeType());
+    }
+}
@@ -0,0 +1,64 @@
+package com.android.darkelixir;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class FileNamesTest {
+
+    private final FileNames fileNames = new FileNames(new FileNames.MimeMap() {
+        private final Map<String, String> byExtension = new HashMap<>();
+
+        {
+            byExtension.put("zip", "application/zip");
+            byExtension.put("pdf", "application/pdf");
+            byExtension.put("bin", "application/octet-stream");
+        }
+
+        @Override
+        public String extensionFor(String mimeType) {
+            for (Map.Entry<String, String> e : byExtension.entrySet()) {
+                if (e.getValue().equals(mimeType)) return e.getKey();
+            }
+            return null;
+        }
+
+        @Override
+        public String mimeTypeFor(String extension) {
+            return byExtension.get(extension);
+        }
+    });
+
+    @Test
+    public void nameComesFromLastPathSegment() {
+        assertEquals("pack.zip", fileNames.guess("https://x.test/a/pack.zip?token=1", null, null));
+        assertEquals("Dark Elixir+1.pdf", fileNames.guess("https://x.test/Dark%20Elixir+1.pdf", null, null));
+    }
+
+    @Test
+    public void contentDispositionWins() {
+        assertEquals("season.zip", fileNames.guess("https://x.test/download?id=3",
+                "attachment; filename=\"dir/season.zip\"", "application/zip"));
+    }
+
+    @Test
+    public void extensionFollowsMimeType() {
+        assertEquals("report.pdf", fileNames.guess("https://x.test/report", null, "application/pdf"));
+        assertEquals("page.html", fileNames.guess("https://x.test/page", null, "text/html"));
+        assertEquals("notes.txt", fileNames.guess("https://x.test/notes", null, "text/plain"));
+        assertEquals("downloadfile.bin", fileNames.guess("https://x.test/", null, null));
+        // A known extension that contradicts the MIME type is replaced.
+        assertEquals("data.zip", fileNames.guess("https://x.test/data.pdf", null, "application/zip"));
+    }
+
+    @Test
+    public void zipDownloadsGetZipExtension() {
+        // The guessed "get.bin" is renamed because the URL mentions a zip.
+        assertEquals("get.zip", fileNames.forDownload("https://x.test/pack.zip/get", null, "application/octet-stream"));
+        assertEquals("get.zip", fileNames.forDownload("https://x.test/get", null, "application/zip"));
+        assertEquals("a.pdf", fileNames.forDownload("https://x.test/a.pdf", null, "application/pdf"));
+    }
+}
@@ -0,0 +1,153 @@
+package com.android.darkelixir;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PagedListingTest {
+
+    private final EntryFormatter formatter = new EntryFormatter(
+            extension -> "zip".equals(extension) ? "application/zip" : "pdf".equals(extension) ? "application/pdf" : null);
+
+    private DownloadEntry entry(String name, long size, long lastModified) {
+        return formatter.create("/downloads/" + name, name, size, lastModified);
+    }
+
+    private static DirectoryIndex.Delta added(DownloadEntry... entries) {
+        return new DirectoryIndex.Delta(new ArrayList<>(Arrays.asList(entries)), new ArrayList<>(), new ArrayList<>());
+    }
+
+    private static DirectoryIndex.Delta updated(DownloadEntry entry) {
+        return new DirectoryIndex.Delta(new ArrayList<>(), Collections.singletonList(entry), new ArrayList<>());
+    }
+
+    private static List<String> names(PagedListing listing) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < listing.size(); i++) names.add(listing.get(i).getName());
+        return names;
+    }
+
+    @Test
+    public void smallDeltasReportRowOperations() {
+        PagedListing listing = new PagedListing(new ListingQuery(ListingQuery.SORT_NAME, false, ListingQuery.FILTER_ALL), 10);
+        listing.apply(added(entry("a.zip", 1, 1), entry("c.zip", 1, 1)));
+
+        PagedListing.Update update = listing.apply(added(entry("b.zip", 1, 1)));
+
+        assertFalse(update.reset);
+        assertArrayEquals(new int[]{PagedListing.Update.INSERT, 1}, update.ops);
+        assertEquals(Arrays.asList("a.zip", "b.zip", "c.zip"), names(listing));
+
+        update = listing.remove("/downloads/a.zip");
+        assertArrayEquals(new int[]{PagedListing.Update.REMOVE, 0}, update.ops);
+        assertEquals(2, update.size);
+    }
+
+    @Test
+    public void updateThatChangesSortKeyMovesTheRow() {
+        PagedListing listing = new PagedListing(new ListingQuery(ListingQuery.SORT_SIZE, true, ListingQuery.FILTER_ALL), 10);
+        listing.apply(added(entry("a.zip", 300, 1), entry("b.zip", 200, 1), entry("c.zip", 100, 1)));
+
+        // Growing in place keeps the row where it is.
+        assertArrayEquals(new int[]{PagedListing.Update.CHANGE, 1},
+                listing.apply(updated(entry("b.zip", 250, 1))).ops);
+        // Overtaking the largest file moves it to the top.
+        assertArrayEquals(new int[]{PagedListing.Update.REMOVE, 2, PagedListing.Update.INSERT, 0},
+                listing.apply(updated(entry("c.zip", 400, 1))).ops);
+        assertEquals(Arrays.asList("c.zip", "a.zip", "b.zip"), names(listing));
+    }
+
+    @Test
+    public void filterHidesOtherTypes() {
+        PagedListing listing = new PagedListing(ListingQuery.NEWEST_FIRST, 10);
+        listing.apply(added(entry("a.zip", 1, 3), entry("b.pdf", 1, 2), entry("c.zip", 1, 1)));
+
+        PagedListing.Update update = listing.setQuery(
+                new ListingQuery(ListingQuery.SORT_DATE, true, ListingQuery.FILTER_ARCHIVES));
+
+        assertTrue(update.reset);
+        assertEquals(Arrays.asList("a.zip", "c.zip"), names(listing));
+        assertEquals(0, listing.apply(added(entry("d.pdf", 1, 4))).ops.length);
+        assertEquals(2, listing.size());
+    }
+
+    @Test
+    public void largeChunksAreMergedAsReset() {
+        PagedListing listing = new PagedListing(new ListingQuery(ListingQuery.SORT_NAME, false, ListingQuery.FILTER_ALL), 50);
+        List<DownloadEntry> first = new ArrayList<>();
+        List<DownloadEntry> second = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            (i % 2 == 0 ? first : second).add(entry(String.format("f%04d.zip", i), i, i));
+        }
+        listing.apply(added(first.toArray(new DownloadEntry[0])));
+
+        PagedListing.Update update = listing.apply(added(second.toArray(new DownloadEntry[0])));
+
+        assertTrue(update.reset);
+        assertEquals(1000, update.size);
+        for (int i = 0; i < 1000; i++) assertEquals(String.format("f%04d.zip", i), listing.get(i).getName());
+    }
+
+    @Test
+    public void onlyTheWindowIsHandedOut() {
+        PagedListing listing = new PagedListing(new ListingQuery(ListingQuery.SORT_SIZE, false, ListingQuery.FILTER_ALL), 20);
+        List<DownloadEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 500; i++) entries.add(entry("f" + i + ".zip", i, 0));
+        PagedListing.Update update = listing.apply(added(entries.toArray(new DownloadEntry[0])));
+        assertEquals(20, update.window.size());
+        assertNull(update.get(20));
+
+        update = listing.moveWindow(300);
+
+        assertTrue(update.windowMoved);
+        assertEquals(290, update.windowStart);
+        assertEquals("f300.zip", update.get(300).getName());
+        assertNull(update.get(289));
+        // Near the end the window stays full instead of running past the last row.
+        assertEquals(480, listing.moveWindow(499).windowStart);
+    }
+
+    @Test
+    public void rowsOutsideTheWindowAlreadyHaveTheIdTheyKeep() {
+        PagedListing listing = new PagedListing(new ListingQuery(ListingQuery.SORT_NAME, false, ListingQuery.FILTER_ALL), 2);
+        PagedListing.Update update = listing.apply(added(entry("a.zip", 1, 1), entry("c.zip", 1, 1), entry("d.zip", 1, 1)));
+        long d = update.ids[2];
+        assertNull(update.get(2));
+
+        update = listing.apply(added(entry("b.zip", 1, 1)));
+        assertEquals(d, update.ids[3]);
+        update = listing.remove("/downloads/a.zip");
+        assertEquals(d, update.ids[2]);
+
+        update = listing.moveWindow(2);
+        assertEquals("d.zip", update.get(2).getName());
+        assertEquals(d, update.ids[2]);
+        assertEquals(3, new HashSet<>(Arrays.asList(update.ids[0], update.ids[1], update.ids[2])).size());
+    }
+
+    @Test
+    public void searchNarrowsRowsAndCountsFacets() {
+        PagedListing listing = new PagedListing(new ListingQuery(ListingQuery.SORT_NAME, false, ListingQuery.FILTER_ALL), 10);
+        listing.apply(added(entry("report-2023.pdf", 1, 1), entry("report-2024.zip", 1, 1), entry("photos.zip", 1, 1)));
+
+        PagedListing.Update update = listing.setQuery(listing.getQuery().withSearch("report"));
+
+        assertEquals(Arrays.asList("report-2023.pdf", "report-2024.zip"), names(listing));
+        assertEquals(Integer.valueOf(1), update.facets.get("application/pdf"));
+        assertEquals(Integer.valueOf(1), update.facets.get("application/zip"));
+
+        // New files are searched as they arrive, and facet counts follow.
+        update = listing.apply(added(entry("report-2025.zip", 1, 1), entry("music.zip", 1, 1)));
+        assertArrayEquals(new int[]{PagedListing.Update.INSERT, 2}, update.ops);
+        assertEquals(Integer.valueOf(2), update.facets.get("application/zip"));
+
+        listing.setQuery(listing.getQuery().withMimeType("application/zip"));
+        assertEquals(Arrays.asList("report-2024.zip", "report-2025.zip"), names(listing));
+    }
+}
@@ -0,0 +1,72 @@
+package com.android.darkelixir;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class PerfMetricsTest {
+
+    private final AtomicLong now = new AtomicLong(10_000);
+    private final PerfMetrics metrics = new PerfMetrics(now::get);
+
+    @Test
+    public void percentilesCoverRecordedSamples() {
+        for (int i = 1; i <= 100; i++) metrics.record("bind", i);
+
+        PerfMetrics.Summary summary = metrics.histogram("bind").summary();
+
+        assertEquals(100, summary.count);
+        assertEquals(50.5, summary.mean, 1e-9);
+        assertEquals(51, summary.p50);
+        assertEquals(90, summary.p90);
+        assertEquals(99, summary.p99);
+        assertEquals(100, summary.max);
+    }
+
+    @Test
+    public void ringKeepsOnlyLatestSamplesForPercentiles() {
+        int total = PerfMetrics.DEFAULT_CAPACITY * 3;
+        for (int i = 0; i < total; i++) metrics.record("scan", i < total - PerfMetrics.DEFAULT_CAPACITY ? 1_000_000 : 5);
+
+        PerfMetrics.Summary summary = metrics.histogram("scan").summary();
+
+        assertEquals(total, summary.count);
+        assertEquals(5, summary.p99);
+        assertEquals(1_000_000, summary.max);
+    }
+
+    @Test
+    public void concurrentRecordingLosesNothing() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    metrics.record("query", 3);
+                    metrics.counter("polls").increment();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertEquals(40_000, metrics.histogram("query").summary().count);
+        assertEquals(40_000, metrics.counter("polls").get());
+    }
+
+    @Test
+    public void jsonExportListsCountersAndHistograms() {
+        now.addAndGet(2500);
+        metrics.counter("cache \"hits\"").add(3);
+        metrics.record(PerfMetrics.PAGE_LOAD, 120);
+
+        assertEquals("{\"timestamp_ms\":12500,\"uptime_ms\":2500,\"counters\":{\"cache \\\"hits\\\"\":3},"
+                        + "\"histograms\":{\"webview.page_load_ms\":{\"count\":1,\"mean\":120.000,"
+                        + "\"p50\":120,\"p90\":120,\"p99\":120,\"max\":120}}}",
+                metrics.toJson());
+    }
+}
@@ -0,0 +1,74 @@
+package com.android.darkelixir;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SearchIndexTest {
+
+    private final EntryFormatter formatter = new EntryFormatter(extension -> null);
+    private final SearchIndex index = new SearchIndex();
+
+    private void add(String... names) {
+        for (String name : names) index.put(formatter.create("/downloads/" + name, name, 1, 1));
+    }
+
+    private List<String> search(String text) {
+        List<String> names = new ArrayList<>();
+        for (DownloadEntry entry : index.search(text)) names.add(entry.getName());
+        Collections.sort(names);
+        return names;
+    }
+
+    @Test
+    public void longTermsMatchAnywhereInTheName() {
+        add("Season1_Episode2.zip", "episode-guide.pdf", "trailer.mp4");
+
+        assertEquals(Arrays.asList("Season1_Episode2.zip", "episode-guide.pdf"), search("SODE"));
+        assertEquals(Arrays.asList("Season1_Episode2.zip"), search("isode2"));
+        assertTrue(search("xyz").isEmpty());
+    }
+
+    @Test
+    public void shortTermsMatchWordPrefixes() {
+        add("Season1_Episode2.zip", "big.zip", "ebook.epub");
+
+        assertEquals(Arrays.asList("Season1_Episode2.zip", "ebook.epub"), search("ep"));
+        // "i" starts no word in "Season1_Episode2.zip" even though the name contains one.
+        assertEquals(Collections.emptyList(), search("i"));
+    }
+
+    @Test
+    public void everyTermMustMatch() {
+        add("linux-6.1.tar.gz", "linux-5.4.zip", "notes.txt");
+
+        assertEquals(Arrays.asList("linux-5.4.zip"), search("linux zip"));
+        assertEquals(Arrays.asList("linux-6.1.tar.gz"), search("lin 6"));
+    }
+
+    @Test
+    public void removedEntriesStopMatchingAndIdsAreReused() {
+        add("alpha.zip", "beta.zip");
+        index.remove("/downloads/alpha.zip");
+        add("alphabet.zip");
+
+        assertEquals(Arrays.asList("alphabet.zip"), search("alpha"));
+        assertEquals(2, index.size());
+        assertEquals(2, index.entries().size());
+        assertNull(index.get("/downloads/alpha.zip"));
+        assertEquals("alphabet.zip", index.get("/downloads/alphabet.zip").getName());
+    }
+
+    @Test
+    public void selectiveTrigramNarrowsManyEntries() {
+        for (int i = 0; i < 50_000; i++) add("file-" + i + (i % 2 == 0 ? ".zip" : ".bin"));
+
+        assertEquals(11, index.search("file-4242").size());
+        assertEquals(25_000, index.search("zip").size());
+    }
+}
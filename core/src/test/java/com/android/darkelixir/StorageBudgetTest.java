@@ -0,0 +1,75 @@
+package com.android.darkelixir;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StorageBudgetTest {
+
+    private final EntryFormatter formatter = new EntryFormatter(extension -> null);
+    private final StorageBudget budget = new StorageBudget();
+
+    private DownloadEntry entry(String name, long size, long lastModified) {
+        return formatter.create("/downloads/" + name, name, size, lastModified);
+    }
+
+    private static DirectoryIndex.Delta delta(List<DownloadEntry> added, List<DownloadEntry> updated, String... removed) {
+        return new DirectoryIndex.Delta(added, updated, new ArrayList<>(Arrays.asList(removed)));
+    }
+
+    private static List<String> names(List<DownloadEntry> entries) {
+        List<String> names = new ArrayList<>();
+        for (DownloadEntry entry : entries) names.add(entry.getName());
+        return names;
+    }
+
+    @Test
+    public void totalFollowsDeltas() {
+        budget.apply(delta(Arrays.asList(entry("a", 100, 1), entry("b", 50, 1)), Collections.emptyList()));
+        budget.apply(delta(Collections.emptyList(), Collections.singletonList(entry("a", 300, 2))));
+        budget.apply(delta(Collections.emptyList(), Collections.emptyList(), "/downloads/b", "/downloads/missing"));
+
+        assertEquals(300, budget.getTotalBytes());
+        assertEquals(1, budget.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedUntilUnderBudget() {
+        budget.apply(delta(Arrays.asList(entry("old", 400, 1_000), entry("mid", 400, 2_000), entry("new", 400, 3_000)),
+                Collections.emptyList()));
+        // Opening the oldest file makes it the most recently used.
+        budget.recordAccess("/downloads/old", 5_000);
+
+        assertEquals(Collections.singletonList("mid"), names(budget.plan(1_000, path -> false)));
+        assertEquals(Arrays.asList("mid", "new"), names(budget.plan(500, path -> false)));
+    }
+
+    @Test
+    public void keptFilesAreNeverPlanned() {
+        budget.apply(delta(Arrays.asList(entry("pinned", 900, 1), entry("other", 200, 2)), Collections.emptyList()));
+
+        assertEquals(Collections.singletonList("other"), names(budget.plan(100, "/downloads/pinned"::equals)));
+    }
+
+    @Test
+    public void withinBudgetOrUnlimitedPlansNothing() {
+        budget.apply(delta(Collections.singletonList(entry("a", 100, 1)), Collections.emptyList()));
+
+        assertTrue(budget.plan(100, path -> false).isEmpty());
+        assertTrue(budget.plan(0, path -> false).isEmpty());
+    }
+
+    @Test
+    public void accessTimesOfRemovedFilesAreForgotten() {
+        budget.apply(delta(Collections.singletonList(entry("a", 100, 1)), Collections.emptyList()));
+        budget.recordAccess("/downloads/a", 10);
+        budget.apply(delta(Collections.emptyList(), Collections.emptyList(), "/downloads/a"));
+
+        assertTrue(budget.accessTimes().isEmpty());
+    }
+}
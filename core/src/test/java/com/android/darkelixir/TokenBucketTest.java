@@ -0,0 +1,68 @@
+package com.android.darkelixir;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+
+    private long now;
+    private final List<Long> sleeps = new ArrayList<>();
+
+    private TokenBucket bucket(long bytesPerSecond) {
+        // Sleeping advances the simulated clock, as a real sleep would.
+        return new TokenBucket(bytesPerSecond, () -> now, nanos -> {
+            sleeps.add(nanos);
+            now += nanos;
+        });
+    }
+
+    @Test
+    public void burstPassesWithoutWaiting() throws InterruptedException {
+        TokenBucket bucket = bucket(1_000_000);
+
+        bucket.acquire(250_000);
+
+        assertTrue(sleeps.isEmpty());
+    }
+
+    @Test
+    public void sustainedReadsAreHeldToTheRate() throws InterruptedException {
+        TokenBucket bucket = bucket(1_000_000);
+        long start = now;
+
+        for (int i = 0; i < 40; i++) bucket.acquire(65_536);
+
+        double seconds = (now - start) / 1e9;
+        double rate = 40 * 65_536 / seconds;
+        assertEquals(1_000_000, rate, 120_000);
+    }
+
+    @Test
+    public void idleTimeRefillsOnlyUpToTheBurst() throws InterruptedException {
+        TokenBucket bucket = bucket(1_000_000);
+        now += 60_000_000_000L;
+
+        bucket.acquire(250_000);
+        assertTrue(sleeps.isEmpty());
+        bucket.acquire(250_000);
+
+        assertEquals(1, sleeps.size());
+        assertEquals(250_000_000L, (long) sleeps.get(0));
+    }
+
+    @Test
+    public void zeroRateDisablesLimiting() throws InterruptedException {
+        TokenBucket bucket = bucket(0);
+
+        bucket.acquire(Long.MAX_VALUE / 2);
+        bucket.setRate(0);
+        bucket.acquire(Long.MAX_VALUE / 2);
+
+        assertTrue(sleeps.isEmpty());
+        assertEquals(0, bucket.getRate());
+    }
+}
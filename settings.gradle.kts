@@ -21,3 +21,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "DarkElixir"
 include(":app")
+include(":core")